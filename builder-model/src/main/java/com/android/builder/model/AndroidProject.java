@@ -38,6 +38,9 @@ public interface AndroidProject {
     // Sent by Studio 2.4+. Additional model feature trigger on a case by case basis
     // Value is simply true to enable.
     String PROPERTY_BUILD_MODEL_FEATURE_FULL_DEPENDENCIES = "android.injected.build.model.feature.full.dependencies";
+    // The name of the variant selected in the IDE. When sent, only this variant is built with
+    // its dependencies, the other variants are built without them.
+    String PROPERTY_BUILD_MODEL_VARIANT = "android.injected.build.model.variant";
 
     // Sent by Studio 2.2+
     // This property will enable compatibility checks between Android Studio and the Android
@@ -132,6 +132,7 @@ public class DefaultProductFlavor extends BaseConfigImpl implements ProductFlavo
     @NonNull
     public ProductFlavor setApplicationId(String applicationId) {
         mApplicationId = applicationId;
+        markModified();
         return this;
     }
 
@@ -302,6 +303,7 @@ public class DefaultProductFlavor extends BaseConfigImpl implements ProductFlavo
     @NonNull
     public ProductFlavor setTestApplicationId(String applicationId) {
         mTestApplicationId = applicationId;
+        markModified();
         return this;
     }
 
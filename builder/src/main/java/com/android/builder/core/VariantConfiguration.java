@@ -28,6 +28,7 @@ import com.android.builder.dependency.level2.Dependency;
 import com.android.builder.dependency.level2.DependencyContainer;
 import com.android.builder.dependency.level2.EmptyContainer;
 import com.android.builder.dependency.level2.JavaDependency;
+import com.android.builder.internal.BaseConfigImpl;
 import com.android.builder.internal.ClassFieldImpl;
 import com.android.builder.model.AndroidLibrary;
 import com.android.builder.model.ApiVersion;
@@ -42,6 +43,9 @@ import com.android.sdklib.SdkVersionInfo;
 import com.android.utils.StringHelper;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
@@ -152,6 +156,12 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
      */
     private final Map<String, ClassField> mResValues = Maps.newTreeMap();
 
+    /**
+     * The values merged from the configurations of the variant, see {@link #getMergedValues()}.
+     */
+    @Nullable
+    private MergedValues mMergedValues;
+
     /**
      * Signing Override to be used instead of any signing config provided by Build Type or
      * Product Flavors.
@@ -549,6 +559,7 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
         mFlavorSourceProviders.add(sourceProvider);
         mFlavorDimensionNames.add(dimensionName);
         mMergedFlavor = DefaultProductFlavor.mergeFlavors(mMergedFlavor, productFlavor);
+        mMergedValues = null;
 
         return this;
     }
@@ -754,6 +765,15 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
      */
     @NonNull
     public String getApplicationId() {
+        MergedValues values = getMergedValues();
+        if (values.applicationId == null) {
+            values.applicationId = computeApplicationId();
+        }
+        return values.applicationId;
+    }
+
+    @NonNull
+    private String computeApplicationId() {
         String id;
 
         if (mType.isForTesting()) {
@@ -1914,6 +1934,7 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
     public void addBuildConfigField(@NonNull String type, @NonNull String name, @NonNull String value) {
         ClassField classField = new ClassFieldImpl(type, name, value);
         mBuildConfigFields.put(name, classField);
+        mMergedValues = null;
     }
 
     /**
@@ -1925,6 +1946,7 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
     public void addResValue(@NonNull String type, @NonNull String name, @NonNull String value) {
         ClassField classField = new ClassFieldImpl(type, name, value);
         mResValues.put(name, classField);
+        mMergedValues = null;
     }
 
     /**
@@ -1937,6 +1959,15 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
      */
     @NonNull
     public List<Object> getBuildConfigItems() {
+        MergedValues values = getMergedValues();
+        if (values.buildConfigItems == null) {
+            values.buildConfigItems = ImmutableList.copyOf(computeBuildConfigItems());
+        }
+        return values.buildConfigItems;
+    }
+
+    @NonNull
+    private List<Object> computeBuildConfigItems() {
         List<Object> fullList = Lists.newArrayList();
 
         // keep track of the names already added. This is because we show where the items
@@ -1983,6 +2014,11 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
      */
     @NonNull
     public Map<String, ClassField> getMergedBuildConfigFields() {
+        MergedValues values = getMergedValues();
+        if (values.buildConfigFields != null) {
+            return values.buildConfigFields;
+        }
+
         Map<String, ClassField> mergedMap = Maps.newHashMap();
 
         // start from the lowest priority and just add it all. Higher priority fields
@@ -1996,7 +2032,8 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
         mergedMap.putAll(mBuildType.getBuildConfigFields());
         mergedMap.putAll(mBuildConfigFields);
 
-        return mergedMap;
+        values.buildConfigFields = ImmutableMap.copyOf(mergedMap);
+        return values.buildConfigFields;
     }
 
     /**
@@ -2009,6 +2046,11 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
      */
     @NonNull
     public Map<String, ClassField> getMergedResValues() {
+        MergedValues values = getMergedValues();
+        if (values.resValues != null) {
+            return values.resValues;
+        }
+
         Map<String, ClassField> mergedMap = Maps.newHashMap();
 
         // start from the lowest priority and just add it all. Higher priority fields
@@ -2022,7 +2064,8 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
         mergedMap.putAll(mBuildType.getResValues());
         mergedMap.putAll(mResValues);
 
-        return mergedMap;
+        values.resValues = ImmutableMap.copyOf(mergedMap);
+        return values.resValues;
     }
 
     /**
@@ -2055,6 +2098,15 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
      */
     @NonNull
     public List<Object> getResValues() {
+        MergedValues values = getMergedValues();
+        if (values.resValueItems == null) {
+            values.resValueItems = ImmutableList.copyOf(computeResValues());
+        }
+        return values.resValueItems;
+    }
+
+    @NonNull
+    private List<Object> computeResValues() {
         List<Object> fullList = Lists.newArrayList();
 
         // keep track of the names already added. This is because we show where the items
@@ -2120,16 +2172,20 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
      */
     @NonNull
     public Set<File> getProguardFiles(boolean includeLibraries, List<File> defaultProguardConfig) {
-        Set<File> fullList = Sets.newLinkedHashSet();
+        MergedValues values = getMergedValues();
+        if (values.proguardFiles == null) {
+            // add the config files from the build type, main config and flavors
+            Set<File> projectList = Sets.newLinkedHashSet();
+            projectList.addAll(mDefaultConfig.getProguardFiles());
+            projectList.addAll(mBuildType.getProguardFiles());
 
-        // add the config files from the build type, main config and flavors
-        fullList.addAll(mDefaultConfig.getProguardFiles());
-        fullList.addAll(mBuildType.getProguardFiles());
-
-        for (F flavor : mFlavors) {
-            fullList.addAll(flavor.getProguardFiles());
+            for (F flavor : mFlavors) {
+                projectList.addAll(flavor.getProguardFiles());
+            }
+            values.proguardFiles = ImmutableSet.copyOf(projectList);
         }
 
+        Set<File> fullList = Sets.newLinkedHashSet(values.proguardFiles);
         if (fullList.isEmpty()) {
             fullList.addAll(defaultProguardConfig);
         }
@@ -2152,6 +2208,11 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
      */
     @NonNull
     public Set<File> getTestProguardFiles() {
+        MergedValues values = getMergedValues();
+        if (values.testProguardFiles != null) {
+            return values.testProguardFiles;
+        }
+
         Set<File> fullList = Sets.newLinkedHashSet();
 
         // add the config files from the build type, main config and flavors
@@ -2162,11 +2223,17 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
             fullList.addAll(flavor.getTestProguardFiles());
         }
 
-        return fullList;
+        values.testProguardFiles = ImmutableSet.copyOf(fullList);
+        return values.testProguardFiles;
     }
 
     @NonNull
     public List<Object> getConsumerProguardFiles() {
+        MergedValues values = getMergedValues();
+        if (values.consumerProguardFiles != null) {
+            return values.consumerProguardFiles;
+        }
+
         List<Object> fullList = Lists.newArrayList();
 
         // add the config files from the build type, main config and flavors
@@ -2177,7 +2244,8 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
             fullList.addAll(flavor.getConsumerProguardFiles());
         }
 
-        return fullList;
+        values.consumerProguardFiles = ImmutableList.copyOf(fullList);
+        return values.consumerProguardFiles;
     }
 
     public boolean isTestCoverageEnabled() {
@@ -2306,6 +2374,71 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
         return jarjarRuleFiles.build();
     }
 
+    /**
+     * Returns the values merged from the default config, the flavors, the build type and the
+     * variant-specific values, which are computed on first use and kept until one of them
+     * changes.
+     *
+     * <p>The configurations report their changes through {@link BaseConfigImpl#markModified()}.
+     * If one of them is not a {@link BaseConfigImpl}, the values are computed on every call.
+     */
+    @NonNull
+    private MergedValues getMergedValues() {
+        long stamp = getModificationStamp();
+        if (stamp < 0) {
+            return new MergedValues(stamp);
+        }
+        MergedValues values = mMergedValues;
+        if (values == null || values.stamp != stamp) {
+            values = new MergedValues(stamp);
+            mMergedValues = values;
+        }
+        return values;
+    }
+
+    /**
+     * Returns a number that increases each time one of the configurations of the variant is
+     * changed, or -1 if the changes of a configuration are not known.
+     */
+    private long getModificationStamp() {
+        // the counters only increase, so their sum increases whenever any of them does.
+        long stamp = 0;
+        for (Object config : Iterables.concat(
+                ImmutableList.of(mDefaultConfig, mBuildType, mMergedFlavor), mFlavors)) {
+            if (!(config instanceof BaseConfigImpl)) {
+                return -1;
+            }
+            stamp += ((BaseConfigImpl) config).getModificationCount();
+        }
+        if (mTestedConfig != null) {
+            long testedStamp = mTestedConfig.getModificationStamp();
+            if (testedStamp < 0) {
+                return -1;
+            }
+            stamp += testedStamp;
+        }
+        return stamp;
+    }
+
+    /**
+     * Values merged from the configurations of the variant. Each value is computed on first use.
+     */
+    private static final class MergedValues {
+        private final long stamp;
+        @Nullable private String applicationId;
+        @Nullable private Map<String, ClassField> buildConfigFields;
+        @Nullable private Map<String, ClassField> resValues;
+        @Nullable private List<Object> buildConfigItems;
+        @Nullable private List<Object> resValueItems;
+        @Nullable private Set<File> proguardFiles;
+        @Nullable private Set<File> testProguardFiles;
+        @Nullable private List<Object> consumerProguardFiles;
+
+        private MergedValues(long stamp) {
+            this.stamp = stamp;
+        }
+    }
+
     @NonNull
     private ManifestAttributeSupplier getManifestAttributeSupplier(){
         if (mManifestAttributeSupplier == null){
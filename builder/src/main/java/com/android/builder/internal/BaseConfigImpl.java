@@ -55,12 +55,32 @@ public abstract class BaseConfigImpl implements Serializable, BaseConfig {
     @NonNull
     private List<File> mJarJarRuleFiles = Lists.newArrayList();
 
+    /** The number of changes made to this configuration, see {@link #getModificationCount()}. */
+    private transient int mModificationCount = 0;
+
+    /**
+     * Returns a number that is incremented each time this configuration is changed, so that the
+     * values merged from it can be kept until it changes.
+     *
+     * <p>Changes made to the collections returned by the getters are only counted if they are
+     * followed by a call to {@link #markModified()}.
+     */
+    public int getModificationCount() {
+        return mModificationCount;
+    }
+
+    /** Records a change of this configuration. */
+    public void markModified() {
+        mModificationCount++;
+    }
+
     /**
      * @see #getApplicationIdSuffix()
      */
     @NonNull
     public BaseConfigImpl setApplicationIdSuffix(@Nullable String applicationIdSuffix) {
         mApplicationIdSuffix = applicationIdSuffix;
+        markModified();
         return this;
     }
 
@@ -82,6 +102,7 @@ public abstract class BaseConfigImpl implements Serializable, BaseConfig {
     @NonNull
     public BaseConfigImpl setVersionNameSuffix(@Nullable String versionNameSuffix) {
         mVersionNameSuffix = versionNameSuffix;
+        markModified();
         return this;
     }
 
@@ -102,12 +123,15 @@ public abstract class BaseConfigImpl implements Serializable, BaseConfig {
      */
     public void addBuildConfigField(@NonNull ClassField field) {
         mBuildConfigFields.put(field.getName(), field);
+        markModified();
     }
 
     /**
      * Adds a generated resource value.
      */
-    public void addResValue(@NonNull ClassField field) { mResValues.put(field.getName(), field);
+    public void addResValue(@NonNull ClassField field) {
+        mResValues.put(field.getName(), field);
+        markModified();
     }
 
     /**
@@ -115,6 +139,7 @@ public abstract class BaseConfigImpl implements Serializable, BaseConfig {
      */
     public void addResValues(@NonNull Map<String, ClassField> values) {
         mResValues.putAll(values);
+        markModified();
     }
 
     /**
@@ -131,6 +156,7 @@ public abstract class BaseConfigImpl implements Serializable, BaseConfig {
      */
     public void addBuildConfigFields(@NonNull Map<String, ClassField> fields) {
         mBuildConfigFields.putAll(fields);
+        markModified();
     }
 
     /**
@@ -203,6 +229,7 @@ public abstract class BaseConfigImpl implements Serializable, BaseConfig {
      */
     public void addManifestPlaceholders(@NonNull Map<String, Object> manifestPlaceholders) {
         mManifestPlaceholders.putAll(manifestPlaceholders);
+        markModified();
     }
 
     /**
@@ -214,6 +241,7 @@ public abstract class BaseConfigImpl implements Serializable, BaseConfig {
     public void setManifestPlaceholders(@NonNull Map<String, Object> manifestPlaceholders) {
         mManifestPlaceholders.clear();
         this.mManifestPlaceholders.putAll(manifestPlaceholders);
+        markModified();
     }
 
     protected void _initWith(@NonNull BaseConfig that) {
@@ -241,6 +269,7 @@ public abstract class BaseConfigImpl implements Serializable, BaseConfig {
         mMultiDexKeepProguard = that.getMultiDexKeepProguard();
 
         mJarJarRuleFiles = that.getJarJarRuleFiles();
+        markModified();
     }
 
     private void setBuildConfigFields(@NonNull Map<String, ClassField> fields) {
@@ -27,6 +27,7 @@ import com.android.builder.internal.aapt.AaptUtils;
 import com.android.builder.internal.aapt.AbstractProcessExecutionAapt;
 import com.android.builder.model.AaptOptions;
 import com.android.builder.png.QueuedCruncher;
+import com.android.builder.utils.FileCache;
 import com.android.ide.common.internal.PngException;
 import com.android.ide.common.process.ProcessExecutor;
 import com.android.ide.common.process.ProcessInfoBuilder;
@@ -151,6 +152,37 @@ public class AaptV1 extends AbstractProcessExecutionAapt implements QueueableRes
             @NonNull ILogger logger,
             @NonNull PngProcessMode processMode,
             int cruncherProcesses) {
+        this(
+                processExecutor,
+                processOutputHandler,
+                buildToolInfo,
+                logger,
+                processMode,
+                cruncherProcesses,
+                null);
+    }
+
+    /**
+     * Creates a new entry point to the original {@code aapt}.
+     *
+     * @param processExecutor the executor for external processes
+     * @param processOutputHandler the handler to process the executed process' output
+     * @param buildToolInfo the build tools to use
+     * @param logger logger to use
+     * @param processMode the process mode to run {@code aapt} on
+     * @param cruncherProcesses if using build tools that support crunching processes, how many
+     * processes to use at most; if set to {@code 0}, the default number will be used
+     * @param buildCache the build cache to store the crunched PNGs in, or {@code null} to not
+     * cache them
+     */
+    public AaptV1(
+            @NonNull ProcessExecutor processExecutor,
+            @NonNull ProcessOutputHandler processOutputHandler,
+            @NonNull BuildToolInfo buildToolInfo,
+            @NonNull ILogger logger,
+            @NonNull PngProcessMode processMode,
+            int cruncherProcesses,
+            @Nullable FileCache buildCache) {
         super(processExecutor, processOutputHandler);
 
         mBuildToolInfo = buildToolInfo;
@@ -166,7 +198,8 @@ public class AaptV1 extends AbstractProcessExecutionAapt implements QueueableRes
                 QueuedCruncher.Builder.INSTANCE.newCruncher(
                         getAaptExecutablePath(),
                         logger,
-                        cruncherProcesses);
+                        cruncherProcesses,
+                        buildCache);
     }
 
     @Override
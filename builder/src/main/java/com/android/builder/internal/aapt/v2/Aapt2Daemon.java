@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.aapt.v2;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.internal.aapt.AaptException;
+import com.android.ide.common.process.ProcessException;
+import com.android.ide.common.process.ProcessOutput;
+import com.android.ide.common.process.ProcessOutputHandler;
+import com.android.utils.ILogger;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived {@code aapt2} process in server mode, which serves one request at a time.
+ *
+ * <p>The process is started with the {@code m} command and prints {@code Ready} when it accepts
+ * requests. A request is a command letter, followed by its arguments, one per line, and an empty
+ * line. The response is framed by a {@code Done} line; an {@code Error} line before it marks the
+ * request as failed, and the other lines are its messages. The standard error of the process is
+ * merged into its standard output so that the messages of a request stay in its frame, and they
+ * are passed to the {@link ProcessOutputHandler} of the request as its error output.
+ *
+ * <p>The output of the process is read by a separate thread, so that a process that stops
+ * responding is killed after a timeout instead of blocking its caller forever.
+ */
+final class Aapt2Daemon {
+
+    /**
+     * Time to wait for the process to exit after being asked to quit.
+     */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    @NonNull private final String mAapt2Path;
+    @NonNull private final Process mProcess;
+    @NonNull private final Writer mWriter;
+    @NonNull private final ILogger mLogger;
+    private final long mResponseTimeoutMillis;
+
+    /** Lines of the output of the process, then an empty value when the output ends. */
+    @NonNull private final BlockingQueue<Optional<String>> mOutput = new LinkedBlockingQueue<>();
+
+    private Aapt2Daemon(
+            @NonNull String aapt2Path,
+            @NonNull Process process,
+            @NonNull ILogger logger,
+            long responseTimeoutMillis) {
+        mAapt2Path = aapt2Path;
+        mProcess = process;
+        mLogger = logger;
+        mResponseTimeoutMillis = responseTimeoutMillis;
+        mWriter = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+        Thread reader = new Thread(this::readOutput, "aapt2-daemon-output");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Starts a new process and waits until it is ready to accept requests.
+     *
+     * @param aapt2Path the path of the {@code aapt2} executable
+     * @param logger the logger to use
+     * @param responseTimeoutMillis time after which a process that did not answer a request, or
+     *     did not get ready, is killed
+     * @throws IOException failed to start the process, or the process exited or timed out before
+     *     being ready
+     */
+    @NonNull
+    static Aapt2Daemon start(
+            @NonNull String aapt2Path, @NonNull ILogger logger, long responseTimeoutMillis)
+            throws IOException {
+        Process process = new ProcessBuilder(aapt2Path, "m").redirectErrorStream(true).start();
+        Aapt2Daemon daemon = new Aapt2Daemon(aapt2Path, process, logger, responseTimeoutMillis);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(responseTimeoutMillis);
+        List<String> output = new ArrayList<>();
+        String line;
+        while ((line = daemon.readLine(deadline)) != null) {
+            if (line.equals("Ready")) {
+                logger.verbose("Started aapt2 daemon %1$d", daemon.hashCode());
+                return daemon;
+            }
+            output.add(line);
+        }
+        process.destroy();
+        throw new IOException(
+                String.format(
+                        "The aapt2 daemon at '%1$s' exited before being ready:\n%2$s",
+                        aapt2Path,
+                        Joiner.on('\n').join(output)));
+    }
+
+    /**
+     * Runs a compile request.
+     *
+     * @param args the arguments of {@code aapt2 compile}, without the {@code compile} command
+     * @param processOutputHandler the handler of the messages of the request, as the messages of
+     *     an {@code aapt2 compile} process
+     * @throws AaptException aapt2 failed to compile, the daemon can still be used
+     * @throws IOException the daemon crashed, cannot be reached or did not respond in time, it
+     *     must not be used anymore
+     */
+    void compile(@NonNull List<String> args, @NonNull ProcessOutputHandler processOutputHandler)
+            throws AaptException, IOException {
+        // check all the arguments first, so that a rejected request is not partly sent.
+        for (String arg : args) {
+            Preconditions.checkArgument(
+                    arg.indexOf('\n') < 0, "Invalid argument with a line break: %s", arg);
+        }
+        mWriter.write("c\n");
+        for (String arg : args) {
+            mWriter.write(arg);
+            mWriter.write('\n');
+        }
+        mWriter.write('\n');
+        mWriter.flush();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mResponseTimeoutMillis);
+        boolean error = false;
+        List<String> messages = new ArrayList<>();
+        String line;
+        while ((line = readLine(deadline)) != null) {
+            if (line.equals("Done")) {
+                handleMessages(messages, processOutputHandler);
+                if (error) {
+                    throw new AaptException(
+                            "aapt2 compile failed for {0}, see the messages above",
+                            Iterables.getLast(args, ""));
+                }
+                return;
+            } else if (line.equals("Error")) {
+                error = true;
+            } else {
+                messages.add(line);
+            }
+        }
+        throw new IOException(
+                String.format(
+                        "The aapt2 daemon at '%1$s' exited while compiling:\n%2$s",
+                        mAapt2Path,
+                        Joiner.on('\n').join(messages)));
+    }
+
+    /**
+     * Passes the messages of a request to the handler as the error output of a process, which is
+     * where {@code aapt2} prints them.
+     */
+    private static void handleMessages(
+            @NonNull List<String> messages, @NonNull ProcessOutputHandler processOutputHandler)
+            throws AaptException, IOException {
+        ProcessOutput output = processOutputHandler.createOutput();
+        try {
+            OutputStream errorOutput = output.getErrorOutput();
+            for (String message : messages) {
+                errorOutput.write((message + '\n').getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            output.close();
+        }
+        try {
+            processOutputHandler.handleOutput(output);
+        } catch (ProcessException e) {
+            throw new AaptException(e, "Failed to process the output of aapt2");
+        }
+    }
+
+    boolean isAlive() {
+        return mProcess.isAlive();
+    }
+
+    /**
+     * Returns the next line of the output of the process, or null if the output ended. The
+     * process is killed if no line comes before the deadline.
+     *
+     * @param deadline the deadline, as a {@link System#nanoTime()} value
+     * @throws IOException the deadline passed, or the thread was interrupted
+     */
+    @Nullable
+    private String readLine(long deadline) throws IOException {
+        Optional<String> line;
+        try {
+            line = mOutput.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            destroy();
+            throw new InterruptedIOException("Interrupted while waiting for the aapt2 daemon");
+        }
+        if (line == null) {
+            destroy();
+            throw new IOException(
+                    String.format(
+                            "The aapt2 daemon at '%1$s' did not respond in %2$d ms",
+                            mAapt2Path,
+                            mResponseTimeoutMillis));
+        }
+        return line.orElse(null);
+    }
+
+    /** Queues the lines of the output of the process until it ends. */
+    private void readOutput() {
+        try (BufferedReader reader =
+                new BufferedReader(
+                        new InputStreamReader(
+                                mProcess.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                mOutput.add(Optional.of(line));
+            }
+        } catch (IOException e) {
+            // the process was killed.
+        }
+        mOutput.add(Optional.empty());
+    }
+
+    /**
+     * Asks the process to quit, and kills it if it does not exit in time.
+     */
+    void shutdown() throws InterruptedException {
+        try {
+            mWriter.write("quit\n");
+            mWriter.flush();
+        } catch (IOException e) {
+            // the process has already exited.
+        }
+        if (!mProcess.waitFor(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            mLogger.warning("Killing aapt2 daemon %1$d", hashCode());
+            mProcess.destroyForcibly();
+        }
+    }
+
+    /**
+     * Kills the process, after it crashed or stopped responding.
+     */
+    void destroy() {
+        mProcess.destroyForcibly();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.aapt.v2;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.builder.internal.aapt.AaptException;
+import com.android.builder.tasks.Job;
+import com.android.builder.tasks.JobContext;
+import com.android.builder.tasks.QueueThreadContext;
+import com.android.builder.tasks.Task;
+import com.android.builder.tasks.WorkQueue;
+import com.android.ide.common.process.ProcessOutputHandler;
+import com.android.utils.ILogger;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of {@link Aapt2Daemon} processes serving the compile requests of all the builds of this
+ * JVM for an {@code aapt2} executable.
+ *
+ * <p>The pool starts with a single daemon and grows with the queued requests, up to the maximum
+ * number of daemons. Daemons above the first one are shut down after being idle for a while, and
+ * a daemon that crashed or did not respond in time is restarted for the next request.
+ */
+public class Aapt2DaemonPool {
+
+    /**
+     * Default maximum number of daemons of a pool.
+     */
+    private static final int DEFAULT_MAX_DAEMONS =
+            Integer.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Time after which an idle daemon above the first one is shut down.
+     */
+    private static final long DAEMON_KEEP_ALIVE_MS = 60_000;
+
+    /**
+     * Time after which a daemon that did not answer a request is killed.
+     */
+    private static final long DEFAULT_RESPONSE_TIMEOUT_MS = 120_000;
+
+    // use an enum to ensure singleton.
+    public enum Builder {
+        INSTANCE;
+
+        private final Map<String, Aapt2DaemonPool> sInstances = new ConcurrentHashMap<>();
+
+        /**
+         * Returns the pool of the given {@code aapt2} executable, creating it if needed.
+         *
+         * @param aapt2Path the path of the {@code aapt2} executable
+         * @param logger the logger to use
+         * @param maxDaemons maximum number of daemons; {@code 0} to use the default number, only
+         * used when the pool is created
+         * @return the pool
+         */
+        @NonNull
+        public Aapt2DaemonPool getPool(
+                @NonNull String aapt2Path, @NonNull ILogger logger, int maxDaemons) {
+            return sInstances.computeIfAbsent(
+                    aapt2Path,
+                    path ->
+                            new Aapt2DaemonPool(
+                                    path,
+                                    logger,
+                                    maxDaemons > 0 ? maxDaemons : DEFAULT_MAX_DAEMONS,
+                                    DEFAULT_RESPONSE_TIMEOUT_MS));
+        }
+    }
+
+    @NonNull private final String mAapt2Path;
+    @NonNull private final ILogger mLogger;
+    private final long mResponseTimeoutMillis;
+    @NonNull private final WorkQueue<Aapt2Daemon> mRequests;
+
+    @VisibleForTesting
+    Aapt2DaemonPool(
+            @NonNull String aapt2Path,
+            @NonNull ILogger logger,
+            int maxDaemons,
+            long responseTimeoutMillis) {
+        mAapt2Path = aapt2Path;
+        mLogger = logger;
+        mResponseTimeoutMillis = responseTimeoutMillis;
+        QueueThreadContext<Aapt2Daemon> queueThreadContext =
+                new QueueThreadContext<Aapt2Daemon>() {
+
+                    // daemon of each working thread.
+                    @NonNull
+                    private final Map<String, Aapt2Daemon> mDaemons = new ConcurrentHashMap<>();
+
+                    @Override
+                    public void creation(@NonNull Thread t) {
+                        try {
+                            mDaemons.put(
+                                    t.getName(),
+                                    Aapt2Daemon.start(
+                                            mAapt2Path, mLogger, mResponseTimeoutMillis));
+                        } catch (IOException e) {
+                            // started again, and reported, by the first request.
+                            mLogger.verbose("Thread(%1$s): %2$s", t.getName(), e.getMessage());
+                        }
+                    }
+
+                    @Override
+                    public void runTask(@NonNull Job<Aapt2Daemon> job) {
+                        String threadName = Thread.currentThread().getName();
+                        Aapt2Daemon daemon = mDaemons.get(threadName);
+                        if (daemon == null || !daemon.isAlive()) {
+                            mLogger.verbose("Thread(%1$s): restarting aapt2 daemon", threadName);
+                            try {
+                                daemon =
+                                        Aapt2Daemon.start(
+                                                mAapt2Path, mLogger, mResponseTimeoutMillis);
+                            } catch (IOException e) {
+                                mDaemons.remove(threadName);
+                                job.error(e);
+                                return;
+                            }
+                            mDaemons.put(threadName, daemon);
+                        }
+                        try {
+                            job.runTask(new JobContext<>(daemon));
+                        } catch (IOException e) {
+                            // the daemon crashed or did not respond, it is replaced before the
+                            // next request.
+                            daemon.destroy();
+                            mDaemons.remove(threadName);
+                            job.error(e);
+                        } catch (RuntimeException e) {
+                            // invalid request, which the daemon did not get, or failure to handle
+                            // its messages: the daemon can still be used, and this thread too.
+                            job.error(e);
+                        }
+                    }
+
+                    @Override
+                    public void destruction(@NonNull Thread t) throws InterruptedException {
+                        Aapt2Daemon daemon = mDaemons.remove(t.getName());
+                        if (daemon != null) {
+                            daemon.shutdown();
+                        }
+                    }
+
+                    @Override
+                    public void shutdown() {
+                        for (Aapt2Daemon daemon : mDaemons.values()) {
+                            daemon.destroy();
+                        }
+                        mDaemons.clear();
+                    }
+                };
+        mRequests =
+                WorkQueue.adaptive(
+                        mLogger,
+                        queueThreadContext,
+                        "aapt2-daemon",
+                        1,
+                        maxDaemons,
+                        DAEMON_KEEP_ALIVE_MS);
+    }
+
+    /**
+     * Queues a compile request.
+     *
+     * @param args the arguments of {@code aapt2 compile}, without the {@code compile} command
+     * @param outputFile the file produced by the request
+     * @param processOutputHandler the handler of the messages of the request
+     * @return a future for the output file
+     */
+    @NonNull
+    public ListenableFuture<File> compile(
+            @NonNull List<String> args,
+            @NonNull File outputFile,
+            @NonNull ProcessOutputHandler processOutputHandler) {
+        SettableFuture<File> result = SettableFuture.create();
+        ImmutableList<String> arguments = ImmutableList.copyOf(args);
+        Job<Aapt2Daemon> job =
+                new Job<>(
+                        "aapt2 " + outputFile.getName(),
+                        new Task<Aapt2Daemon>() {
+                            @Override
+                            public void run(
+                                    @NonNull Job<Aapt2Daemon> job,
+                                    @NonNull JobContext<Aapt2Daemon> context)
+                                    throws IOException {
+                                Aapt2Daemon daemon = context.getPayload();
+                                if (daemon == null) {
+                                    job.error(new IOException("No aapt2 daemon"));
+                                    return;
+                                }
+                                try {
+                                    daemon.compile(arguments, processOutputHandler);
+                                    job.finished();
+                                } catch (AaptException e) {
+                                    job.error(e);
+                                }
+                            }
+
+                            @Override
+                            public void finished() {
+                                result.set(outputFile);
+                            }
+
+                            @Override
+                            public void error(@Nullable Exception e) {
+                                result.setException(
+                                        e instanceof AaptException
+                                                ? e
+                                                : new AaptException(
+                                                        e,
+                                                        "Failed to compile with the aapt2 daemon "
+                                                                + "at {0}",
+                                                        mAapt2Path));
+                            }
+
+                            @Override
+                            public String toString() {
+                                return MoreObjects.toStringHelper(this)
+                                        .add("args", arguments)
+                                        .toString();
+                            }
+                        },
+                        result);
+        try {
+            mRequests.push(job);
+        } catch (InterruptedException e) {
+            // Restore the interrupted status
+            Thread.currentThread().interrupt();
+            result.setException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Shuts down the daemons. The pool starts new daemons if it gets new requests.
+     */
+    public void shutdown() throws InterruptedException {
+        mRequests.shutdown();
+    }
+}
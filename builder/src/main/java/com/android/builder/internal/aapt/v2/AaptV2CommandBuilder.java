@@ -57,11 +57,23 @@ public final class AaptV2CommandBuilder {
      * @return the command line arguments
      */
     public static ImmutableList<String> makeCompile(@NonNull File file, @NonNull File output) {
-        return ImmutableList.of(
-                "compile",
-                "-o",
-                output.getAbsolutePath(),
-                file.getAbsolutePath());
+        return ImmutableList.<String>builder()
+                .add("compile")
+                .addAll(makeCompileArgs(file, output))
+                .build();
+    }
+
+    /**
+     * Creates the arguments of the {@code compile} command used to compile a resource, without
+     * the command itself, as sent to an {@link Aapt2Daemon}.
+     * See {@link com.android.builder.internal.aapt.Aapt#compile(File, File)}.
+     *
+     * @param file see above
+     * @param output see above
+     * @return the arguments of the command
+     */
+    public static ImmutableList<String> makeCompileArgs(@NonNull File file, @NonNull File output) {
+        return ImmutableList.of("-o", output.getAbsolutePath(), file.getAbsolutePath());
     }
 
     /**
@@ -29,12 +29,15 @@ import com.android.repository.Revision;
 import com.android.sdklib.BuildToolInfo;
 import com.android.utils.ILogger;
 import com.google.common.base.Preconditions;
-
+import com.google.common.util.concurrent.ListenableFuture;
 import java.io.File;
 
 /**
  * Implementation of {@link com.android.builder.internal.aapt.Aapt} that uses out-of-process
  * execution of {@code aapt2}.
+ *
+ * <p>Resources are compiled either by a new {@code aapt2} process each, or by the long-lived
+ * daemons of an {@link Aapt2DaemonPool}, which avoids starting a process per resource.
  */
 public class OutOfProcessAaptV2 extends AbstractProcessExecutionAapt {
 
@@ -56,6 +59,18 @@ public class OutOfProcessAaptV2 extends AbstractProcessExecutionAapt {
     @NonNull
     private final File mIntermediateDir;
 
+    /**
+     * Daemons to compile the resources with, {@code null} to start a process per resource.
+     */
+    @Nullable
+    private final Aapt2DaemonPool mDaemonPool;
+
+    /**
+     * Handler of the messages of the requests to the daemons.
+     */
+    @NonNull
+    private final ProcessOutputHandler mProcessOutputHandler;
+
     /**
      * Creates a new entry point to the original {@code aapt}.
      *
@@ -71,6 +86,28 @@ public class OutOfProcessAaptV2 extends AbstractProcessExecutionAapt {
             @NonNull BuildToolInfo buildToolInfo,
             @NonNull File intermediateDir,
             @NonNull ILogger logger) {
+        this(processExecutor, processOutputHandler, buildToolInfo, intermediateDir, logger, -1);
+    }
+
+    /**
+     * Creates a new entry point to the original {@code aapt}.
+     *
+     * @param processExecutor the executor for external processes
+     * @param processOutputHandler the handler to process the executed process' output
+     * @param buildToolInfo the build tools to use
+     * @param intermediateDir directory where to store intermediate files
+     * @param logger logger to use
+     * @param maxDaemons the maximum number of {@code aapt2} daemons to compile resources with;
+     * {@code 0} to use the default number; a negative number to start a process per resource
+     * instead
+     */
+    public OutOfProcessAaptV2(
+            @NonNull ProcessExecutor processExecutor,
+            @NonNull ProcessOutputHandler processOutputHandler,
+            @NonNull BuildToolInfo buildToolInfo,
+            @NonNull File intermediateDir,
+            @NonNull ILogger logger,
+            int maxDaemons) {
         super(processExecutor, processOutputHandler);
 
         Preconditions.checkArgument(
@@ -79,6 +116,28 @@ public class OutOfProcessAaptV2 extends AbstractProcessExecutionAapt {
 
         mBuildToolInfo = buildToolInfo;
         mIntermediateDir = intermediateDir;
+        mProcessOutputHandler = processOutputHandler;
+        mDaemonPool =
+                maxDaemons >= 0
+                        ? Aapt2DaemonPool.Builder.INSTANCE.getPool(
+                                getAapt2ExecutablePath(), logger, maxDaemons)
+                        : null;
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<File> compile(@NonNull File file, @NonNull File output)
+            throws AaptException {
+        if (mDaemonPool == null) {
+            return super.compile(file, output);
+        }
+        Preconditions.checkArgument(file.isFile(), "!file.isFile()");
+        Preconditions.checkArgument(output.isDirectory(), "!output.isDirectory()");
+
+        return mDaemonPool.compile(
+                AaptV2CommandBuilder.makeCompileArgs(file, output),
+                new File(output, Aapt2RenamingConventions.compilationRename(file)),
+                mProcessOutputHandler);
     }
 
     @Nullable
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.packaging;
+
+import com.android.annotations.NonNull;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-process equivalent of {@code zipalign -f <alignment>}.
+ *
+ * <p>The data of every uncompressed entry is aligned on the requested boundary by padding the
+ * extra field of its local header with zeros. Entry data is copied as is, so compressed entries
+ * are never recompressed. Archives that are already aligned are copied without being rewritten.
+ *
+ * <p>Zip64 archives are not supported.
+ */
+public final class ZipAligner {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int STORED = 0;
+
+    private ZipAligner() {}
+
+    /**
+     * Writes an aligned copy of {@code input} to {@code output}, overwriting it.
+     *
+     * @return {@code false} if the input was already aligned and has just been copied
+     */
+    public static boolean align(@NonNull File input, @NonNull File output, int alignment)
+            throws IOException {
+        Preconditions.checkArgument(alignment > 0, "alignment must be positive");
+        Archive archive = Archive.read(input);
+        if (archive.isAligned(alignment)) {
+            Files.copy(input.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return false;
+        }
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output.toPath()))) {
+            archive.writeAligned(out, alignment);
+        }
+        return true;
+    }
+
+    /** Returns {@code true} if the data of all uncompressed entries of the zip is aligned. */
+    public static boolean isAligned(@NonNull File zip, int alignment) throws IOException {
+        Preconditions.checkArgument(alignment > 0, "alignment must be positive");
+        return Archive.read(zip).isAligned(alignment);
+    }
+
+    /** A zip file read in memory, with its central directory. */
+    private static final class Archive {
+        @NonNull private final ByteBuffer buffer;
+        @NonNull private final List<Entry> entries;
+        private final int endOfCentralDirectoryOffset;
+
+        private Archive(
+                @NonNull ByteBuffer buffer,
+                @NonNull List<Entry> entries,
+                int endOfCentralDirectoryOffset) {
+            this.buffer = buffer;
+            this.entries = entries;
+            this.endOfCentralDirectoryOffset = endOfCentralDirectoryOffset;
+        }
+
+        /**
+         * Reads the archive in memory. The file is not mapped so that it is not kept locked on
+         * Windows once this returns.
+         */
+        @NonNull
+        static Archive read(@NonNull File file) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int eocd = findEndOfCentralDirectory(buffer, file);
+            int entryCount = Short.toUnsignedInt(buffer.getShort(eocd + 10));
+            long cdOffset = Integer.toUnsignedLong(buffer.getInt(eocd + 16));
+            if (entryCount == 0xffff || cdOffset == 0xffffffffL) {
+                throw new IOException("Zip64 archives are not supported: " + file);
+            }
+
+            List<Entry> entries = Lists.newArrayListWithCapacity(entryCount);
+            int position = (int) cdOffset;
+            for (int i = 0; i < entryCount; i++) {
+                if (position + CENTRAL_HEADER_SIZE > eocd
+                        || buffer.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new IOException("Corrupted central directory in " + file);
+                }
+                int headerSize =
+                        CENTRAL_HEADER_SIZE
+                                + Short.toUnsignedInt(buffer.getShort(position + 28))
+                                + Short.toUnsignedInt(buffer.getShort(position + 30))
+                                + Short.toUnsignedInt(buffer.getShort(position + 32));
+                int localOffset = buffer.getInt(position + 42);
+                if (localOffset < 0
+                        || localOffset + LOCAL_HEADER_SIZE > cdOffset
+                        || buffer.getInt(localOffset) != LOCAL_HEADER_SIGNATURE) {
+                    throw new IOException("Corrupted local header in " + file);
+                }
+                entries.add(new Entry(buffer, position, headerSize, localOffset));
+                position += headerSize;
+            }
+            return new Archive(buffer, entries, eocd);
+        }
+
+        private static int findEndOfCentralDirectory(
+                @NonNull ByteBuffer buffer, @NonNull File file) throws IOException {
+            int last = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+            int first = Math.max(0, last - MAX_COMMENT_SIZE);
+            for (int position = last; position >= first; position--) {
+                if (buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    return position;
+                }
+            }
+            throw new IOException("Not a zip file: " + file);
+        }
+
+        boolean isAligned(int alignment) {
+            for (Entry entry : entries) {
+                if (entry.isStored() && entry.getDataOffset() % alignment != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void writeAligned(@NonNull OutputStream out, int alignment) throws IOException {
+            int[] newLocalOffsets = new int[entries.size()];
+            long position = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                newLocalOffsets[i] = (int) position;
+
+                int nameAndExtraSize = entry.getLocalNameSize() + entry.getLocalExtraSize();
+                int padding = 0;
+                if (entry.isStored()) {
+                    long dataOffset = position + LOCAL_HEADER_SIZE + nameAndExtraSize;
+                    padding = (int) ((alignment - dataOffset % alignment) % alignment);
+                }
+
+                // local header, with the extra field length updated for the padding.
+                ByteBuffer header = copy(entry.localOffset, LOCAL_HEADER_SIZE);
+                header.putShort(28, (short) (entry.getLocalExtraSize() + padding));
+                out.write(header.array());
+                out.write(buffer.array(), entry.localOffset + LOCAL_HEADER_SIZE, nameAndExtraSize);
+                out.write(new byte[padding]);
+                int dataSize = entry.getDataAndDescriptorSize();
+                out.write(buffer.array(), entry.getDataOffset(), dataSize);
+
+                position += LOCAL_HEADER_SIZE + nameAndExtraSize + padding + dataSize;
+            }
+
+            long newCentralDirectoryOffset = position;
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                ByteBuffer header = copy(entry.centralOffset, entry.centralSize);
+                header.putInt(42, newLocalOffsets[i]);
+                out.write(header.array());
+            }
+
+            ByteBuffer end =
+                    copy(endOfCentralDirectoryOffset, buffer.limit() - endOfCentralDirectoryOffset);
+            end.putInt(16, (int) newCentralDirectoryOffset);
+            out.write(end.array());
+        }
+
+        /** Returns a little endian, writable copy of a region of the archive. */
+        @NonNull
+        private ByteBuffer copy(int offset, int size) {
+            return ByteBuffer.wrap(Arrays.copyOfRange(buffer.array(), offset, offset + size))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /** An entry of the central directory and its local header. */
+    private static final class Entry {
+        @NonNull private final ByteBuffer buffer;
+        final int centralOffset;
+        final int centralSize;
+        final int localOffset;
+
+        Entry(@NonNull ByteBuffer buffer, int centralOffset, int centralSize, int localOffset) {
+            this.buffer = buffer;
+            this.centralOffset = centralOffset;
+            this.centralSize = centralSize;
+            this.localOffset = localOffset;
+        }
+
+        boolean isStored() {
+            return buffer.getShort(centralOffset + 10) == STORED;
+        }
+
+        int getLocalNameSize() {
+            return Short.toUnsignedInt(buffer.getShort(localOffset + 26));
+        }
+
+        int getLocalExtraSize() {
+            return Short.toUnsignedInt(buffer.getShort(localOffset + 28));
+        }
+
+        int getDataOffset() {
+            return localOffset + LOCAL_HEADER_SIZE + getLocalNameSize() + getLocalExtraSize();
+        }
+
+        /** Returns the size of the entry data, followed by its data descriptor if any. */
+        int getDataAndDescriptorSize() {
+            // sizes in the local header may be zero when a data descriptor is used, but the
+            // central directory always has them.
+            int size = buffer.getInt(centralOffset + 20);
+            int flags = Short.toUnsignedInt(buffer.getShort(centralOffset + 8));
+            if ((flags & DATA_DESCRIPTOR_FLAG) != 0) {
+                int descriptorOffset = getDataOffset() + size;
+                // the descriptor signature is optional.
+                size += buffer.getInt(descriptorOffset) == DATA_DESCRIPTOR_SIGNATURE ? 16 : 12;
+            }
+            return size;
+        }
+    }
+}
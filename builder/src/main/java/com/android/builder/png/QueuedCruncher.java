@@ -17,19 +17,25 @@
 package com.android.builder.png;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.builder.tasks.Job;
 import com.android.builder.tasks.JobContext;
 import com.android.builder.tasks.QueueThreadContext;
 import com.android.builder.tasks.Task;
 import com.android.builder.tasks.WorkQueue;
+import com.android.builder.utils.FileCache;
 import com.android.ide.common.internal.PngCruncher;
 import com.android.ide.common.internal.PngException;
 import com.android.utils.ILogger;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -39,15 +45,24 @@ import java.util.concurrent.atomic.AtomicInteger;
 /**
  * Implementation of {@link com.android.ide.common.internal.PngCruncher} that queues request and use
  * a pool of aapt server processes to serve those.
+ *
+ * <p>The pool starts with a single process and grows with the queued requests, up to the maximum
+ * number of processes. When a build cache is given, the crunched PNGs are cached by the content
+ * of the original PNG and the aapt executable, so they are only crunched once across builds.
  */
 public class QueuedCruncher implements PngCruncher {
 
     /**
-     * Number of concurrent cruncher processes to launch.
+     * Maximum number of concurrent cruncher processes to launch.
      */
     private static final int DEFAULT_NUMBER_CRUNCHER_PROCESSES =
             Integer.max(5, Runtime.getRuntime().availableProcessors());
 
+    /**
+     * Time after which an idle cruncher process above the first one is shut down.
+     */
+    private static final long CRUNCHER_PROCESS_KEEP_ALIVE_MS = 10_000;
+
     // use an enum to ensure singleton.
     public enum Builder {
         INSTANCE;
@@ -61,22 +76,46 @@ public class QueuedCruncher implements PngCruncher {
          *
          * @param aaptLocation the AAPT executable location.
          * @param logger the logger to use
-         * @param cruncherProcesses number of cruncher processes to use; {@code 0} to use the
-         * default number
+         * @param cruncherProcesses maximum number of cruncher processes to use; {@code 0} to use
+         * the default number
          * @return a new of existing instance of the {@link com.android.builder.png.QueuedCruncher}
          */
         public QueuedCruncher newCruncher(
                 @NonNull String aaptLocation,
                 @NonNull ILogger logger,
                 int cruncherProcesses) {
+            return newCruncher(aaptLocation, logger, cruncherProcesses, null);
+        }
+
+        /**
+         * Creates a new {@link com.android.builder.png.QueuedCruncher} or return an existing one
+         * based on the underlying AAPT executable location and the build cache.
+         *
+         * @param aaptLocation the AAPT executable location.
+         * @param logger the logger to use
+         * @param cruncherProcesses maximum number of cruncher processes to use; {@code 0} to use
+         * the default number
+         * @param buildCache the build cache to store the crunched PNGs in, or {@code null} to not
+         * cache them
+         * @return a new of existing instance of the {@link com.android.builder.png.QueuedCruncher}
+         */
+        public QueuedCruncher newCruncher(
+                @NonNull String aaptLocation,
+                @NonNull ILogger logger,
+                int cruncherProcesses,
+                @Nullable FileCache buildCache) {
+            String key = buildCache == null
+                    ? aaptLocation
+                    : aaptLocation + File.pathSeparator + buildCache.getCacheDirectory();
             synchronized (sLock) {
                 logger.verbose("QueuedCruncher is using %1$s", aaptLocation);
-                if (!sInstances.containsKey(aaptLocation)) {
+                if (!sInstances.containsKey(key)) {
                     QueuedCruncher queuedCruncher =
-                            new QueuedCruncher(aaptLocation, logger, cruncherProcesses);
-                    sInstances.put(aaptLocation, queuedCruncher);
+                            new QueuedCruncher(
+                                    aaptLocation, logger, cruncherProcesses, buildCache);
+                    sInstances.put(key, queuedCruncher);
                 }
-                return sInstances.get(aaptLocation);
+                return sInstances.get(key);
             }
         }
     }
@@ -84,6 +123,10 @@ public class QueuedCruncher implements PngCruncher {
 
     @NonNull private final String mAaptLocation;
     @NonNull private final ILogger mLogger;
+    // cache of the crunched PNGs, if any.
+    @Nullable private final FileCache mBuildCache;
+    // hash of the aapt executable, which identifies the cruncher in the build cache.
+    @Nullable private final String mAaptHash;
     // Queue responsible for handling all passed jobs with a pool of worker threads.
     @NonNull private final WorkQueue<AaptProcess> mCrunchingRequests;
     // list of outstanding jobs.
@@ -102,9 +145,20 @@ public class QueuedCruncher implements PngCruncher {
     private QueuedCruncher(
             @NonNull final String aaptLocation,
             @NonNull ILogger iLogger,
-            int cruncherProcesses) {
+            int cruncherProcesses,
+            @Nullable FileCache buildCache) {
         mAaptLocation = aaptLocation;
         mLogger = iLogger;
+        mBuildCache = buildCache;
+        if (buildCache != null) {
+            try {
+                mAaptHash = Files.hash(new File(aaptLocation), Hashing.sha1()).toString();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            mAaptHash = null;
+        }
         QueueThreadContext<AaptProcess> queueThreadContext = new QueueThreadContext<AaptProcess>() {
 
             // move this to a TLS, but do not store instances of AaptProcess in it.
@@ -182,12 +236,13 @@ public class QueuedCruncher implements PngCruncher {
         }
 
         mCrunchingRequests =
-                new WorkQueue<>(
+                WorkQueue.adaptive(
                         mLogger,
                         queueThreadContext,
                         "png-cruncher",
+                        1,
                         cruncherProcessToUse,
-                        0);
+                        CRUNCHER_PROCESS_KEEP_ALIVE_MS);
     }
 
     private static final class QueuedJob extends Job<AaptProcess> {
@@ -222,7 +277,11 @@ public class QueuedCruncher implements PngCruncher {
                                     Thread.currentThread().getName(),
                                     job.getJobTitle(),
                                     aapt.hashCode());
-                            aapt.crunch(from, to, job);
+                            if (mBuildCache != null) {
+                                crunchWithBuildCache(mBuildCache, aapt, from, to, job);
+                            } else {
+                                aapt.crunch(from, to, job);
+                            }
                             mLogger.verbose("Thread(%1$s): submitted job %2$s",
                                     Thread.currentThread().getName(), job.getJobTitle());
                         }
@@ -252,6 +311,7 @@ public class QueuedCruncher implements PngCruncher {
                     mOutstandingJobs.put(key, jobs);
                 }
             }
+            jobs.add(aaptProcessJob);
             mCrunchingRequests.push(aaptProcessJob);
         } catch (InterruptedException e) {
             // Restore the interrupted status
@@ -261,6 +321,53 @@ public class QueuedCruncher implements PngCruncher {
         return result;
     }
 
+    /**
+     * Crunches a PNG, or copies it from the build cache. This is called on a working thread of the
+     * queue, which waits for the job to be done anyway, so waiting for aapt to crunch the PNG
+     * before storing it in the cache does not hold any other request.
+     */
+    private void crunchWithBuildCache(
+            @NonNull FileCache buildCache,
+            @NonNull AaptProcess aapt,
+            @NonNull File from,
+            @NonNull File to,
+            @NonNull Job<AaptProcess> job) {
+        try {
+            // the crunched PNG only depends on the original PNG and the cruncher.
+            FileCache.Inputs buildCacheInputs =
+                    new FileCache.Inputs.Builder(FileCache.Command.CRUNCH_PNG)
+                            .putString(
+                                    FileCacheInputParams.AAPT_HASH.name(),
+                                    Preconditions.checkNotNull(mAaptHash))
+                            .putFileHash(FileCacheInputParams.FILE_HASH.name(), from)
+                            .build();
+            FileCache.QueryResult result =
+                    buildCache.createFile(
+                            to,
+                            buildCacheInputs,
+                            () -> {
+                                aapt.crunch(from, to, job);
+                                job.awaitRethrowExceptions();
+                                return null;
+                            });
+            // otherwise aapt has crunched the PNG and notified the job already.
+            if (result.getQueryEvent() == FileCache.QueryEvent.HIT) {
+                job.finished();
+            }
+        } catch (Exception exception) {
+            // this is ignored if aapt has already notified the job.
+            job.error(
+                    new IOException(
+                            String.format(
+                                    "Unable to crunch '%1$s' to '%2$s' using the build cache at "
+                                            + "'%3$s'",
+                                    from.getAbsolutePath(),
+                                    to.getAbsolutePath(),
+                                    buildCache.getCacheDirectory().getAbsolutePath()),
+                            exception));
+        }
+    }
+
     private void waitForAll(int key) throws InterruptedException {
         mLogger.verbose("Thread(%1$s): begin waitForAll", Thread.currentThread().getName());
         ConcurrentLinkedQueue<Job<AaptProcess>> jobs = mOutstandingJobs.get(key);
@@ -329,4 +436,20 @@ public class QueuedCruncher implements PngCruncher {
             }
         }
     }
+
+    /**
+     * Input parameters to be provided by the client when using {@link FileCache}.
+     *
+     * <p>The clients of {@link FileCache} need to exhaustively specify all the inputs that affect
+     * the creation of an output file/directory. This enum class lists the input parameters that are
+     * used in {@link QueuedCruncher}.
+     */
+    private enum FileCacheInputParams {
+
+        /** The hash of the aapt executable that crunches the PNG. */
+        AAPT_HASH,
+
+        /** The hash of the original PNG. */
+        FILE_HASH,
+    }
 }
@@ -21,6 +21,9 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.Version;
+import com.android.builder.utils.FileCache;
 import com.android.ide.common.res2.ResourcePreprocessor;
 import com.android.ide.common.resources.configuration.DensityQualifier;
 import com.android.ide.common.resources.configuration.FolderConfiguration;
@@ -32,18 +35,33 @@ import com.android.resources.ResourceFolderType;
 import com.android.utils.ILogger;
 import com.android.utils.XmlUtils;
 import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 import javax.imageio.ImageIO;
 
 /**
  * Generates PNG images (and XML copies) from VectorDrawable files.
+ *
+ * <p>When the first PNG of a VectorDrawable file is requested, the PNGs of all the densities of
+ * the file are rendered in parallel. If a build cache is given, the PNGs are copied from the
+ * cache when a file with the same content was already rendered at the same density.
  */
 public class VectorDrawableRenderer implements ResourcePreprocessor {
     /** Projects with minSdk set to this or higher don't need to generate PNGs. */
@@ -53,16 +71,40 @@ public class VectorDrawableRenderer implements ResourcePreprocessor {
     private final int mMinSdk;
     private final File mOutputDir;
     private final Collection<Density> mDensities;
+    @Nullable private final FileCache mBuildCache;
+    @NonNull private final Executor mExecutor;
+
+    /** The rendering of the PNGs of each VectorDrawable file, by file. */
+    private final ConcurrentMap<File, CompletableFuture<Void>> mRenderings =
+            new ConcurrentHashMap<>();
 
     public VectorDrawableRenderer(
             int minSdk,
             File outputDir,
             Collection<Density> densities,
             ILogger logger) {
+        this(minSdk, outputDir, densities, logger, null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a renderer.
+     *
+     * @param buildCache the build cache to store the PNGs in, or null to always render them
+     * @param executor the executor rendering the PNGs
+     */
+    public VectorDrawableRenderer(
+            int minSdk,
+            File outputDir,
+            Collection<Density> densities,
+            ILogger logger,
+            @Nullable FileCache buildCache,
+            @NonNull Executor executor) {
         mMinSdk = minSdk;
         mOutputDir = outputDir;
         mDensities = densities;
         mLogger = logger;
+        mBuildCache = buildCache;
+        mExecutor = executor;
     }
 
     @Override
@@ -132,27 +174,132 @@ public class VectorDrawableRenderer implements ResourcePreprocessor {
 
         if (isXml(toBeGenerated)) {
             Files.copy(original, toBeGenerated);
+            return;
+        }
+
+        List<File> pngs = getFilesToBeGenerated(original)
+                .stream()
+                .filter(file -> !isXml(file))
+                .collect(Collectors.toList());
+        if (!pngs.contains(toBeGenerated)) {
+            renderPng(toBeGenerated, original);
+            return;
+        }
+
+        // The first request renders all the PNGs of the file, the others wait for it.
+        CompletableFuture<Void> rendering = new CompletableFuture<>();
+        CompletableFuture<Void> existingRendering = mRenderings.putIfAbsent(original, rendering);
+        if (existingRendering == null) {
+            CompletableFuture<?>[] pngRenderings = pngs.stream()
+                    .map(png -> CompletableFuture.runAsync(() -> {
+                        try {
+                            renderPng(png, original);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, mExecutor))
+                    .toArray(CompletableFuture<?>[]::new);
+            CompletableFuture.allOf(pngRenderings).whenComplete((result, error) -> {
+                if (error != null) {
+                    rendering.completeExceptionally(error);
+                } else {
+                    rendering.complete(null);
+                }
+            });
         } else {
-            mLogger.verbose(
-                    "Generating PNG: [%s] from [%s]",
-                    toBeGenerated.getAbsolutePath(),
-                    original.getAbsolutePath());
-
-            FolderConfiguration folderConfiguration = getFolderConfiguration(toBeGenerated);
-            checkState(folderConfiguration.getDensityQualifier() != null);
-            Density density = folderConfiguration.getDensityQualifier().getValue();
-
-            String xmlContent = Files.toString(original, Charsets.UTF_8);
-            float scaleFactor = density.getDpiValue() / (float) Density.MEDIUM.getDpiValue();
-            if (scaleFactor <= 0) {
-                scaleFactor = 1.0f;
+            rendering = existingRendering;
+        }
+
+        try {
+            rendering.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
             }
+            Throwables.propagateIfPossible(cause, IOException.class);
+            throw new IOException(cause);
+        }
+
+        if (!toBeGenerated.isFile()) {
+            // the PNG was deleted after it was rendered with the other densities.
+            renderPng(toBeGenerated, original);
+        }
+    }
 
-            final VdPreview.TargetSize imageSize = VdPreview.TargetSize.createSizeFromScale(scaleFactor);
-            BufferedImage image = VdPreview.getPreviewFromVectorXml(imageSize, xmlContent, null);
-            checkState(image != null, "Generating the image failed.");
-            ImageIO.write(image, "png", toBeGenerated);
+    /**
+     * Renders a PNG from a VectorDrawable file, or copies it from the build cache.
+     */
+    private void renderPng(@NonNull File png, @NonNull File original) throws IOException {
+        if (mBuildCache == null) {
+            writePng(png, original);
+            return;
+        }
+
+        // the image only depends on the content of the file, the density and the renderer.
+        FileCache.Inputs buildCacheInputs =
+                new FileCache.Inputs.Builder(FileCache.Command.GENERATE_VECTOR_DRAWABLE_PNG)
+                        .putFileHash(FileCacheInputParams.FILE_HASH.name(), original)
+                        .putString(
+                                FileCacheInputParams.DENSITY.name(),
+                                getDensity(png).getResourceValue())
+                        .putString(
+                                FileCacheInputParams.RENDERER_VERSION.name(),
+                                Version.ANDROID_GRADLE_PLUGIN_VERSION)
+                        .build();
+        try {
+            mBuildCache.createFile(
+                    png,
+                    buildCacheInputs,
+                    () -> {
+                        writePng(png, original);
+                        return null;
+                    });
+        } catch (ExecutionException exception) {
+            throw new IOException(
+                    String.format(
+                            "Unable to generate '%1$s' from '%2$s'",
+                            png.getAbsolutePath(),
+                            original.getAbsolutePath()),
+                    exception);
+        } catch (Exception exception) {
+            throw new IOException(
+                    String.format(
+                            "Unable to generate '%1$s' from '%2$s' using the build cache at "
+                                    + "'%3$s'",
+                            png.getAbsolutePath(),
+                            original.getAbsolutePath(),
+                            mBuildCache.getCacheDirectory().getAbsolutePath()),
+                    exception);
+        }
+    }
+
+    private void writePng(@NonNull File png, @NonNull File original) throws IOException {
+        mLogger.verbose(
+                "Generating PNG: [%s] from [%s]",
+                png.getAbsolutePath(),
+                original.getAbsolutePath());
+
+        Density density = getDensity(png);
+
+        String xmlContent = Files.toString(original, Charsets.UTF_8);
+        float scaleFactor = density.getDpiValue() / (float) Density.MEDIUM.getDpiValue();
+        if (scaleFactor <= 0) {
+            scaleFactor = 1.0f;
         }
+
+        VdPreview.TargetSize imageSize = VdPreview.TargetSize.createSizeFromScale(scaleFactor);
+        BufferedImage image = VdPreview.getPreviewFromVectorXml(imageSize, xmlContent, null);
+        checkState(image != null, "Generating the image failed.");
+        Files.createParentDirs(png);
+        ImageIO.write(image, "png", png);
+    }
+
+    @NonNull
+    private static Density getDensity(@NonNull File png) {
+        FolderConfiguration folderConfiguration = getFolderConfiguration(png);
+        checkState(folderConfiguration.getDensityQualifier() != null);
+        return folderConfiguration.getDensityQualifier().getValue();
     }
 
     @NonNull
@@ -193,4 +340,23 @@ public class VectorDrawableRenderer implements ResourcePreprocessor {
         //noinspection ConstantConditions - handled above.
         return configuration.getVersionQualifier().getVersion();
     }
+
+    /**
+     * Input parameters to be provided by the client when using {@link FileCache}.
+     *
+     * <p>The clients of {@link FileCache} need to exhaustively specify all the inputs that affect
+     * the creation of an output file/directory. This enum class lists the input parameters that are
+     * used in {@link VectorDrawableRenderer}.
+     */
+    private enum FileCacheInputParams {
+
+        /** The hash of the VectorDrawable file. */
+        FILE_HASH,
+
+        /** The density of the image. */
+        DENSITY,
+
+        /** The version of the renderer. */
+        RENDERER_VERSION,
+    }
 }
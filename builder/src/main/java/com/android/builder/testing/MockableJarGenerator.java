@@ -17,6 +17,7 @@
 package com.android.builder.testing;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
 
@@ -41,8 +42,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
@@ -54,10 +61,16 @@ import java.util.zip.ZipEntry;
  * infamous "Stub!" exceptions.
  *
  * <p>ATTENTION! If you change this class, please update the gradle tasks to reflect that in the
- * generated file name (e.g. add a "v2"). This will force Gradle to re-generate the jars in
- * existing projects.
+ * generated file name (e.g. add a "v2"), and increase {@link #VERSION}. This will force Gradle to
+ * re-generate the jars in existing projects and in the build cache.
  */
 public class MockableJarGenerator {
+    /** The version of the generated jars, to be increased when the generated jars change. */
+    public static final int VERSION = 1;
+
+    /** The number of classes that are read ahead of the classes being written. */
+    private static final int MAX_PENDING_ENTRIES = 256;
+
     private static final int EMPTY_FLAGS = 0;
     private static final String CONSTRUCTOR = "<init>";
     private static final String CLASS_CONSTRUCTOR = "<clinit>";
@@ -77,37 +90,49 @@ public class MockableJarGenerator {
     }
 
     public void createMockableJar(File input, File output) throws IOException {
+        createMockableJar(input, output, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates the mockable jar, rewriting the classes on the given executor. The entries are
+     * written in the order of the input jar.
+     */
+    public void createMockableJar(File input, File output, Executor executor) throws IOException {
         Preconditions.checkState(
                 output.createNewFile(),
                 "Output file [%s] already exists.",
                 output.getAbsolutePath());
 
-        JarFile androidJar = null;
-        JarOutputStream outputStream = null;
-        try {
-            androidJar = new JarFile(input);
-            outputStream = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
-
+        try (JarFile androidJar = new JarFile(input);
+                JarOutputStream outputStream = new JarOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(output)))) {
+            Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
             for (JarEntry entry : Collections.list(androidJar.entries())) {
-                InputStream inputStream = androidJar.getInputStream(entry);
-
-                if (entry.getName().endsWith(".class")) {
-                    if (!skipClass(entry.getName().replace("/", "."))) {
-                        rewriteClass(entry, inputStream, outputStream);
+                PendingEntry pendingEntry;
+                try (InputStream inputStream = androidJar.getInputStream(entry)) {
+                    byte[] content = ByteStreams.toByteArray(inputStream);
+                    if (entry.getName().endsWith(".class")) {
+                        if (skipClass(entry.getName().replace("/", "."))) {
+                            continue;
+                        }
+                        pendingEntry = new PendingEntry(
+                                new ZipEntry(entry.getName()),
+                                CompletableFuture.supplyAsync(
+                                        () -> rewriteClass(content), executor));
+                    } else {
+                        pendingEntry = new PendingEntry(
+                                entry, CompletableFuture.completedFuture(content));
                     }
-                } else {
-                    outputStream.putNextEntry(entry);
-                    ByteStreams.copy(inputStream, outputStream);
                 }
 
-                inputStream.close();
-            }
-        } finally {
-            if (androidJar != null) {
-                androidJar.close();
+                pendingEntries.add(pendingEntry);
+                if (pendingEntries.size() > MAX_PENDING_ENTRIES) {
+                    pendingEntries.remove().write(outputStream);
+                }
             }
-            if (outputStream != null) {
-                outputStream.close();
+
+            while (!pendingEntries.isEmpty()) {
+                pendingEntries.remove().write(outputStream);
             }
         }
     }
@@ -122,13 +147,10 @@ public class MockableJarGenerator {
     }
 
     /**
-     * Writes a modified *.class file to the output JAR file.
+     * Returns the content of a modified *.class file.
      */
-    private void rewriteClass(
-            JarEntry entry,
-            InputStream inputStream,
-            JarOutputStream outputStream) throws IOException {
-        ClassReader classReader = new ClassReader(inputStream);
+    private byte[] rewriteClass(byte[] content) {
+        ClassReader classReader = new ClassReader(content);
         ClassNode classNode = new ClassNode(Opcodes.ASM5);
 
         classReader.accept(classNode, EMPTY_FLAGS);
@@ -138,8 +160,7 @@ public class MockableJarGenerator {
         ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
         classNode.accept(classWriter);
 
-        outputStream.putNextEntry(new ZipEntry(entry.getName()));
-        outputStream.write(classWriter.toByteArray());
+        return classWriter.toByteArray();
     }
 
     /**
@@ -255,4 +276,27 @@ public class MockableJarGenerator {
             throw new RuntimeException(e);
         }
     }
+
+    /** An entry of the output jar, whose content may still be computed. */
+    private static final class PendingEntry {
+        private final ZipEntry entry;
+        private final CompletableFuture<byte[]> content;
+
+        private PendingEntry(ZipEntry entry, CompletableFuture<byte[]> content) {
+            this.entry = entry;
+            this.content = content;
+        }
+
+        private void write(JarOutputStream outputStream) throws IOException {
+            byte[] bytes;
+            try {
+                bytes = content.join();
+            } catch (CompletionException e) {
+                Throwables.propagateIfPossible(e.getCause(), IOException.class);
+                throw new IOException("Cannot rewrite " + entry.getName(), e.getCause());
+            }
+            outputStream.putNextEntry(entry);
+            outputStream.write(bytes);
+        }
+    }
 }
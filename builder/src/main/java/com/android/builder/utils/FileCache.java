@@ -928,7 +928,22 @@ public class FileCache {
         PREDEX_LIBRARY,
 
         /** The prepare-library command. */
-        PREPARE_LIBRARY
+        PREPARE_LIBRARY,
+
+        /** The jacoco-instrument-class command. */
+        JACOCO_INSTRUMENT_CLASS,
+
+        /** The strip-native-library command. */
+        STRIP_NATIVE_LIBRARY,
+
+        /** The generate-mockable-jar command. */
+        GENERATE_MOCKABLE_JAR,
+
+        /** The generate-vector-drawable-png command. */
+        GENERATE_VECTOR_DRAWABLE_PNG,
+
+        /** The crunch-png command. */
+        CRUNCH_PNG
     }
 
     /**
@@ -94,6 +94,12 @@ public class Main {
      */
     public static final int CONCURRENCY_LEVEL = 8;
 
+    /**
+     * Number of runs in progress in this class loader. The intern tables that are safe to drop
+     * are cleared when the last one completes, so they don't grow across the runs of a daemon.
+     */
+    private static final AtomicInteger activeRuns = new AtomicInteger();
+
     /**
      * File extension of a {@code .dex} file.
      */
@@ -194,6 +200,10 @@ public class Main {
     /** Thread pool object used for multi-thread class translation. */
     private ExecutorService classTranslatorPool;
 
+    /** Thread pool object used to translate the large methods of a class
+     * in parallel, or {@code null} when running with a single thread. */
+    private ExecutorService methodTranslatorPool;
+
     /** Single thread executor, for collecting results of parallel translation,
      * and adding classes to dex file in original input file order. */
     private ExecutorService classDefItemConsumer;
@@ -258,6 +268,10 @@ public class Main {
         }
     }
 
+    /**
+     * Clears the intern tables whose instances are not kept in constants. Types are never
+     * cleared, as they are compared by identity with the constants of their class.
+     */
     public static void clearInternTables() {
         Prototype.clearInternTable();
         RegisterSpec.clearInternTable();
@@ -279,19 +293,23 @@ public class Main {
         args = arguments;
         args.makeOptionsObjects(context);
 
+        activeRuns.incrementAndGet();
         OutputStream humanOutRaw = null;
-        if (args.humanOutName != null) {
-            humanOutRaw = openOutput(args.humanOutName);
-            humanOutWriter = new OutputStreamWriter(humanOutRaw);
-        }
-
         try {
+            if (args.humanOutName != null) {
+                humanOutRaw = openOutput(args.humanOutName);
+                humanOutWriter = new OutputStreamWriter(humanOutRaw);
+            }
+
             if (args.multiDex) {
                 return runMultiDex();
             } else {
                 return runMonoDex();
             }
         } finally {
+            if (activeRuns.decrementAndGet() == 0) {
+                clearInternTables();
+            }
             closeOutput(humanOutRaw);
         }
     }
@@ -545,6 +563,11 @@ public class Main {
                args.numThreads, 0, TimeUnit.SECONDS,
                new ArrayBlockingQueue<Runnable>(2 * args.numThreads, true),
                new ThreadPoolExecutor.CallerRunsPolicy());
+        // translate large methods of a class in parallel
+        if (args.numThreads > 1) {
+            methodTranslatorPool = Executors.newFixedThreadPool(args.numThreads);
+        }
+        args.cfOptions.methodTranslator = methodTranslatorPool;
         // collect translated and write to dex in order
         classDefItemConsumer = Executors.newSingleThreadExecutor();
 
@@ -602,6 +625,7 @@ public class Main {
         try {
             classTranslatorPool.shutdown();
             classTranslatorPool.awaitTermination(600L, TimeUnit.SECONDS);
+            shutdownMethodTranslatorPool();
             classDefItemConsumer.shutdown();
             classDefItemConsumer.awaitTermination(600L, TimeUnit.SECONDS);
 
@@ -627,10 +651,12 @@ public class Main {
 
         } catch (InterruptedException ie) {
             classTranslatorPool.shutdownNow();
+            shutdownMethodTranslatorPool();
             classDefItemConsumer.shutdownNow();
             throw new RuntimeException("Translation has been interrupted", ie);
         } catch (Exception e) {
             classTranslatorPool.shutdownNow();
+            shutdownMethodTranslatorPool();
             classDefItemConsumer.shutdownNow();
             e.printStackTrace(out);
             throw new RuntimeException("Unexpected exception in translator thread.", e);
@@ -659,6 +685,18 @@ public class Main {
         return true;
     }
 
+    /**
+     * Stops the threads translating methods. Called once all the classes
+     * are translated, so that no method translation is pending.
+     */
+    private void shutdownMethodTranslatorPool() {
+        args.cfOptions.methodTranslator = null;
+        if (methodTranslatorPool != null) {
+            methodTranslatorPool.shutdownNow();
+            methodTranslatorPool = null;
+        }
+    }
+
     private void createDexFile() {
         outputDex = new DexFile(args.dexOptions);
 
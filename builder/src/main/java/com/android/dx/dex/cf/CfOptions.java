@@ -19,6 +19,7 @@ package com.android.dx.dex.cf;
 import com.android.dx.dex.code.PositionList;
 
 import java.io.PrintStream;
+import java.util.concurrent.Executor;
 
 /**
  * A class to contain options passed into dex.cf
@@ -47,4 +48,11 @@ public class CfOptions {
 
     /** where to issue warnings to */
     public PrintStream warn = System.err;
+
+    /**
+     * executor used to translate large methods in parallel with the other
+     * methods of their class, or {@code null} to translate all the methods
+     * of a class on the thread translating the class
+     */
+    public Executor methodTranslator = null;
 }
@@ -17,6 +17,7 @@
 package com.android.dx.dex.cf;
 
 import com.android.dex.util.ExceptionWithContext;
+import com.android.dx.cf.attrib.AttCode;
 import com.android.dx.cf.code.ConcreteMethod;
 import com.android.dx.cf.code.Ropper;
 import com.android.dx.cf.direct.DirectClassFile;
@@ -61,6 +62,11 @@ import com.android.dx.rop.cst.TypedConstant;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
 import com.android.dx.ssa.Optimizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Static method that turns {@code byte[]}s containing Java
@@ -70,6 +76,14 @@ public class CfTranslator {
     /** set to {@code true} to enable development-time debugging code */
     private static final boolean DEBUG = false;
 
+    /**
+     * minimum size in bytes of the bytecode of a method for it to be
+     * translated in parallel with the other methods of its class; not
+     * final so that tests can exercise the parallel translation with
+     * small methods
+     */
+    static int parallelMethodMinCodeSize = 1024;
+
     /**
      * This class is uninstantiable.
      */
@@ -256,6 +270,27 @@ public class CfTranslator {
         MethodList methods = cf.getMethods();
         int sz = methods.size();
 
+        /*
+         * Translating the code of a method doesn't depend on the other
+         * methods, so large methods are translated in parallel when
+         * possible. The methods are still added to the class in order
+         * below, so the output doesn't depend on the scheduling.
+         */
+        List<FutureTask<DalvCode>> codes = new ArrayList<FutureTask<DalvCode>>(sz);
+        for (int i = 0; i < sz; i++) {
+            final Method one = methods.get(i);
+            FutureTask<DalvCode> code = new FutureTask<DalvCode>(new Callable<DalvCode>() {
+                @Override
+                public DalvCode call() {
+                    return translateCode(context, cf, cfOptions, dexOptions, one);
+                }
+            });
+            codes.add(code);
+            if (shouldTranslateInParallel(cfOptions, one)) {
+                cfOptions.methodTranslator.execute(code);
+            }
+        }
+
         for (int i = 0; i < sz; i++) {
             Method one = methods.get(i);
             try {
@@ -264,69 +299,9 @@ public class CfTranslator {
                 boolean isStatic = AccessFlags.isStatic(accessFlags);
                 boolean isPrivate = AccessFlags.isPrivate(accessFlags);
                 boolean isNative = AccessFlags.isNative(accessFlags);
-                boolean isAbstract = AccessFlags.isAbstract(accessFlags);
                 boolean isConstructor = meth.isInstanceInit() ||
                     meth.isClassInit();
-                DalvCode code;
-
-                if (isNative || isAbstract) {
-                    // There's no code for native or abstract methods.
-                    code = null;
-                } else {
-                    ConcreteMethod concrete =
-                        new ConcreteMethod(one, cf,
-                                (cfOptions.positionInfo != PositionList.NONE),
-                                cfOptions.localInfo);
-
-                    TranslationAdvice advice;
-
-                    advice = DexTranslationAdvice.THE_ONE;
-
-                    RopMethod rmeth = Ropper.convert(concrete, advice, methods);
-                    RopMethod nonOptRmeth = null;
-                    int paramSize;
-
-                    paramSize = meth.getParameterWordCount(isStatic);
-
-                    String canonicalName
-                            = thisClass.getClassType().getDescriptor()
-                                + "." + one.getName().getString();
-
-                    if (cfOptions.optimize &&
-                            context.optimizerOptions.shouldOptimize(canonicalName)) {
-                        if (DEBUG) {
-                            System.err.println("Optimizing " + canonicalName);
-                        }
-
-                        nonOptRmeth = rmeth;
-                        rmeth = Optimizer.optimize(rmeth,
-                                paramSize, isStatic, cfOptions.localInfo, advice);
-
-                        if (DEBUG) {
-                            context.optimizerOptions.compareOptimizerStep(nonOptRmeth,
-                                    paramSize, isStatic, cfOptions, advice, rmeth);
-                        }
-
-                        if (cfOptions.statistics) {
-                            context.codeStatistics.updateRopStatistics(
-                                    nonOptRmeth, rmeth);
-                        }
-                    }
-
-                    LocalVariableInfo locals = null;
-
-                    if (cfOptions.localInfo) {
-                        locals = LocalVariableExtractor.extract(rmeth);
-                    }
-
-                    code = RopTranslator.translate(rmeth, cfOptions.positionInfo,
-                            locals, paramSize, dexOptions);
-
-                    if (cfOptions.statistics && nonOptRmeth != null) {
-                        updateDexStatistics(context, cfOptions, dexOptions, rmeth, nonOptRmeth, locals,
-                                paramSize, concrete.getCode().size());
-                    }
-                }
+                DalvCode code = getCode(codes.get(i));
 
                 // Preserve the synchronized flag as its "declared" variant...
                 if (AccessFlags.isSynchronized(accessFlags)) {
@@ -376,6 +351,127 @@ public class CfTranslator {
         }
     }
 
+    /**
+     * Returns whether the code of the given method should be translated
+     * by {@link CfOptions#methodTranslator} rather than by the thread
+     * translating the class.
+     */
+    private static boolean shouldTranslateInParallel(CfOptions cfOptions, Method method) {
+        if (cfOptions.methodTranslator == null || cfOptions.statistics || DEBUG) {
+            // statistics are collected in the order of the methods.
+            return false;
+        }
+
+        AttCode code = (AttCode) method.getAttributes().findFirst(AttCode.ATTRIBUTE_NAME);
+        return code != null && code.getCode().size() >= parallelMethodMinCodeSize;
+    }
+
+    /**
+     * Runs the given translation if it didn't start yet, and returns its
+     * result once it is done.
+     */
+    private static DalvCode getCode(FutureTask<DalvCode> code) {
+        code.run();
+        try {
+            return code.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Method translation has been interrupted", ex);
+        }
+    }
+
+    /**
+     * Translates the code of a single method.
+     *
+     * @param context
+     * @param cf {@code non-null;} class being translated
+     * @param cfOptions {@code non-null;} options for class translation
+     * @param dexOptions {@code non-null;} options for dex output
+     * @param one {@code non-null;} method to translate
+     * @return {@code null-ok;} the translated code, or {@code null} for
+     * native and abstract methods
+     */
+    private static DalvCode translateCode(DxContext context, DirectClassFile cf,
+            CfOptions cfOptions, DexOptions dexOptions, Method one) {
+        CstType thisClass = cf.getThisClass();
+        MethodList methods = cf.getMethods();
+        CstMethodRef meth = new CstMethodRef(thisClass, one.getNat());
+        int accessFlags = one.getAccessFlags();
+        boolean isStatic = AccessFlags.isStatic(accessFlags);
+        boolean isNative = AccessFlags.isNative(accessFlags);
+        boolean isAbstract = AccessFlags.isAbstract(accessFlags);
+
+        if (isNative || isAbstract) {
+            // There's no code for native or abstract methods.
+            return null;
+        }
+
+        ConcreteMethod concrete =
+            new ConcreteMethod(one, cf,
+                    (cfOptions.positionInfo != PositionList.NONE),
+                    cfOptions.localInfo);
+
+        TranslationAdvice advice;
+
+        advice = DexTranslationAdvice.THE_ONE;
+
+        RopMethod rmeth = Ropper.convert(concrete, advice, methods);
+        RopMethod nonOptRmeth = null;
+        int paramSize;
+
+        paramSize = meth.getParameterWordCount(isStatic);
+
+        String canonicalName
+                = thisClass.getClassType().getDescriptor()
+                    + "." + one.getName().getString();
+
+        if (cfOptions.optimize &&
+                context.optimizerOptions.shouldOptimize(canonicalName)) {
+            if (DEBUG) {
+                System.err.println("Optimizing " + canonicalName);
+            }
+
+            nonOptRmeth = rmeth;
+            rmeth = Optimizer.optimize(rmeth,
+                    paramSize, isStatic, cfOptions.localInfo, advice);
+
+            if (DEBUG) {
+                context.optimizerOptions.compareOptimizerStep(nonOptRmeth,
+                        paramSize, isStatic, cfOptions, advice, rmeth);
+            }
+
+            if (cfOptions.statistics) {
+                context.codeStatistics.updateRopStatistics(
+                        nonOptRmeth, rmeth);
+            }
+        }
+
+        LocalVariableInfo locals = null;
+
+        if (cfOptions.localInfo) {
+            locals = LocalVariableExtractor.extract(rmeth);
+        }
+
+        DalvCode code = RopTranslator.translate(rmeth, cfOptions.positionInfo,
+                locals, paramSize, dexOptions);
+
+        if (cfOptions.statistics && nonOptRmeth != null) {
+            updateDexStatistics(context, cfOptions, dexOptions, rmeth, nonOptRmeth, locals,
+                    paramSize, concrete.getCode().size());
+        }
+
+        return code;
+    }
+
     /**
      * Helper that updates the dex statistics.
      */
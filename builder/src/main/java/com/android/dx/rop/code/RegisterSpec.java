@@ -22,9 +22,13 @@ import com.android.dx.rop.cst.CstString;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeBearer;
 import com.android.dx.util.ToHuman;
-import com.google.common.collect.MapMaker;
 
-import java.util.concurrent.ConcurrentMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Combination of a register number and a type, used as the sources and
@@ -36,14 +40,33 @@ public final class RegisterSpec
     public static final String PREFIX = "v";
 
     /**
-     * Intern table for instances.
+     * Intern table for instances. Keys are either instances of this class or the
+     * {@link ForComparison} probe of the calling thread.
      *
      * <p>The initial capacity is based on a medium-size project.
      */
-    private static final ConcurrentMap<RegisterSpec, RegisterSpec> theInterns = new MapMaker()
-            .concurrencyLevel(Main.CONCURRENCY_LEVEL)
-            .initialCapacity(100_000)
-            .makeMap();
+    private static final ConcurrentHashMap<Object, RegisterSpec> theInterns =
+            new ConcurrentHashMap<>(100_000, 0.75f, Main.CONCURRENCY_LEVEL);
+
+    /** Size of the per-thread cache in front of {@link #theInterns}, must be a power of 2. */
+    private static final int CACHE_SIZE = 1024;
+
+    /**
+     * Incremented every time the intern table is cleared, so that the per-thread caches don't
+     * keep handing out instances from a previous run.
+     */
+    private static final AtomicInteger internGeneration = new AtomicInteger();
+
+    /** Per-thread cache and probe key, so that interning existing instances doesn't allocate. */
+    private static final ThreadLocal<InternCache> theInternCache =
+            ThreadLocal.withInitial(InternCache::new);
+
+    /**
+     * The per-thread caches, emptied with the intern table so that they don't keep its instances
+     * alive. Weak, so that the caches of finished threads can be collected.
+     */
+    private static final Set<InternCache> theInternCaches =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
 
     /** {@code >= 0;} register number */
     private final int reg;
@@ -68,13 +91,49 @@ public final class RegisterSpec
      */
     private static RegisterSpec intern(int reg, TypeBearer type,
             LocalItem local) {
-        RegisterSpec tmp = new RegisterSpec(reg, type, local);
-        RegisterSpec result = theInterns.putIfAbsent(tmp, tmp);
-        return result != null ? result : tmp;
+        InternCache cache = theInternCache.get();
+        int generation = internGeneration.get();
+        if (cache.generation != generation) {
+            cache.clear();
+            cache.generation = generation;
+        }
+
+        int hash = hashCodeOf(reg, type, local);
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        RegisterSpec result = cache.entries[slot];
+        if (result != null && result.equals(reg, type, local)) {
+            return result;
+        }
+
+        ForComparison probe = cache.probe;
+        probe.set(reg, type, local, hash);
+        result = theInterns.get(probe);
+        probe.clear();
+        if (result == null) {
+            RegisterSpec spec = new RegisterSpec(reg, type, local);
+            result = theInterns.putIfAbsent(spec, spec);
+            if (result == null) {
+                result = spec;
+            }
+        }
+        cache.entries[slot] = result;
+        return result;
     }
 
+    /**
+     * Clears the intern table and the per-thread caches in front of it. Must not be called while
+     * instances are being made, as they would not be the same as the ones made after.
+     */
     public static void clearInternTable() {
+        // the generation changes after the table is cleared, so that a cache tagged with the new
+        // generation only gets instances of the cleared table.
         theInterns.clear();
+        internGeneration.incrementAndGet();
+        synchronized (theInternCaches) {
+            for (InternCache cache : theInternCaches) {
+                cache.clear();
+            }
+        }
     }
 
     /**
@@ -166,6 +225,10 @@ public final class RegisterSpec
     @Override
     public boolean equals(Object other) {
         if (!(other instanceof RegisterSpec)) {
+            if (other instanceof ForComparison) {
+                ForComparison probe = (ForComparison) other;
+                return equals(probe.reg, probe.type, probe.local);
+            }
             return false;
         }
 
@@ -599,4 +662,59 @@ public final class RegisterSpec
 
         return sb.toString();
     }
+
+    /**
+     * Mutable key used to look up the intern table without creating an instance. Equal to, and
+     * with the same hash code as, the instance with the same register, type and local.
+     */
+    private static final class ForComparison {
+        private int reg;
+        private TypeBearer type;
+        private LocalItem local;
+        private int hash;
+
+        void set(int reg, TypeBearer type, LocalItem local, int hash) {
+            this.reg = reg;
+            this.type = type;
+            this.local = local;
+            this.hash = hash;
+        }
+
+        /** Drops the references so that the probe doesn't keep them alive. */
+        void clear() {
+            type = null;
+            local = null;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other instanceof RegisterSpec) {
+                return ((RegisterSpec) other).equals(reg, type, local);
+            }
+            return other == this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Thread confined state used by {@link #intern}, except for {@link #clear} which {@link
+     * #clearInternTable} also calls.
+     */
+    private static final class InternCache {
+        final ForComparison probe = new ForComparison();
+        final RegisterSpec[] entries = new RegisterSpec[CACHE_SIZE];
+        int generation = internGeneration.get();
+
+        InternCache() {
+            theInternCaches.add(this);
+        }
+
+        void clear() {
+            Arrays.fill(entries, null);
+        }
+    }
 }
@@ -18,8 +18,8 @@ package com.android.dx.rop.type;
 
 import com.android.dx.command.dexer.Main;
 import com.android.dx.util.Hex;
-import com.google.common.collect.MapMaker;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 /**
@@ -34,10 +34,15 @@ public final class Type implements TypeBearer, Comparable<Type> {
      *
      * <p>The initial capacity is based on a medium-size project.
      */
-    private static final ConcurrentMap<String, Type> internTable = new MapMaker()
-            .concurrencyLevel(Main.CONCURRENCY_LEVEL)
-            .initialCapacity(10_000)
-            .makeMap();
+    private static final ConcurrentMap<String, Type> internTable =
+            new ConcurrentHashMap<>(10_000, 0.75f, Main.CONCURRENCY_LEVEL);
+
+    /**
+     * Instances of class types by internal-form class name, so that {@link #internClassName}
+     * doesn't have to build the descriptor of types that are already interned.
+     */
+    private static final ConcurrentMap<String, Type> classNameTable =
+            new ConcurrentHashMap<>(10_000, 0.75f, Main.CONCURRENCY_LEVEL);
 
 
     /** basic type constant for {@code void} */
@@ -417,7 +422,12 @@ public final class Type implements TypeBearer, Comparable<Type> {
             return intern(name);
         }
 
-        return intern('L' + name + ';');
+        Type result = classNameTable.get(name);
+        if (result == null) {
+            result = intern('L' + name + ';');
+            classNameTable.putIfAbsent(name, result);
+        }
+        return result;
     }
 
     /**
@@ -17,8 +17,8 @@
 package com.android.dx.ssa;
 
 import com.android.dx.util.BitIntSet;
+import com.android.dx.util.CompressedIntSet;
 import com.android.dx.util.IntSet;
-import com.android.dx.util.ListIntSet;
 
 
 /**
@@ -27,7 +27,7 @@ import com.android.dx.util.ListIntSet;
 public final class SetFactory {
 
     /**
-     * BitIntSet/ListIntSet threshold for dominance frontier sets. These
+     * BitIntSet/CompressedIntSet threshold for dominance frontier sets. These
      * sets are kept per basic block until phi placement and tend to be,
      * like the CFG itself, very sparse at large sizes.
      *
@@ -36,7 +36,7 @@ public final class SetFactory {
     private static final int DOMFRONT_SET_THRESHOLD_SIZE = 3072;
 
     /**
-     * BitIntSet/ListIntSet threshold for interference graph sets. These
+     * BitIntSet/CompressedIntSet threshold for interference graph sets. These
      * sets are kept per register until register allocation is done.
      *
      * A value of 3072 here is somewhere around 1.125mb of total bitset size.
@@ -44,7 +44,7 @@ public final class SetFactory {
     private static final int INTERFERENCE_SET_THRESHOLD_SIZE = 3072;
 
     /**
-     * BitIntSet/ListIntSet threshold for the live in/out sets kept by
+     * BitIntSet/CompressedIntSet threshold for the live in/out sets kept by
      * {@link SsaBasicBlock}. These are sets of SSA registers kept per basic
      * block during register allocation.
      *
@@ -65,7 +65,7 @@ public final class SetFactory {
     /*package*/ static IntSet makeDomFrontSet(int szBlocks) {
         return szBlocks <= DOMFRONT_SET_THRESHOLD_SIZE
                 ? new BitIntSet(szBlocks)
-                : new ListIntSet();
+                : new CompressedIntSet();
     }
 
     /**
@@ -78,7 +78,7 @@ public final class SetFactory {
     public static IntSet makeInterferenceSet(int countRegs) {
         return countRegs <= INTERFERENCE_SET_THRESHOLD_SIZE
                 ? new BitIntSet(countRegs)
-                : new ListIntSet();
+                : new CompressedIntSet();
     }
 
     /**
@@ -90,6 +90,6 @@ public final class SetFactory {
     /*package*/ static IntSet makeLivenessSet(int countRegs) {
         return countRegs <= LIVENESS_SET_THRESHOLD_SIZE
                 ? new BitIntSet(countRegs)
-                : new ListIntSet();
+                : new CompressedIntSet();
     }
 }
@@ -32,6 +32,7 @@ import com.android.dx.ssa.RegisterMapper;
 import com.android.dx.ssa.SsaBasicBlock;
 import com.android.dx.ssa.SsaInsn;
 import com.android.dx.ssa.SsaMethod;
+import com.android.dx.util.CompressedIntSet;
 import com.android.dx.util.IntIterator;
 import com.android.dx.util.IntSet;
 import java.util.ArrayList;
@@ -1033,8 +1034,9 @@ public class FirstFitLocalCombiningAllocator extends RegisterAllocator {
         IntSet liveOut = insn.getBlock().getLiveOutRegs();
         RegisterSpecList liveOutSpecs = ssaSetToSpecs(liveOut);
 
-        // An SSA reg may only be mapped into a range once.
-        BitSet seen = new BitSet(ssaMeth.getRegCount());
+        // An SSA reg may only be mapped into a range once. Only holds the sources, so don't
+        // allocate a set sized for all the registers of the method.
+        IntSet seen = new CompressedIntSet();
 
         for (int i = 0; i < szSources ; i++) {
             RegisterSpec ssaSpec = sources.get(i);
@@ -1054,7 +1056,7 @@ public class FirstFitLocalCombiningAllocator extends RegisterAllocator {
                 break;
             } else if (!ssaRegsMapped.get(ssaReg)
                     && canMapReg(ssaSpec, ropReg)
-                    && !seen.get(ssaReg)) {
+                    && !seen.has(ssaReg)) {
                 // This is a register that can be mapped appropriately.
                 fitWidth += category;
             } else if (!mapper.areAnyPinned(liveOutSpecs, ropReg, category)
@@ -1077,7 +1079,7 @@ public class FirstFitLocalCombiningAllocator extends RegisterAllocator {
                 break;
             }
 
-            seen.set(ssaReg);
+            seen.add(ssaReg);
         }
         return fitWidth;
     }
@@ -0,0 +1,642 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of non-negative integers for large, sparse universes.
+ *
+ * <p>Values are split in chunks of {@link #CHUNK_SIZE} consecutive ints. Only the chunks that
+ * hold values are allocated, and each one picks the smallest of three representations: a sorted
+ * array of values, a bitmap, or a sorted list of runs of consecutive values. Unlike
+ * {@link BitIntSet} the memory used doesn't depend on the largest value, and unlike
+ * {@link ListIntSet} adding a value doesn't move all the larger ones.
+ */
+public class CompressedIntSet implements IntSet {
+
+    private static final int CHUNK_BITS = 10;
+
+    /** Number of consecutive values held by a chunk. */
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int LOW_MASK = CHUNK_SIZE - 1;
+
+    /** Number of longs in a bitmap chunk. */
+    private static final int BITMAP_WORDS = CHUNK_SIZE / 64;
+
+    /**
+     * Size of a bitmap chunk in chars, the unit used to compare the size of the
+     * representations. An array chunk needs a char per value and a run chunk two chars per run.
+     */
+    private static final int BITMAP_CHARS = BITMAP_WORDS * 4;
+
+    /** {@code non-null;} sorted index of the chunks held by {@link #chunks} */
+    private int[] keys;
+
+    /** {@code non-null;} chunks, in the same order as {@link #keys} */
+    private Chunk[] chunks;
+
+    /** number of chunks in use */
+    private int size;
+
+    /**
+     * Constructs an empty instance.
+     */
+    public CompressedIntSet() {
+        keys = new int[4];
+        chunks = new Chunk[4];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void add(int value) {
+        checkValue(value);
+        int key = value >>> CHUNK_BITS;
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            chunks[index] = chunks[index].add(value & LOW_MASK);
+        } else {
+            insertChunk(-index - 1, key, new ArrayChunk().add(value & LOW_MASK));
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void remove(int value) {
+        if (value < 0) {
+            return;
+        }
+        int index = Arrays.binarySearch(keys, 0, size, value >>> CHUNK_BITS);
+        if (index >= 0) {
+            Chunk chunk = chunks[index].remove(value & LOW_MASK);
+            if (chunk.cardinality() == 0) {
+                removeChunk(index);
+            } else {
+                chunks[index] = chunk;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean has(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int index = Arrays.binarySearch(keys, 0, size, value >>> CHUNK_BITS);
+        return index >= 0 && chunks[index].has(value & LOW_MASK);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void merge(IntSet other) {
+        if (!(other instanceof CompressedIntSet)) {
+            IntIterator iter = other.iterator();
+            while (iter.hasNext()) {
+                add(iter.next());
+            }
+            return;
+        }
+
+        CompressedIntSet o = (CompressedIntSet) other;
+        int i = 0;
+        for (int j = 0; j < o.size; j++) {
+            int key = o.keys[j];
+            while (i < size && keys[i] < key) {
+                i++;
+            }
+            if (i < size && keys[i] == key) {
+                chunks[i] = chunks[i].or(o.chunks[j]).optimize();
+            } else {
+                // chunks are mutable, never share them between sets.
+                insertChunk(i, key, o.chunks[j].copy());
+            }
+            i++;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int elements() {
+        int elements = 0;
+        for (int i = 0; i < size; i++) {
+            elements += chunks[i].cardinality();
+        }
+        return elements;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public IntIterator iterator() {
+        return new IntIterator() {
+            /** index of the chunk of {@link #next} */
+            private int chunk = 0;
+
+            /** next low value to return in the current chunk, or {@code -1} */
+            private int next = size > 0 ? chunks[0].nextValue(0) : -1;
+
+            /** {@inheritDoc} */
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public int next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                int ret = (keys[chunk] << CHUNK_BITS) | next;
+
+                next = next + 1 < CHUNK_SIZE ? chunks[chunk].nextValue(next + 1) : -1;
+                while (next < 0 && ++chunk < size) {
+                    next = chunks[chunk].nextValue(0);
+                }
+
+                return ret;
+            }
+        };
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append('{');
+
+        boolean first = true;
+        IntIterator iter = iterator();
+        while (iter.hasNext()) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(iter.next());
+        }
+
+        sb.append('}');
+
+        return sb.toString();
+    }
+
+    private static void checkValue(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value < 0");
+        }
+    }
+
+    private void insertChunk(int index, int key, Chunk chunk) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            chunks = Arrays.copyOf(chunks, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(chunks, index, chunks, index + 1, size - index);
+        keys[index] = key;
+        chunks[index] = chunk;
+        size++;
+    }
+
+    private void removeChunk(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(chunks, index + 1, chunks, index, size - index - 1);
+        size--;
+        chunks[size] = null;
+    }
+
+    /**
+     * Values of a chunk, between {@code 0} and {@link #CHUNK_SIZE} exclusive. Updates are done
+     * in place when possible, and return the chunk to use from then on.
+     */
+    private abstract static class Chunk {
+
+        abstract Chunk add(int low);
+
+        abstract Chunk remove(int low);
+
+        abstract boolean has(int low);
+
+        abstract int cardinality();
+
+        /** Returns the smallest value {@code >= from} of this chunk, or {@code -1}. */
+        abstract int nextValue(int from);
+
+        abstract Chunk copy();
+
+        /** Returns the union of this chunk and {@code other}, which is left unchanged. */
+        Chunk or(Chunk other) {
+            BitmapChunk result = toBitmap();
+            result.or(other);
+            return result;
+        }
+
+        /** Returns this chunk, or an equivalent one with a smaller representation. */
+        Chunk optimize() {
+            return this;
+        }
+
+        BitmapChunk toBitmap() {
+            BitmapChunk bitmap = new BitmapChunk();
+            for (int i = nextValue(0); i >= 0; i = i + 1 < CHUNK_SIZE ? nextValue(i + 1) : -1) {
+                bitmap.add(i);
+            }
+            return bitmap;
+        }
+    }
+
+    /** Chunk holding its values in a sorted array. Used for the sparsest chunks. */
+    private static final class ArrayChunk extends Chunk {
+        private char[] values;
+        private int cardinality;
+
+        ArrayChunk() {
+            values = new char[4];
+        }
+
+        private ArrayChunk(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Chunk add(int low) {
+            int index = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (index >= 0) {
+                return this;
+            }
+            if (cardinality == BITMAP_CHARS) {
+                BitmapChunk bitmap = toBitmap();
+                bitmap.add(low);
+                return bitmap.optimize();
+            }
+
+            index = -index - 1;
+            if (cardinality == values.length) {
+                int capacity = Math.min(Math.max(4, cardinality * 2), BITMAP_CHARS);
+                values = Arrays.copyOf(values, capacity);
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = (char) low;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Chunk remove(int low) {
+            int index = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean has(int low) {
+            return Arrays.binarySearch(values, 0, cardinality, (char) low) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextValue(int from) {
+            int index = Arrays.binarySearch(values, 0, cardinality, (char) from);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index < cardinality ? values[index] : -1;
+        }
+
+        @Override
+        Chunk copy() {
+            return new ArrayChunk(Arrays.copyOf(values, cardinality), cardinality);
+        }
+
+        @Override
+        Chunk or(Chunk other) {
+            if (!(other instanceof ArrayChunk)
+                    || cardinality + other.cardinality() > BITMAP_CHARS) {
+                return super.or(other);
+            }
+
+            ArrayChunk o = (ArrayChunk) other;
+            char[] merged = new char[cardinality + o.cardinality];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < cardinality && j < o.cardinality) {
+                char a = values[i];
+                char b = o.values[j];
+                if (a <= b) {
+                    i++;
+                    if (a == b) {
+                        j++;
+                    }
+                    merged[k++] = a;
+                } else {
+                    j++;
+                    merged[k++] = b;
+                }
+            }
+            while (i < cardinality) {
+                merged[k++] = values[i++];
+            }
+            while (j < o.cardinality) {
+                merged[k++] = o.values[j++];
+            }
+            return new ArrayChunk(merged, k);
+        }
+
+        @Override
+        BitmapChunk toBitmap() {
+            BitmapChunk bitmap = new BitmapChunk();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    /** Chunk holding one bit per value. Used for dense chunks. */
+    private static final class BitmapChunk extends Chunk {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapChunk() {
+            words = new long[BITMAP_WORDS];
+        }
+
+        private BitmapChunk(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Chunk add(int low) {
+            long mask = 1L << low;
+            int word = low >>> 6;
+            if ((words[word] & mask) == 0) {
+                words[word] |= mask;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Chunk remove(int low) {
+            long mask = 1L << low;
+            int word = low >>> 6;
+            if ((words[word] & mask) != 0) {
+                words[word] &= ~mask;
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean has(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextValue(int from) {
+            int word = from >>> 6;
+            long bits = words[word] & (-1L << from);
+            while (bits == 0) {
+                if (++word == BITMAP_WORDS) {
+                    return -1;
+                }
+                bits = words[word];
+            }
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+        @Override
+        Chunk copy() {
+            return new BitmapChunk(words.clone(), cardinality);
+        }
+
+        @Override
+        Chunk or(Chunk other) {
+            if (other instanceof BitmapChunk) {
+                long[] otherWords = ((BitmapChunk) other).words;
+                int newCardinality = 0;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    words[i] |= otherWords[i];
+                    newCardinality += Long.bitCount(words[i]);
+                }
+                cardinality = newCardinality;
+            } else {
+                for (int i = other.nextValue(0);
+                        i >= 0;
+                        i = i + 1 < CHUNK_SIZE ? other.nextValue(i + 1) : -1) {
+                    add(i);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        Chunk optimize() {
+            int runs = 0;
+            long previousHighBit = 0;
+            for (long word : words) {
+                // a run starts on every set bit whose lower neighbour is clear.
+                runs += Long.bitCount(word & ~((word << 1) | previousHighBit));
+                previousHighBit = word >>> 63;
+            }
+
+            if (runs * 2 < Math.min(cardinality, BITMAP_CHARS)) {
+                return RunChunk.fromBitmap(this, runs);
+            }
+            if (cardinality < BITMAP_CHARS) {
+                char[] values = new char[cardinality];
+                int k = 0;
+                for (int i = nextValue(0); i >= 0; i = i + 1 < CHUNK_SIZE ? nextValue(i + 1) : -1) {
+                    values[k++] = (char) i;
+                }
+                return new ArrayChunk(values, cardinality);
+            }
+            return this;
+        }
+
+        @Override
+        BitmapChunk toBitmap() {
+            return this;
+        }
+    }
+
+    /** Chunk holding sorted runs of consecutive values. Used for clustered chunks. */
+    private static final class RunChunk extends Chunk {
+        /** first value of each run */
+        private char[] starts;
+        /** last value of each run, inclusive */
+        private char[] ends;
+        private int runs;
+        private int cardinality;
+
+        private RunChunk(char[] starts, char[] ends, int runs, int cardinality) {
+            this.starts = starts;
+            this.ends = ends;
+            this.runs = runs;
+            this.cardinality = cardinality;
+        }
+
+        static RunChunk fromBitmap(BitmapChunk bitmap, int runs) {
+            char[] starts = new char[runs];
+            char[] ends = new char[runs];
+            int run = 0;
+            int start = bitmap.nextValue(0);
+            while (start >= 0) {
+                int end = start;
+                while (end + 1 < CHUNK_SIZE && bitmap.has(end + 1)) {
+                    end++;
+                }
+                starts[run] = (char) start;
+                ends[run] = (char) end;
+                run++;
+                start = end + 2 < CHUNK_SIZE ? bitmap.nextValue(end + 2) : -1;
+            }
+            return new RunChunk(starts, ends, runs, bitmap.cardinality());
+        }
+
+        /** Returns the index of the last run starting at or before {@code low}, or -1. */
+        private int findRun(int low) {
+            int index = Arrays.binarySearch(starts, 0, runs, (char) low);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        @Override
+        Chunk add(int low) {
+            int run = findRun(low);
+            if (run >= 0 && low <= ends[run]) {
+                return this;
+            }
+
+            boolean extendsPrevious = run >= 0 && ends[run] + 1 == low;
+            boolean extendsNext = run + 1 < runs && starts[run + 1] == low + 1;
+            if (extendsPrevious && extendsNext) {
+                ends[run] = ends[run + 1];
+                deleteRun(run + 1);
+            } else if (extendsPrevious) {
+                ends[run] = (char) low;
+            } else if (extendsNext) {
+                starts[run + 1] = (char) low;
+            } else {
+                if (runs * 2 == BITMAP_CHARS) {
+                    return toBitmap().add(low);
+                }
+                insertRun(run + 1, low, low);
+            }
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Chunk remove(int low) {
+            int run = findRun(low);
+            if (run < 0 || low > ends[run]) {
+                return this;
+            }
+
+            if (starts[run] == ends[run]) {
+                deleteRun(run);
+            } else if (starts[run] == low) {
+                starts[run]++;
+            } else if (ends[run] == low) {
+                ends[run]--;
+            } else {
+                if (runs * 2 == BITMAP_CHARS) {
+                    return toBitmap().remove(low);
+                }
+                insertRun(run + 1, low + 1, ends[run]);
+                ends[run] = (char) (low - 1);
+            }
+            cardinality--;
+            return this;
+        }
+
+        @Override
+        boolean has(int low) {
+            int run = findRun(low);
+            return run >= 0 && low <= ends[run];
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextValue(int from) {
+            int run = findRun(from);
+            if (run >= 0 && from <= ends[run]) {
+                return from;
+            }
+            return run + 1 < runs ? starts[run + 1] : -1;
+        }
+
+        @Override
+        Chunk copy() {
+            return new RunChunk(
+                    Arrays.copyOf(starts, runs), Arrays.copyOf(ends, runs), runs, cardinality);
+        }
+
+        @Override
+        BitmapChunk toBitmap() {
+            BitmapChunk bitmap = new BitmapChunk();
+            for (int i = 0; i < runs; i++) {
+                for (int value = starts[i]; value <= ends[i]; value++) {
+                    bitmap.add(value);
+                }
+            }
+            return bitmap;
+        }
+
+        private void insertRun(int index, int start, int end) {
+            if (runs == starts.length) {
+                int capacity = Math.max(4, runs * 2);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+            }
+            System.arraycopy(starts, index, starts, index + 1, runs - index);
+            System.arraycopy(ends, index, ends, index + 1, runs - index);
+            starts[index] = (char) start;
+            ends[index] = (char) end;
+            runs++;
+        }
+
+        private void deleteRun(int index) {
+            System.arraycopy(starts, index + 1, starts, index, runs - index - 1);
+            System.arraycopy(ends, index + 1, ends, index, runs - index - 1);
+            runs--;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.multidex;
+
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.TypeList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Graph of the direct class references of a jar or a directory of classes, from which main dex
+ * lists are computed like {@link MainDexListBuilder} does.
+ *
+ * <p>For each class, the graph records the classes referenced by its constant pool, its super
+ * types and whether it has runtime visible annotations. It is saved in a compact form between
+ * builds and updated by only reading the classes whose content changed, so that computing the
+ * main dex list of a build where a few classes changed does not read the whole program again.
+ */
+public class ClassReferenceGraph {
+    private static final String CLASS_EXTENSION = ".class";
+
+    private static final int VERSION = 1;
+
+    /** Classes by name, without the class extension. */
+    private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+    /**
+     * Loads the graph saved by {@link #save(File)}, or returns an empty graph if it cannot be
+     * read. The file is deleted so that a graph that is not saved again is never reused.
+     */
+    public static ClassReferenceGraph load(File stateFile) {
+        ClassReferenceGraph graph = new ClassReferenceGraph();
+        if (!stateFile.isFile()) {
+            return graph;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(stateFile)));
+            try {
+                if (in.readInt() == VERSION) {
+                    String[] strings = new String[in.readInt()];
+                    for (int i = 0; i < strings.length; i++) {
+                        strings[i] = in.readUTF();
+                    }
+                    int nodeCount = in.readInt();
+                    for (int i = 0; i < nodeCount; i++) {
+                        String name = strings[in.readInt()];
+                        graph.nodes.put(name, Node.read(in, strings));
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // corrupted graph, all the classes will be read again.
+            graph.nodes.clear();
+        } catch (RuntimeException e) {
+            graph.nodes.clear();
+        }
+        stateFile.delete();
+        return graph;
+    }
+
+    /** Saves the graph, to be loaded in the next build. */
+    public void save(File stateFile) throws IOException {
+        Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            addString(entry.getKey(), stringIndexes, strings);
+            entry.getValue().addStrings(stringIndexes, strings);
+        }
+
+        File parent = stateFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(stateFile)));
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                out.writeUTF(string);
+            }
+            out.writeInt(nodes.size());
+            for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+                out.writeInt(stringIndexes.get(entry.getKey()));
+                entry.getValue().write(out, stringIndexes);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Updates the graph with the classes of a jar or directory. Classes that were removed are
+     * removed from the graph, and only the classes that were added or changed are read.
+     *
+     * @return the number of classes that were read
+     */
+    public int update(File classes) throws IOException {
+        Map<String, Node> oldNodes = new HashMap<String, Node>(nodes);
+        nodes.clear();
+        int readCount = 0;
+        if (classes.isDirectory()) {
+            List<File> files = new ArrayList<File>();
+            collect(classes, files);
+            String basePath = classes.getPath() + File.separator;
+            for (File file : files) {
+                String name = file.getPath().substring(basePath.length())
+                        .replace(File.separatorChar, ClassPathElement.SEPARATOR_CHAR);
+                byte[] bytes = readFully(new FileInputStream(file));
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if (updateNode(name, crc.getValue(), bytes.length, bytes, oldNodes)) {
+                    readCount++;
+                }
+            }
+        } else {
+            ZipFile zipFile = new ZipFile(classes);
+            try {
+                for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                        entries.hasMoreElements();) {
+                    ZipEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    if (entry.isDirectory() || !name.endsWith(CLASS_EXTENSION)) {
+                        continue;
+                    }
+                    Node oldNode = oldNodes.get(getClassName(name));
+                    byte[] bytes = null;
+                    if (oldNode == null
+                            || oldNode.crc != entry.getCrc()
+                            || oldNode.size != entry.getSize()) {
+                        bytes = readFully(zipFile.getInputStream(entry));
+                    }
+                    if (updateNode(name, entry.getCrc(), entry.getSize(), bytes, oldNodes)) {
+                        readCount++;
+                    }
+                }
+            } finally {
+                zipFile.close();
+            }
+        }
+        return readCount;
+    }
+
+    /**
+     * Adds the node of a class, reusing the previous one if the class did not change.
+     *
+     * @param bytes the content of the class, may be null if the class did not change
+     * @return whether the class was read
+     */
+    private boolean updateNode(
+            String fileName, long crc, long size, byte[] bytes, Map<String, Node> oldNodes)
+            throws IOException {
+        String name = getClassName(fileName);
+        if (nodes.containsKey(name)) {
+            // like the class path, the first class wins.
+            return false;
+        }
+        Node oldNode = oldNodes.get(name);
+        if (oldNode != null && oldNode.crc == crc && oldNode.size == size) {
+            nodes.put(name, oldNode);
+            return false;
+        }
+        nodes.put(name, Node.create(fileName, crc, size, bytes));
+        return true;
+    }
+
+    /**
+     * Returns the list of classes to keep in the main dex, as computed by
+     * {@link MainDexListBuilder} for the classes of the graph.
+     *
+     * @param jarOfRoots archive containing the class files resulting of the tracing, typically
+     * this is the result of running ProGuard.
+     * @param keepAnnotated whether classes with runtime visible annotations are kept.
+     */
+    public Set<String> getMainDexList(File jarOfRoots, boolean keepAnnotated) throws IOException {
+        List<String> roots = new ArrayList<String>();
+        ZipFile zipFile = new ZipFile(jarOfRoots);
+        try {
+            for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                    entries.hasMoreElements();) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(CLASS_EXTENSION)) {
+                    roots.add(getClassName(name));
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        return getMainDexList(roots, keepAnnotated);
+    }
+
+    Set<String> getMainDexList(List<String> roots, boolean keepAnnotated) throws IOException {
+        // keep roots
+        Set<String> classNames = new HashSet<String>(roots);
+
+        // keep direct references of roots (+ direct references hierarchy)
+        for (String root : roots) {
+            Node node = nodes.get(root);
+            if (node == null) {
+                throw new IOException("Class " + root + CLASS_EXTENSION
+                        + " is missing form original class path");
+            }
+            for (String reference : node.references) {
+                addClassWithHierarchy(reference, classNames);
+            }
+        }
+
+        Set<String> filesToKeep = new TreeSet<String>();
+        for (String className : classNames) {
+            filesToKeep.add(className + CLASS_EXTENSION);
+        }
+        if (keepAnnotated) {
+            for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+                if (entry.getValue().annotated) {
+                    filesToKeep.add(entry.getKey() + CLASS_EXTENSION);
+                }
+            }
+        }
+        return filesToKeep;
+    }
+
+    private void addClassWithHierarchy(String className, Set<String> classNames) {
+        if (classNames.contains(className)) {
+            return;
+        }
+        Node node = nodes.get(className);
+        if (node == null) {
+            // The referenced type is not in the graph it must be part of the libraries.
+            return;
+        }
+        classNames.add(className);
+        if (node.superclass != null) {
+            addClassWithHierarchy(node.superclass, classNames);
+        }
+        for (String anInterface : node.interfaces) {
+            addClassWithHierarchy(anInterface, classNames);
+        }
+    }
+
+    private static String getClassName(String fileName) {
+        return fileName.substring(0, fileName.length() - CLASS_EXTENSION.length());
+    }
+
+    private static void collect(File folder, List<File> result) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collect(file, result);
+            } else if (file.getName().endsWith(CLASS_EXTENSION)) {
+                result.add(file);
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void addString(
+            String string, Map<String, Integer> stringIndexes, List<String> strings) {
+        if (!stringIndexes.containsKey(string)) {
+            stringIndexes.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    /** The references and the hierarchy of a class. */
+    private static final class Node {
+        private static final String[] NONE = new String[0];
+
+        /** CRC-32 and size of the class file, to detect changes. */
+        final long crc;
+        final long size;
+
+        final boolean annotated;
+        final String superclass;
+        final String[] interfaces;
+        final String[] references;
+
+        private Node(
+                long crc,
+                long size,
+                boolean annotated,
+                String superclass,
+                String[] interfaces,
+                String[] references) {
+            this.crc = crc;
+            this.size = size;
+            this.annotated = annotated;
+            this.superclass = superclass;
+            this.interfaces = interfaces;
+            this.references = references;
+        }
+
+        static Node create(String fileName, long crc, long size, byte[] bytes) {
+            DirectClassFile classFile = new DirectClassFile(bytes, fileName, false);
+            classFile.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+            CstType superclass = classFile.getSuperclass();
+            TypeList interfaceList = classFile.getInterfaces();
+            String[] interfaces = interfaceList.size() == 0
+                    ? NONE : new String[interfaceList.size()];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaces[i] = interfaceList.getType(i).getClassName();
+            }
+            Set<String> references =
+                    ClassReferenceListBuilder.getReferencedClasses(classFile.getConstantPool());
+            return new Node(
+                    crc,
+                    size,
+                    MainDexListBuilder.hasRuntimeVisibleAnnotations(classFile),
+                    superclass != null ? superclass.getClassType().getClassName() : null,
+                    interfaces,
+                    references.toArray(new String[references.size()]));
+        }
+
+        static Node read(DataInputStream in, String[] strings) throws IOException {
+            long crc = in.readInt() & 0xFFFFFFFFL;
+            long size = in.readInt() & 0xFFFFFFFFL;
+            boolean annotated = in.readBoolean();
+            int superclass = in.readInt();
+            return new Node(
+                    crc,
+                    size,
+                    annotated,
+                    superclass >= 0 ? strings[superclass] : null,
+                    readStrings(in, strings),
+                    readStrings(in, strings));
+        }
+
+        void write(DataOutputStream out, Map<String, Integer> stringIndexes) throws IOException {
+            out.writeInt((int) crc);
+            out.writeInt((int) size);
+            out.writeBoolean(annotated);
+            out.writeInt(superclass != null ? stringIndexes.get(superclass) : -1);
+            writeStrings(out, interfaces, stringIndexes);
+            writeStrings(out, references, stringIndexes);
+        }
+
+        void addStrings(Map<String, Integer> stringIndexes, List<String> strings) {
+            if (superclass != null) {
+                addString(superclass, stringIndexes, strings);
+            }
+            for (String anInterface : interfaces) {
+                addString(anInterface, stringIndexes, strings);
+            }
+            for (String reference : references) {
+                addString(reference, stringIndexes, strings);
+            }
+        }
+
+        private static String[] readStrings(DataInputStream in, String[] strings)
+                throws IOException {
+            int count = in.readInt();
+            if (count == 0) {
+                return NONE;
+            }
+            String[] result = new String[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = strings[in.readInt()];
+            }
+            return result;
+        }
+
+        private static void writeStrings(
+                DataOutputStream out, String[] values, Map<String, Integer> stringIndexes)
+                throws IOException {
+            out.writeInt(values.length);
+            for (String value : values) {
+                out.writeInt(stringIndexes.get(value));
+            }
+        }
+    }
+}
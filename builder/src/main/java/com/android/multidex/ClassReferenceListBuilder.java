@@ -27,11 +27,14 @@ import com.android.dx.rop.type.StdTypeList;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -43,10 +46,20 @@ public class ClassReferenceListBuilder {
     private static final String CLASS_TO_CHECK = System.getenv("CLASS_TO_CHECK");
 
     private final Path path;
+    private final ExecutorService executor;
     private final Set<String> classNames = new HashSet<String>();
 
     public ClassReferenceListBuilder(Path path) {
+        this(path, null);
+    }
+
+    /**
+     * @param executor the executor reading the classes of the path concurrently, or null to read
+     * them in the calling thread.
+     */
+    ClassReferenceListBuilder(Path path, ExecutorService executor) {
         this.path = path;
+        this.executor = executor;
     }
 
     /**
@@ -70,6 +83,7 @@ public class ClassReferenceListBuilder {
     public void addRoots(ZipFile jarOfRoots) throws IOException {
 
         // keep roots
+        List<String> roots = new ArrayList<String>();
         for (Enumeration<? extends ZipEntry> entries = jarOfRoots.entries();
                 entries.hasMoreElements();) {
             ZipEntry entry = entries.nextElement();
@@ -79,88 +93,133 @@ public class ClassReferenceListBuilder {
                   found();
                 }
                 classNames.add(name.substring(0, name.length() - CLASS_EXTENSION.length()));
+                roots.add(name);
             }
         }
 
         // keep direct references of roots (+ direct references hierarchy)
-        for (Enumeration<? extends ZipEntry> entries = jarOfRoots.entries();
-                entries.hasMoreElements();) {
-            ZipEntry entry = entries.nextElement();
-            String name = entry.getName();
-            if (name.endsWith(CLASS_EXTENSION)) {
-                DirectClassFile classFile;
-                try {
-                    classFile = path.getClass(name);
-                } catch (FileNotFoundException e) {
-                    throw new IOException("Class " + name +
-                            " is missing form original class path " + path, e);
-                }
-
-                addDependencies(classFile.getConstantPool());
+        List<Set<String>> dependencies = path.forClasses(roots,
+                new Path.ClassFunction<Set<String>>() {
+                    @Override
+                    public Set<String> apply(String name, DirectClassFile classFile) {
+                        return classFile != null
+                                ? getReferencedClasses(classFile.getConstantPool())
+                                : null;
+                    }
+                }, executor);
+        Set<String> referencedClasses = new LinkedHashSet<String>();
+        for (int i = 0; i < roots.size(); i++) {
+            if (dependencies.get(i) == null) {
+                throw new IOException("Class " + roots.get(i) +
+                        " is missing form original class path " + path);
             }
+            referencedClasses.addAll(dependencies.get(i));
         }
+        addClassesWithHierarchy(referencedClasses);
     }
 
     Set<String> getClassNames() {
         return classNames;
     }
 
-    private void addDependencies(ConstantPool pool) {
+    /**
+     * Returns the names of the classes referenced by the types, fields and methods of a constant
+     * pool, in the order of the pool.
+     */
+    static Set<String> getReferencedClasses(ConstantPool pool) {
+        Set<String> referencedClasses = new LinkedHashSet<String>();
         for (Constant constant : pool.getEntries()) {
             if (constant instanceof CstType) {
-                checkDescriptor(((CstType) constant).getClassType());
+                checkDescriptor(((CstType) constant).getClassType(), referencedClasses);
             } else if (constant instanceof CstFieldRef) {
-                checkDescriptor(((CstFieldRef) constant).getType());
+                checkDescriptor(((CstFieldRef) constant).getType(), referencedClasses);
             } else if (constant instanceof CstMethodRef) {
                 Prototype proto = ((CstMethodRef) constant).getPrototype();
-                checkDescriptor(proto.getReturnType());
+                checkDescriptor(proto.getReturnType(), referencedClasses);
                 StdTypeList args = proto.getParameterTypes();
                 for (int i = 0; i < args.size(); i++) {
-                    checkDescriptor(args.get(i));
+                    checkDescriptor(args.get(i), referencedClasses);
                 }
             }
         }
+        return referencedClasses;
     }
 
-    private void checkDescriptor(Type type) {
+    private static void checkDescriptor(Type type, Set<String> referencedClasses) {
         String descriptor = type.getDescriptor();
         if (descriptor.endsWith(";")) {
             int lastBrace = descriptor.lastIndexOf('[');
             if (lastBrace < 0) {
-                addClassWithHierarchy(descriptor.substring(1, descriptor.length()-1));
+                referencedClasses.add(descriptor.substring(1, descriptor.length()-1));
             } else {
                 assert descriptor.length() > lastBrace + 3
                 && descriptor.charAt(lastBrace + 1) == 'L';
-                addClassWithHierarchy(descriptor.substring(lastBrace + 2,
+                referencedClasses.add(descriptor.substring(lastBrace + 2,
                         descriptor.length() - 1));
             }
         }
     }
 
-    private void addClassWithHierarchy(String classBinaryName) {
-        if (classNames.contains(classBinaryName)) {
-            return;
+    /**
+     * Adds classes and their hierarchy, one level of the hierarchy at a time so that the classes
+     * of a level are read concurrently. Classes that are not in the path are ignored.
+     */
+    private void addClassesWithHierarchy(Set<String> classBinaryNames) throws IOException {
+        List<String> pending = new ArrayList<String>();
+        for (String classBinaryName : classBinaryNames) {
+            if (!classNames.contains(classBinaryName)) {
+                pending.add(classBinaryName);
+            }
         }
-
-        try {
-            DirectClassFile classFile = path.getClass(classBinaryName + CLASS_EXTENSION);
-            if (CLASS_TO_CHECK != null && classBinaryName.contains(CLASS_TO_CHECK)) {
-              found();
+        while (!pending.isEmpty()) {
+            List<String> paths = new ArrayList<String>(pending.size());
+            for (String classBinaryName : pending) {
+                paths.add(classBinaryName + CLASS_EXTENSION);
             }
-            classNames.add(classBinaryName);
-            CstType superClass = classFile.getSuperclass();
-            if (superClass != null) {
-                addClassWithHierarchy(superClass.getClassType().getClassName());
+            List<List<String>> superTypes = path.forClasses(paths,
+                    new Path.ClassFunction<List<String>>() {
+                        @Override
+                        public List<String> apply(String name, DirectClassFile classFile) {
+                            return classFile != null ? getSuperTypes(classFile) : null;
+                        }
+                    }, executor);
+
+            Set<String> next = new LinkedHashSet<String>();
+            for (int i = 0; i < pending.size(); i++) {
+                if (superTypes.get(i) == null) {
+                    // Ignore: The referenced type is not in the path it must be part of the
+                    // libraries.
+                    continue;
+                }
+                String classBinaryName = pending.get(i);
+                if (CLASS_TO_CHECK != null && classBinaryName.contains(CLASS_TO_CHECK)) {
+                  found();
+                }
+                classNames.add(classBinaryName);
+                next.addAll(superTypes.get(i));
             }
-
-            TypeList interfaceList = classFile.getInterfaces();
-            int interfaceNumber = interfaceList.size();
-            for (int i = 0; i < interfaceNumber; i++) {
-                addClassWithHierarchy(interfaceList.getType(i).getClassName());
+            pending.clear();
+            for (String classBinaryName : next) {
+                if (!classNames.contains(classBinaryName)) {
+                    pending.add(classBinaryName);
+                }
             }
-        } catch (FileNotFoundException e) {
-            // Ignore: The referenced type is not in the path it must be part of the libraries.
         }
     }
 
+    private static List<String> getSuperTypes(DirectClassFile classFile) {
+        List<String> superTypes = new ArrayList<String>();
+        CstType superClass = classFile.getSuperclass();
+        if (superClass != null) {
+            superTypes.add(superClass.getClassType().getClassName());
+        }
+
+        TypeList interfaceList = classFile.getInterfaces();
+        int interfaceNumber = interfaceList.size();
+        for (int i = 0; i < interfaceNumber; i++) {
+            superTypes.add(interfaceList.getType(i).getClassName());
+        }
+        return superTypes;
+    }
+
 }
@@ -25,8 +25,12 @@ import com.android.dx.cf.iface.MethodList;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipFile;
 
 /**
@@ -101,8 +105,18 @@ public class MainDexListBuilder {
 
     public MainDexListBuilder(boolean keepAnnotated, String rootJar, String pathString)
             throws IOException {
+        this(keepAnnotated, rootJar, pathString, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param numThreads number of threads reading the classes of the path.
+     */
+    public MainDexListBuilder(
+            boolean keepAnnotated, String rootJar, String pathString, int numThreads)
+            throws IOException {
         ZipFile jarOfRoots = null;
         Path path = null;
+        ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
         try {
             try {
                 jarOfRoots = new ZipFile(rootJar);
@@ -112,15 +126,19 @@ public class MainDexListBuilder {
             }
             path = new Path(pathString);
 
-            ClassReferenceListBuilder mainListBuilder = new ClassReferenceListBuilder(path);
+            ClassReferenceListBuilder mainListBuilder =
+                    new ClassReferenceListBuilder(path, executor);
             mainListBuilder.addRoots(jarOfRoots);
             for (String className : mainListBuilder.getClassNames()) {
                 filesToKeep.add(className + CLASS_EXTENSION);
             }
             if (keepAnnotated) {
-                keepAnnotated(path);
+                keepAnnotated(path, executor);
             }
         } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
             try {
                 jarOfRoots.close();
             } catch (IOException e) {
@@ -158,36 +176,55 @@ public class MainDexListBuilder {
     /**
      * Keep classes annotated with runtime annotations.
      */
-    private void keepAnnotated(Path path) throws FileNotFoundException {
+    private void keepAnnotated(Path path, ExecutorService executor) throws IOException {
+        List<String> names = new ArrayList<String>();
         for (ClassPathElement element : path.getElements()) {
-            forClazz:
-                for (String name : element.list()) {
-                    if (name.endsWith(CLASS_EXTENSION)) {
-                        DirectClassFile clazz = path.getClass(name);
-                        if (hasRuntimeVisibleAnnotation(clazz)) {
-                            filesToKeep.add(name);
-                        } else {
-                            MethodList methods = clazz.getMethods();
-                            for (int i = 0; i<methods.size(); i++) {
-                                if (hasRuntimeVisibleAnnotation(methods.get(i))) {
-                                    filesToKeep.add(name);
-                                    continue forClazz;
-                                }
-                            }
-                            FieldList fields = clazz.getFields();
-                            for (int i = 0; i<fields.size(); i++) {
-                                if (hasRuntimeVisibleAnnotation(fields.get(i))) {
-                                    filesToKeep.add(name);
-                                    continue forClazz;
-                                }
-                            }
-                        }
-                    }
+            for (String name : element.list()) {
+                if (name.endsWith(CLASS_EXTENSION)) {
+                    names.add(name);
                 }
+            }
+        }
+        List<Boolean> annotated = path.forClasses(names, new Path.ClassFunction<Boolean>() {
+            @Override
+            public Boolean apply(String name, DirectClassFile classFile) {
+                return classFile != null ? hasRuntimeVisibleAnnotations(classFile) : null;
+            }
+        }, executor);
+        for (int i = 0; i < names.size(); i++) {
+            if (annotated.get(i) == null) {
+                throw new FileNotFoundException("File \"" + names.get(i) + "\" not found");
+            }
+            if (annotated.get(i)) {
+                filesToKeep.add(names.get(i));
+            }
+        }
+    }
+
+    /**
+     * Returns whether a class, one of its methods or one of its fields has runtime visible
+     * annotations.
+     */
+    static boolean hasRuntimeVisibleAnnotations(DirectClassFile clazz) {
+        if (hasRuntimeVisibleAnnotation(clazz)) {
+            return true;
+        }
+        MethodList methods = clazz.getMethods();
+        for (int i = 0; i<methods.size(); i++) {
+            if (hasRuntimeVisibleAnnotation(methods.get(i))) {
+                return true;
+            }
+        }
+        FieldList fields = clazz.getFields();
+        for (int i = 0; i<fields.size(); i++) {
+            if (hasRuntimeVisibleAnnotation(fields.get(i))) {
+                return true;
+            }
         }
+        return false;
     }
 
-    private boolean hasRuntimeVisibleAnnotation(HasAttribute element) {
+    private static boolean hasRuntimeVisibleAnnotation(HasAttribute element) {
         Attribute att = element.getAttributes().findFirst(
                 AttRuntimeVisibleAnnotations.ATTRIBUTE_NAME);
         return (att != null && ((AttRuntimeVisibleAnnotations)att).getAnnotations().size()>0);
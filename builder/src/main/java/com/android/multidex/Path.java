@@ -24,14 +24,30 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
+/**
+ * A class path in which class files are searched in order.
+ *
+ * <p>The element containing each class file is indexed once when the path is created, so that
+ * lookups do not scan the elements. Lookups do not share any state and can be made concurrently.
+ */
 class Path {
 
+    /** Number of classes read by each task of {@link #forClasses}. */
+    private static final int CLASSES_PER_TASK = 128;
+
     static ClassPathElement getClassPathElement(File file)
             throws ZipException, IOException {
         if (file.isDirectory()) {
@@ -46,10 +62,35 @@ class Path {
         }
     }
 
+    /**
+     * A function of a class of the path.
+     */
+    interface ClassFunction<T> {
+        /**
+         * @param classFile the class, or null if it is not in the path.
+         */
+        T apply(String path, DirectClassFile classFile);
+    }
+
     List<ClassPathElement> elements = new ArrayList<ClassPathElement>();
     private final String definition;
-    private final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(40 * 1024);
-    private final byte[] readBuffer = new byte[20 * 1024];
+
+    /** First element containing each file, by path without leading separator. */
+    private final Map<String, ClassPathElement> index = new HashMap<String, ClassPathElement>();
+
+    private static final ThreadLocal<ByteArrayOutputStream> byteArrayOutputStreams =
+            new ThreadLocal<ByteArrayOutputStream>() {
+                @Override
+                protected ByteArrayOutputStream initialValue() {
+                    return new ByteArrayOutputStream(40 * 1024);
+                }
+            };
+    private static final ThreadLocal<byte[]> readBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[20 * 1024];
+        }
+    };
 
     Path(String definition) throws IOException {
         this.definition = definition;
@@ -91,29 +132,106 @@ class Path {
     private void addElement(ClassPathElement element) {
         assert element != null;
         elements.add(element);
+        for (String name : element.list()) {
+            String key = getIndexKey(name);
+            if (!index.containsKey(key)) {
+                index.put(key, element);
+            }
+        }
+    }
+
+    private static String getIndexKey(String path) {
+        // folders list their files with a leading separator.
+        return path.length() > 0 && path.charAt(0) == ClassPathElement.SEPARATOR_CHAR
+                ? path.substring(1) : path;
     }
 
-    synchronized DirectClassFile getClass(String path) throws FileNotFoundException {
-        DirectClassFile classFile = null;
-        for (ClassPathElement element : elements) {
+    DirectClassFile getClass(String path) throws FileNotFoundException {
+        ClassPathElement element = index.get(getIndexKey(path));
+        if (element != null) {
+            ByteArrayOutputStream byteArrayOutputStream = byteArrayOutputStreams.get();
             try {
                 InputStream in = element.open(path);
                 try {
-                    byte[] bytes = readStream(in, byteArrayOutputStream, readBuffer);
-                    byteArrayOutputStream.reset();
-                    classFile = new DirectClassFile(bytes, path, false);
+                    byte[] bytes = readStream(in, byteArrayOutputStream, readBuffers.get());
+                    DirectClassFile classFile = new DirectClassFile(bytes, path, false);
                     classFile.setAttributeFactory(StdAttributeFactory.THE_ONE);
-                    break;
+                    return classFile;
                 } finally {
                     in.close();
                 }
             } catch (IOException e) {
-                // search next element
+                // not readable, like a missing class.
+            } finally {
+                byteArrayOutputStream.reset();
             }
         }
-        if (classFile == null) {
-            throw new FileNotFoundException("File \"" + path + "\" not found");
+        throw new FileNotFoundException("File \"" + path + "\" not found");
+    }
+
+    /**
+     * Applies a function to classes of the path and returns the results in the order of the
+     * classes.
+     *
+     * @param executor the executor reading the classes concurrently, or null to read them in the
+     * calling thread.
+     */
+    <T> List<T> forClasses(
+            List<String> paths, final ClassFunction<T> function, ExecutorService executor)
+            throws IOException {
+        List<T> results = new ArrayList<T>(paths.size());
+        if (executor == null) {
+            for (String path : paths) {
+                results.add(apply(path, function));
+            }
+            return results;
+        }
+
+        List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>();
+        for (int start = 0; start < paths.size(); start += CLASSES_PER_TASK) {
+            final List<String> batch =
+                    paths.subList(start, Math.min(paths.size(), start + CLASSES_PER_TASK));
+            futures.add(executor.submit(new Callable<List<T>>() {
+                @Override
+                public List<T> call() {
+                    List<T> batchResults = new ArrayList<T>(batch.size());
+                    for (String path : batch) {
+                        batchResults.add(apply(path, function));
+                    }
+                    return batchResults;
+                }
+            }));
+        }
+        try {
+            for (Future<List<T>> future : futures) {
+                results.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading classes of " + this);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for (Future<List<T>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private <T> T apply(String path, ClassFunction<T> function) {
+        DirectClassFile classFile;
+        try {
+            classFile = getClass(path);
+        } catch (FileNotFoundException e) {
+            classFile = null;
         }
-        return classFile;
+        return function.apply(path, classFile);
     }
-}
\ No newline at end of file
+}
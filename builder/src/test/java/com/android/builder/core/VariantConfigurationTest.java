@@ -16,8 +16,10 @@
 
 package com.android.builder.core;
 
+import com.android.builder.internal.ClassFieldImpl;
 import com.android.builder.model.SigningConfig;
 import com.android.builder.signing.DefaultSigningConfig;
+import com.google.common.collect.ImmutableSet;
 import junit.framework.TestCase;
 
 public class VariantConfigurationTest extends TestCase {
@@ -128,6 +130,51 @@ public class VariantConfigurationTest extends TestCase {
         assertEquals(override, variant.getSigningConfig());
     }
 
+    public void testMergedValuesAreReused() {
+        mBuildType.addBuildConfigField(new ClassFieldImpl("String", "FOO", "\"foo\""));
+        mFlavorConfig.addResValue(new ClassFieldImpl("string", "bar", "bar"));
+
+        VariantConfiguration variant = getVariantWithManifestPackage();
+
+        assertSame(variant.getApplicationId(), variant.getApplicationId());
+        assertSame(variant.getMergedBuildConfigFields(), variant.getMergedBuildConfigFields());
+        assertSame(variant.getMergedResValues(), variant.getMergedResValues());
+        assertSame(variant.getBuildConfigItems(), variant.getBuildConfigItems());
+        assertSame(variant.getResValues(), variant.getResValues());
+    }
+
+    public void testMergedValuesFollowBuildTypeChanges() {
+        VariantConfiguration variant = getVariantWithManifestPackage();
+        assertEquals("fake.package.name", variant.getApplicationId());
+        assertTrue(variant.getMergedBuildConfigFields().isEmpty());
+
+        mBuildType.setApplicationIdSuffix("debug");
+        mBuildType.addBuildConfigField(new ClassFieldImpl("String", "FOO", "\"foo\""));
+
+        assertEquals("fake.package.name.debug", variant.getApplicationId());
+        assertEquals(
+                ImmutableSet.of("FOO"), variant.getMergedBuildConfigFields().keySet());
+    }
+
+    public void testMergedValuesFollowFlavorChanges() {
+        VariantConfiguration variant = getVariant();
+        assertTrue(variant.getMergedResValues().isEmpty());
+
+        mFlavorConfig.addResValue(new ClassFieldImpl("string", "bar", "bar"));
+
+        assertEquals(ImmutableSet.of("bar"), variant.getMergedResValues().keySet());
+    }
+
+    public void testMergedValuesFollowVariantChanges() {
+        VariantConfiguration variant = getVariant();
+        assertTrue(variant.getMergedBuildConfigFields().isEmpty());
+
+        variant.addBuildConfigField("String", "FOO", "\"foo\"");
+
+        assertEquals(
+                ImmutableSet.of("FOO"), variant.getMergedBuildConfigFields().keySet());
+    }
+
     private VariantConfiguration getVariant() {
         return getVariant(null /*signingOverride*/);
     }
@@ -26,6 +26,8 @@ import com.google.common.base.Strings;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import org.junit.rules.TemporaryFolder;
 
 /**
@@ -129,4 +131,49 @@ public class AaptTestUtils {
 
         return outputDir;
     }
+
+    /**
+     * Creates a fake {@code aapt} or {@code aapt2} server for testing. It is a shell script that
+     * appends {@code start} to a log file, prints {@code Ready}, then reads commands until it reads
+     * {@code quit}.
+     *
+     * @param server the script to create
+     * @param log the log file, which the commands can append to with {@code >> "$log"}
+     * @param commands the branches of the {@code case} statement on each {@code $command} read
+     * @return the script
+     * @throws IOException failed to create the script
+     */
+    @NonNull
+    public static File createFakeServer(
+            @NonNull File server, @NonNull File log, @NonNull String commands)
+            throws IOException {
+        Files.write(
+                "#!/bin/sh\n"
+                        + "log='" + log.getAbsolutePath() + "'\n"
+                        + "echo start >> \"$log\"\n"
+                        + "echo Ready\n"
+                        + "while read command; do\n"
+                        + "  case \"$command\" in\n"
+                        + commands
+                        + "    quit) exit 0;;\n"
+                        + "  esac\n"
+                        + "done\n",
+                server,
+                StandardCharsets.UTF_8);
+        assertTrue(server.setExecutable(true));
+        return server;
+    }
+
+    /**
+     * Counts the lines of the log of a fake server equal to the given line.
+     *
+     * @param log the log file
+     * @param line the line to count
+     * @return the number of lines
+     * @throws IOException failed to read the log
+     */
+    public static int countLogLines(@NonNull File log, @NonNull String line) throws IOException {
+        return (int)
+                Files.readLines(log, StandardCharsets.UTF_8).stream().filter(line::equals).count();
+    }
 }
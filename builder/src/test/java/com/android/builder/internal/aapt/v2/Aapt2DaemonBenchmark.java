@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.aapt.v2;
+
+import com.android.ide.common.process.LoggedProcessOutputHandler;
+import com.android.utils.FileUtils;
+import com.android.utils.StdLogger;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles all the files of a resource directory with a new {@code aapt2} process per file, then
+ * with the daemons of an {@link Aapt2DaemonPool} (first with new daemons, then with the same
+ * ones), and reports the times.
+ *
+ * <p>This is not run as part of the tests. Run the {@code main} method with an {@code aapt2} that
+ * supports the server mode and a resource directory.
+ */
+public class Aapt2DaemonBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: Aapt2DaemonBenchmark <aapt2> <res directory>");
+            System.exit(1);
+        }
+        String aapt2 = args[0];
+        List<File> resources = new ArrayList<>();
+        for (File file : Files.fileTreeTraverser().preOrderTraversal(new File(args[1]))) {
+            if (file.isFile()) {
+                resources.add(file);
+            }
+        }
+        File outputDir = Files.createTempDir();
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                long start = System.nanoTime();
+                List<Future<Integer>> exitValues = new ArrayList<>();
+                for (File resource : resources) {
+                    exitValues.add(
+                            executor.submit(
+                                    () -> compileInNewProcess(aapt2, resource, outputDir)));
+                }
+                for (Future<Integer> exitValue : exitValues) {
+                    exitValue.get();
+                }
+                report(resources.size() + " processes", start);
+            } finally {
+                executor.shutdown();
+            }
+
+            StdLogger logger = new StdLogger(StdLogger.Level.WARNING);
+            Aapt2DaemonPool pool = Aapt2DaemonPool.Builder.INSTANCE.getPool(aapt2, logger, threads);
+            try {
+                for (String label : new String[] {"new daemons", "running daemons"}) {
+                    long start = System.nanoTime();
+                    List<ListenableFuture<File>> results = new ArrayList<>();
+                    for (File resource : resources) {
+                        results.add(
+                                pool.compile(
+                                        AaptV2CommandBuilder.makeCompileArgs(resource, outputDir),
+                                        new File(
+                                                outputDir,
+                                                Aapt2RenamingConventions.compilationRename(
+                                                        resource)),
+                                        new LoggedProcessOutputHandler(logger)));
+                    }
+                    for (ListenableFuture<File> result : results) {
+                        result.get();
+                    }
+                    report(label, start);
+                }
+            } finally {
+                pool.shutdown();
+            }
+        } finally {
+            FileUtils.deletePath(outputDir);
+        }
+    }
+
+    private static int compileInNewProcess(String aapt2, File resource, File outputDir)
+            throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(aapt2);
+        command.addAll(AaptV2CommandBuilder.makeCompile(resource, outputDir));
+        return new ProcessBuilder(command).start().waitFor();
+    }
+
+    private static void report(String label, long start) {
+        System.out.printf("%s: %,d ms%n", label, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.aapt.v2;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.builder.internal.aapt.AaptException;
+import com.android.builder.internal.aapt.AaptTestUtils;
+import com.android.ide.common.process.BaseProcessOutputHandler;
+import com.android.ide.common.process.CachedProcessOutputHandler;
+import com.android.utils.StdLogger;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link Aapt2DaemonPool} with a fake daemon that speaks the protocol of the aapt2
+ * server mode and logs its startups and compilations. It "compiles" a file by copying it, slowly
+ * for a file containing {@code slow}, fails on a file containing {@code error} or on unexpected
+ * arguments, crashes on a file containing {@code crash} and hangs on a file containing {@code
+ * hang}.
+ */
+public class Aapt2DaemonPoolTest {
+
+    private static final int MAX_DAEMONS = 2;
+
+    private static final long RESPONSE_TIMEOUT_MS = 60_000;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final CachedProcessOutputHandler outputHandler = new CachedProcessOutputHandler();
+
+    private File log;
+    private File outputDir;
+    private Aapt2DaemonPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        // the fake daemon is a shell script.
+        Assume.assumeFalse(SdkConstants.currentPlatform() == SdkConstants.PLATFORM_WINDOWS);
+
+        log = temporaryFolder.newFile("log");
+        outputDir = temporaryFolder.newFolder("output");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void compileWithFewDaemons() throws Exception {
+        createPool(MAX_DAEMONS);
+        List<ListenableFuture<File>> results = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            results.add(compile(createResource("values" + i + ".xml", "resource" + i)));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(Files.toString(results.get(i).get(), StandardCharsets.UTF_8))
+                    .isEqualTo("resource" + i);
+        }
+
+        assertThat(count("compile")).isEqualTo(50);
+    }
+
+    @Test
+    public void poolGrowsWithTheQueue() throws Exception {
+        createPool(MAX_DAEMONS);
+        List<ListenableFuture<File>> results = new ArrayList<>();
+        for (int i = 0; i < 2 * MAX_DAEMONS; i++) {
+            results.add(compile(createResource("slow" + i + ".xml", "slow")));
+        }
+        for (ListenableFuture<File> result : results) {
+            result.get();
+        }
+
+        assertThat(count("start")).isEqualTo(MAX_DAEMONS);
+    }
+
+    @Test
+    public void compileError() throws Exception {
+        createPool(1);
+        compile(createResource("ok.xml", "ok")).get();
+        int starts = count("start");
+
+        try {
+            compile(createResource("error.xml", "error")).get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(AaptException.class);
+        }
+        // the messages of aapt2 are given to the output handler.
+        assertThat(getErrorOutput()).contains("error.xml: error: bad resource");
+
+        // the daemon is still used.
+        compile(createResource("ok2.xml", "ok2")).get();
+        assertThat(count("start")).isEqualTo(starts);
+    }
+
+    @Test
+    public void compileCommandIsNotAnArgument() throws Exception {
+        createPool(1);
+        File resource = createResource("ok.xml", "ok");
+        try {
+            pool.compile(
+                    AaptV2CommandBuilder.makeCompile(resource, outputDir),
+                    new File(outputDir, resource.getName() + ".flat"),
+                    outputHandler)
+                    .get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(AaptException.class);
+        }
+        assertThat(getErrorOutput()).contains("unexpected arguments");
+    }
+
+    @Test
+    public void invalidArgument() throws Exception {
+        createPool(1);
+        compile(createResource("ok.xml", "ok")).get();
+        int starts = count("start");
+
+        File resource = createResource("invalid.xml", "ok");
+        try {
+            pool.compile(
+                    ImmutableList.of("-o", outputDir.getPath(), resource.getPath() + "\nc"),
+                    new File(outputDir, resource.getName() + ".flat"),
+                    outputHandler)
+                    .get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(AaptException.class);
+            assertThat(e.getCause().getCause()).isInstanceOf(IllegalArgumentException.class);
+        }
+
+        // no part of the rejected request was sent, so the daemon is still used.
+        File result = compile(createResource("ok2.xml", "ok2")).get();
+        assertThat(Files.toString(result, StandardCharsets.UTF_8)).isEqualTo("ok2");
+        assertThat(count("compile")).isEqualTo(2);
+        assertThat(count("start")).isEqualTo(starts);
+    }
+
+    @Test
+    public void daemonCrash() throws Exception {
+        createPool(1);
+        compile(createResource("ok.xml", "ok")).get();
+        int starts = count("start");
+
+        try {
+            compile(createResource("crash.xml", "crash")).get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(AaptException.class);
+            assertThat(e.getCause().getCause()).isInstanceOf(IOException.class);
+        }
+
+        // the crashed daemon is replaced.
+        File result = compile(createResource("ok2.xml", "ok2")).get();
+        assertThat(Files.toString(result, StandardCharsets.UTF_8)).isEqualTo("ok2");
+        assertThat(count("start")).isEqualTo(starts + 1);
+    }
+
+    @Test
+    public void daemonHang() throws Exception {
+        createPool(1, 1_000);
+        compile(createResource("ok.xml", "ok")).get();
+        int starts = count("start");
+
+        try {
+            compile(createResource("hang.xml", "hang")).get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(AaptException.class);
+            assertThat(e.getCause().getCause()).isInstanceOf(IOException.class);
+            assertThat(e.getCause().getCause().getMessage()).contains("did not respond");
+        }
+
+        // the hung daemon is replaced.
+        File result = compile(createResource("ok2.xml", "ok2")).get();
+        assertThat(Files.toString(result, StandardCharsets.UTF_8)).isEqualTo("ok2");
+        assertThat(count("start")).isEqualTo(starts + 1);
+    }
+
+    private void createPool(int maxDaemons) throws IOException {
+        createPool(maxDaemons, RESPONSE_TIMEOUT_MS);
+    }
+
+    private void createPool(int maxDaemons, long responseTimeoutMillis) throws IOException {
+        pool =
+                new Aapt2DaemonPool(
+                        createFakeDaemon().getPath(),
+                        new StdLogger(StdLogger.Level.WARNING),
+                        maxDaemons,
+                        responseTimeoutMillis);
+    }
+
+    @NonNull
+    private ListenableFuture<File> compile(@NonNull File resource) {
+        return pool.compile(
+                AaptV2CommandBuilder.makeCompileArgs(resource, outputDir),
+                new File(outputDir, resource.getName() + ".flat"),
+                outputHandler);
+    }
+
+    @NonNull
+    private String getErrorOutput() {
+        BaseProcessOutputHandler.BaseProcessOutput output = outputHandler.getProcessOutput();
+        assertThat(output).isNotNull();
+        return output.getErrorOutputAsString();
+    }
+
+    @NonNull
+    private File createResource(@NonNull String name, @NonNull String content)
+            throws IOException {
+        File resource = new File(temporaryFolder.getRoot(), name);
+        Files.write(content, resource, StandardCharsets.UTF_8);
+        return resource;
+    }
+
+    @NonNull
+    private File createFakeDaemon() throws IOException {
+        return AaptTestUtils.createFakeServer(
+                temporaryFolder.newFile("aapt2"),
+                log,
+                "    c) out=; file=; unexpected=\n"
+                        + "       while read arg && [ -n \"$arg\" ]; do\n"
+                        + "         if [ \"$arg\" = \"-o\" ]; then read out\n"
+                        + "         elif [ -z \"$file\" ]; then file=\"$arg\"\n"
+                        + "         else unexpected=\"$arg\"; fi\n"
+                        + "       done\n"
+                        + "       if [ -z \"$out\" ] || [ ! -f \"$file\" ] \\\n"
+                        + "           || [ -n \"$unexpected\" ]; then\n"
+                        + "         echo \"error: unexpected arguments\"; echo Error; echo Done\n"
+                        + "         continue\n"
+                        + "       fi\n"
+                        + "       case \"$(cat \"$file\")\" in\n"
+                        + "         crash) exit 1;;\n"
+                        + "         hang) exec sleep 600;;\n"
+                        + "         error) echo \"$file: error: bad resource\" >&2\n"
+                        + "                echo Error; echo Done;;\n"
+                        + "         slow) sleep 1\n"
+                        + "               cp \"$file\" \"$out/$(basename \"$file\").flat\"\n"
+                        + "               echo Done;;\n"
+                        + "         *) echo compile >> \"$log\"\n"
+                        + "            cp \"$file\" \"$out/$(basename \"$file\").flat\"\n"
+                        + "            echo Done;;\n"
+                        + "       esac;;\n");
+    }
+
+    private int count(@NonNull String logLine) throws IOException {
+        return AaptTestUtils.countLogLines(log, logLine);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.packaging;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ZipAligner}.
+ */
+public class ZipAlignerTest {
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void alignUnalignedZip() throws Exception {
+        File input = createZip();
+        File output = new File(mTemporaryFolder.getRoot(), "aligned.zip");
+
+        assertThat(ZipAligner.isAligned(input, 4)).isFalse();
+        assertThat(ZipAligner.align(input, output, 4)).isTrue();
+        assertThat(ZipAligner.isAligned(output, 4)).isTrue();
+        assertThat(readEntries(output)).isEqualTo(readEntries(input));
+    }
+
+    @Test
+    public void alignedZipIsCopied() throws Exception {
+        File input = createZip();
+        File aligned = new File(mTemporaryFolder.getRoot(), "aligned.zip");
+        File copy = new File(mTemporaryFolder.getRoot(), "copy.zip");
+        ZipAligner.align(input, aligned, 4);
+
+        assertThat(ZipAligner.align(aligned, copy, 4)).isFalse();
+        assertThat(Files.readAllBytes(copy.toPath()))
+                .isEqualTo(Files.readAllBytes(aligned.toPath()));
+    }
+
+    @Test
+    public void pageAlignment() throws Exception {
+        File input = createZip();
+        File output = new File(mTemporaryFolder.getRoot(), "aligned.zip");
+
+        ZipAligner.align(input, output, 4096);
+        assertThat(ZipAligner.isAligned(output, 4096)).isTrue();
+        assertThat(readEntries(output)).isEqualTo(readEntries(input));
+    }
+
+    @Test(expected = IOException.class)
+    public void notAZip() throws Exception {
+        File input = mTemporaryFolder.newFile("not_a_zip.zip");
+        Files.write(input.toPath(), "not a zip".getBytes(StandardCharsets.UTF_8));
+        ZipAligner.isAligned(input, 4);
+    }
+
+    /** Creates a zip mixing stored and compressed entries with names of different lengths. */
+    private File createZip() throws IOException {
+        File zip = mTemporaryFolder.newFile("input.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (int i = 0; i < 20; i++) {
+                byte[] data =
+                        ("content of entry " + i + " to be packaged")
+                                .getBytes(StandardCharsets.UTF_8);
+                ZipEntry entry = new ZipEntry("res/" + "abc".substring(i % 3) + i + ".png");
+                if (i % 2 == 0) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    private static Map<String, String> readEntries(File zip) throws IOException {
+        Map<String, String> entries = Maps.newHashMap();
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    entries.put(
+                            entry.getName(),
+                            new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return entries;
+    }
+}
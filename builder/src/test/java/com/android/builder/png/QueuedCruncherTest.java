@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.png;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.builder.internal.aapt.AaptTestUtils;
+import com.android.builder.utils.FileCache;
+import com.android.utils.FileUtils;
+import com.android.utils.ILogger;
+import com.android.utils.StdLogger;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link QueuedCruncher} with a fake cruncher that speaks the protocol of the aapt server
+ * mode, logs its startups and crunches, and "crunches" a PNG by copying it.
+ */
+public class QueuedCruncherTest {
+
+    private static final int PNG_COUNT = 20;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ILogger logger = new StdLogger(StdLogger.Level.WARNING);
+
+    private File inputDir;
+    private File log;
+    private FileCache buildCache;
+
+    @Before
+    public void setUp() throws IOException {
+        // the fake cruncher is a shell script.
+        Assume.assumeFalse(SdkConstants.currentPlatform() == SdkConstants.PLATFORM_WINDOWS);
+
+        inputDir = temporaryFolder.newFolder("input");
+        for (int i = 0; i < PNG_COUNT; i++) {
+            Files.write("png" + i, new File(inputDir, i + ".png"), StandardCharsets.UTF_8);
+        }
+        log = temporaryFolder.newFile("log");
+        buildCache =
+                FileCache.getInstanceWithSingleProcessLocking(temporaryFolder.newFolder("cache"));
+    }
+
+    @Test
+    public void crunchWithoutBuildCache() throws Exception {
+        QueuedCruncher cruncher =
+                QueuedCruncher.Builder.INSTANCE.newCruncher(
+                        createFakeCruncher("aapt", "").getPath(), logger, 2);
+
+        crunchAll(cruncher, "output1");
+        crunchAll(cruncher, "output2");
+
+        assertThat(count("crunch")).isEqualTo(2 * PNG_COUNT);
+    }
+
+    @Test
+    public void crunchedPngsAreCached() throws Exception {
+        QueuedCruncher cruncher =
+                QueuedCruncher.Builder.INSTANCE.newCruncher(
+                        createFakeCruncher("aapt", "").getPath(), logger, 2, buildCache);
+
+        crunchAll(cruncher, "output1");
+        assertThat(count("crunch")).isEqualTo(PNG_COUNT);
+
+        crunchAll(cruncher, "output2");
+        assertThat(count("crunch")).isEqualTo(PNG_COUNT);
+    }
+
+    @Test
+    public void cachedPngsAreNotReusedByAnotherCruncher() throws Exception {
+        QueuedCruncher cruncher =
+                QueuedCruncher.Builder.INSTANCE.newCruncher(
+                        createFakeCruncher("aapt1", "# version 1").getPath(),
+                        logger,
+                        2,
+                        buildCache);
+        QueuedCruncher otherCruncher =
+                QueuedCruncher.Builder.INSTANCE.newCruncher(
+                        createFakeCruncher("aapt2", "# version 2").getPath(),
+                        logger,
+                        2,
+                        buildCache);
+
+        crunchAll(cruncher, "output1");
+        crunchAll(otherCruncher, "output2");
+
+        assertThat(count("crunch")).isEqualTo(2 * PNG_COUNT);
+    }
+
+    /** Crunches all the PNGs into the given directory and checks the results. */
+    private void crunchAll(@NonNull QueuedCruncher cruncher, @NonNull String outputDirName)
+            throws Exception {
+        File outputDir = new File(temporaryFolder.getRoot(), outputDirName);
+        int key = cruncher.start();
+        for (int i = 0; i < PNG_COUNT; i++) {
+            File output = FileUtils.join(outputDir, "drawable", i + ".png");
+            Files.createParentDirs(output);
+            cruncher.crunchPng(key, new File(inputDir, i + ".png"), output);
+        }
+        cruncher.end(key);
+
+        for (int i = 0; i < PNG_COUNT; i++) {
+            File output = FileUtils.join(outputDir, "drawable", i + ".png");
+            assertThat(Files.toString(output, StandardCharsets.UTF_8)).isEqualTo("png" + i);
+        }
+    }
+
+    @NonNull
+    private File createFakeCruncher(@NonNull String name, @NonNull String comment)
+            throws IOException {
+        return AaptTestUtils.createFakeServer(
+                new File(temporaryFolder.getRoot(), name),
+                log,
+                "    " + comment + "\n"
+                        + "    s) read in; read out\n"
+                        + "       echo crunch >> \"$log\"\n"
+                        + "       cp \"$in\" \"$out\"\n"
+                        + "       echo Done;;\n");
+    }
+
+    private int count(@NonNull String logLine) throws IOException {
+        return AaptTestUtils.countLogLines(log, logLine);
+    }
+}
@@ -17,14 +17,20 @@
 package com.android.builder.png;
 
 import static java.nio.charset.Charset.defaultCharset;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
+import com.android.builder.utils.FileCache;
 import com.android.resources.Density;
 import com.android.utils.FileUtils;
+import com.android.utils.ILogger;
 import com.android.utils.NullLogger;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -33,9 +39,14 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Unit tests for {@link VectorDrawableRenderer}.
@@ -299,4 +310,66 @@ public class VectorDrawableRendererTest {
 
         assertFalse(mRenderer.needsPreprocessing(input));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void generateFile_parallelAndCached() throws Exception {
+        File drawable = new File(mRes, "drawable");
+        File input = new File(drawable, "icon.xml");
+
+        Files.createParentDirs(input);
+        Files.write(
+                "<vector xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                        + "    android:width=\"24dp\" android:height=\"24dp\"\n"
+                        + "    android:viewportWidth=\"24\" android:viewportHeight=\"24\">\n"
+                        + "  <path android:fillColor=\"#FF000000\"\n"
+                        + "      android:pathData=\"M12,2L2,22h20z\"/>\n"
+                        + "</vector>",
+                input,
+                defaultCharset());
+        FileCache buildCache =
+                FileCache.getInstanceWithSingleProcessLocking(tmpFolder.newFolder("cache"));
+
+        Map<String, byte[]> serialImages =
+                render(input, null, MoreExecutors.directExecutor(), new NullLogger());
+        Assert.assertEquals(
+                ImmutableSet.of("drawable-hdpi", "drawable-mdpi", "drawable-ldpi"),
+                serialImages.keySet());
+
+        assertSameImages(
+                serialImages, render(input, null, ForkJoinPool.commonPool(), new NullLogger()));
+        assertSameImages(
+                serialImages,
+                render(input, buildCache, ForkJoinPool.commonPool(), new NullLogger()));
+
+        // The images are copied from the build cache, without being rendered again.
+        ILogger logger = mock(ILogger.class);
+        assertSameImages(
+                serialImages, render(input, buildCache, ForkJoinPool.commonPool(), logger));
+        verifyZeroInteractions(logger);
+    }
+
+    /** Generates the files of a VectorDrawable file, and returns the PNGs by directory name. */
+    private Map<String, byte[]> render(
+            File input, FileCache buildCache, Executor executor, ILogger logger)
+            throws IOException {
+        File outputDir = tmpFolder.newFolder();
+        VectorDrawableRenderer renderer = new VectorDrawableRenderer(
+                19, outputDir, mDensities, logger, buildCache, executor);
+
+        Map<String, byte[]> images = new TreeMap<>();
+        for (File file : renderer.getFilesToBeGenerated(input)) {
+            renderer.generateFile(file, input);
+            if (file.getName().endsWith(".png")) {
+                images.put(file.getParentFile().getName(), Files.toByteArray(file));
+            }
+        }
+        return images;
+    }
+
+    private static void assertSameImages(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> image : expected.entrySet()) {
+            assertArrayEquals(image.getKey(), image.getValue(), actual.get(image.getKey()));
+        }
+    }
+}
@@ -21,6 +21,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.android.testutils.TestResources;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import org.junit.Rule;
@@ -28,8 +29,12 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -68,4 +73,33 @@ public class MockableJarGeneratorTest {
 
         jarFile.close();
     }
+
+    @Test
+    public void testEntryOrderIsKept() throws Exception {
+        MockableJarGenerator generator = new MockableJarGenerator(false);
+
+        File inputJar =
+                TestResources.getFile(
+                        MockableJarGenerator.class, "/testData/testing/non-mockable.jar");
+        File outputJar = new File(mTemporaryFolder.newFolder(), "mockable.jar");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            generator.createMockableJar(inputJar, outputJar, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(getEntryNames(inputJar), getEntryNames(outputJar));
+    }
+
+    private static List<String> getEntryNames(File jar) throws IOException {
+        try (JarFile jarFile = new JarFile(jar)) {
+            List<String> names = Lists.newArrayList();
+            for (JarEntry entry : Collections.list(jarFile.entries())) {
+                names.add(entry.getName());
+            }
+            return names;
+        }
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.dx.command.dexer.DxContext;
+import com.android.dx.command.dexer.Main;
+import java.io.File;
+import java.nio.file.Files;
+import org.hamcrest.Matcher;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the parallel translation of methods in {@link CfTranslator}. */
+public class CfTranslatorTest {
+
+    @Rule public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final int defaultMinCodeSize = CfTranslator.parallelMethodMinCodeSize;
+
+    @After
+    public void restoreMinCodeSize() {
+        CfTranslator.parallelMethodMinCodeSize = defaultMinCodeSize;
+    }
+
+    @Test
+    public void parallelTranslationIsIdenticalToSerialTranslation() throws Exception {
+        // translate every method with code in parallel.
+        CfTranslator.parallelMethodMinCodeSize = 0;
+        String[] corpus = {getJar(Test.class).getPath(), getJar(Matcher.class).getPath()};
+
+        for (boolean optimize : new boolean[] {true, false}) {
+            File serial = dex(corpus, 1, optimize);
+            File parallel = dex(corpus, 4, optimize);
+
+            File[] serialDexes = serial.listFiles();
+            assertThat(serialDexes).isNotEmpty();
+            assertThat(parallel.list()).asList().containsExactlyElementsIn(serial.list());
+            for (File dex : serialDexes) {
+                assertThat(Files.readAllBytes(new File(parallel, dex.getName()).toPath()))
+                        .isEqualTo(Files.readAllBytes(dex.toPath()));
+            }
+        }
+    }
+
+    private File dex(String[] jars, int numThreads, boolean optimize) throws Exception {
+        File output = mTemporaryFolder.newFolder();
+        Main.Arguments arguments = new Main.Arguments();
+        arguments.outName = output.getPath();
+        arguments.multiDex = true;
+        arguments.numThreads = numThreads;
+        arguments.optimize = optimize;
+        arguments.fileNames = jars;
+        assertThat(new Main(new DxContext()).run(arguments)).isEqualTo(0);
+        return output;
+    }
+
+    private static File getJar(Class<?> klass) throws Exception {
+        return new File(klass.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+}
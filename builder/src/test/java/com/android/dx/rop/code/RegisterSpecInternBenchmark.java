@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.rop.code;
+
+import com.android.dx.rop.type.Type;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the throughput of {@link RegisterSpec#make} as the number of threads grows.
+ *
+ * <p>This is not run as part of the tests. Run the {@code main} method with the maximum number
+ * of threads as an optional argument.
+ */
+public class RegisterSpecInternBenchmark {
+
+    private static final Type[] TYPES = {
+        Type.INT, Type.LONG, Type.OBJECT, Type.STRING, Type.BOOLEAN, Type.DOUBLE
+    };
+
+    private static final int REGISTERS = 256;
+
+    private static final long DURATION_MS = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads =
+                args.length > 0
+                        ? Integer.parseInt(args[0])
+                        : Runtime.getRuntime().availableProcessors();
+
+        // warm up.
+        run(maxThreads);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long operations = run(threads);
+            System.out.printf(
+                    "%2d threads: %,d ops/s%n", threads, operations * 1000 / DURATION_MS);
+        }
+    }
+
+    /** Returns the number of {@link RegisterSpec}s made by all threads over the duration. */
+    private static long run(int threads) throws Exception {
+        RegisterSpec.clearInternTable();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        AtomicBoolean done = new AtomicBoolean();
+        try {
+            Future<?>[] futures = new Future<?>[threads];
+            for (int i = 0; i < threads; i++) {
+                futures[i] =
+                        executor.submit(
+                                () -> {
+                                    start.await();
+                                    long operations = 0;
+                                    while (!done.get()) {
+                                        for (int reg = 0; reg < REGISTERS; reg++) {
+                                            RegisterSpec.make(reg, TYPES[reg % TYPES.length]);
+                                        }
+                                        operations += REGISTERS;
+                                    }
+                                    return operations;
+                                });
+            }
+            start.await();
+            TimeUnit.MILLISECONDS.sleep(DURATION_MS);
+            done.set(true);
+
+            long operations = 0;
+            for (Future<?> future : futures) {
+                operations += (Long) future.get();
+            }
+            return operations;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.rop.code;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.type.Type;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Test;
+
+/** Tests for the interning of {@link RegisterSpec}. */
+public class RegisterSpecTest {
+
+    @After
+    public void clearInternTable() {
+        RegisterSpec.clearInternTable();
+    }
+
+    @Test
+    public void makeReturnsInternedInstances() {
+        LocalItem local = LocalItem.make(new CstString("foo"), new CstString("I"));
+
+        assertThat(RegisterSpec.make(1, Type.INT)).isSameAs(RegisterSpec.make(1, Type.INT));
+        assertThat(RegisterSpec.make(1, Type.INT, local))
+                .isSameAs(RegisterSpec.make(1, Type.INT, local));
+        assertThat(RegisterSpec.make(1, Type.INT, local))
+                .isNotEqualTo(RegisterSpec.make(1, Type.INT));
+        assertThat(RegisterSpec.make(1, Type.INT)).isNotEqualTo(RegisterSpec.make(2, Type.INT));
+        assertThat(RegisterSpec.make(1, Type.INT)).isNotEqualTo(RegisterSpec.make(1, Type.LONG));
+    }
+
+    @Test
+    public void clearInternTable_dropsCachedInstances() {
+        RegisterSpec before = RegisterSpec.make(3, Type.OBJECT);
+        RegisterSpec.clearInternTable();
+        RegisterSpec after = RegisterSpec.make(3, Type.OBJECT);
+
+        assertThat(after).isEqualTo(before);
+        assertThat(after).isNotSameAs(before);
+        assertThat(RegisterSpec.make(3, Type.OBJECT)).isSameAs(after);
+    }
+
+    @Test
+    public void clearInternTable_clearsTheCachesOfOtherThreads() throws Exception {
+        LocalItem local = LocalItem.make(new CstString("bar"), new CstString("I"));
+        ExecutorService otherThread = Executors.newSingleThreadExecutor();
+        try {
+            WeakReference<RegisterSpec> before =
+                    new WeakReference<>(
+                            otherThread.submit(() -> RegisterSpec.make(4, Type.INT, local)).get());
+            RegisterSpec.clearInternTable();
+
+            // the cache of the other thread, still alive, doesn't keep the old instance.
+            for (int i = 0; i < 10 && before.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertThat(before.get()).isNull();
+
+            RegisterSpec after = RegisterSpec.make(4, Type.INT, local);
+            assertThat(otherThread.submit(() -> RegisterSpec.make(4, Type.INT, local)).get())
+                    .isSameAs(after);
+        } finally {
+            otherThread.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentMakeReturnsSameInstances() throws Exception {
+        Callable<List<RegisterSpec>> makeAll =
+                () -> IntStream.range(0, 5_000)
+                        .mapToObj(reg -> RegisterSpec.make(reg, Type.INT))
+                        .collect(Collectors.toList());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<RegisterSpec>>> futures =
+                    executor.invokeAll(
+                            IntStream.range(0, 4)
+                                    .mapToObj(i -> makeAll)
+                                    .collect(Collectors.toList()));
+            List<RegisterSpec> expected = futures.get(0).get();
+            for (Future<List<RegisterSpec>> future : futures) {
+                List<RegisterSpec> specs = future.get();
+                for (int i = 0; i < specs.size(); i++) {
+                    assertThat(specs.get(i)).isSameAs(expected.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa.back;
+
+import com.android.dx.command.dexer.DxContext;
+import com.android.dx.command.dexer.Main;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+
+/**
+ * Dexes a corpus of jars and reports the time spent and the peak heap usage.
+ *
+ * <p>This is not run as part of the tests. Run the {@code main} method with the jars to dex,
+ * preferably ones with large generated methods, against builds before and after a change of the
+ * register allocator, with the same heap settings.
+ */
+public class RegisterAllocationBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: RegisterAllocationBenchmark <jar>...");
+            System.exit(1);
+        }
+
+        // warm up.
+        dex(args);
+        for (int i = 0; i < ITERATIONS; i++) {
+            System.gc();
+            resetPeakUsage();
+            long start = System.nanoTime();
+            dex(args);
+            long timeMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf(
+                    "run %d: %,d ms, peak heap %,d KB%n", i, timeMs, getPeakUsage() / 1024);
+        }
+    }
+
+    private static void dex(String[] jars) throws Exception {
+        File output = Files.createTempDirectory("dex").toFile();
+        try {
+            Main.Arguments arguments = new Main.Arguments();
+            arguments.outName = output.getPath();
+            arguments.multiDex = true;
+            arguments.fileNames = jars;
+            int result = new Main(new DxContext()).run(arguments);
+            if (result != 0) {
+                throw new RuntimeException("dx failed with " + result);
+            }
+        } finally {
+            File[] files = output.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.delete(file.toPath());
+                }
+            }
+            Files.delete(output.toPath());
+        }
+    }
+
+    private static void resetPeakUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
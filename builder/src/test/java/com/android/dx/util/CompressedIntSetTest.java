@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+
+/** Tests for the {@link CompressedIntSet} class */
+public class CompressedIntSetTest {
+
+    @Test
+    public void addRemoveHas() {
+        CompressedIntSet set = new CompressedIntSet();
+        set.add(5);
+        set.add(100_000);
+        set.add(5);
+        set.add(3);
+
+        assertThat(toList(set)).containsExactly(3, 5, 100_000).inOrder();
+        assertThat(set.elements()).isEqualTo(3);
+        assertThat(set.has(5)).isTrue();
+        assertThat(set.has(6)).isFalse();
+        assertThat(set.has(-1)).isFalse();
+
+        set.remove(100_000);
+        set.remove(42);
+        assertThat(toList(set)).containsExactly(3, 5).inOrder();
+        assertThat(set.toString()).isEqualTo("{3, 5}");
+    }
+
+    @Test
+    public void denseAndClusteredValues() {
+        CompressedIntSet set = new CompressedIntSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        // a full range, turned into runs, then punched with holes.
+        for (int i = 0; i < 5_000; i++) {
+            set.add(i);
+            expected.add(i);
+        }
+        for (int i = 0; i < 5_000; i += 3) {
+            set.remove(i);
+            expected.remove(i);
+        }
+
+        assertThat(toList(set)).containsExactlyElementsIn(expected).inOrder();
+        assertThat(set.elements()).isEqualTo(expected.size());
+    }
+
+    @Test
+    public void merge() {
+        CompressedIntSet set = new CompressedIntSet();
+        set.add(1);
+        set.add(2_000);
+        CompressedIntSet other = new CompressedIntSet();
+        other.add(2);
+        other.add(50_000);
+        BitIntSet bits = new BitIntSet(10);
+        bits.add(7);
+
+        set.merge(other);
+        set.merge(bits);
+        assertThat(toList(set)).containsExactly(1, 2, 7, 2_000, 50_000).inOrder();
+
+        // the merged set doesn't share its content with the other one.
+        set.add(50_001);
+        assertThat(toList(other)).containsExactly(2, 50_000).inOrder();
+    }
+
+    @Test
+    public void randomOperations() {
+        Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            CompressedIntSet set = new CompressedIntSet();
+            CompressedIntSet other = new CompressedIntSet();
+            TreeSet<Integer> expected = new TreeSet<>();
+            TreeSet<Integer> expectedOther = new TreeSet<>();
+            int universe = 1 + random.nextInt(round % 2 == 0 ? 3_000 : 200_000);
+            for (int i = 0; i < 2_000; i++) {
+                int value = random.nextInt(universe);
+                int operation = random.nextInt(10);
+                if (operation < 6) {
+                    set.add(value);
+                    expected.add(value);
+                } else if (operation < 8) {
+                    set.remove(value);
+                    expected.remove(value);
+                } else {
+                    other.add(value);
+                    expectedOther.add(value);
+                }
+                assertThat(set.has(value)).isEqualTo(expected.contains(value));
+            }
+            set.merge(other);
+            expected.addAll(expectedOther);
+
+            assertThat(toList(set)).containsExactlyElementsIn(expected).inOrder();
+            assertThat(set.elements()).isEqualTo(expected.size());
+        }
+    }
+
+    private static List<Integer> toList(IntSet set) {
+        List<Integer> values = Lists.newArrayList();
+        IntIterator iter = set.iterator();
+        while (iter.hasNext()) {
+            values.add(iter.next());
+        }
+        return values;
+    }
+}
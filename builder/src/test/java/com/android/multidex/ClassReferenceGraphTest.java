@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.multidex;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/** Tests for the {@link ClassReferenceGraph}. */
+public class ClassReferenceGraphTest {
+
+    private static final int EDITS = 30;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /** The classes of the program, by name. */
+    private final Map<String, ClassSpec> program = new TreeMap<>();
+
+    @Test
+    public void incrementalListEqualsFullComputation() throws IOException {
+        for (long seed = 0; seed < 5; seed++) {
+            Random random = new Random(seed);
+            program.clear();
+            for (int i = 0; i < 40; i++) {
+                addRandomClass(random);
+            }
+            File stateFile = new File(temporaryFolder.getRoot(), "graph" + seed + ".bin");
+            for (int edit = 0; edit < EDITS; edit++) {
+                File jar = writeJar("classes" + seed + "_" + edit + ".jar", program.keySet());
+                File roots = writeJar("roots" + seed + "_" + edit + ".jar", pickRoots(random));
+                boolean keepAnnotated = random.nextBoolean();
+
+                ClassReferenceGraph graph = ClassReferenceGraph.load(stateFile);
+                graph.update(jar);
+                assertThat(graph.getMainDexList(roots, keepAnnotated))
+                        .containsExactlyElementsIn(
+                                new MainDexListBuilder(
+                                                keepAnnotated, roots.getPath(), jar.getPath())
+                                        .getMainDexList());
+                graph.save(stateFile);
+
+                editProgram(random);
+            }
+        }
+    }
+
+    @Test
+    public void onlyChangedClassesAreRead() throws IOException {
+        program.put("A", new ClassSpec("java/lang/Object", ImmutableList.of("B"), false));
+        program.put("B", new ClassSpec("java/lang/Object", ImmutableList.of(), false));
+        program.put("C", new ClassSpec("B", ImmutableList.of(), true));
+        File stateFile = new File(temporaryFolder.getRoot(), "graph.bin");
+        File classes = temporaryFolder.newFolder("classes");
+        writeClasses(classes);
+
+        ClassReferenceGraph graph = ClassReferenceGraph.load(stateFile);
+        assertThat(graph.update(classes)).isEqualTo(3);
+        graph.save(stateFile);
+
+        program.put("A", new ClassSpec("java/lang/Object", ImmutableList.of("C"), false));
+        program.remove("B");
+        writeClasses(classes);
+        new File(classes, "B.class").delete();
+        graph = ClassReferenceGraph.load(stateFile);
+        assertThat(graph.update(classes)).isEqualTo(1);
+
+        // C is referenced, its missing superclass is ignored.
+        assertThat(graph.getMainDexList(ImmutableList.of("A"), false))
+                .containsExactly("A.class", "C.class");
+        assertThat(graph.getMainDexList(ImmutableList.of(), true)).containsExactly("C.class");
+    }
+
+    @Test
+    public void loadCorruptedGraph() throws IOException {
+        File stateFile = temporaryFolder.newFile("graph.bin");
+        Files.write(new byte[] {0, 0, 0, 1, 0, 0, 0, 12, 0, 0, 0, 5}, stateFile);
+        program.put("A", new ClassSpec("java/lang/Object", ImmutableList.of(), false));
+        File jar = writeJar("classes.jar", program.keySet());
+
+        ClassReferenceGraph graph = ClassReferenceGraph.load(stateFile);
+        assertThat(stateFile.exists()).isFalse();
+        assertThat(graph.update(jar)).isEqualTo(1);
+        assertThat(graph.getMainDexList(ImmutableList.of("A"), true)).containsExactly("A.class");
+    }
+
+    private void addRandomClass(@NonNull Random random) {
+        String name = "p" + random.nextInt(3) + "/C" + program.size() + "_" + random.nextInt(1000);
+        program.put(name, randomSpec(random));
+    }
+
+    @NonNull
+    private ClassSpec randomSpec(@NonNull Random random) {
+        List<String> names = new ArrayList<>(program.keySet());
+        String superclass =
+                names.isEmpty() || random.nextInt(3) == 0
+                        ? "java/lang/Object"
+                        : names.get(random.nextInt(names.size()));
+        List<String> references = new ArrayList<>();
+        int referenceCount = random.nextInt(4);
+        for (int i = 0; i < referenceCount && !names.isEmpty(); i++) {
+            references.add(names.get(random.nextInt(names.size())));
+        }
+        if (random.nextInt(4) == 0) {
+            // a class that is not in the program, like a library class.
+            references.add("lib/Missing");
+        }
+        return new ClassSpec(superclass, references, random.nextInt(5) == 0);
+    }
+
+    private void editProgram(@NonNull Random random) {
+        List<String> names = new ArrayList<>(program.keySet());
+        switch (random.nextInt(4)) {
+            case 0:
+                addRandomClass(random);
+                break;
+            case 1:
+                if (names.size() > 5) {
+                    program.remove(names.get(random.nextInt(names.size())));
+                }
+                break;
+            default:
+                String name = names.get(random.nextInt(names.size()));
+                program.put(name, randomSpec(random));
+                break;
+        }
+    }
+
+    @NonNull
+    private Set<String> pickRoots(@NonNull Random random) {
+        Set<String> roots = new HashSet<>();
+        for (String name : program.keySet()) {
+            if (random.nextInt(5) == 0) {
+                roots.add(name);
+            }
+        }
+        if (roots.isEmpty()) {
+            roots.add(program.keySet().iterator().next());
+        }
+        return roots;
+    }
+
+    @NonNull
+    private File writeJar(@NonNull String fileName, @NonNull Set<String> classes)
+            throws IOException {
+        File jar = new File(temporaryFolder.getRoot(), fileName);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            for (String name : ImmutableSet.copyOf(classes)) {
+                out.putNextEntry(new ZipEntry(name + ".class"));
+                out.write(program.get(name).toByteArray(name));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private void writeClasses(@NonNull File dir) throws IOException {
+        for (Map.Entry<String, ClassSpec> entry : program.entrySet()) {
+            File classFile = new File(dir, entry.getKey() + ".class");
+            Files.createParentDirs(classFile);
+            Files.write(entry.getValue().toByteArray(entry.getKey()), classFile);
+        }
+    }
+
+    /** A class with a superclass, references from its code, and maybe an annotation. */
+    private static final class ClassSpec {
+        @NonNull private final String superclass;
+        @NonNull private final List<String> references;
+        private final boolean annotated;
+
+        ClassSpec(@NonNull String superclass, @NonNull List<String> references, boolean annotated) {
+            this.superclass = superclass;
+            this.references = references;
+            this.annotated = annotated;
+        }
+
+        @NonNull
+        byte[] toByteArray(@NonNull String name) {
+            ClassWriter cw = new ClassWriter(0);
+            cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, superclass, null);
+            if (annotated) {
+                cw.visitAnnotation("Lp0/Anno;", true).visitEnd();
+            }
+            MethodVisitor mv =
+                    cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "m", "()V", null, null);
+            mv.visitCode();
+            for (int i = 0; i < references.size(); i++) {
+                String reference = references.get(i);
+                // reference classes through types, field types and method parameter types.
+                switch (i % 3) {
+                    case 0:
+                        mv.visitLdcInsn(Type.getObjectType(reference));
+                        break;
+                    case 1:
+                        mv.visitFieldInsn(
+                                Opcodes.GETSTATIC, "java/lang/System", "f", "[L" + reference + ";");
+                        break;
+                    default:
+                        mv.visitInsn(Opcodes.ACONST_NULL);
+                        mv.visitMethodInsn(
+                                Opcodes.INVOKESTATIC,
+                                "java/lang/System",
+                                "m",
+                                "(L" + reference + ";)V",
+                                false);
+                        mv.visitInsn(Opcodes.ACONST_NULL);
+                        break;
+                }
+                mv.visitInsn(Opcodes.POP);
+            }
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(2, 0);
+            mv.visitEnd();
+            cw.visitEnd();
+            return cw.toByteArray();
+        }
+    }
+}
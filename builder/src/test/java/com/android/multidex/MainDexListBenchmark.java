@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.multidex;
+
+import com.android.utils.FileUtils;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Computes the main dex list of a class path made of many jars, with an increasing number of
+ * threads, and reports the time taken.
+ *
+ * <p>This is not run as part of the tests. Run the {@code main} method without arguments to
+ * generate a class path of 300 jars of 200 classes, or with the number of jars and of classes per
+ * jar to generate.
+ */
+public class MainDexListBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws IOException {
+        int jarCount = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int classesPerJar = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        File dir = Files.createTempDir();
+        try {
+            Random random = new Random(0);
+            int classCount = jarCount * classesPerJar;
+            List<String> classPath = new ArrayList<>();
+            for (int jar = 0; jar < jarCount; jar++) {
+                File jarFile = new File(dir, "lib" + jar + ".jar");
+                try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jarFile))) {
+                    for (int i = jar * classesPerJar; i < (jar + 1) * classesPerJar; i++) {
+                        List<String> references = new ArrayList<>();
+                        for (int j = 0; j < 10; j++) {
+                            // some references are to library classes, not in the class path.
+                            references.add(
+                                    random.nextInt(4) == 0
+                                            ? "android/Lib" + random.nextInt(100)
+                                            : getClassName(random.nextInt(classCount)));
+                        }
+                        String superclass =
+                                i > 0 ? getClassName(random.nextInt(i)) : "java/lang/Object";
+                        out.putNextEntry(new ZipEntry(getClassName(i) + ".class"));
+                        out.write(
+                                MainDexListBuilderTest.createClass(
+                                        getClassName(i), superclass, references, i % 50 == 0));
+                        out.closeEntry();
+                    }
+                }
+                classPath.add(jarFile.getPath());
+            }
+            File roots = new File(dir, "roots.jar");
+            try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(roots))) {
+                for (int i = 0; i < classCount; i += 20) {
+                    out.putNextEntry(new ZipEntry(getClassName(i) + ".class"));
+                    out.closeEntry();
+                }
+            }
+            String path = Joiner.on(File.pathSeparatorChar).join(classPath);
+
+            for (int threads : THREAD_COUNTS) {
+                long best = Long.MAX_VALUE;
+                int size = 0;
+                for (int run = 0; run < RUNS; run++) {
+                    long start = System.nanoTime();
+                    size = new MainDexListBuilder(true, roots.getPath(), path, threads)
+                            .getMainDexList().size();
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf(
+                        "%d threads: %,d classes in %d jars, %d in the main dex, %,d ms%n",
+                        threads, classCount, jarCount, size, best / 1_000_000);
+            }
+        } finally {
+            FileUtils.deletePath(dir);
+        }
+    }
+
+    private static String getClassName(int index) {
+        return "p" + (index % 97) + "/C" + index;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.multidex;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/** Tests for the {@link MainDexListBuilder}. */
+public class MainDexListBuilderTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void concurrentLookupsGiveTheSameList() throws IOException {
+        Random random = new Random(42);
+        List<String> classes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            classes.add("p" + (i % 7) + "/C" + i);
+        }
+        List<String> classPath = new ArrayList<>();
+        for (int jar = 0; jar < 10; jar++) {
+            Map<String, byte[]> entries = new LinkedHashMap<>();
+            for (int i = jar; i < classes.size(); i += 10) {
+                String superclass =
+                        i > 0 && random.nextBoolean()
+                                ? classes.get(random.nextInt(i))
+                                : "java/lang/Object";
+                List<String> references = new ArrayList<>();
+                for (int j = 0; j < 3; j++) {
+                    references.add(classes.get(random.nextInt(classes.size())));
+                }
+                entries.put(
+                        classes.get(i),
+                        createClass(classes.get(i), superclass, references, i % 13 == 0));
+            }
+            classPath.add(writeJar("lib" + jar + ".jar", entries).getPath());
+        }
+        Map<String, byte[]> roots = new LinkedHashMap<>();
+        for (int i = 0; i < classes.size(); i += 50) {
+            roots.put(classes.get(i), new byte[0]);
+        }
+        String rootJar = writeJar("roots.jar", roots).getPath();
+        String path = Joiner.on(File.pathSeparatorChar).join(classPath);
+
+        for (boolean keepAnnotated : new boolean[] {false, true}) {
+            MainDexListBuilder serial = new MainDexListBuilder(keepAnnotated, rootJar, path, 1);
+            MainDexListBuilder concurrent =
+                    new MainDexListBuilder(keepAnnotated, rootJar, path, 4);
+            assertThat(concurrent.getMainDexList())
+                    .containsExactlyElementsIn(serial.getMainDexList());
+            assertThat(serial.getMainDexList().size()).isGreaterThan(roots.size());
+        }
+    }
+
+    @Test
+    public void firstClassOfThePathWins() throws IOException {
+        byte[] root = createClass("R", "java/lang/Object", ImmutableList.of("A"), false);
+        File first =
+                writeJar(
+                        "first.jar",
+                        ImmutableMap.of(
+                                "R", root,
+                                "A", createClass("A", "B", ImmutableList.of(), false)));
+        File dir = temporaryFolder.newFolder("classes");
+        Map<String, byte[]> second =
+                ImmutableMap.of(
+                        "A", createClass("A", "C", ImmutableList.of(), true),
+                        "B", createClass("B", "java/lang/Object", ImmutableList.of(), false),
+                        "C", createClass("C", "java/lang/Object", ImmutableList.of(), false));
+        for (Map.Entry<String, byte[]> entry : second.entrySet()) {
+            Files.write(entry.getValue(), new File(dir, entry.getKey() + ".class"));
+        }
+        File roots = writeJar("roots.jar", ImmutableMap.of("R", root));
+
+        // A of the first jar extends B, the one of the directory extends C.
+        MainDexListBuilder builder =
+                new MainDexListBuilder(
+                        false, roots.getPath(), first.getPath() + File.pathSeparator + dir, 2);
+        assertThat(builder.getMainDexList()).containsExactly("R.class", "A.class", "B.class");
+    }
+
+    @NonNull
+    private File writeJar(@NonNull String fileName, @NonNull Map<String, byte[]> classes)
+            throws IOException {
+        File jar = new File(temporaryFolder.getRoot(), fileName);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            // a jar needs at least one entry.
+            out.putNextEntry(new ZipEntry("META-INF/"));
+            out.closeEntry();
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey() + ".class"));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    @NonNull
+    static byte[] createClass(
+            @NonNull String name,
+            @NonNull String superclass,
+            @NonNull List<String> references,
+            boolean annotated) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, superclass, null);
+        if (annotated) {
+            cw.visitAnnotation("Lp0/Anno;", true).visitEnd();
+        }
+        MethodVisitor mv =
+                cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "m", "()V", null, null);
+        mv.visitCode();
+        for (String reference : references) {
+            mv.visitLdcInsn(Type.getObjectType(reference));
+            mv.visitInsn(Opcodes.POP);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(1, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
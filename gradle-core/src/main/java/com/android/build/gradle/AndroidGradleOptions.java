@@ -46,6 +46,8 @@ public class AndroidGradleOptions {
 
     private static final boolean DEFAULT_ENABLE_BUILD_CACHE = true;
 
+    private static final boolean DEFAULT_ENABLE_MODEL_CACHE = false;
+
     public static final String PROPERTY_TEST_RUNNER_ARGS =
             "android.testInstrumentationRunnerArguments.";
 
@@ -64,6 +66,12 @@ public class AndroidGradleOptions {
 
     public static final String PROPERTY_ENABLE_AAPT2 = "android.enableAapt2";
 
+    /**
+     * Set to true to compile resources with long-lived aapt2 daemons, which requires an aapt2 that
+     * supports the server mode.
+     */
+    public static final String PROPERTY_ENABLE_AAPT2_DAEMON = "android.enableAapt2Daemon";
+
     public static final String ANDROID_ADDITIONAL_PLUGINS = "android.additional.plugins";
 
     public static final String ANDROID_SDK_CHANNEL = "android.sdk.channel";
@@ -84,12 +92,24 @@ public class AndroidGradleOptions {
 
     public static final String PROPERTY_BUILD_CACHE_DIR = "android.buildCacheDir";
 
+    /**
+     * Set to true to cache on disk the dependencies of the variant selected in the IDE with
+     * {@link AndroidProject#PROPERTY_BUILD_MODEL_VARIANT}.
+     */
+    public static final String PROPERTY_ENABLE_MODEL_CACHE = "android.enableModelCache";
+
     /**
      * Set to true to delay dependency resolution to task execution.
      */
     public static final String PROPERTY_ENABLE_IMPROVED_DEPENDENCY_RESOLUTION =
             "android.enableImprovedDependenciesResolution";
 
+    /**
+     * Set to true to only create the tasks of the variants reached by the requested tasks.
+     */
+    public static final String PROPERTY_ENABLE_DEFERRED_VARIANT_TASKS =
+            "android.enableDeferredVariantTasks";
+
     public static final String GRADLE_VERSION_CHECK_OVERRIDE_PROPERTY =
             "android.overrideVersionCheck";
 
@@ -169,6 +189,10 @@ public class AndroidGradleOptions {
         return getBoolean(project, PROPERTY_ENABLE_AAPT2, DEFAULT_ENABLE_AAPT2);
     }
 
+    public static boolean isAapt2DaemonEnabled(@NonNull Project project) {
+        return getBoolean(project, PROPERTY_ENABLE_AAPT2_DAEMON);
+    }
+
     public static boolean getTestOnly(@NonNull Project project) {
         return getBoolean(project, AndroidProject.PROPERTY_TEST_ONLY);
     }
@@ -213,6 +237,19 @@ public class AndroidGradleOptions {
         return Boolean.valueOf(value);
     }
 
+    /**
+     * Returns the name of the variant selected in the IDE, or null if the model of all the
+     * variants should be built with their dependencies.
+     */
+    @Nullable
+    public static String getModelVariant(@NonNull Project project) {
+        return getString(project, AndroidProject.PROPERTY_BUILD_MODEL_VARIANT);
+    }
+
+    public static boolean isModelCacheEnabled(@NonNull Project project) {
+        return getBoolean(project, PROPERTY_ENABLE_MODEL_CACHE, DEFAULT_ENABLE_MODEL_CACHE);
+    }
+
     /**
      * Obtains the location for APKs as defined in the project.
      *
@@ -364,6 +401,10 @@ public class AndroidGradleOptions {
         return getBoolean(project, PROPERTY_ENABLE_IMPROVED_DEPENDENCY_RESOLUTION);
     }
 
+    public static boolean isDeferredVariantTasksEnabled(@NonNull Project project) {
+        return getBoolean(project, PROPERTY_ENABLE_DEFERRED_VARIANT_TASKS);
+    }
+
     @Nullable
     private static String getString(@NonNull Project project, String propertyName) {
         return project.hasProperty(propertyName) ? project.property(propertyName).toString() : null;
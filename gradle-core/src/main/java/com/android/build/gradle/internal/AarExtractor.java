@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal;
+
+import static com.android.SdkConstants.FD_JARS;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.utils.FileUtils;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Extracts the content of an aar into a directory.
+ *
+ * <p>The entries are listed from the central directory of the aar, and the files are written in
+ * parallel. The content of the small entries is read in a single buffer of the size of the entry.
+ */
+public final class AarExtractor {
+
+    /** The largest entry whose content is read in a single buffer. */
+    private static final long MAX_BUFFERED_ENTRY_SIZE = 1024 * 1024;
+
+    private AarExtractor() {}
+
+    /**
+     * Extracts an aar, replacing the previous content of the output directory.
+     *
+     * <p>The jars in the root of the aar or in {@code libs/} are moved into the {@code jars/}
+     * directory. The jars in {@code assets/} or {@code res/raw/} are kept where they are. Other
+     * jars are kept where they are too, but a warning is issued as they are not used.
+     *
+     * @param aar the aar to extract
+     * @param outputDir the output directory
+     * @param logger the logger to report unexpected jars
+     */
+    public static void extract(
+            @NonNull File aar, @NonNull File outputDir, @NonNull Logger logger)
+            throws IOException {
+        FileUtils.cleanOutputDir(outputDir);
+        Path root = outputDir.toPath().toAbsolutePath().normalize();
+
+        try (ZipFile zipFile = new ZipFile(aar)) {
+            // a later entry with the same path replaces the previous one.
+            Map<Path, ZipEntry> files = new LinkedHashMap<>();
+            for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                    entries.hasMoreElements(); ) {
+                ZipEntry entry = entries.nextElement();
+                String path = getOutputPath(entry, aar, logger);
+                Path output = root.resolve(path).normalize();
+                if (!output.startsWith(root) || output.equals(root)) {
+                    throw new IOException(
+                            String.format(
+                                    "Invalid entry '%1$s' in '%2$s'",
+                                    entry.getName(),
+                                    aar.getAbsolutePath()));
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(output);
+                } else {
+                    Files.createDirectories(output.getParent());
+                    files.put(output, entry);
+                }
+            }
+
+            // write the largest entries first so that they do not end the extraction alone.
+            files.entrySet()
+                    .stream()
+                    .sorted(Comparator.comparingLong(
+                            (Map.Entry<Path, ZipEntry> file) -> file.getValue().getSize())
+                            .reversed())
+                    .parallel()
+                    .forEach(file -> {
+                        try {
+                            write(zipFile, file.getValue(), file.getKey());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the path of an entry in the output directory.
+     */
+    @NonNull
+    private static String getOutputPath(
+            @NonNull ZipEntry entry, @NonNull File aar, @NonNull Logger logger) {
+        String path = entry.getName();
+        if (entry.isDirectory() || !path.endsWith(".jar")) {
+            return path;
+        }
+        if (path.equals("classes.jar") || path.equals("lint.jar") || path.startsWith("libs/")) {
+            return FD_JARS + "/" + path;
+        }
+        if (!path.startsWith("res/raw/") && !path.startsWith("assets/")) {
+            logger.warn("Jar found at unexpected path (" + path
+                    + ") in " + aar + " and will be ignored. Jars should be "
+                    + "placed inside 'jars' folder to be merged into dex. Jars "
+                    + "that are in assets/ or res/raw/ will be copied as-is.");
+        }
+        return path;
+    }
+
+    private static void write(
+            @NonNull ZipFile zipFile, @NonNull ZipEntry entry, @NonNull Path output)
+            throws IOException {
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            byte[] content = readSmallEntry(in, entry.getSize());
+            if (content != null) {
+                Files.write(output, content);
+            } else {
+                Files.copy(in, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Reads the content of an entry of a known, small size, or returns null if the entry should
+     * be streamed.
+     */
+    @Nullable
+    private static byte[] readSmallEntry(@NonNull InputStream in, long size) throws IOException {
+        if (size < 0 || size > MAX_BUFFERED_ENTRY_SIZE) {
+            return null;
+        }
+        byte[] content = new byte[(int) size];
+        ByteStreams.readFully(in, content);
+        return content;
+    }
+}
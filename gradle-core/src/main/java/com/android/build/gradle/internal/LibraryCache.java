@@ -16,25 +16,13 @@
 
 package com.android.build.gradle.internal;
 
-import static com.android.SdkConstants.FD_JARS;
-
 import com.android.annotations.NonNull;
 import com.android.annotations.concurrency.GuardedBy;
 import com.google.common.collect.Maps;
-import com.google.common.io.Files;
-
-import org.gradle.api.Action;
-import org.gradle.api.Project;
-import org.gradle.api.file.CopySpec;
-import org.gradle.api.file.FileCopyDetails;
-import org.gradle.api.file.RelativePath;
 
-import java.io.File;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
-import groovy.lang.Closure;
-
 /**
  * Cache to library prepareTask.
  *
@@ -60,43 +48,4 @@ public class LibraryCache {
 
     @GuardedBy("this")
     private final Map<String, CountDownLatch> bundleLatches = Maps.newHashMap();
-
-    public static void unzipAar(final File bundle, final File folderOut, final Project project) {
-        for (File f : Files.fileTreeTraverser().postOrderTraversal(folderOut)) {
-            f.delete();
-        }
-
-        folderOut.mkdirs();
-
-        project.copy(new Closure(LibraryCache.class) {
-            public Object doCall(CopySpec cs) {
-                cs.from(project.zipTree(bundle));
-                cs.into(folderOut);
-                cs.filesMatching("**/*.jar", new Action<FileCopyDetails>() {
-                    @Override
-                    public void execute(FileCopyDetails details) {
-                        /*
-                         * For each jar, check where it is. /classes.jar, /lint.jar and jars in
-                         * /libs are moved inside the FD_JARS directory. Jars inside /assets or
-                         * /res/raw are kept where they were. All other jars are ignored and a
-                         * warning is issued.
-                         */
-                        String path = details.getRelativePath().getPathString();
-                        if (path.equals("classes.jar") || path.equals("lint.jar")
-                                || path.startsWith("libs/")) {
-                            details.setRelativePath(new RelativePath(false, FD_JARS).plus(
-                                    details.getRelativePath()));
-                        } else if (!path.startsWith("res/raw/*") && !path.startsWith("assets/*")) {
-                            project.getLogger().warn("Jar found at unexpected path (" + path
-                                    + ") in " + bundle + " and will be ignored. Jars should be "
-                                    + "placed inside 'jars' folder to be merged into dex. Jars "
-                                    + "that are in assets/ or res/raw/ will be copied as-is.");
-                        }
-                    }
-                });
-
-                return cs;
-            }
-        });
-    }
 }
@@ -70,6 +70,9 @@ public class LintGradleClient extends LintCliClient {
     private File sdkHome;
     private final BuildToolInfo buildToolInfo;
 
+    /** Contents of the files read by lint, shared with the clients of the other variants. */
+    @Nullable private Map<File, CharSequence> sharedFileContents;
+
     public LintGradleClient(
             @NonNull IssueRegistry registry,
             @NonNull LintCliFlags flags,
@@ -97,6 +100,23 @@ public class LintGradleClient extends LintCliClient {
         this.customRules = customRules;
     }
 
+    /**
+     * Sets a thread-safe map in which the contents of the files read by this client are kept and
+     * looked up, so that clients linting other variants of the project do not read them again.
+     */
+    public void setSharedFileContents(@NonNull Map<File, CharSequence> sharedFileContents) {
+        this.sharedFileContents = sharedFileContents;
+    }
+
+    @NonNull
+    @Override
+    public CharSequence readFile(@NonNull File file) {
+        if (sharedFileContents == null) {
+            return super.readFile(file);
+        }
+        return sharedFileContents.computeIfAbsent(file, super::readFile);
+    }
+
     @NonNull
     @Override
     public Configuration getConfiguration(@NonNull Project project, @Nullable LintDriver driver) {
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.utils.StringHelper;
+import com.google.common.collect.Sets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the variants of a project reached by the tasks requested for a build, so that the tasks
+ * of the other variants are not created.
+ *
+ * <p>A requested task reaches the variants whose name it contains, like {@code assembleFreeDebug}
+ * or {@code :app:testFreeDebugUnitTest}. The search gives up, and all the variants are reached,
+ * as soon as a task could reach variants that cannot be found from its name: no task requested
+ * (a sync or the default tasks), a task of all the variants like {@code lint} or {@code check}, an
+ * abbreviated task name, a task path relative to another directory, or only tasks of other
+ * projects, which may depend on any variant of this project.
+ */
+final class RequestedVariants {
+
+    private RequestedVariants() {}
+
+    /**
+     * Returns the names of the variants reached by the requested tasks, or null if all the
+     * variants may be reached.
+     *
+     * @param projectPath the path of the project
+     * @param taskNames the names or paths of the requested tasks
+     * @param variantNames the names of the variants of the project, without the test variants
+     */
+    @Nullable
+    static Set<String> find(
+            @NonNull String projectPath,
+            @NonNull List<String> taskNames,
+            @NonNull Collection<String> variantNames) {
+        Set<String> reached = Sets.newHashSet();
+        for (String taskName : taskNames) {
+            int index = taskName.lastIndexOf(':');
+            if (index >= 0) {
+                if (!taskName.startsWith(":")) {
+                    return null;
+                }
+                String taskProjectPath = index == 0 ? ":" : taskName.substring(0, index);
+                if (!taskProjectPath.equals(projectPath)) {
+                    continue;
+                }
+                taskName = taskName.substring(index + 1);
+            }
+
+            boolean found = false;
+            for (String variantName : variantNames) {
+                if (taskName.contains(StringHelper.capitalize(variantName))) {
+                    reached.add(variantName);
+                    found = true;
+                }
+            }
+            if (!found) {
+                return null;
+            }
+        }
+        return reached.isEmpty() ? null : reached;
+    }
+}
@@ -1318,7 +1318,8 @@ public abstract class TaskManager {
                 new StripDebugSymbolTransform(
                         globalScope.getProject(),
                         globalScope.getNdkHandler(),
-                        globalScope.getExtension().getPackagingOptions().getDoNotStrip()));
+                        globalScope.getExtension().getPackagingOptions().getDoNotStrip(),
+                        AndroidGradleOptions.getBuildCache(globalScope.getProject())));
     }
 
     /**
@@ -2020,7 +2021,9 @@ public abstract class TaskManager {
             @NonNull TaskFactory taskFactory,
             @NonNull final VariantScope variantScope) {
 
-        JacocoTransform jacocoTransform = new JacocoTransform(project.getConfigurations());
+        JacocoTransform jacocoTransform =
+                new JacocoTransform(
+                        project.getConfigurations(), AndroidGradleOptions.getBuildCache(project));
         Optional<AndroidTask<TransformTask>> task =
                 variantScope
                         .getTransformManager()
@@ -60,6 +60,8 @@ import java.io.File;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.gradle.api.Action;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.NamedDomainObjectContainer;
@@ -267,6 +269,10 @@ public class VariantManager implements VariantModel {
                     this::populateVariantDataList);
         }
 
+        if (AndroidGradleOptions.isDeferredVariantTasksEnabled(project)) {
+            removeVariantsNotRequested();
+        }
+
         // Create top level test tasks.
         recorder.record(
                 ExecutionType.VARIANT_MANAGER_CREATE_TESTS_TASKS,
@@ -285,6 +291,47 @@ public class VariantManager implements VariantModel {
         taskManager.createReportTasks(tasks, variantDataList);
     }
 
+    /**
+     * Removes the variants that are not reached by the tasks requested for the build, with their
+     * test variants, so that their tasks are not created.
+     *
+     * <p>The variants that are removed are not part of the variant API either.
+     */
+    private void removeVariantsNotRequested() {
+        if (AndroidGradleOptions.buildModelOnlyVersion(project) != null) {
+            // the model of all the variants is built.
+            return;
+        }
+        boolean isLibrary = variantFactory.getVariantConfigurationType() == LIBRARY;
+        if (isLibrary && extension.getPublishNonDefault()) {
+            // any variant can be used by another project.
+            return;
+        }
+
+        List<String> variantNames = variantDataList.stream()
+                .filter(variantData -> !variantData.getType().isForTesting())
+                .map(BaseVariantData::getName)
+                .collect(Collectors.toList());
+        Set<String> reachedVariants = RequestedVariants.find(
+                project.getPath(),
+                project.getGradle().getStartParameter().getTaskNames(),
+                variantNames);
+        if (reachedVariants == null) {
+            return;
+        }
+        if (isLibrary) {
+            // the published variant can be used by another project.
+            reachedVariants.add(extension.getDefaultPublishConfig());
+        }
+
+        variantDataList.removeIf(variantData -> {
+            BaseVariantData<?> testedVariantData = variantData instanceof TestVariantData
+                    ? (BaseVariantData<?>) ((TestVariantData) variantData).getTestedVariantData()
+                    : variantData;
+            return !reachedVariants.contains(testedVariantData.getName());
+        });
+    }
+
     /**
      * Create assemble task for VariantData.
      */
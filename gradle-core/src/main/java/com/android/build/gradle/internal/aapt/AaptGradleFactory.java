@@ -99,7 +99,7 @@ public final class AaptGradleFactory {
      * @param variantType type of the variant to process
      * @param intermediateDir intermediate directory for aapt to use
      * @param cruncherProcesses the number of cruncher processes to use, if cruncher processes are
-     * used
+     * used, or the maximum number of aapt2 daemons, if they are enabled
      * @return the newly-created instance
      */
     @NonNull
@@ -130,7 +130,7 @@ public final class AaptGradleFactory {
      * @param variantType type of the variant to process
      * @param intermediateDir intermediate directory for aapt to use
      * @param cruncherProcesses the number of cruncher processes to use, if cruncher processes are
-     * used
+     * used, or the maximum number of aapt2 daemons, if they are enabled
      * @return the newly-created instance
      */
     @NonNull
@@ -158,7 +158,8 @@ public final class AaptGradleFactory {
                     teeOutputHandler,
                     buildTools,
                     intermediateDir,
-                    new FilteringLogger(builder.getLogger()));
+                    new FilteringLogger(builder.getLogger()),
+                    AndroidGradleOptions.isAapt2DaemonEnabled(project) ? cruncherProcesses : -1);
         } else {
             AaptV1.PngProcessMode processMode;
             if (crunchPng) {
@@ -173,7 +174,8 @@ public final class AaptGradleFactory {
                     buildTools,
                     new FilteringLogger(builder.getLogger()),
                     processMode,
-                    cruncherProcesses);
+                    cruncherProcesses,
+                    AndroidGradleOptions.getBuildCache(project).orElse(null));
         }
     }
 
@@ -251,6 +251,7 @@ public class BuildType extends DefaultBuildType implements CoreBuildType, Serial
     @NonNull
     public BuildType proguardFile(@NonNull Object proguardFile) {
         getProguardFiles().add(project.file(proguardFile));
+        markModified();
         return this;
     }
 
@@ -287,6 +288,7 @@ public class BuildType extends DefaultBuildType implements CoreBuildType, Serial
     @NonNull
     public BuildType setProguardFiles(@NonNull Iterable<?> proguardFileIterable) {
         getProguardFiles().clear();
+        markModified();
         proguardFiles(Iterables.toArray(proguardFileIterable, Object.class));
         return this;
     }
@@ -299,6 +301,7 @@ public class BuildType extends DefaultBuildType implements CoreBuildType, Serial
     @NonNull
     public BuildType testProguardFile(@NonNull Object proguardFile) {
         getTestProguardFiles().add(project.file(proguardFile));
+        markModified();
         return this;
     }
 
@@ -323,6 +326,7 @@ public class BuildType extends DefaultBuildType implements CoreBuildType, Serial
     @NonNull
     public BuildType setTestProguardFiles(@NonNull Iterable<?> files) {
         getTestProguardFiles().clear();
+        markModified();
         testProguardFiles(Iterables.toArray(files, Object.class));
         return this;
     }
@@ -340,6 +344,7 @@ public class BuildType extends DefaultBuildType implements CoreBuildType, Serial
     @NonNull
     public BuildType consumerProguardFile(@NonNull Object proguardFile) {
         getConsumerProguardFiles().add(project.file(proguardFile));
+        markModified();
         return this;
     }
 
@@ -375,6 +380,7 @@ public class BuildType extends DefaultBuildType implements CoreBuildType, Serial
     @NonNull
     public BuildType setConsumerProguardFiles(@NonNull Iterable<?> proguardFileIterable) {
         getConsumerProguardFiles().clear();
+        markModified();
         consumerProguardFiles(Iterables.toArray(proguardFileIterable, Object.class));
         return this;
     }
@@ -323,6 +323,7 @@ public class ProductFlavor extends DefaultProductFlavor implements CoreProductFl
      */
     public void proguardFile(@NonNull Object proguardFile) {
         getProguardFiles().add(project.file(proguardFile));
+        markModified();
     }
 
     /**
@@ -355,6 +356,7 @@ public class ProductFlavor extends DefaultProductFlavor implements CoreProductFl
      */
     public void setProguardFiles(@NonNull Iterable<?> proguardFileIterable) {
         getProguardFiles().clear();
+        markModified();
         proguardFiles(Iterables.toArray(proguardFileIterable, Object.class));
     }
 
@@ -365,6 +367,7 @@ public class ProductFlavor extends DefaultProductFlavor implements CoreProductFl
      */
     public void testProguardFile(@NonNull Object proguardFile) {
         getTestProguardFiles().add(project.file(proguardFile));
+        markModified();
     }
 
     /**
@@ -385,6 +388,7 @@ public class ProductFlavor extends DefaultProductFlavor implements CoreProductFl
      */
     public void setTestProguardFiles(@NonNull Iterable<?> files) {
         getTestProguardFiles().clear();
+        markModified();
         testProguardFiles(Iterables.toArray(files, Object.class));
     }
 
@@ -400,6 +404,7 @@ public class ProductFlavor extends DefaultProductFlavor implements CoreProductFl
      */
     public void consumerProguardFile(@NonNull Object proguardFile) {
         getConsumerProguardFiles().add(project.file(proguardFile));
+        markModified();
     }
 
     /**
@@ -430,6 +435,7 @@ public class ProductFlavor extends DefaultProductFlavor implements CoreProductFl
      */
     public void setConsumerProguardFiles(@NonNull Iterable<?> proguardFileIterable) {
         getConsumerProguardFiles().clear();
+        markModified();
         consumerProguardFiles(Iterables.toArray(proguardFileIterable, Object.class));
     }
 
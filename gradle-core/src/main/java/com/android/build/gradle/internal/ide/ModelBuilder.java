@@ -85,6 +85,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.gradle.api.Project;
@@ -115,6 +116,10 @@ public class ModelBuilder implements ToolingModelBuilder {
     private final int generation;
     private int modelLevel = AndroidProject.MODEL_LEVEL_0_ORIGINAL;
     private boolean modelWithFullDependency = false;
+    @Nullable
+    private String selectedVariant;
+    @Nullable
+    private VariantDependenciesCache dependenciesCache;
 
     public ModelBuilder(
             @NonNull AndroidBuilder androidBuilder,
@@ -151,6 +156,9 @@ public class ModelBuilder implements ToolingModelBuilder {
 
     private void resolveDependencies(Project project) {
         for (BaseVariantData variantData : variantManager.getVariantDataList()) {
+            if (!isSelected(variantData)) {
+                continue;
+            }
             final String testedProjectPath = config instanceof TestAndroidConfig
                     ? ((TestAndroidConfig) config).getTargetProjectPath()
                     : null;
@@ -170,6 +178,7 @@ public class ModelBuilder implements ToolingModelBuilder {
 
     @Override
     public Object buildAll(String modelName, Project project) {
+        selectedVariant = getSelectedVariant(project);
         if (AndroidGradleOptions.isImprovedDependencyResolutionEnabled(project)) {
             resolveDependencies(project);
         }
@@ -243,9 +252,12 @@ public class ModelBuilder implements ToolingModelBuilder {
                     extraModelInfo.getExtraFlavorSourceProviders(pfData.getProductFlavor().getName())));
         }
 
+        // only the selected variant is built with its dependencies, the IDE gets the other
+        // variants with their dependencies when they are selected.
+        dependenciesCache = createDependenciesCache(project);
         for (BaseVariantData<? extends BaseVariantOutputData> variantData : variantManager.getVariantDataList()) {
             if (!variantData.getType().isForTesting()) {
-                variants.add(createVariant(variantData));
+                variants.add(createVariant(variantData, isSelected(variantData)));
             }
         }
 
@@ -298,10 +310,110 @@ public class ModelBuilder implements ToolingModelBuilder {
         return toolchains;
     }
 
+    /**
+     * Returns the variant selected in the IDE, or null if all the variants should be built with
+     * their dependencies, including when the selected variant does not exist (anymore).
+     */
+    @Nullable
+    private String getSelectedVariant(@NonNull Project project) {
+        String variant = AndroidGradleOptions.getModelVariant(project);
+        if (variant == null) {
+            return null;
+        }
+        for (BaseVariantData<?> variantData : variantManager.getVariantDataList()) {
+            if (variant.equals(variantData.getName())) {
+                return variant;
+            }
+        }
+        project.getLogger().warn(
+                "Unknown variant '{}' selected in the IDE, building the model of all the "
+                        + "variants of project '{}' with their dependencies.",
+                variant,
+                project.getPath());
+        return null;
+    }
+
+    /**
+     * Returns whether a variant, or the variant tested by a test variant, is built with its
+     * dependencies.
+     */
+    private boolean isSelected(@NonNull BaseVariantData<?> variantData) {
+        if (selectedVariant == null) {
+            return true;
+        }
+        BaseVariantData<?> testedVariantData = variantData instanceof TestVariantData
+                ? (BaseVariantData<?>) ((TestVariantData) variantData).getTestedVariantData()
+                : variantData;
+        return selectedVariant.equals(testedVariantData.getName());
+    }
+
+    /**
+     * Returns the cache of the dependencies of the selected variant, or null if the dependencies
+     * should be converted again.
+     */
+    @Nullable
+    private VariantDependenciesCache createDependenciesCache(@NonNull Project project) {
+        // the cache is only worth it when the IDE asks for a single variant. The level 2 model
+        // registers the libraries of the variants in the global library map while they are
+        // converted, and the dependencies of a failed resolution should not be kept.
+        if (selectedVariant == null
+                || !AndroidGradleOptions.isModelCacheEnabled(project)
+                || modelLevel == AndroidProject.MODEL_LEVEL_2_DONT_USE
+                || !extraModelInfo.getSyncIssues().isEmpty()) {
+            return null;
+        }
+        // the renderscript support jar is added to the dependencies of the variants using it.
+        Map<String, Boolean> renderscriptSupportModes = new TreeMap<>();
+        for (BaseVariantData<?> variantData : variantManager.getVariantDataList()) {
+            renderscriptSupportModes.put(
+                    variantData.getName(),
+                    variantData.getVariantConfiguration().getRenderscriptSupportModeEnabled());
+        }
+        String fingerprint = VariantDependenciesCache.computeFingerprint(
+                project,
+                Version.ANDROID_GRADLE_PLUGIN_VERSION,
+                modelLevel,
+                modelWithFullDependency,
+                projectType,
+                generation,
+                androidBuilder.getTarget() != null ? androidBuilder.getTarget().hashString() : "",
+                config.getBuildToolsVersion(),
+                renderscriptSupportModes);
+        if (fingerprint == null) {
+            return null;
+        }
+        return new VariantDependenciesCache(
+                new File(taskManager.getGlobalScope().getIntermediatesDir(), "model-cache"),
+                fingerprint);
+    }
+
+    /**
+     * Converts the level 0 or 1 dependencies of a variant, or loads them from {@link
+     * #dependenciesCache} if they were cached with the same fingerprint.
+     */
     @NonNull
-    private VariantImpl createVariant(
+    private DependenciesImpl cloneDependencies(
             @NonNull BaseVariantData<? extends BaseVariantOutputData> variantData) {
-        AndroidArtifact mainArtifact = createAndroidArtifact(ARTIFACT_MAIN, variantData);
+        DependenciesImpl dependencies =
+                dependenciesCache != null ? dependenciesCache.load(variantData.getName()) : null;
+        if (dependencies == null) {
+            dependencies = new DependenciesConverter().cloneDependencies(
+                    variantData.getVariantDependency().getCompileDependencies(),
+                    variantData.getVariantConfiguration(),
+                    androidBuilder);
+            if (dependenciesCache != null) {
+                dependenciesCache.store(variantData.getName(), dependencies);
+            }
+        }
+        return dependencies;
+    }
+
+    @NonNull
+    private VariantImpl createVariant(
+            @NonNull BaseVariantData<? extends BaseVariantOutputData> variantData,
+            boolean withDependencies) {
+        AndroidArtifact mainArtifact =
+                createAndroidArtifact(ARTIFACT_MAIN, variantData, withDependencies);
 
         GradleVariantConfiguration variantConfiguration = variantData.getVariantConfiguration();
 
@@ -325,12 +437,14 @@ public class ModelBuilder implements ToolingModelBuilder {
                             case ANDROID_TEST:
                                 extraAndroidArtifacts.add(createAndroidArtifact(
                                         variantType.getArtifactName(),
-                                        testVariantData));
+                                        testVariantData,
+                                        withDependencies));
                                 break;
                             case UNIT_TEST:
                                 clonedExtraJavaArtifacts.add(createUnitTestsJavaArtifact(
                                         variantType,
-                                        testVariantData));
+                                        testVariantData,
+                                        withDependencies));
                                 break;
                             default:
                                 throw new IllegalArgumentException(
@@ -385,7 +499,8 @@ public class ModelBuilder implements ToolingModelBuilder {
 
     private JavaArtifactImpl createUnitTestsJavaArtifact(
             @NonNull VariantType variantType,
-            @NonNull BaseVariantData<? extends BaseVariantOutputData> variantData) {
+            @NonNull BaseVariantData<? extends BaseVariantOutputData> variantData,
+            boolean withDependencies) {
         SourceProviders sourceProviders = determineSourceProviders(variantData);
 
         VariantDependencies variantDependency = variantData.getVariantDependency();
@@ -396,7 +511,10 @@ public class ModelBuilder implements ToolingModelBuilder {
         DependenciesImpl dependencies;
         DependencyGraphs dependencyGraphs;
 
-        if (modelLevel == AndroidProject.MODEL_LEVEL_2_DONT_USE) {
+        if (!withDependencies) {
+            dependencies = DependenciesConverter.getEmpty();
+            dependencyGraphs = DependenciesLevel2Converter.getEmpty();
+        } else if (modelLevel == AndroidProject.MODEL_LEVEL_2_DONT_USE) {
             dependencies = DependenciesConverter.getEmpty();
 
             dependencyGraphs = cloneGraph(
@@ -404,10 +522,7 @@ public class ModelBuilder implements ToolingModelBuilder {
                     variantDependency.getPackageDependencies(),
                     variantConfiguration, androidBuilder);
         } else {
-            dependencies = new DependenciesConverter().cloneDependencies(
-                    variantDependency.getCompileDependencies(),
-                    variantConfiguration,
-                    androidBuilder);
+            dependencies = cloneDependencies(variantData);
 
             dependencyGraphs = DependenciesLevel2Converter.getEmpty();
         }
@@ -452,7 +567,8 @@ public class ModelBuilder implements ToolingModelBuilder {
 
     private AndroidArtifact createAndroidArtifact(
             @NonNull String name,
-            @NonNull BaseVariantData<? extends BaseVariantOutputData> variantData) {
+            @NonNull BaseVariantData<? extends BaseVariantOutputData> variantData,
+            boolean withDependencies) {
         VariantScope scope = variantData.getScope();
         GradleVariantConfiguration variantConfiguration = variantData.getVariantConfiguration();
 
@@ -533,7 +649,10 @@ public class ModelBuilder implements ToolingModelBuilder {
         DependenciesImpl dependencies;
         DependencyGraphs dependencyGraphs;
 
-        if (modelLevel == AndroidProject.MODEL_LEVEL_2_DONT_USE) {
+        if (!withDependencies) {
+            dependencies = DependenciesConverter.getEmpty();
+            dependencyGraphs = DependenciesLevel2Converter.getEmpty();
+        } else if (modelLevel == AndroidProject.MODEL_LEVEL_2_DONT_USE) {
             dependencies = DependenciesConverter.getEmpty();
 
             dependencyGraphs = cloneGraph(
@@ -541,10 +660,7 @@ public class ModelBuilder implements ToolingModelBuilder {
                     variantDependency.getPackageDependencies(),
                     variantConfiguration, androidBuilder);
         } else {
-            dependencies = new DependenciesConverter().cloneDependencies(
-                    variantDependency.getCompileDependencies(),
-                    variantConfiguration,
-                    androidBuilder);
+            dependencies = cloneDependencies(variantData);
 
             dependencyGraphs = DependenciesLevel2Converter.getEmpty();
         }
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.ide;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.build.gradle.internal.ide.DependenciesConverter.DependenciesImpl;
+import com.android.builder.model.AndroidProject;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.ExternalModuleDependency;
+import org.gradle.api.artifacts.FileCollectionDependency;
+import org.gradle.api.artifacts.ModuleVersionSelector;
+import org.gradle.api.artifacts.ProjectDependency;
+import org.gradle.api.artifacts.repositories.ArtifactRepository;
+import org.gradle.api.artifacts.repositories.FlatDirectoryArtifactRepository;
+import org.gradle.api.artifacts.repositories.IvyArtifactRepository;
+import org.gradle.api.artifacts.repositories.MavenArtifactRepository;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * On-disk cache of the dependencies of the variant artifacts built by the {@link ModelBuilder},
+ * so that a sync of the IDE does not convert the dependency graph of the selected variant again
+ * when nothing changed since the previous sync.
+ *
+ * <p>Only the dependencies are cached, the rest of the model is always built from the current
+ * configuration of the project. They are stored with the fingerprint of what they were resolved
+ * from: the dependencies declared by the projects of the build, the repositories and forced
+ * versions they are resolved with, and the options of the sync. They are only used while the
+ * fingerprint stays the same.
+ */
+final class VariantDependenciesCache {
+
+    private static final Logger LOGGER = Logging.getLogger(VariantDependenciesCache.class);
+
+    @NonNull private final File cacheDir;
+    @NonNull private final String fingerprint;
+
+    VariantDependenciesCache(@NonNull File cacheDir, @NonNull String fingerprint) {
+        this.cacheDir = cacheDir;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Returns the dependencies of a variant stored with the same fingerprint, or null if there are
+     * none.
+     */
+    @Nullable
+    DependenciesImpl load(@NonNull String variantName) {
+        File file = getFile(variantName);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (ObjectInputStream in = new ModelInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (!fingerprint.equals(in.readUTF())) {
+                return null;
+            }
+            return (DependenciesImpl) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // the cached dependencies were written by another version of the plugin, or are
+            // corrupted.
+            LOGGER.info("Ignoring the cached dependencies of variant {}: {}", variantName, e);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return null;
+        }
+    }
+
+    /** Stores the dependencies of a variant, replacing the ones stored before. */
+    void store(@NonNull String variantName, @NonNull DependenciesImpl dependencies) {
+        File file = getFile(variantName);
+        try {
+            Files.createParentDirs(file);
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeUTF(fingerprint);
+                out.writeObject(dependencies);
+            }
+        } catch (IOException e) {
+            LOGGER.info("Cannot cache the dependencies of variant {}: {}", variantName, e);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @NonNull
+    private File getFile(@NonNull String variantName) {
+        return new File(cacheDir, variantName + ".bin");
+    }
+
+    /**
+     * Computes the fingerprint of the dependencies of the variants of a project.
+     *
+     * @param project the project
+     * @param options the sync options and variant settings that change the converted
+     *     dependencies, in a stable order
+     * @return the fingerprint, or null if the dependencies of the project can change without any
+     *     change of the build, in which case they should not be cached
+     */
+    @Nullable
+    static String computeFingerprint(@NonNull Project project, @NonNull Object... options) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        putString(hasher, Arrays.toString(options));
+
+        // the injected properties, except the selected variant that only picks the model to use.
+        Map<String, String> properties =
+                new TreeMap<>(project.getGradle().getStartParameter().getProjectProperties());
+        properties.remove(AndroidProject.PROPERTY_BUILD_MODEL_VARIANT);
+        putString(hasher, properties.toString());
+
+        // the dependencies on other projects point to files of their build directories.
+        for (Project p : new TreeSet<>(project.getRootProject().getAllprojects())) {
+            putString(hasher, p.getPath());
+            putString(hasher, p.getBuildDir().getAbsolutePath());
+            putRepositories(hasher, p);
+            if (!putDependencies(hasher, p)) {
+                return null;
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void putRepositories(@NonNull Hasher hasher, @NonNull Project project) {
+        for (ArtifactRepository repository : project.getRepositories()) {
+            putString(hasher, repository.getName());
+            if (repository instanceof MavenArtifactRepository) {
+                putString(hasher, String.valueOf(((MavenArtifactRepository) repository).getUrl()));
+            } else if (repository instanceof IvyArtifactRepository) {
+                putString(hasher, String.valueOf(((IvyArtifactRepository) repository).getUrl()));
+            } else if (repository instanceof FlatDirectoryArtifactRepository) {
+                putString(hasher,
+                        ((FlatDirectoryArtifactRepository) repository).getDirs().toString());
+            }
+        }
+    }
+
+    private static boolean putDependencies(@NonNull Hasher hasher, @NonNull Project project) {
+        for (String name : project.getConfigurations().getNames()) {
+            Configuration configuration = project.getConfigurations().getByName(name);
+            putString(hasher, name);
+            for (ModuleVersionSelector forcedModule :
+                    configuration.getResolutionStrategy().getForcedModules()) {
+                putString(hasher, forcedModule.getGroup() + ":" + forcedModule.getName() + ":"
+                        + forcedModule.getVersion());
+            }
+            for (Dependency dependency : configuration.getDependencies()) {
+                if (dependency instanceof ProjectDependency) {
+                    ProjectDependency projectDependency = (ProjectDependency) dependency;
+                    putString(hasher, projectDependency.getDependencyProject().getPath());
+                    putString(hasher, String.valueOf(projectDependency.getConfiguration()));
+                } else if (dependency instanceof FileCollectionDependency) {
+                    for (File file : ((FileCollectionDependency) dependency).resolve()) {
+                        putString(hasher, file.getAbsolutePath());
+                        hasher.putLong(file.length());
+                        hasher.putLong(file.lastModified());
+                    }
+                } else {
+                    if (dependency instanceof ExternalModuleDependency
+                            && ((ExternalModuleDependency) dependency).isChanging()) {
+                        return false;
+                    }
+                    if (isDynamicVersion(dependency.getVersion())) {
+                        return false;
+                    }
+                    putString(hasher, dependency.getGroup() + ":" + dependency.getName() + ":"
+                            + dependency.getVersion());
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDynamicVersion(@Nullable String version) {
+        return version != null
+                && (version.endsWith("+")
+                        || version.endsWith("-SNAPSHOT")
+                        || version.startsWith("latest.")
+                        || version.startsWith("[")
+                        || version.startsWith("(")
+                        || version.startsWith("]"));
+    }
+
+    private static void putString(@NonNull Hasher hasher, @NonNull String value) {
+        hasher.putInt(value.length());
+        hasher.putString(value, StandardCharsets.UTF_8);
+    }
+
+    /** Resolves the model classes with the class loader of the plugin. */
+    private static final class ModelInputStream extends ObjectInputStream {
+
+        ModelInputStream(@NonNull InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(@NonNull ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(
+                        desc.getName(), false, VariantDependenciesCache.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -19,12 +19,17 @@ package com.android.build.gradle.internal.tasks;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.build.gradle.AndroidGradleOptions;
+import com.android.build.gradle.internal.BuildCacheUtils;
 import com.android.build.gradle.internal.TaskManager;
 import com.android.build.gradle.internal.scope.ConventionMappingHelper;
 import com.android.build.gradle.internal.scope.GlobalScope;
 import com.android.build.gradle.internal.scope.TaskConfigAction;
 import com.android.builder.model.AndroidProject;
 import com.android.builder.testing.MockableJarGenerator;
+import com.android.builder.utils.FileCache;
 import com.android.sdklib.IAndroidTarget;
 import com.google.common.base.CharMatcher;
 
@@ -38,6 +43,7 @@ import org.gradle.api.tasks.TaskAction;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Task for generating a mockable android.jar
@@ -54,6 +60,8 @@ public class MockableAndroidJarTask extends DefaultTask {
      */
     private boolean mReturnDefaultValues;
 
+    @Nullable private FileCache mBuildCache;
+
     @TaskAction
     public void createMockableJar() throws IOException {
         File outputFile = getOutputFile();
@@ -67,10 +75,89 @@ public class MockableAndroidJarTask extends DefaultTask {
             // need to return here manually because of that behavior.
             return;
         }
-        MockableJarGenerator generator = new MockableJarGenerator(getReturnDefaultValues());
         getLogger().info(String.format("Creating %s from %s.", outputFile.getAbsolutePath(),
                 getAndroidJar().getAbsolutePath()));
-        generator.createMockableJar(getAndroidJar(), outputFile);
+        createMockableJar(getAndroidJar(), outputFile, getReturnDefaultValues(), mBuildCache);
+    }
+
+    /**
+     * Creates a mockable jar, or copies it from the build cache if a jar was already generated
+     * from the same android.jar, by any project.
+     */
+    static void createMockableJar(
+            @NonNull File androidJar,
+            @NonNull File outputFile,
+            boolean returnDefaultValues,
+            @Nullable FileCache buildCache)
+            throws IOException {
+        MockableJarGenerator generator = new MockableJarGenerator(returnDefaultValues);
+        try {
+            if (buildCache == null) {
+                generator.createMockableJar(androidJar, outputFile);
+            } else {
+                createMockableJarWithBuildCache(
+                        generator, androidJar, outputFile, returnDefaultValues, buildCache);
+            }
+        } catch (IOException | RuntimeException e) {
+            // don't leave a partial jar that the next builds would consider as generated.
+            //noinspection ResultOfMethodCallIgnored
+            outputFile.delete();
+            throw e;
+        }
+    }
+
+    private static void createMockableJarWithBuildCache(
+            @NonNull MockableJarGenerator generator,
+            @NonNull File androidJar,
+            @NonNull File outputFile,
+            boolean returnDefaultValues,
+            @NonNull FileCache buildCache)
+            throws IOException {
+        try {
+            buildCache.createFile(
+                    outputFile,
+                    getBuildCacheInputs(androidJar, returnDefaultValues),
+                    () -> {
+                        generator.createMockableJar(androidJar, outputFile);
+                        return null;
+                    });
+        } catch (ExecutionException exception) {
+            throw new IOException(
+                    String.format(
+                            "Unable to create '%1$s' from '%2$s'",
+                            outputFile.getAbsolutePath(),
+                            androidJar.getAbsolutePath()),
+                    exception);
+        } catch (Exception exception) {
+            throw new IOException(
+                    String.format(
+                            "Unable to create '%1$s' from '%2$s' using the build cache at "
+                                    + "'%3$s'.\n%4$s",
+                            outputFile.getAbsolutePath(),
+                            androidJar.getAbsolutePath(),
+                            buildCache.getCacheDirectory().getAbsolutePath(),
+                            BuildCacheUtils.BUILD_CACHE_TROUBLESHOOTING_MESSAGE),
+                    exception);
+        }
+    }
+
+    /**
+     * Returns a {@link FileCache.Inputs} object computed from the given parameters for the
+     * mockable jar of an android.jar.
+     */
+    @VisibleForTesting
+    @NonNull
+    static FileCache.Inputs getBuildCacheInputs(
+            @NonNull File androidJar, boolean returnDefaultValues) throws IOException {
+        return new FileCache.Inputs.Builder(FileCache.Command.GENERATE_MOCKABLE_JAR)
+                .putFileHash(FileCacheInputParams.ANDROID_JAR_HASH.name(), androidJar)
+                .putLong(
+                        FileCacheInputParams.GENERATOR_VERSION.name(),
+                        MockableJarGenerator.VERSION)
+                .putBoolean(
+                        FileCacheInputParams.RETURN_DEFAULT_VALUES.name(),
+                        returnDefaultValues)
+                .build();
     }
 
     @Input
@@ -100,6 +187,29 @@ public class MockableAndroidJarTask extends DefaultTask {
         mAndroidJar = androidJar;
     }
 
+    public void setBuildCache(@Nullable FileCache buildCache) {
+        mBuildCache = buildCache;
+    }
+
+    /**
+     * Input parameters to be provided by the client when using {@link FileCache}.
+     *
+     * <p>The clients of {@link FileCache} need to exhaustively specify all the inputs that affect
+     * the creation of an output file/directory. This enum class lists the input parameters that are
+     * used in {@link MockableAndroidJarTask}.
+     */
+    private enum FileCacheInputParams {
+
+        /** The hash of the android.jar. */
+        ANDROID_JAR_HASH,
+
+        /** The version of the generator. */
+        GENERATOR_VERSION,
+
+        /** Whether the methods return default values. */
+        RETURN_DEFAULT_VALUES,
+    }
+
     public static class ConfigAction implements TaskConfigAction<MockableAndroidJarTask> {
 
         final GlobalScope scope;
@@ -138,6 +248,8 @@ public class MockableAndroidJarTask extends DefaultTask {
             });
 
             task.setOutputFile(scope.getMockableAndroidJarFile());
+            task.setBuildCache(
+                    AndroidGradleOptions.getBuildCache(scope.getProject()).orElse(null));
         }
     }
 }
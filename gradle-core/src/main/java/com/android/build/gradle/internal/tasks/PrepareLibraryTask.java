@@ -17,18 +17,22 @@ package com.android.build.gradle.internal.tasks;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.build.gradle.internal.AarExtractor;
 import com.android.build.gradle.internal.BuildCacheUtils;
-import com.android.build.gradle.internal.LibraryCache;
 import com.android.builder.model.MavenCoordinates;
 import com.android.builder.utils.FileCache;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 import java.util.jar.JarOutputStream;
@@ -42,6 +46,13 @@ import org.gradle.api.tasks.TaskAction;
 @ParallelizableTask
 public class PrepareLibraryTask extends DefaultAndroidTask {
 
+    /**
+     * The hashes of the libraries, kept across builds as long as the size and timestamp of a
+     * library stay the same.
+     */
+    private static final ConcurrentMap<File, LibraryHash> sLibraryHashes =
+            new ConcurrentHashMap<>();
+
     private File bundle;
 
     // We register this field as @OutputDirectory depending on whether the build cache is enabled or
@@ -105,7 +116,16 @@ public class PrepareLibraryTask extends DefaultAndroidTask {
     }
 
     public static void extract(File bundle, File outputDir, Project project) {
-        LibraryCache.unzipAar(bundle, outputDir, project);
+        try {
+            AarExtractor.extract(bundle, outputDir, project.getLogger());
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    String.format(
+                            "Cannot extract '%1$s' to '%2$s'",
+                            bundle.getAbsolutePath(),
+                            outputDir.getAbsolutePath()),
+                    e);
+        }
         // verify the we have a classes.jar, if we don't just create an empty one.
         File classesJar = new File(new File(outputDir, "jars"), "classes.jar");
         if (classesJar.exists()) {
@@ -187,17 +207,51 @@ public class PrepareLibraryTask extends DefaultAndroidTask {
     /**
      * Returns a {@link FileCache.Inputs} object computed from the given parameters for the
      * prepare-library task to use the build cache.
+     *
+     * <p>The inputs only depend on the content of the library, so that the copies of a library
+     * at different locations, in the same build or in other builds, share the same exploded
+     * directory.
      */
     @NonNull
     public static FileCache.Inputs getBuildCacheInputs(@NonNull File artifactFile)
             throws IOException {
         return new FileCache.Inputs.Builder(FileCache.Command.PREPARE_LIBRARY)
-                .putFilePath(FileCacheInputParams.FILE_PATH.name(), artifactFile)
+                .putString(FileCacheInputParams.FILE_HASH.name(), getHash(artifactFile))
                 .putLong(FileCacheInputParams.FILE_SIZE.name(), artifactFile.length())
-                .putLong(FileCacheInputParams.FILE_TIMESTAMP.name(), artifactFile.lastModified())
                 .build();
     }
 
+    /**
+     * Returns the hash of the content of a library, which is only computed again when the size
+     * or the timestamp of the library change.
+     */
+    @NonNull
+    private static String getHash(@NonNull File artifactFile) throws IOException {
+        File key = artifactFile.getAbsoluteFile();
+        long size = key.length();
+        long timestamp = key.lastModified();
+        LibraryHash libraryHash = sLibraryHashes.get(key);
+        if (libraryHash == null || libraryHash.size != size
+                || libraryHash.timestamp != timestamp) {
+            libraryHash = new LibraryHash(
+                    size, timestamp, Files.hash(key, Hashing.sha1()).toString());
+            sLibraryHashes.put(key, libraryHash);
+        }
+        return libraryHash.hash;
+    }
+
+    private static final class LibraryHash {
+        private final long size;
+        private final long timestamp;
+        @NonNull private final String hash;
+
+        private LibraryHash(long size, long timestamp, @NonNull String hash) {
+            this.size = size;
+            this.timestamp = timestamp;
+            this.hash = hash;
+        }
+    }
+
     /**
      * Input parameters to be provided by the client when using {@link FileCache}.
      *
@@ -207,13 +261,10 @@ public class PrepareLibraryTask extends DefaultAndroidTask {
      */
     private enum FileCacheInputParams {
 
-        /** The path of the library. */
-        FILE_PATH,
+        /** The hash of the content of the library. */
+        FILE_HASH,
 
         /** The size of the library. */
         FILE_SIZE,
-
-        /** The timestamp of the library. */
-        FILE_TIMESTAMP,
     }
 }
@@ -34,7 +34,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Optional;
 import java.util.Set;
-import java.util.function.Consumer;
 import org.gradle.api.Project;
 import org.gradle.api.tasks.TaskAction;
 
@@ -84,32 +83,22 @@ public class ResolveDependenciesTask extends BaseTask {
             File input = androidDependency.getArtifactFile();
             File output = androidDependency.getExtractedFolder();
             boolean useBuildCache = PrepareLibraryTask.shouldUseBuildCache(buildCache.isPresent(), androidDependency.getCoordinates());
-            PrepareLibraryTask.prepareLibrary(
-                    input,
-                    output,
-                    buildCache.isPresent() ? buildCache.get() : null,
-                    createAction(project, executor, input),
-                    project.getLogger(),
-                    useBuildCache);
+            // The aar is extracted within the call, so that the build cache only records the
+            // exploded aar once it is complete.
+            executor.execute(() -> {
+                PrepareLibraryTask.prepareLibrary(
+                        input,
+                        output,
+                        buildCache.orElse(null),
+                        (outputDir) -> PrepareLibraryTask.extract(input, outputDir, project),
+                        project.getLogger(),
+                        useBuildCache);
+                return null;
+            });
         }
         executor.waitForTasksWithQuickFail(false);
     }
 
-    private static Consumer<File> createAction(
-            @NonNull Project project,
-            @NonNull WaitableExecutor<Void> executor,
-            @NonNull File input) {
-        return (outputDir) -> executor.execute(() -> {
-            PrepareLibraryTask.extract(
-                    input,
-                    outputDir,
-                    project);
-            return null;
-        });
-    }
-
-
-
     public static class ConfigAction implements TaskConfigAction<ResolveDependenciesTask> {
         @NonNull
         private final VariantScope scope;
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import static com.android.build.gradle.internal.transforms.InstantRunSlicer.NUMBER_OF_SLICES_FOR_PROJECT_CLASSES;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.Files;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Assignment of the project's classes to the slices of the {@link InstantRunSlicer}.
+ *
+ * <p>Classes are assigned by package, the first time to the slice given by the hash of the
+ * package. The assignment is saved between builds so that a class never moves to another slice
+ * unless all the classes are sliced again, and even then only to keep the size of the slices
+ * bounded: packages that do not fit in the slice of their hash go to the smallest slice, and
+ * packages bigger than a slice are sliced by class.
+ *
+ * <p>The classes changed by the last incremental builds are remembered. Classes that changed in
+ * several of those builds are given their own slices when all the classes are sliced again, so
+ * that changing them again only re-dexes and re-deploys them.
+ *
+ * <p>Classes are identified by their path relative to the root of their input directory, with
+ * '/' separators. Inner classes always go to the slice of their outer class.
+ */
+final class InstantRunSliceLayout {
+
+    private static final int VERSION = 2;
+
+    /** Maximum number of slices that only contain frequently changed classes. */
+    @VisibleForTesting static final int MAX_HOT_SLICES = 5;
+
+    /** Number of incremental builds remembered to find the frequently changed classes. */
+    @VisibleForTesting static final int HISTORY_SIZE = 20;
+
+    /** Number of remembered builds in which a class must have changed to get its own slice. */
+    @VisibleForTesting static final int HOT_CLASS_THRESHOLD = 3;
+
+    /** Slices are never limited below this size, so small projects are sliced by hash only. */
+    @VisibleForTesting static final long MIN_SLICE_SIZE = 256 * 1024;
+
+    /** How much bigger than the average size a slice can be. */
+    private static final double SLICE_SIZE_SLACK = 1.5;
+
+    /** Slice of each package, keyed by {@link #getPackageKey(String)}. */
+    @NonNull private final Map<String, Integer> packageSlices = new HashMap<>();
+
+    /**
+     * Slice of the classes that do not go to the slice of their package, keyed by {@link
+     * #getClassKey(String)}.
+     */
+    @NonNull private final Map<String, Integer> classSlices = new HashMap<>();
+
+    /** Keys of the classes changed by each of the last incremental builds, most recent last. */
+    @NonNull private final Deque<Set<String>> history = new ArrayDeque<>();
+
+    private int sliceCount = NUMBER_OF_SLICES_FOR_PROJECT_CLASSES;
+
+    /**
+     * Loads the layout saved by {@link #save(File)}, or returns an empty layout if it cannot be
+     * read. The file is deleted so that a layout that is not saved again is never reused.
+     */
+    @NonNull
+    static InstantRunSliceLayout load(@NonNull File stateFile) {
+        InstantRunSliceLayout layout = new InstantRunSliceLayout();
+        if (!stateFile.isFile()) {
+            return layout;
+        }
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            if (in.readInt() == VERSION) {
+                layout.sliceCount = in.readInt();
+                readSlices(in, layout.packageSlices);
+                readSlices(in, layout.classSlices);
+                int builds = in.readInt();
+                for (int i = 0; i < builds; i++) {
+                    int classes = in.readInt();
+                    Set<String> changes = new HashSet<>(classes);
+                    for (int j = 0; j < classes; j++) {
+                        changes.add(in.readUTF());
+                    }
+                    layout.history.addLast(changes);
+                }
+            }
+        } catch (IOException e) {
+            // corrupted layout, classes not sliced yet will be assigned by hash.
+            layout = new InstantRunSliceLayout();
+        }
+        stateFile.delete();
+        return layout;
+    }
+
+    /** Saves the layout, to be loaded in the next build. */
+    void save(@NonNull File stateFile) throws IOException {
+        Files.createParentDirs(stateFile);
+        try (DataOutputStream out =
+                new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(stateFile)))) {
+            out.writeInt(VERSION);
+            out.writeInt(sliceCount);
+            writeSlices(out, packageSlices);
+            writeSlices(out, classSlices);
+            out.writeInt(history.size());
+            for (Set<String> changes : history) {
+                out.writeInt(changes.size());
+                for (String classKey : changes) {
+                    out.writeUTF(classKey);
+                }
+            }
+        }
+    }
+
+    /** Returns the number of slices, which are named by {@link #getSliceName(int)}. */
+    int getSliceCount() {
+        return sliceCount;
+    }
+
+    @NonNull
+    static String getSliceName(int slice) {
+        return "slice_" + slice;
+    }
+
+    /**
+     * Returns the slice of a class. Classes that were not sliced yet go to the slice of their
+     * package, and are assigned to it from now on.
+     */
+    int getSlice(@NonNull String classPath) {
+        Integer slice = classSlices.get(getClassKey(classPath));
+        if (slice != null) {
+            return slice;
+        }
+        String packageKey = getPackageKey(classPath);
+        slice = packageSlices.get(packageKey);
+        if (slice == null) {
+            slice = getHashBucket(packageKey);
+            packageSlices.put(packageKey, slice);
+        }
+        return slice;
+    }
+
+    /** Remembers the classes changed by an incremental build. */
+    void recordChanges(@NonNull Collection<String> classPaths) {
+        if (classPaths.isEmpty()) {
+            return;
+        }
+        Set<String> changes = new HashSet<>();
+        for (String classPath : classPaths) {
+            changes.add(getClassKey(classPath));
+        }
+        history.addLast(changes);
+        while (history.size() > HISTORY_SIZE) {
+            history.removeFirst();
+        }
+    }
+
+    /**
+     * Assigns all the classes of the project to slices, replacing the previous assignment.
+     *
+     * @param classSizes the size of each class, by path.
+     */
+    void update(@NonNull Map<String, Long> classSizes) {
+        // group the classes by outer class, and the outer classes by package.
+        Map<String, Unit> classUnits = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : classSizes.entrySet()) {
+            String classKey = getClassKey(entry.getKey());
+            classUnits
+                    .computeIfAbsent(
+                            classKey, key -> new Unit(key, getPackageKey(entry.getKey()), false))
+                    .size += entry.getValue();
+        }
+
+        // the most frequently changed classes get their own slices.
+        List<Unit> hotUnits = getHotUnits(classUnits);
+        Map<String, Unit> packageUnits = new TreeMap<>();
+        long totalSize = 0;
+        for (Unit classUnit : classUnits.values()) {
+            if (!hotUnits.contains(classUnit)) {
+                Unit packageUnit =
+                        packageUnits.computeIfAbsent(
+                                classUnit.packageKey, key -> new Unit(key, key, true));
+                packageUnit.size += classUnit.size;
+                packageUnit.classes.add(classUnit);
+                totalSize += classUnit.size;
+            }
+        }
+
+        long averageSliceSize = totalSize / NUMBER_OF_SLICES_FOR_PROJECT_CLASSES;
+        long maxSliceSize = Math.max(MIN_SLICE_SIZE, (long) (averageSliceSize * SLICE_SIZE_SLACK));
+
+        // packages too big for a slice are sliced by class.
+        List<Unit> packages = new ArrayList<>();
+        List<Unit> classes = new ArrayList<>();
+        for (Unit packageUnit : packageUnits.values()) {
+            if (packageUnit.size > maxSliceSize) {
+                classes.addAll(packageUnit.classes);
+            } else {
+                packages.add(packageUnit);
+            }
+        }
+
+        Map<String, Integer> newPackageSlices = new HashMap<>();
+        Map<String, Integer> newClassSlices = new HashMap<>();
+        long[] sliceSizes = new long[NUMBER_OF_SLICES_FOR_PROJECT_CLASSES];
+
+        // first keep what fits where it was, then place the rest, biggest first.
+        List<Unit> moved = new ArrayList<>();
+        for (Unit unit : packages) {
+            keepSlice(
+                    unit,
+                    packageSlices.get(unit.key),
+                    newPackageSlices,
+                    sliceSizes,
+                    maxSliceSize,
+                    moved);
+        }
+        for (Unit unit : classes) {
+            Integer slice = classSlices.get(unit.key);
+            keepSlice(
+                    unit,
+                    slice != null ? slice : packageSlices.get(unit.packageKey),
+                    newClassSlices,
+                    sliceSizes,
+                    maxSliceSize,
+                    moved);
+        }
+        moved.sort(Comparator.comparingLong((Unit unit) -> unit.size).reversed());
+        for (Unit unit : moved) {
+            int slice = getHashBucket(unit.packageKey);
+            if (sliceSizes[slice] + unit.size > maxSliceSize) {
+                slice = getSmallestSlice(sliceSizes);
+            }
+            sliceSizes[slice] += unit.size;
+            (unit.isPackage ? newPackageSlices : newClassSlices).put(unit.key, slice);
+        }
+
+        sliceCount = NUMBER_OF_SLICES_FOR_PROJECT_CLASSES;
+        for (Unit unit : hotUnits) {
+            newClassSlices.put(unit.key, sliceCount++);
+        }
+
+        packageSlices.clear();
+        packageSlices.putAll(newPackageSlices);
+        classSlices.clear();
+        classSlices.putAll(newClassSlices);
+    }
+
+    /**
+     * Returns the classes that changed in enough remembered builds, at most {@link
+     * #MAX_HOT_SLICES} of them, preferring the ones that changed the most recently.
+     */
+    @NonNull
+    private List<Unit> getHotUnits(@NonNull Map<String, Unit> classUnits) {
+        // iterates in the order of the last change of each class.
+        Map<String, Integer> changeCounts = new LinkedHashMap<>();
+        for (Set<String> changes : history) {
+            for (String classKey : changes) {
+                Integer count = changeCounts.remove(classKey);
+                changeCounts.put(classKey, count == null ? 1 : count + 1);
+            }
+        }
+        List<String> classKeys = new ArrayList<>(changeCounts.keySet());
+        List<Unit> hotUnits = new ArrayList<>();
+        for (int i = classKeys.size() - 1; i >= 0 && hotUnits.size() < MAX_HOT_SLICES; i--) {
+            Unit unit = classUnits.get(classKeys.get(i));
+            if (unit != null && changeCounts.get(unit.key) >= HOT_CLASS_THRESHOLD) {
+                hotUnits.add(unit);
+            }
+        }
+        hotUnits.sort(Comparator.comparing(unit -> unit.key));
+        return hotUnits;
+    }
+
+    private static void keepSlice(
+            @NonNull Unit unit,
+            @Nullable Integer previousSlice,
+            @NonNull Map<String, Integer> slices,
+            @NonNull long[] sliceSizes,
+            long maxSliceSize,
+            @NonNull List<Unit> moved) {
+        if (previousSlice != null
+                && previousSlice < sliceSizes.length
+                && sliceSizes[previousSlice] + unit.size <= maxSliceSize) {
+            sliceSizes[previousSlice] += unit.size;
+            slices.put(unit.key, previousSlice);
+        } else {
+            moved.add(unit);
+        }
+    }
+
+    private static int getSmallestSlice(@NonNull long[] sliceSizes) {
+        int smallest = 0;
+        for (int i = 1; i < sliceSizes.length; i++) {
+            if (sliceSizes[i] < sliceSizes[smallest]) {
+                smallest = i;
+            }
+        }
+        return smallest;
+    }
+
+    /**
+     * Returns the slice a package goes to by default. The package of classes of the default
+     * package is the name of their outer class.
+     */
+    @VisibleForTesting
+    static int getHashBucket(@NonNull String packageKey) {
+        return Math.abs(packageKey.hashCode() % NUMBER_OF_SLICES_FOR_PROJECT_CLASSES);
+    }
+
+    /**
+     * Returns the package of a class, or the name of its outer class if in the default package, so
+     * that inner classes of the default package go to the slice of their outer class.
+     */
+    @NonNull
+    private static String getPackageKey(@NonNull String classPath) {
+        int lastSeparator = classPath.lastIndexOf('/');
+        return lastSeparator < 0 ? getClassKey(classPath) : classPath.substring(0, lastSeparator);
+    }
+
+    /** Returns the path of the outer class of a class, without extension. */
+    @NonNull
+    private static String getClassKey(@NonNull String classPath) {
+        int nameStart = classPath.lastIndexOf('/') + 1;
+        int end = classPath.indexOf('$', nameStart);
+        if (end <= nameStart) {
+            end = classPath.lastIndexOf('.');
+            if (end <= nameStart) {
+                end = classPath.length();
+            }
+        }
+        return classPath.substring(0, end);
+    }
+
+    private static void readSlices(
+            @NonNull DataInputStream in, @NonNull Map<String, Integer> slices)
+            throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            slices.put(in.readUTF(), in.readInt());
+        }
+    }
+
+    private static void writeSlices(
+            @NonNull DataOutputStream out, @NonNull Map<String, Integer> slices)
+            throws IOException {
+        out.writeInt(slices.size());
+        for (Map.Entry<String, Integer> entry : slices.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    /** Classes that are assigned together, an outer class and its inner classes or a package. */
+    private static final class Unit {
+        @NonNull private final String key;
+        @NonNull private final String packageKey;
+        private final boolean isPackage;
+        @NonNull private final List<Unit> classes = new ArrayList<>();
+        private long size;
+
+        private Unit(@NonNull String key, @NonNull String packageKey, boolean isPackage) {
+            this.key = key;
+            this.packageKey = packageKey;
+            this.isPackage = isPackage;
+        }
+    }
+}
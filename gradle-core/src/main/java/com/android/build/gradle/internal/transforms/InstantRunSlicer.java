@@ -38,7 +38,6 @@ import com.android.utils.FileUtils;
 import com.android.utils.ILogger;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
-import com.google.common.base.Strings;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 
@@ -49,13 +48,19 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * Transform that slices the project's classes into approximately 10 slices for
- * {@link Scope#PROJECT} and {@link Scope#SUB_PROJECTS}.
+ * Transform that slices the project's classes into at least 10 slices for {@link Scope#PROJECT}
+ * and {@link Scope#SUB_PROJECTS}.
+ *
+ * <p>The slices of the classes are decided by an {@link InstantRunSliceLayout}, saved between
+ * builds so that classes stay in the same slice and frequently changed classes end up in slices
+ * of their own.
  *
  * <p>Dependencies are not processed by the Slicer but will be dex'ed separately.
  */
@@ -64,10 +69,15 @@ public class InstantRunSlicer extends Transform {
     @VisibleForTesting
     static final String PACKAGE_FOR_GUARD_CLASS = "com/android/tools/fd/dummy";
 
-    // since we use the last digit of the FQCN hashcode() as the bucket, 10 is the appropriate
-    // number of slices.
+    @VisibleForTesting static final String SLICE_LAYOUT_FILE_NAME = "slice-layout.bin";
+
+    // packages are first assigned to slices by the last digit of their hashcode(), so 10 is the
+    // appropriate number of slices. Frequently changed classes are added to extra slices.
     public static final int NUMBER_OF_SLICES_FOR_PROJECT_CLASSES = 10;
 
+    private static final int MAX_NUMBER_OF_SLICES =
+            NUMBER_OF_SLICES_FOR_PROJECT_CLASSES + InstantRunSliceLayout.MAX_HOT_SLICES;
+
     private final ILogger logger;
 
     @NonNull
@@ -119,13 +129,16 @@ public class InstantRunSlicer extends Transform {
             return;
         }
 
-        Slices slices = new Slices();
+        File layoutFile =
+                new File(variantScope.getInstantRunSupportDir(), SLICE_LAYOUT_FILE_NAME);
+        InstantRunSliceLayout layout = InstantRunSliceLayout.load(layoutFile);
 
         if (isIncremental) {
-            processCodeChanges(inputs, outputProvider, slices);
+            processCodeChanges(inputs, outputProvider, layout);
         } else {
-            slice(inputs, outputProvider, slices);
+            slice(inputs, outputProvider, layout);
         }
+        layout.save(layoutFile);
     }
 
     /**
@@ -134,16 +147,18 @@ public class InstantRunSlicer extends Transform {
      *
      * @param inputs the transform's input
      * @param outputProvider the transform's output provider to create streams
+     * @param layout the layout to update with the assignment of all the classes
      * @throws IOException if the files cannot be copied
-     * @throws TransformException never thrown
-     * @throws InterruptedException never thrown.
      */
-    private static void slice(@NonNull Collection<TransformInput> inputs,
+    private static void slice(
+            @NonNull Collection<TransformInput> inputs,
             @NonNull TransformOutputProvider outputProvider,
-            @NonNull Slices slices)
-            throws IOException, TransformException, InterruptedException {
+            @NonNull InstantRunSliceLayout layout)
+            throws IOException {
 
-        // first pass, gather all input files, organize per package.
+        // first pass, gather all input files with their size.
+        Map<String, File> inputFiles = new LinkedHashMap<>();
+        Map<String, Long> sizes = new HashMap<>();
         for (TransformInput input : inputs) {
             for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
                 File inputDir = directoryInput.getFile();
@@ -152,82 +167,88 @@ public class InstantRunSlicer extends Transform {
                     if (file.isDirectory()) {
                         continue;
                     }
-                    String packagePath = FileUtils
-                            .relativePossiblyNonExistingPath(file.getParentFile(), inputDir);
-                    slices.addElement(packagePath, file);
+                    String path = getClassPath(inputDir, file);
+                    inputFiles.put(path, file);
+                    sizes.put(path, file.length());
                 }
             }
         }
 
+        // then assign them to slices.
+        layout.update(sizes);
+        List<Slice> slices = new ArrayList<>();
+        for (int i = 0; i < layout.getSliceCount(); i++) {
+            slices.add(new Slice(InstantRunSliceLayout.getSliceName(i)));
+        }
+        for (Map.Entry<String, File> inputFile : inputFiles.entrySet()) {
+            slices.get(layout.getSlice(inputFile.getKey()))
+                    .add(inputFile.getKey(), inputFile.getValue());
+        }
+
         // now produces the output streams for each slice.
-        slices.writeTo(outputProvider);
+        for (Slice slice : slices) {
+            slice.writeTo(outputProvider);
+        }
+        // and removes the slices of classes that are no longer frequently changed.
+        for (int i = layout.getSliceCount(); i < MAX_NUMBER_OF_SLICES; i++) {
+            FileUtils.deletePath(getSliceLocation(outputProvider, i));
+        }
     }
 
     private void processCodeChanges(
             @NonNull final Collection<TransformInput> inputs,
             @NonNull final TransformOutputProvider outputProvider,
-            @NonNull final Slices slices)
+            @NonNull final InstantRunSliceLayout layout)
             throws TransformException, InterruptedException, IOException {
 
+        List<String> changedClasses = new ArrayList<>();
+
         // process all files
         for (TransformInput input : inputs) {
             for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
                 for (Map.Entry<File, Status> changedFile : directoryInput.getChangedFiles()
                         .entrySet()) {
-                    // get the output stream for this file.
                     File fileToProcess = changedFile.getKey();
                     Status status = changedFile.getValue();
-                    File sliceOutputLocation = getOutputStreamForFile(
-                            outputProvider, directoryInput, fileToProcess, slices);
-
-                    // add the buildID timestamp to the slice out directory so we force the
-                    // dex task to rerun, even if no .class files appear to have changed. This
-                    // can happen when doing a lot of hot swapping with changes undoing
-                    // themselves resulting in a state that was equal to the last restart state.
-                    // In theory, it would not require to rebuild but it will confuse Android
-                    // Studio is there is nothing to push so just be safe and rebuild.
-                    if (fileToProcess.isFile()) {
-
-                        if (!sliceOutputLocation.exists() && !sliceOutputLocation.mkdirs()) {
-                            throw new IOException(
-                                    "Cannot create folder " + sliceOutputLocation);
-                        }
-                        Files.write(
-                                String.valueOf(
-                                        variantScope.getInstantRunBuildContext().getBuildId()),
-                                new File(sliceOutputLocation, "buildId.txt"), Charsets.UTF_8);
-                        logger.verbose("Writing buildId in %s because of %s",
-                                sliceOutputLocation.getAbsolutePath(),
-                                changedFile.toString());
-                    }
-
-
                     String relativePath = FileUtils.relativePossiblyNonExistingPath(
                             fileToProcess, directoryInput.getFile());
 
-                    File outputFile = new File(sliceOutputLocation, relativePath);
                     switch (status) {
                         case ADDED:
                         case CHANGED:
                             if (fileToProcess.isFile()) {
+                                String classPath =
+                                        getClassPath(directoryInput.getFile(), fileToProcess);
+                                File sliceOutputLocation =
+                                        getSliceLocation(
+                                                outputProvider,
+                                                getSlice(outputProvider, layout, classPath));
+                                writeBuildId(sliceOutputLocation, changedFile);
+
+                                File outputFile = new File(sliceOutputLocation, relativePath);
                                 Files.createParentDirs(outputFile);
                                 Files.copy(fileToProcess, outputFile);
                                 logger.verbose("Copied %s to %s", fileToProcess, outputFile);
+                                changedClasses.add(classPath);
                             }
                             break;
                         case REMOVED:
                             // the outputFile may not exist as the fileToProcess was an intermediary
-                            // folder
-                            if (outputFile.exists()) {
-                                if (outputFile.isDirectory()) {
-                                    FileUtils.deleteDirectoryContents(outputFile);
-                                }
-                                if (!outputFile.delete()) {
-                                    throw new TransformException(
-                                            String.format("Cannot delete file %1$s",
-                                                    outputFile.getAbsolutePath()));
+                            // folder, which classes may be in several slices.
+                            for (int i = 0; i < MAX_NUMBER_OF_SLICES; i++) {
+                                File outputFile =
+                                        new File(getSliceLocation(outputProvider, i), relativePath);
+                                if (outputFile.exists()) {
+                                    if (outputFile.isDirectory()) {
+                                        FileUtils.deleteDirectoryContents(outputFile);
+                                    }
+                                    if (!outputFile.delete()) {
+                                        throw new TransformException(
+                                                String.format("Cannot delete file %1$s",
+                                                        outputFile.getAbsolutePath()));
+                                    }
+                                    logger.verbose("Deleted %s", outputFile);
                                 }
-                                logger.verbose("Deleted %s", outputFile);
                             }
                             break;
                         default:
@@ -237,99 +258,77 @@ public class InstantRunSlicer extends Transform {
                 }
             }
         }
+        layout.recordChanges(changedClasses);
     }
 
-    private static File getOutputStreamForFile(
-            @NonNull TransformOutputProvider transformOutputProvider,
-            @NonNull DirectoryInput input,
-            @NonNull File file,
-            @NonNull Slices slices) {
+    /**
+     * Adds the buildID timestamp to the slice out directory so we force the dex task to rerun,
+     * even if no .class files appear to have changed. This can happen when doing a lot of hot
+     * swapping with changes undoing themselves resulting in a state that was equal to the last
+     * restart state. In theory, it would not require to rebuild but it will confuse Android
+     * Studio is there is nothing to push so just be safe and rebuild.
+     */
+    private void writeBuildId(
+            @NonNull File sliceOutputLocation, @NonNull Map.Entry<File, Status> changedFile)
+            throws IOException {
+        if (!sliceOutputLocation.exists() && !sliceOutputLocation.mkdirs()) {
+            throw new IOException("Cannot create folder " + sliceOutputLocation);
+        }
+        Files.write(
+                String.valueOf(variantScope.getInstantRunBuildContext().getBuildId()),
+                new File(sliceOutputLocation, "buildId.txt"),
+                Charsets.UTF_8);
+        logger.verbose("Writing buildId in %s because of %s",
+                sliceOutputLocation.getAbsolutePath(),
+                changedFile.toString());
+    }
 
-        String relativePackagePath = FileUtils.relativePossiblyNonExistingPath(file.getParentFile(),
-                input.getFile());
+    /**
+     * Returns the slice of a changed class: the slice it is already in, even if the layout was
+     * lost, or the slice given by the layout for new classes.
+     */
+    private static int getSlice(
+            @NonNull TransformOutputProvider outputProvider,
+            @NonNull InstantRunSliceLayout layout,
+            @NonNull String classPath) {
+        for (int i = 0; i < MAX_NUMBER_OF_SLICES; i++) {
+            if (new File(getSliceLocation(outputProvider, i), classPath).isFile()) {
+                return i;
+            }
+        }
+        return layout.getSlice(classPath);
+    }
 
-        Slice slice = slices.getSliceFor(new Slice.SlicedElement(relativePackagePath, file));
-        return transformOutputProvider.getContentLocation(slice.name,
+    @NonNull
+    private static File getSliceLocation(
+            @NonNull TransformOutputProvider outputProvider, int slice) {
+        return outputProvider.getContentLocation(
+                InstantRunSliceLayout.getSliceName(slice),
                 TransformManager.CONTENT_CLASS,
                 Sets.immutableEnumSet(Scope.PROJECT, Scope.SUB_PROJECTS),
                 Format.DIRECTORY);
     }
 
-    private static class Slices {
-        @NonNull
-        private final List<Slice> slices = new ArrayList<>();
-
-        private Slices() {
-            for (int i=0; i <NUMBER_OF_SLICES_FOR_PROJECT_CLASSES; i++) {
-                Slice newSlice = new Slice("slice_" + i, i);
-                slices.add(newSlice);
-            }
-        }
-
-        private void addElement(@NonNull String packagePath, @NonNull File file) {
-            Slice.SlicedElement slicedElement = new Slice.SlicedElement(packagePath, file);
-            Slice slice = getSliceFor(slicedElement);
-            slice.add(slicedElement);
-        }
-
-        private void writeTo(@NonNull TransformOutputProvider outputProvider) throws IOException {
-            for (Slice slice : slices) {
-                slice.writeTo(outputProvider);
-            }
-        }
-
-        private Slice getSliceFor(Slice.SlicedElement slicedElement) {
-            return slices.get(slicedElement.getHashBucket());
-        }
+    /** Returns the path of a class file relative to its input directory, with '/' separators. */
+    @NonNull
+    private static String getClassPath(@NonNull File inputDir, @NonNull File file) {
+        return FileUtils.toSystemIndependentPath(
+                FileUtils.relativePossiblyNonExistingPath(file, inputDir));
     }
 
     private static class Slice {
 
-        private static class SlicedElement {
-            @NonNull
-            private final String packagePath;
-            @NonNull
-            private final File slicedFile;
-
-            private SlicedElement(@NonNull String packagePath, @NonNull File slicedFile) {
-                this.packagePath = packagePath;
-                this.slicedFile = slicedFile;
-            }
-
-            /**
-             * Returns the bucket number in which this {@link SlicedElement} belongs.
-             * @return an integer between 0 and {@link #NUMBER_OF_SLICES_FOR_PROJECT_CLASSES}
-             * exclusive that will be used to bucket this item.
-             */
-            public int getHashBucket() {
-                String hashTarget = Strings.isNullOrEmpty(packagePath)
-                        ? slicedFile.getName()
-                        : packagePath;
-                return Math.abs(hashTarget.hashCode() % NUMBER_OF_SLICES_FOR_PROJECT_CLASSES);
-            }
-
-            @Override
-            public String toString() {
-                return packagePath + slicedFile.getName();
-            }
-        }
-
         @NonNull
         private final String name;
-        private final int hashBucket;
-        private final List<SlicedElement> slicedElements;
+        @NonNull
+        private final Map<String, File> slicedFiles = new LinkedHashMap<>();
 
-        private Slice(@NonNull String name, int hashBucket) {
+        private Slice(@NonNull String name) {
             this.name = name;
-            this.hashBucket = hashBucket;
-            slicedElements = new ArrayList<>();
         }
 
-        private void add(@NonNull SlicedElement slicedElement) {
-            if (hashBucket != slicedElement.getHashBucket()) {
-                throw new RuntimeException("Wrong bucket for " + slicedElement);
-            }
-            slicedElements.add(slicedElement);
+        private void add(@NonNull String classPath, @NonNull File slicedFile) {
+            slicedFiles.put(classPath, slicedFile);
         }
 
         private void writeTo(@NonNull TransformOutputProvider outputProvider) throws IOException {
@@ -346,11 +345,10 @@ public class InstantRunSlicer extends Transform {
             createGuardClass(name, sliceOutputLocation);
 
             // now copy all the files into its new location.
-            for (Slice.SlicedElement slicedElement : slicedElements) {
-                File outputFile = new File(sliceOutputLocation, new File(slicedElement.packagePath,
-                        slicedElement.slicedFile.getName()).getPath());
+            for (Map.Entry<String, File> slicedFile : slicedFiles.entrySet()) {
+                File outputFile = new File(sliceOutputLocation, slicedFile.getKey());
                 Files.createParentDirs(outputFile);
-                Files.copy(slicedElement.slicedFile, outputFile);
+                Files.copy(slicedFile.getValue(), outputFile);
             }
         }
     }
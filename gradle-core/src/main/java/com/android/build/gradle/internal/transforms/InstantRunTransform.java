@@ -35,6 +35,7 @@ import com.android.build.api.transform.TransformInvocation;
 import com.android.build.api.transform.TransformOutputProvider;
 import com.android.build.gradle.AndroidGradleOptions;
 import com.android.build.gradle.internal.LoggerWrapper;
+import com.android.build.gradle.internal.incremental.ClassHierarchyIndex;
 import com.android.build.gradle.internal.incremental.IncrementalChangeVisitor;
 import com.android.build.gradle.internal.incremental.IncrementalSupportVisitor;
 import com.android.build.gradle.internal.incremental.IncrementalVisitor;
@@ -55,11 +56,9 @@ import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -74,11 +73,15 @@ import org.objectweb.asm.Opcodes;
  */
 public class InstantRunTransform extends Transform {
 
+    private static final String CLASS_HIERARCHY_FILE_NAME = "class-hierarchy.bin";
+
     protected static final ILogger LOGGER =
             new LoggerWrapper(Logging.getLogger(InstantRunTransform.class));
     private final ImmutableList.Builder<String> generatedClasses3Names = ImmutableList.builder();
     private final InstantRunVariantScope transformScope;
     private final Integer targetPlatformApi;
+    // set while transforming.
+    private ClassHierarchyIndex classHierarchy;
 
     public InstantRunTransform(InstantRunVariantScope transformScope) {
         this.transformScope = transformScope;
@@ -158,20 +161,15 @@ public class InstantRunTransform extends Transform {
             throw new IllegalStateException("InstantRunTransform called with null output");
         }
 
-        // first get all referenced input to construct a class loader capable of loading those
-        // classes. This is useful for ASM as it needs to load classes
-        List<URL> referencedInputUrls = getAllClassesLocations(
-                invocation.getInputs(), invocation.getReferencedInputs());
-
-        ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
-        // This class loader could be optimized a bit, first we could create a parent class loader
-        // with the android.jar only that could be stored in the GlobalScope for reuse. This
-        // class loader could also be store in the VariantScope for potential reuse if some
-        // other transform need to load project's classes.
-        try (URLClassLoader urlClassLoader = new NonDelegatingUrlClassloader(referencedInputUrls)) {
-            instantRunBuildContext.startRecording(
-                    InstantRunBuildContext.TaskType.INSTANT_RUN_TRANSFORM);
-            Thread.currentThread().setContextClassLoader(urlClassLoader);
+        instantRunBuildContext.startRecording(
+                InstantRunBuildContext.TaskType.INSTANT_RUN_TRANSFORM);
+        // index the hierarchy of all referenced classes, ASM needs it to compute frames.
+        File classHierarchyFile =
+                new File(transformScope.getInstantRunSupportDir(), CLASS_HIERARCHY_FILE_NAME);
+        try (ClassHierarchyIndex index = ClassHierarchyIndex.load(classHierarchyFile)) {
+            classHierarchy = index;
+            updateClassHierarchy(invocation);
+            classHierarchy.save(classHierarchyFile);
 
             File classesTwoOutput = outputProvider.getContentLocation("main",
                     TransformManager.CONTENT_CLASS, getScopes(), Format.DIRECTORY);
@@ -184,12 +182,9 @@ public class InstantRunTransform extends Transform {
                 FileUtils.cleanOutputDir(classesThreeOutput);
             }
 
-            final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
             for (TransformInput input : invocation.getInputs()) {
               input.getDirectoryInputs().parallelStream().forEach(directoryInput -> {
-                  ClassLoader currentThreadClassLoader = Thread.currentThread().getContextClassLoader();
                   try {
-                      Thread.currentThread().setContextClassLoader(contextClassLoader);
                       File inputDir = directoryInput.getFile();
                       if (invocation.isIncremental()) {
                           for (Map.Entry<File, Status> fileEntry : directoryInput
@@ -260,8 +255,6 @@ public class InstantRunTransform extends Transform {
                       }
                   } catch (IOException x) {
                       throw new RuntimeException(x);  // Lambdas don't like checked exceptions.
-                  } finally {
-                      Thread.currentThread().setContextClassLoader(currentThreadClassLoader);
                   }
               });
 
@@ -269,7 +262,7 @@ public class InstantRunTransform extends Transform {
 
             wrapUpOutputs(classesTwoOutput, classesThreeOutput);
         } finally {
-            Thread.currentThread().setContextClassLoader(currentClassLoader);
+            classHierarchy = null;
             instantRunBuildContext.stopRecording(
                     InstantRunBuildContext.TaskType.INSTANT_RUN_TRANSFORM);
         }
@@ -294,46 +287,63 @@ public class InstantRunTransform extends Transform {
 
 
     /**
-     * Calculate a list of {@link URL} that represent all the directories containing classes
-     * either directly belonging to this project or referencing it.
+     * Updates {@link #classHierarchy} with all the classes either directly belonging to this
+     * project or referenced by it.
      *
-     * @param inputs the project's inputs
-     * @param referencedInputs the project's referenced inputs
-     * @return a {@link List} or {@link URL} for all the locations.
-     * @throws MalformedURLException if once the locatio
+     * <p>Only the jars and the class files of the input folders that changed since the last
+     * build are read again, unless the index of the last build could not be loaded. The changed
+     * files of the referenced folders are not known, so these folders are read again every time.
      */
-    @NonNull
-    private List<URL> getAllClassesLocations(
-            @NonNull Collection<TransformInput> inputs,
-            @NonNull Collection<TransformInput> referencedInputs) throws MalformedURLException {
-
-        List<URL> referencedInputUrls = new ArrayList<>();
+    private void updateClassHierarchy(@NonNull TransformInvocation invocation)
+            throws IOException {
+        List<File> classpath = new ArrayList<>();
 
         // add the bootstrap classpath for jars like android.jar
-        for (File file : transformScope.getInstantRunBootClasspath()) {
-            referencedInputUrls.add(file.toURI().toURL());
-        }
+        classpath.addAll(transformScope.getInstantRunBootClasspath());
 
         // now add the project dependencies.
-        for (TransformInput referencedInput : referencedInputs) {
-            addAllClassLocations(referencedInput, referencedInputUrls);
+        for (TransformInput referencedInput : invocation.getReferencedInputs()) {
+            addAllClassLocations(referencedInput, classpath);
         }
 
         // and finally add input folders.
-        for (TransformInput input : inputs) {
-            addAllClassLocations(input, referencedInputUrls);
+        for (TransformInput input : invocation.getInputs()) {
+            addAllClassLocations(input, classpath);
         }
-        return referencedInputUrls;
-    }
 
-    private static void addAllClassLocations(TransformInput transformInput, List<URL> into)
-            throws MalformedURLException {
+        // the changes of input folders are applied below, class by class.
+        Set<File> updatedDirectories = new HashSet<>();
+        if (invocation.isIncremental()) {
+            for (TransformInput input : invocation.getInputs()) {
+                for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
+                    updatedDirectories.add(directoryInput.getFile());
+                }
+            }
+        }
+        classHierarchy.updateClasspath(classpath, updatedDirectories);
 
+        if (invocation.isIncremental()) {
+            for (TransformInput input : invocation.getInputs()) {
+                for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
+                    for (Map.Entry<File, Status> fileEntry :
+                            directoryInput.getChangedFiles().entrySet()) {
+                        if (fileEntry.getValue() != Status.NOTCHANGED
+                                && fileEntry.getKey().getName().endsWith(SdkConstants.DOT_CLASS)) {
+                            classHierarchy.updateClass(
+                                    directoryInput.getFile(), fileEntry.getKey());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addAllClassLocations(TransformInput transformInput, List<File> into) {
         for (DirectoryInput directoryInput : transformInput.getDirectoryInputs()) {
-            into.add(directoryInput.getFile().toURI().toURL());
+            into.add(directoryInput.getFile());
         }
         for (JarInput jarInput : transformInput.getJarInputs()) {
-            into.add(jarInput.getFile().toURI().toURL());
+            into.add(jarInput.getFile());
         }
     }
 
@@ -355,7 +365,7 @@ public class InstantRunTransform extends Transform {
         if (inputFile.getPath().endsWith(SdkConstants.DOT_CLASS)) {
             IncrementalVisitor.instrumentClass(
                     targetPlatformApi, inputDir, inputFile, outputDir,
-                    IncrementalSupportVisitor.VISITOR_BUILDER, LOGGER);
+                    IncrementalSupportVisitor.VISITOR_BUILDER, classHierarchy, LOGGER);
         }
     }
 
@@ -390,7 +400,8 @@ public class InstantRunTransform extends Transform {
             throws IOException {
 
         File outputFile = IncrementalVisitor.instrumentClass(targetPlatformApi,
-                inputDir, inputFile, outputDir, IncrementalChangeVisitor.VISITOR_BUILDER, LOGGER);
+                inputDir, inputFile, outputDir, IncrementalChangeVisitor.VISITOR_BUILDER,
+                classHierarchy, LOGGER);
 
         // if the visitor returned null, that means the class cannot be hot swapped or more likely
         // that it was disabled for InstantRun, we don't add it to our collection of generated
@@ -472,17 +483,4 @@ public class InstantRunTransform extends Transform {
             throw new RuntimeException(e);
         }
     }
-
-    private static class NonDelegatingUrlClassloader extends URLClassLoader {
-
-        public NonDelegatingUrlClassloader(@NonNull List<URL> urls) {
-            super(urls.toArray(new URL[urls.size()]), null);
-        }
-
-        @Override
-        public URL getResource(String name) {
-            // Never delegate to bootstrap classes.
-            return findResource(name);
-        }
-    }
 }
@@ -22,6 +22,7 @@ import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.build.api.transform.SecondaryInput;
 import com.android.build.api.transform.TransformInvocation;
+import com.android.build.gradle.internal.BuildCacheUtils;
 import com.android.build.gradle.internal.coverage.JacocoPlugin;
 import com.android.build.gradle.internal.pipeline.TransformManager;
 import com.android.build.api.transform.Context;
@@ -33,7 +34,10 @@ import com.android.build.api.transform.Transform;
 import com.android.build.api.transform.TransformException;
 import com.android.build.api.transform.TransformInput;
 import com.android.build.api.transform.TransformOutputProvider;
+import com.android.builder.utils.FileCache;
+import com.android.ide.common.internal.WaitableExecutor;
 import com.android.utils.FileUtils;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
@@ -43,6 +47,9 @@ import com.google.common.io.Closeables;
 import com.google.common.io.Files;
 
 import org.gradle.api.artifacts.ConfigurationContainer;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.jacoco.core.JaCoCo;
 import org.jacoco.core.instr.Instrumenter;
 import org.jacoco.core.runtime.OfflineInstrumentationAccessGenerator;
 
@@ -51,19 +58,34 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Jacoco Transform
+ *
+ * <p>Class files are instrumented in parallel. When the build cache is enabled, the instrumented
+ * classes are cached by content and Jacoco version, so that classes that did not change are not
+ * instrumented again after a clean build.
  */
 public class JacocoTransform extends Transform {
 
+    private static final Logger LOGGER = Logging.getLogger(JacocoTransform.class);
+
     @NonNull
     private final Supplier<Collection<File>> jacocoClasspath;
 
-    public JacocoTransform(@NonNull  final ConfigurationContainer configurations) {
+    @NonNull private final Optional<FileCache> buildCache;
+
+    public JacocoTransform(
+            @NonNull final ConfigurationContainer configurations,
+            @NonNull Optional<FileCache> buildCache) {
         this.jacocoClasspath = Suppliers.memoize(
                 () -> configurations.getByName(JacocoPlugin.AGENT_CONFIGURATION_NAME).getFiles());
+        this.buildCache = buildCache;
     }
 
     @NonNull
@@ -112,19 +134,23 @@ public class JacocoTransform extends Transform {
         DirectoryInput directoryInput = Iterables.getOnlyElement(input.getDirectoryInputs());
         File inputDir = directoryInput.getFile();
 
-        Instrumenter instrumenter = new Instrumenter(new OfflineInstrumentationAccessGenerator());
+        // sorted so that the classes are always submitted in the same order.
+        SortedMap<File, File> filesToInstrument = new TreeMap<>();
         if (invocation.isIncremental()) {
-            instrumentFilesIncremental(instrumenter, inputDir, outputDir, directoryInput.getChangedFiles());
+            collectFilesIncremental(
+                    inputDir, outputDir, directoryInput.getChangedFiles(), filesToInstrument);
         } else {
-            instrumentFilesFullRun(instrumenter, inputDir, outputDir);
+            collectFilesFullRun(inputDir, outputDir, filesToInstrument);
         }
+        instrumentFiles(
+                filesToInstrument, buildCache, WaitableExecutor.useGlobalSharedThreadPool());
     }
 
-    private static void instrumentFilesIncremental(
-            @NonNull Instrumenter instrumenter,
+    private static void collectFilesIncremental(
             @NonNull File inputDir,
             @NonNull File outputDir,
-            @NonNull Map<File, Status> changedFiles) throws IOException {
+            @NonNull Map<File, Status> changedFiles,
+            @NonNull Map<File, File> filesToInstrument) throws IOException {
         for (Map.Entry<File, Status> changedInput : changedFiles.entrySet()) {
             File inputFile = changedInput.getKey();
             if (!inputFile.getName().endsWith(SdkConstants.DOT_CLASS)) {
@@ -140,15 +166,15 @@ public class JacocoTransform extends Transform {
                 case ADDED:
                     // fall through
                 case CHANGED:
-                    instrumentFile(instrumenter, inputFile, outputFile);
+                    filesToInstrument.put(inputFile, outputFile);
             }
         }
     }
 
-    private static void instrumentFilesFullRun(
-            @NonNull Instrumenter instrumenter,
+    private static void collectFilesFullRun(
             @NonNull File inputDir,
-            @NonNull File outputDir) throws IOException {
+            @NonNull File outputDir,
+            @NonNull Map<File, File> filesToInstrument) throws IOException {
         FileUtils.cleanOutputDir(outputDir);
         Iterable<File> files = FileUtils.getAllFiles(inputDir);
         for (File inputFile : files) {
@@ -157,14 +183,91 @@ public class JacocoTransform extends Transform {
             }
 
             File outputFile = new File(outputDir, FileUtils.relativePath(inputFile, inputDir));
-            instrumentFile(instrumenter, inputFile, outputFile);
+            filesToInstrument.put(inputFile, outputFile);
+        }
+    }
+
+    /**
+     * Instruments class files, one task per file.
+     *
+     * @param filesToInstrument the output file of each class file to instrument
+     * @param buildCache the cache of instrumented classes, if enabled
+     * @param executor the executor running the instrumentation of each file
+     */
+    @VisibleForTesting
+    static void instrumentFiles(
+            @NonNull Map<File, File> filesToInstrument,
+            @NonNull Optional<FileCache> buildCache,
+            @NonNull WaitableExecutor<Void> executor)
+            throws TransformException, InterruptedException {
+        for (Map.Entry<File, File> file : filesToInstrument.entrySet()) {
+            executor.execute(
+                    () -> {
+                        if (buildCache.isPresent()) {
+                            instrumentFileWithCache(
+                                    file.getKey(), file.getValue(), buildCache.get());
+                        } else {
+                            instrumentFile(file.getKey(), file.getValue());
+                        }
+                        return null;
+                    });
+        }
+        try {
+            executor.waitForTasksWithQuickFail(true /*cancelRemaining*/);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new TransformException(e);
+        }
+    }
+
+    private static void instrumentFileWithCache(
+            @NonNull File inputFile,
+            @NonNull File outputFile,
+            @NonNull FileCache buildCache) throws IOException {
+        // instrumentation only depends on the content of the class and on the version of Jacoco.
+        FileCache.Inputs buildCacheInputs =
+                new FileCache.Inputs.Builder(FileCache.Command.JACOCO_INSTRUMENT_CLASS)
+                        .putFileHash(FileCacheInputParams.FILE_HASH.name(), inputFile)
+                        .putString(FileCacheInputParams.JACOCO_VERSION.name(), JaCoCo.VERSION)
+                        .build();
+        FileCache.QueryResult result;
+        try {
+            result =
+                    buildCache.createFile(
+                            outputFile,
+                            buildCacheInputs,
+                            () -> {
+                                instrumentFile(inputFile, outputFile);
+                                return null;
+                            });
+        } catch (ExecutionException exception) {
+            throw new IOException(
+                    String.format("Unable to instrument '%1$s'", inputFile.getAbsolutePath()),
+                    exception);
+        } catch (Exception exception) {
+            throw new IOException(
+                    String.format(
+                            "Unable to instrument '%1$s' using the build cache at '%2$s'.\n%3$s",
+                            inputFile.getAbsolutePath(),
+                            buildCache.getCacheDirectory().getAbsolutePath(),
+                            BuildCacheUtils.BUILD_CACHE_TROUBLESHOOTING_MESSAGE),
+                    exception);
+        }
+        if (result.getQueryEvent().equals(FileCache.QueryEvent.CORRUPTED)) {
+            LOGGER.info(
+                    "The build cache at '{}' contained an invalid cache entry for '{}', "
+                            + "it has been recreated.",
+                    buildCache.getCacheDirectory().getAbsolutePath(),
+                    inputFile.getAbsolutePath());
         }
     }
 
     private static void instrumentFile(
-            @NonNull Instrumenter instrumenter,
             @NonNull File inputFile,
             @NonNull File outputFile) throws IOException {
+        // instrumenters are cheap, and not documented as thread safe.
+        Instrumenter instrumenter = new Instrumenter(new OfflineInstrumentationAccessGenerator());
         InputStream inputStream = null;
         try {
             inputStream = Files.asByteSource(inputFile).openBufferedStream();
@@ -178,4 +281,13 @@ public class JacocoTransform extends Transform {
         }
     }
 
+    /** Input parameters of the instrumentation of a class provided to {@link FileCache}. */
+    private enum FileCacheInputParams {
+
+        /** Hash of the class file. */
+        FILE_HASH,
+
+        /** Version of Jacoco. */
+        JACOCO_VERSION,
+    }
 }
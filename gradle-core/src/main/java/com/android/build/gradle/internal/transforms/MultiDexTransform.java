@@ -32,9 +32,8 @@ import com.android.build.api.transform.TransformInvocation;
 import com.android.build.gradle.internal.dsl.DexOptions;
 import com.android.build.gradle.internal.pipeline.TransformManager;
 import com.android.build.gradle.internal.scope.VariantScope;
-import com.android.builder.core.AndroidBuilder;
 import com.android.builder.sdk.TargetInfo;
-import com.android.ide.common.process.ProcessException;
+import com.android.multidex.ClassReferenceGraph;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -52,7 +51,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.EnumSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -88,6 +87,10 @@ public class MultiDexTransform extends BaseProguardAction {
     @NonNull
     private final File mainDexListFile;
 
+    // State
+    @NonNull
+    private final File classReferenceGraphFile;
+
     public MultiDexTransform(
             @NonNull VariantScope variantScope,
             @NonNull DexOptions dexOptions,
@@ -101,6 +104,7 @@ public class MultiDexTransform extends BaseProguardAction {
         configFileOut = new File(variantScope.getGlobalScope().getBuildDir() + "/" + FD_INTERMEDIATES
                 + "/multi-dex/" + variantScope.getVariantConfiguration().getDirName()
                 + "/components.flags");
+        classReferenceGraphFile = new File(configFileOut.getParentFile(), "class-references.bin");
         mainDexListFile = variantScope.getMainDexListFile();
         keepRuntimeAnnotatedClasses = dexOptions.getKeepRuntimeAnnotatedClasses();
     }
@@ -184,7 +188,7 @@ public class MultiDexTransform extends BaseProguardAction {
             File input = verifyInputs(invocation.getReferencedInputs());
             shrinkWithProguard(input);
             computeList(input);
-        } catch (ParseException | ProcessException e) {
+        } catch (ParseException e) {
             throw new TransformException(e);
         }
     }
@@ -260,11 +264,21 @@ public class MultiDexTransform extends BaseProguardAction {
         return shrinkedAndroid;
     }
 
-    private void computeList(File _allClassesJarFile) throws ProcessException, IOException {
+    private void computeList(File _allClassesJarFile) throws IOException {
+        if (!keepRuntimeAnnotatedClasses) {
+            Logging.getLogger(MultiDexTransform.class).warn(
+                    "Not including classes with runtime retention annotations in the main dex.\n"
+                            + "This can cause issues with reflection in older platforms.");
+        }
+
+        // only the classes that changed since the previous build are read again.
+        ClassReferenceGraph graph = ClassReferenceGraph.load(classReferenceGraphFile);
+        graph.update(_allClassesJarFile);
+
         // manifest components plus immediate dependencies must be in the main dex.
-        Set<String> mainDexClasses = callDx(
-                _allClassesJarFile,
-                variantScope.getProguardComponentsJarFile());
+        Set<String> mainDexClasses = new LinkedHashSet<>(graph.getMainDexList(
+                variantScope.getProguardComponentsJarFile(),
+                keepRuntimeAnnotatedClasses));
 
         // add additional classes specified via a jar file.
         if (includeInMainDexJarFile != null) {
@@ -278,7 +292,9 @@ public class MultiDexTransform extends BaseProguardAction {
             // ClassReferenceListBuilder here (only) to pull in these missing
             // interface classes.  Note that doing so brings in other unnecessary
             // stuff, too; next time we're low on main dex space, revisit this!
-            mainDexClasses.addAll(callDx(_allClassesJarFile, includeInMainDexJarFile));
+            mainDexClasses.addAll(graph.getMainDexList(
+                    includeInMainDexJarFile,
+                    keepRuntimeAnnotatedClasses));
         }
 
         if (userMainDexKeepFile != null) {
@@ -292,21 +308,6 @@ public class MultiDexTransform extends BaseProguardAction {
 
         Files.write(fileContent, mainDexListFile, Charsets.UTF_8);
 
-    }
-
-    private Set<String> callDx(File allClassesJarFile, File jarOfRoots) throws ProcessException {
-        EnumSet<AndroidBuilder.MainDexListOption> mainDexListOptions =
-                EnumSet.noneOf(AndroidBuilder.MainDexListOption.class);
-        if (!keepRuntimeAnnotatedClasses) {
-            mainDexListOptions.add(
-                    AndroidBuilder.MainDexListOption.DISABLE_ANNOTATION_RESOLUTION_WORKAROUND);
-            Logging.getLogger(MultiDexTransform.class).warn(
-                    "Not including classes with runtime retention annotations in the main dex.\n"
-                            + "This can cause issues with reflection in older platforms.");
-        }
-
-
-        return variantScope.getGlobalScope().getAndroidBuilder().createMainDexList(
-                allClassesJarFile, jarOfRoots, mainDexListOptions);
+        graph.save(classReferenceGraphFile);
     }
 }
@@ -33,13 +33,17 @@ import com.android.build.gradle.internal.variant.BaseVariantData;
 import com.android.build.gradle.internal.variant.BaseVariantOutputData;
 import com.android.builder.core.AndroidBuilder;
 import com.android.builder.model.SyncIssue;
+import com.android.ide.common.internal.WaitableExecutor;
 import com.android.ide.common.process.BuildCommandException;
 import com.android.ide.common.process.ProcessInfoBuilder;
 import com.android.utils.FileUtils;
 import com.android.utils.StringHelper;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 
@@ -81,6 +85,7 @@ public class ExternalNativeBuildTask extends ExternalNativeBaseTask {
         diagnostic("done reading expected JSONs");
         List<String> buildCommands = Lists.newArrayList();
         List<String> libraryNames = Lists.newArrayList();
+        List<String> libraryAbis = Lists.newArrayList();
 
         if (targets.isEmpty()) {
             diagnostic("executing build commands for targets that produce .so files");
@@ -156,11 +161,12 @@ public class ExternalNativeBuildTask extends ExternalNativeBaseTask {
 
                 buildCommands.add(libraryValue.buildCommand);
                 libraryNames.add(libraryValue.artifactName + " " + libraryValue.abi);
+                libraryAbis.add(Strings.nullToEmpty(libraryValue.abi));
                 diagnostic("about to build %s", libraryValue.buildCommand);
             }
         }
 
-        executeProcessBatch(libraryNames, buildCommands);
+        executeProcessBatch(libraryNames, libraryAbis, buildCommands);
 
         diagnostic("check expected build outputs");
         for (NativeBuildConfigValue config : configValueList) {
@@ -211,30 +217,64 @@ public class ExternalNativeBuildTask extends ExternalNativeBaseTask {
      */
     protected void executeProcessBatch(
             @NonNull List<String> libraryNames,
+            @NonNull List<String> libraryAbis,
             @NonNull List<String> commands) throws BuildCommandException, IOException {
         // Order of building doesn't matter to final result but building in reverse order causes
         // the dependencies to be built first for CMake and ndk-build. This gives better progress
         // visibility to the user because they will see "building XXXXX.a" before
         // "building XXXXX.so". Nicer still would be to have the dependency information in the JSON
         // so we can build in toposort order.
+        // Libraries of the same ABI share intermediate outputs so they are built one after the
+        // other, but each ABI has its own build folder and the ABIs are built in parallel.
+        ListMultimap<String, Integer> librariesByAbi =
+                MultimapBuilder.linkedHashKeys().arrayListValues().build();
         for (int library = libraryNames.size() - 1; library >= 0; --library) {
-            String libraryName = libraryNames.get(library);
-            getLogger().lifecycle(String.format("Build %s", libraryName));
-            String command = commands.get(library);
-            List<String> tokens = StringHelper.tokenizeString(command);
-            ProcessInfoBuilder processBuilder = new ProcessInfoBuilder();
-            processBuilder.setExecutable(tokens.get(0));
-            for (int i = 1; i < tokens.size(); ++i) {
-                processBuilder.addArgs(tokens.get(i));
+            librariesByAbi.put(libraryAbis.get(library), library);
+        }
+
+        WaitableExecutor<Void> executor = WaitableExecutor.useGlobalSharedThreadPool();
+        for (String abi : librariesByAbi.keySet()) {
+            List<Integer> libraries = librariesByAbi.get(abi);
+            executor.execute(() -> {
+                for (int library : libraries) {
+                    executeProcess(libraryNames.get(library), commands.get(library));
+                }
+                return null;
+            });
+        }
+
+        List<WaitableExecutor.TaskResult<Void>> results;
+        try {
+            results = executor.waitForAllTasks();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while building native libraries", e);
+        }
+        for (WaitableExecutor.TaskResult<Void> result : results) {
+            if (result.exception != null) {
+                Throwables.propagateIfPossible(
+                        result.exception, BuildCommandException.class, IOException.class);
+                throw new GradleException(result.exception.getMessage(), result.exception);
             }
-            diagnostic("%s", processBuilder);
-            ExternalNativeBuildTaskUtils.executeBuildProcessAndLogError(
-                    getBuilder(),
-                    processBuilder,
-                    true /* logStdioToInfo */);
         }
     }
 
+    private void executeProcess(@NonNull String libraryName, @NonNull String command)
+            throws BuildCommandException, IOException {
+        getLogger().lifecycle(String.format("Build %s", libraryName));
+        List<String> tokens = StringHelper.tokenizeString(command);
+        ProcessInfoBuilder processBuilder = new ProcessInfoBuilder();
+        processBuilder.setExecutable(tokens.get(0));
+        for (int i = 1; i < tokens.size(); ++i) {
+            processBuilder.addArgs(tokens.get(i));
+        }
+        diagnostic("%s", processBuilder);
+        ExternalNativeBuildTaskUtils.executeBuildProcessAndLogError(
+                getBuilder(),
+                processBuilder,
+                true /* logStdioToInfo */);
+    }
+
     @NonNull
     public File getSoFolder() {
         return soFolder;
@@ -43,7 +43,6 @@ import com.google.gson.GsonBuilder;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumMap;
@@ -308,6 +307,7 @@ public class ExternalNativeBuildTaskUtils {
 
             private class ProgressiveLoggingOutputStream extends OutputStream {
                 private static final int INITIAL_BUFFER_SIZE = 256;
+                private static final int NO_TERMINATOR = -1;
                 @NonNull
                 byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
                 int nextByteIndex = 0;
@@ -321,13 +321,12 @@ public class ExternalNativeBuildTaskUtils {
                 }
 
                 @Override public void write(int b) throws IOException {
-                    combinedOutput.write(b);
                     if (individualOutput != null) {
                         individualOutput.write(b);
                     }
                     // Check for /r and /n respectively
                     if (b == 0x0A || b == 0x0D) {
-                        printBuffer();
+                        printBuffer(b);
                     } else {
                         writeBuffer(b);
                     }
@@ -341,7 +340,18 @@ public class ExternalNativeBuildTaskUtils {
                     nextByteIndex++;
                 }
 
-                private void printBuffer() throws UnsupportedEncodingException {
+                /**
+                 * Logs the buffered line and appends it to the combined output, followed by the
+                 * line terminator if there is one. Standard output and error are written from
+                 * different threads, so only whole lines go to the combined output.
+                 */
+                private void printBuffer(int terminator) throws IOException {
+                    synchronized (combinedOutput) {
+                        combinedOutput.write(buffer, 0, nextByteIndex);
+                        if (terminator != NO_TERMINATOR) {
+                            combinedOutput.write(terminator);
+                        }
+                    }
                     if (nextByteIndex == 0) {
                         return;
                     }
@@ -352,12 +362,20 @@ public class ExternalNativeBuildTaskUtils {
                     nextByteIndex = 0;
                 }
 
+                /**
+                 * Whole lines are printed as soon as they are terminated, so this keeps the
+                 * unterminated tail buffered until the next terminator or {@link #close()}.
+                 */
                 @Override public void flush() throws IOException {
-                    printBuffer();
+                    if (individualOutput != null) {
+                        individualOutput.flush();
+                    }
                 }
 
                 @Override public void close() throws IOException {
-                    printBuffer();
+                    if (nextByteIndex > 0) {
+                        printBuffer(NO_TERMINATOR);
+                    }
                 }
             }
         }
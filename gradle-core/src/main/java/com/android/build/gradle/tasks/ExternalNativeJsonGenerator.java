@@ -36,6 +36,7 @@ import com.android.build.gradle.internal.variant.BaseVariantOutputData;
 import com.android.builder.core.AndroidBuilder;
 import com.android.builder.model.ApiVersion;
 import com.android.builder.model.SyncIssue;
+import com.android.ide.common.internal.WaitableExecutor;
 import com.android.ide.common.process.ProcessException;
 import com.android.ide.common.process.ProcessInfoBuilder;
 import com.android.repository.api.ConsoleProgressIndicator;
@@ -45,6 +46,7 @@ import com.android.sdklib.repository.AndroidSdkHandler;
 import com.android.utils.FileUtils;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
@@ -202,107 +204,41 @@ public abstract class ExternalNativeJsonGenerator {
         diagnostic("starting JSON generation");
         diagnostic("bringing JSONs up-to-date");
 
-        Exception firstException = null;
-        for (Abi abi : abis) {
-            try {
-
-                int abiPlatformVersion = ndkHandler.findSuitablePlatformVersion(
-                        abi.getName(), minSdkVersion);
-                diagnostic("using platform version %s for ABI %s and min SDK version %s",
-                        abiPlatformVersion, abi, minSdkVersion);
-
-                File expectedJson = ExternalNativeBuildTaskUtils.getOutputJson(
-                        getJsonFolder(), abi.getName());
-
-                ProcessInfoBuilder processBuilder = getProcessBuilder(abi.getName(),
-                        abiPlatformVersion, expectedJson);
-
-                // See whether the current build command matches a previously written build command.
-                String currentBuildCommand = processBuilder.toString();
-                boolean rebuildDueToMissingPreviousCommand = false;
-                File commandFile = new File(expectedJson.getParentFile(),
-                        String.format("%s_build_command.txt", getNativeBuildSystem().getName()));
-
-                boolean rebuildDueToChangeInCommandFile = false;
-                if (!commandFile.exists()) {
-                    rebuildDueToMissingPreviousCommand = true;
-                } else {
-                    String previousBuildCommand =
-                            Files.asCharSource(commandFile, Charsets.UTF_8).read();
-                    if (!previousBuildCommand.equals(currentBuildCommand)) {
-                        rebuildDueToChangeInCommandFile = true;
-                    }
-                }
-                boolean generateDueToBuildFileChange = shouldRebuildJson(expectedJson, variantName);
-                if (forceJsonGeneration
-                        || generateDueToBuildFileChange
-                        || rebuildDueToMissingPreviousCommand
-                        || rebuildDueToChangeInCommandFile) {
-                    diagnostic("rebuilding JSON %s due to:", expectedJson);
-                    if (forceJsonGeneration) {
-                        diagnostic("- force flag");
-                    }
-
-                    if (generateDueToBuildFileChange) {
-                        diagnostic("- dependent build file missing or changed");
-                    }
-
-                    if (rebuildDueToMissingPreviousCommand) {
-                        diagnostic("- missing previous command file %s", commandFile);
-                    }
-
-                    if (rebuildDueToChangeInCommandFile) {
-                        diagnostic("- command changed from previous");
-                    }
-
-                    // If the JSON is out-of-date then also remove entire JSON folder to avoid
-                    // stale build contents especially for CMake which doesn't tolerate
-                    // incremental updates to generated build files.
-                    if (jsonFolder.exists()) {
-                        diagnostic("removing stale contents from '%s'",
-                                expectedJson.getParentFile());
-                        FileUtils.deletePath(expectedJson.getParentFile());
-                    }
-
-                    if (expectedJson.getParentFile().mkdirs()) {
-                        diagnostic("created folder '%s'", expectedJson.getParentFile());
-                    }
-
-                    diagnostic("executing %s %s", getNativeBuildSystem().getName(), processBuilder);
-                    String buildOutput = executeProcess(processBuilder);
-                    diagnostic("done executing %s", getNativeBuildSystem().getName());
-
-                    // Write the captured process output to a file for diagnostic purposes.
-                    File outputTextFile = new File(
-                            expectedJson.getParentFile(),
-                            String.format("%s_build_output.txt", getNativeBuildSystem().getName()));
-                    diagnostic("write build output %s", outputTextFile.getAbsolutePath());
-                    Files.write(buildOutput, outputTextFile, Charsets.UTF_8);
-
-                    processBuildOutput(buildOutput, abi.getName(), abiPlatformVersion);
-
-                    if (!expectedJson.exists()) {
-                        throw new GradleException(
-                                String.format(
-                                        "Expected json generation to create '%s' but it didn't",
-                                        expectedJson));
-                    }
-
-                    // Write the ProcessInfo to a file, this has all the flags used to generate the
-                    // JSON. If any of these change later the JSON will be regenerated.
-                    diagnostic("write command file %s", commandFile.getAbsolutePath());
-                    Files.write(currentBuildCommand, commandFile, Charsets.UTF_8);
-                } else {
-                    diagnostic("JSON '%s' was up-to-date", expectedJson);
+        // Every ABI is configured in its own folder, so they are brought up-to-date in parallel.
+        // If one ABI fails to build that doesn't mean others will. Continue processing all ABIs
+        // so that we can get some JSON so the user can still edit the project in Android Studio.
+        Exception[] exceptions = new Exception[abis.size()];
+        WaitableExecutor<Void> executor = WaitableExecutor.useGlobalSharedThreadPool();
+        for (int i = 0; i < abis.size(); i++) {
+            final int index = i;
+            executor.execute(() -> {
+                try {
+                    buildForAbi(abis.get(index), forceJsonGeneration);
+                } catch (@NonNull GradleException | IOException | ProcessException e) {
+                    exceptions[index] = e;
                 }
-            } catch (@NonNull GradleException | IOException | ProcessException e) {
-                // If one ABI fails to build that doesn't mean others will. Continue processing
-                // all ABIs so that we can get some JSON so the user can still edit the project
-                // in Android Studio.
-                if (firstException == null) {
-                    firstException = e;
+                return null;
+            });
+        }
+
+        try {
+            for (WaitableExecutor.TaskResult<Void> result : executor.waitForAllTasks()) {
+                if (result.exception != null) {
+                    throw Throwables.propagate(result.exception);
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while generating JSON", e);
+        }
+
+        // Report the failure of the first ABI, regardless of the order they completed in.
+        Exception firstException = null;
+        for (Exception exception : exceptions) {
+            if (exception != null) {
+                firstException = exception;
+                break;
+            }
         }
         diagnostic("build complete");
 
@@ -323,6 +259,100 @@ public abstract class ExternalNativeJsonGenerator {
         throw (ProcessException) firstException;
     }
 
+    /** Brings the JSON of a single ABI up-to-date. Thread safe for different ABIs. */
+    private void buildForAbi(@NonNull Abi abi, boolean forceJsonGeneration)
+            throws IOException, ProcessException {
+        int abiPlatformVersion = ndkHandler.findSuitablePlatformVersion(
+                abi.getName(), minSdkVersion);
+        diagnostic("using platform version %s for ABI %s and min SDK version %s",
+                abiPlatformVersion, abi, minSdkVersion);
+
+        File expectedJson = ExternalNativeBuildTaskUtils.getOutputJson(
+                getJsonFolder(), abi.getName());
+
+        ProcessInfoBuilder processBuilder = getProcessBuilder(abi.getName(),
+                abiPlatformVersion, expectedJson);
+
+        // See whether the current build command matches a previously written build command.
+        String currentBuildCommand = processBuilder.toString();
+        boolean rebuildDueToMissingPreviousCommand = false;
+        File commandFile = new File(expectedJson.getParentFile(),
+                String.format("%s_build_command.txt", getNativeBuildSystem().getName()));
+
+        boolean rebuildDueToChangeInCommandFile = false;
+        if (!commandFile.exists()) {
+            rebuildDueToMissingPreviousCommand = true;
+        } else {
+            String previousBuildCommand =
+                    Files.asCharSource(commandFile, Charsets.UTF_8).read();
+            if (!previousBuildCommand.equals(currentBuildCommand)) {
+                rebuildDueToChangeInCommandFile = true;
+            }
+        }
+        boolean generateDueToBuildFileChange = shouldRebuildJson(expectedJson, variantName);
+        if (forceJsonGeneration
+                || generateDueToBuildFileChange
+                || rebuildDueToMissingPreviousCommand
+                || rebuildDueToChangeInCommandFile) {
+            diagnostic("rebuilding JSON %s due to:", expectedJson);
+            if (forceJsonGeneration) {
+                diagnostic("- force flag");
+            }
+
+            if (generateDueToBuildFileChange) {
+                diagnostic("- dependent build file missing or changed");
+            }
+
+            if (rebuildDueToMissingPreviousCommand) {
+                diagnostic("- missing previous command file %s", commandFile);
+            }
+
+            if (rebuildDueToChangeInCommandFile) {
+                diagnostic("- command changed from previous");
+            }
+
+            // If the JSON is out-of-date then also remove entire JSON folder to avoid
+            // stale build contents especially for CMake which doesn't tolerate
+            // incremental updates to generated build files.
+            if (jsonFolder.exists()) {
+                diagnostic("removing stale contents from '%s'",
+                        expectedJson.getParentFile());
+                FileUtils.deletePath(expectedJson.getParentFile());
+            }
+
+            if (expectedJson.getParentFile().mkdirs()) {
+                diagnostic("created folder '%s'", expectedJson.getParentFile());
+            }
+
+            diagnostic("executing %s %s", getNativeBuildSystem().getName(), processBuilder);
+            String buildOutput = executeProcess(processBuilder);
+            diagnostic("done executing %s", getNativeBuildSystem().getName());
+
+            // Write the captured process output to a file for diagnostic purposes.
+            File outputTextFile = new File(
+                    expectedJson.getParentFile(),
+                    String.format("%s_build_output.txt", getNativeBuildSystem().getName()));
+            diagnostic("write build output %s", outputTextFile.getAbsolutePath());
+            Files.write(buildOutput, outputTextFile, Charsets.UTF_8);
+
+            processBuildOutput(buildOutput, abi.getName(), abiPlatformVersion);
+
+            if (!expectedJson.exists()) {
+                throw new GradleException(
+                        String.format(
+                                "Expected json generation to create '%s' but it didn't",
+                                expectedJson));
+            }
+
+            // Write the ProcessInfo to a file, this has all the flags used to generate the
+            // JSON. If any of these change later the JSON will be regenerated.
+            diagnostic("write command file %s", commandFile.getAbsolutePath());
+            Files.write(currentBuildCommand, commandFile, Charsets.UTF_8);
+        } else {
+            diagnostic("JSON '%s' was up-to-date", expectedJson);
+        }
+    }
+
     /**
      * Derived class implements this method to post-process build output. Ndk-build uses this to
      * capture and analyze the compile and link commands that were written to stdout.
@@ -23,6 +23,7 @@ import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.build.gradle.AndroidConfig;
 import com.android.build.gradle.internal.LibraryTaskManager;
+import com.android.build.gradle.internal.LoggerWrapper;
 import com.android.build.gradle.internal.core.GradleVariantConfiguration;
 import com.android.build.gradle.internal.scope.ConventionMappingHelper;
 import com.android.build.gradle.internal.scope.TaskConfigAction;
@@ -32,6 +33,7 @@ import com.android.build.gradle.internal.variant.BaseVariantData;
 import com.android.build.gradle.internal.variant.LibraryVariantData;
 import com.android.build.gradle.tasks.annotations.ApiDatabase;
 import com.android.build.gradle.tasks.annotations.Extractor;
+import com.android.build.gradle.tasks.annotations.IncrementalAnnotationExtractor;
 import com.android.build.gradle.tasks.annotations.TypedefRemover;
 import com.android.builder.core.AndroidBuilder;
 import com.android.tools.lint.EcjParser;
@@ -238,6 +240,11 @@ public class ExtractAnnotations extends AbstractAndroidCompile {
             encoding = UTF_8;
         }
 
+        if (mergeJars == null) {
+            extractIncrementally();
+            return;
+        }
+
         EcjParser.EcjResult result = parseSources();
         Collection<CompilationUnitDeclaration> parsedUnits = result.getCompilationUnits();
 
@@ -298,6 +305,39 @@ public class ExtractAnnotations extends AbstractAndroidCompile {
         }
     }
 
+    /**
+     * Extracts the annotations with an {@link IncrementalAnnotationExtractor}, which only parses
+     * the source files changed since the previous run.
+     */
+    private void extractIncrementally() {
+        List<File> sources = Lists.newArrayList();
+        getSource().visit(new EmptyFileVisitor() {
+            @Override
+            public void visitFile(FileVisitDetails fileVisitDetails) {
+                File file = fileVisitDetails.getFile();
+                if (file.getPath().endsWith(DOT_JAVA) && file.isFile()) {
+                    sources.add(file);
+                }
+            }
+        });
+
+        IncrementalAnnotationExtractor extractor =
+                new IncrementalAnnotationExtractor(
+                        new File(getTemporaryDir(), "extraction-state.bin"),
+                        createCompilerOptions(),
+                        getClasspathJars(),
+                        classDir,
+                        apiFilter,
+                        allowErrors,
+                        getProject().getLogger().isEnabled(LogLevel.INFO),
+                        new LoggerWrapper(getLogger()));
+        try {
+            extractor.extract(sources, encoding, output, proguard, typedefFile);
+        } catch (IOException e) {
+            throw new BuildException(e.getMessage(), e);
+        }
+    }
+
     @Input
     public boolean hasAndroidAnnotations() {
         return variant.getVariantDependency().isAnnotationsPresent();
@@ -326,6 +366,11 @@ public class ExtractAnnotations extends AbstractAndroidCompile {
             }
         });
 
+        return EcjParser.parse(createCompilerOptions(), sourceUnits, getClasspathJars(), null);
+    }
+
+    @NonNull
+    private List<String> getClasspathJars() {
         List<String> jars = Lists.newArrayList();
         if (bootClasspath != null) {
             jars.addAll(bootClasspath);
@@ -335,7 +380,11 @@ public class ExtractAnnotations extends AbstractAndroidCompile {
                 jars.add(jar.getPath());
             }
         }
+        return jars;
+    }
 
+    @NonNull
+    private CompilerOptions createCompilerOptions() {
         CompilerOptions options = EcjParser.createCompilerOptions();
         options.docCommentSupport = Extractor.REMOVE_HIDDEN_TYPEDEFS; // So I can find @hide
 
@@ -350,8 +399,7 @@ public class ExtractAnnotations extends AbstractAndroidCompile {
         options.originalComplianceLevel = options.sourceLevel;
         options.originalSourceLevel = options.sourceLevel;
         options.inlineJsrBytecode = true; // >= 1.5
-
-        return EcjParser.parse(options, sourceUnits, jars, null);
+        return options;
     }
 
     private static long getLanguageLevel(String version) {
@@ -30,6 +30,7 @@ import com.android.build.gradle.internal.scope.VariantScope;
 import com.android.build.gradle.internal.tasks.BaseTask;
 import com.android.builder.model.AndroidProject;
 import com.android.builder.model.Variant;
+import com.android.ide.common.internal.WaitableExecutor;
 import com.android.tools.lint.LintCliFlags;
 import com.android.tools.lint.Reporter;
 import com.android.tools.lint.Reporter.Stats;
@@ -44,6 +45,7 @@ import com.android.tools.lint.detector.api.LintUtils;
 import com.android.tools.lint.detector.api.Severity;
 import com.android.utils.Pair;
 import com.android.utils.StringHelper;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -82,6 +84,19 @@ public class Lint extends BaseTask {
     public static final boolean MODEL_LIBRARIES =
             !VALUE_FALSE.equals(System.getProperty(MODEL_LIBRARIES_PROPERTY));
 
+    /**
+     * Name of the property setting the maximum number of variants linted concurrently. Each lint
+     * run holds the parsed sources of its variant, so a few threads are enough to keep the heap
+     * in check.
+     */
+    public static final String VARIANT_THREADS_PROPERTY = "lint.variant-threads";
+
+    /**
+     * Default maximum number of variants linted concurrently. The detectors are not known to be
+     * thread-safe, so the variants are linted one after the other unless the property is set.
+     */
+    private static final int DEFAULT_VARIANT_THREADS = 1;
+
     private static final Logger LOG = Logging.getLogger(Lint.class);
 
     @Nullable private LintOptions lintOptions;
@@ -136,10 +151,11 @@ public class Lint extends BaseTask {
 
         Map<Variant,List<Warning>> warningMap = Maps.newHashMap();
         List<LintBaseline> baselines = Lists.newArrayList();
-        for (Variant variant : modelProject.getVariants()) {
-            Pair<List<Warning>,LintBaseline> pair = runLint(modelProject, variant, false);
+        for (Map.Entry<Variant,Pair<List<Warning>,LintBaseline>> result
+                : runLintOnAllVariants(modelProject).entrySet()) {
+            Pair<List<Warning>,LintBaseline> pair = result.getValue();
             List<Warning> warnings = pair.getFirst();
-            warningMap.put(variant, warnings);
+            warningMap.put(result.getKey(), warnings);
             LintBaseline baseline = pair.getSecond();
             if (baseline != null) {
                 baselines.add(baseline);
@@ -267,6 +283,80 @@ public class Lint extends BaseTask {
         }
     }
 
+    /**
+     * Runs lint on all the variants, several variants at a time if {@link
+     * #VARIANT_THREADS_PROPERTY} is set, and returns the warnings of each variant in the order of
+     * the variants.
+     *
+     * <p>The files read by lint are shared by the runs, so that the sources and resources common
+     * to all the variants are read once. The first variant is linted alone, as it initializes
+     * state that lint keeps in static caches, like the issue registry and the API database.
+     */
+    @NonNull
+    private Map<Variant,Pair<List<Warning>,LintBaseline>> runLintOnAllVariants(
+            @NonNull AndroidProject modelProject) {
+        List<Variant> variants = Lists.newArrayList(modelProject.getVariants());
+        Map<Variant,Pair<List<Warning>,LintBaseline>> results = Maps.newConcurrentMap();
+        if (variants.isEmpty()) {
+            return results;
+        }
+        Map<File, CharSequence> fileContents = Maps.newConcurrentMap();
+        results.put(variants.get(0), runLint(modelProject, variants.get(0), false, fileContents));
+
+        List<Variant> remaining = variants.subList(1, variants.size());
+        int threads = Math.min(getVariantThreads(), remaining.size());
+        if (threads <= 1) {
+            for (Variant variant : remaining) {
+                results.put(variant, runLint(modelProject, variant, false, fileContents));
+            }
+        } else {
+            // each task lints a share of the variants, one after the other.
+            WaitableExecutor<Void> executor = WaitableExecutor.useGlobalSharedThreadPool();
+            for (int i = 0; i < threads; i++) {
+                int first = i;
+                executor.execute(() -> {
+                    for (int v = first; v < remaining.size(); v += threads) {
+                        Variant variant = remaining.get(v);
+                        results.put(variant, runLint(modelProject, variant, false, fileContents));
+                    }
+                    return null;
+                });
+            }
+            List<WaitableExecutor.TaskResult<Void>> taskResults;
+            try {
+                taskResults = executor.waitForAllTasks();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GradleException("Interrupted while running lint", e);
+            }
+            for (WaitableExecutor.TaskResult<Void> taskResult : taskResults) {
+                if (taskResult.exception != null) {
+                    Throwables.propagateIfPossible(taskResult.exception);
+                    throw new GradleException(
+                            taskResult.exception.getMessage(), taskResult.exception);
+                }
+            }
+        }
+
+        Map<Variant,Pair<List<Warning>,LintBaseline>> orderedResults = Maps.newLinkedHashMap();
+        for (Variant variant : variants) {
+            orderedResults.put(variant, results.get(variant));
+        }
+        return orderedResults;
+    }
+
+    private static int getVariantThreads() {
+        String threads = System.getProperty(VARIANT_THREADS_PROPERTY);
+        if (threads != null) {
+            try {
+                return Math.max(1, Integer.parseInt(threads));
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid value for {}: {}", VARIANT_THREADS_PROPERTY, threads);
+            }
+        }
+        return DEFAULT_VARIANT_THREADS;
+    }
+
     private void abort() {
         String message;
         if (fatalOnly) {
@@ -304,10 +394,15 @@ public class Lint extends BaseTask {
      * Runs lint on a single specified variant
      */
     public void lintSingleVariant(@NonNull AndroidProject modelProject, @NonNull Variant variant) {
-        runLint(modelProject, variant, true);
+        runLint(modelProject, variant, true, null);
     }
 
-    /** Runs lint on the given variant and returns the set of warnings */
+    /**
+     * Runs lint on the given variant and returns the set of warnings
+     *
+     * @param fileContents the contents of the files read by lint, shared with the runs on other
+     *     variants, or null if they are not shared
+     */
     private Pair<List<Warning>,LintBaseline> runLint(
             /*
              * Note that as soon as we disable {@link #MODEL_LIBRARIES} this is
@@ -315,11 +410,15 @@ public class Lint extends BaseTask {
              */
             @NonNull AndroidProject modelProject,
             @NonNull Variant variant,
-            boolean report) {
+            boolean report,
+            @Nullable Map<File, CharSequence> fileContents) {
         IssueRegistry registry = createIssueRegistry();
         LintCliFlags flags = new LintCliFlags();
         LintGradleClient client = new LintGradleClient(registry, flags, getProject(), modelProject,
                 sdkHome, variant, getBuildTools());
+        if (fileContents != null) {
+            client.setSharedFileContents(fileContents);
+        }
         if (fatalOnly) {
             if (lintOptions != null && !lintOptions.isCheckReleaseBuilds()) {
                 return Pair.of(Collections.emptyList(), null);
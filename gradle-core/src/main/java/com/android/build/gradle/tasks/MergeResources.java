@@ -29,6 +29,7 @@ import com.android.build.gradle.internal.variant.BaseVariantOutputData;
 import com.android.builder.internal.aapt.Aapt;
 import com.android.builder.model.VectorDrawablesOptions;
 import com.android.builder.png.VectorDrawableRenderer;
+import com.android.builder.utils.FileCache;
 import com.android.ide.common.res2.FileStatus;
 import com.android.ide.common.res2.FileValidity;
 import com.android.ide.common.res2.GeneratedResourceSet;
@@ -60,6 +61,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 @ParallelizableTask
@@ -102,6 +104,8 @@ public class MergeResources extends IncrementalTask {
 
     private VariantScope variantScope;
 
+    @Nullable private FileCache buildCache;
+
     @InputFiles
     @SuppressWarnings("unused") // Fake input to detect changes. Not actually used by the task.
     public Iterable<File> getRawInputFolders() {
@@ -264,7 +268,9 @@ public class MergeResources extends IncrementalTask {
                 getMinSdk(),
                 getGeneratedPngsOutputDir(),
                 densities,
-                getILogger());
+                getILogger(),
+                buildCache,
+                ForkJoinPool.commonPool());
     }
 
     @NonNull
@@ -507,6 +513,9 @@ public class MergeResources extends IncrementalTask {
                             : scope.getDefaultMergeResourcesOutputDir());
 
             mergeResourcesTask.setGeneratedPngsOutputDir(scope.getGeneratedPngsOutputDir());
+            mergeResourcesTask.buildCache =
+                    AndroidGradleOptions.getBuildCache(scope.getGlobalScope().getProject())
+                            .orElse(null);
 
             variantData.mergeResourcesTask = mergeResourcesTask;
         }
@@ -43,7 +43,8 @@ import com.android.builder.model.ApiVersion;
 import com.android.builder.model.SigningConfig;
 import com.android.builder.packaging.PackagerException;
 import com.android.builder.packaging.PackagingUtils;
-import com.android.builder.packaging.SigningException;
+import com.android.ide.common.internal.LoggedErrorException;
+import com.android.ide.common.internal.WaitableExecutor;
 import com.android.ide.common.res2.FileStatus;
 import com.android.ide.common.signing.CertificateInfo;
 import com.android.ide.common.signing.KeystoreHelper;
@@ -55,11 +56,12 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Callables;
 
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
-import java.util.HashSet;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.Nested;
@@ -67,19 +69,23 @@ import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputFiles;
 import org.gradle.api.tasks.ParallelizableTask;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.incremental.IncrementalTaskInputs;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Package a abi dimension specific split APK
+ * Package a abi dimension specific split APK.
+ *
+ * <p>On incremental runs, only the splits whose resource package or native libraries changed are
+ * packaged again. Splits are packaged in parallel.
  */
 @ParallelizableTask
 public class PackageSplitAbi extends SplitRelatedTask {
@@ -203,50 +209,137 @@ public class PackageSplitAbi extends SplitRelatedTask {
     }
 
     @TaskAction
-    protected void doFullTaskAction() throws FileNotFoundException, SigningException,
-            KeytoolException, PackagerException, IOException {
-
-        FileUtils.cleanOutputDir(incrementalDir);
+    protected void packageSplits(IncrementalTaskInputs inputs)
+            throws IOException, InterruptedException, LoggedErrorException {
+        Set<String> changedSplits = getChangedSplits(inputs);
+        if (changedSplits == null) {
+            FileUtils.cleanOutputDir(incrementalDir);
+        }
 
         // resources- and .ap_ should be shared in a setting somewhere. see BasePlugin:1206
-        final Pattern pattern = Pattern.compile("resources-" + getOutputBaseName() + "-(.*).ap_");
+        final Pattern pattern = getResourcePackagePattern();
+        Map<String, File> resourcePackages = Maps.newLinkedHashMap();
         List<String> unprocessedSplits = Lists.newArrayList(splits);
         for (File file : inputFiles) {
             Matcher matcher = pattern.matcher(file.getName());
             if (matcher.matches() && isAbiSplit(file.getName())) {
-                String apkName = getApkName(matcher.group(1));
-
-                File outFile = new File(getOutputDirectory(), apkName);
-
-                ApkCreatorFactory.CreationData creationData = makeCreationData(outFile);
-                try (IncrementalPackager pkg =
-                        new IncrementalPackager(
-                                creationData,
-                                incrementalDir,
-                                ApkCreatorFactories.fromProjectProperties(
-                                        getProject(),
-                                        isJniDebuggable()),
-                                ImmutableSet.of(matcher.group(1)),
-                                isJniDebuggable())) {
-                    ImmutableMap<RelativeFile, FileStatus> nativeLibs =
-                            IncrementalRelativeFileSets.fromZipsAndDirectories(getJniFolders());
-                    pkg.updateNativeLibraries(nativeLibs);
-
-                    ImmutableMap<RelativeFile, FileStatus> androidResources =
-                            IncrementalRelativeFileSets.fromZip(file);
-                    pkg.updateAndroidResources(androidResources);
-
-                }
-
-                unprocessedSplits.remove(matcher.group(1));
+                String split = matcher.group(1);
+                unprocessedSplits.remove(split);
+                resourcePackages.put(split, file);
             }
         }
+        // fail before packaging any split, so that no packaging runs after the task failed.
         if (!unprocessedSplits.isEmpty()) {
             String message = "Could not find resource package for "
                     + Joiner.on(',').join(unprocessedSplits);
             getLogger().error(message);
             throw new IllegalStateException(message);
         }
+
+        WaitableExecutor<Void> executor = WaitableExecutor.useGlobalSharedThreadPool();
+        for (Map.Entry<String, File> resourcePackage : resourcePackages.entrySet()) {
+            String split = resourcePackage.getKey();
+            if (changedSplits != null && !changedSplits.contains(split)) {
+                // neither the resources nor the native libraries of this split changed.
+                continue;
+            }
+
+            File outFile = new File(getOutputDirectory(), getApkName(split));
+            ApkCreatorFactory.CreationData creationData = makeCreationData(outFile);
+            ApkCreatorFactory apkCreatorFactory =
+                    ApkCreatorFactories.fromProjectProperties(getProject(), isJniDebuggable());
+            executor.execute(
+                    () -> {
+                        packageSplit(
+                                split,
+                                resourcePackage.getValue(),
+                                outFile,
+                                creationData,
+                                apkCreatorFactory);
+                        return null;
+                    });
+        }
+        executor.waitForTasksWithQuickFail(true /*cancelRemaining*/);
+    }
+
+    /** Packages a single split from scratch, it can run concurrently with other splits. */
+    private void packageSplit(
+            @NonNull String split,
+            @NonNull File resourcePackage,
+            @NonNull File outFile,
+            @NonNull ApkCreatorFactory.CreationData creationData,
+            @NonNull ApkCreatorFactory apkCreatorFactory)
+            throws IOException, PackagerException {
+        // each split has its own intermediate directory so they don't step on each other.
+        File splitIncrementalDir = new File(incrementalDir, split);
+        FileUtils.cleanOutputDir(splitIncrementalDir);
+        FileUtils.deleteIfExists(outFile);
+
+        try (IncrementalPackager pkg =
+                new IncrementalPackager(
+                        creationData,
+                        splitIncrementalDir,
+                        apkCreatorFactory,
+                        ImmutableSet.of(split),
+                        isJniDebuggable())) {
+            ImmutableMap<RelativeFile, FileStatus> nativeLibs =
+                    IncrementalRelativeFileSets.fromZipsAndDirectories(getJniFolders());
+            pkg.updateNativeLibraries(nativeLibs);
+
+            ImmutableMap<RelativeFile, FileStatus> androidResources =
+                    IncrementalRelativeFileSets.fromZip(resourcePackage);
+            pkg.updateAndroidResources(androidResources);
+        }
+    }
+
+    /**
+     * Returns the splits affected by the changed inputs, or {@code null} if all the splits must be
+     * packaged.
+     */
+    @Nullable
+    private Set<String> getChangedSplits(@NonNull IncrementalTaskInputs inputs) {
+        Set<File> changedInputs = getChangedInputs(inputs);
+        if (changedInputs == null) {
+            return null;
+        }
+        Pattern pattern = getResourcePackagePattern();
+        Set<String> changedSplits = Sets.newHashSet();
+        for (File changedInput : changedInputs) {
+            Matcher matcher = pattern.matcher(changedInput.getName());
+            if (matcher.matches()) {
+                changedSplits.add(matcher.group(1));
+                continue;
+            }
+            String abi = getAbiOfNativeLibrary(changedInput);
+            if (abi == null) {
+                // native libraries coming from a jar, or something we can't attribute to a split.
+                return null;
+            }
+            changedSplits.add(abi);
+        }
+        return changedSplits;
+    }
+
+    /**
+     * Returns the ABI of a native library found in one of the jni folders, which are organized as
+     * {@code <folder>/<abi>/lib.so}.
+     */
+    @Nullable
+    private String getAbiOfNativeLibrary(@NonNull File file) {
+        for (File jniFolder : getJniFolders()) {
+            if (jniFolder.isFile() || !FileUtils.isFileInDirectory(file, jniFolder)) {
+                continue;
+            }
+            String relativePath = FileUtils.relativePath(file, jniFolder);
+            int separator = relativePath.indexOf(File.separatorChar);
+            return separator > 0 ? relativePath.substring(0, separator) : null;
+        }
+        return null;
+    }
+
+    @NonNull
+    private Pattern getResourcePackagePattern() {
+        return Pattern.compile("resources-" + getOutputBaseName() + "-(.*).ap_");
     }
 
     @Override
@@ -320,7 +413,7 @@ public class PackageSplitAbi extends SplitRelatedTask {
         this.signingConfig = signingConfig;
     }
 
-    @Input
+    @InputFiles
     public Collection<File> getJniFolders() {
         return jniFolders;
     }
@@ -29,9 +29,9 @@ import com.android.build.gradle.internal.variant.BaseVariantOutputData;
 import com.android.builder.core.AndroidBuilder;
 import com.android.builder.core.VariantConfiguration;
 import com.android.builder.model.SigningConfig;
-import com.android.builder.packaging.SigningException;
-import com.android.builder.packaging.ZipAbortException;
-import com.android.ide.common.signing.KeytoolException;
+import com.android.ide.common.internal.LoggedErrorException;
+import com.android.ide.common.internal.WaitableExecutor;
+import com.android.utils.FileUtils;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Callables;
@@ -43,10 +43,10 @@ import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputFiles;
 import org.gradle.api.tasks.ParallelizableTask;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.incremental.IncrementalTaskInputs;
 
 import java.io.File;
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -54,6 +54,9 @@ import java.util.regex.Pattern;
 
 /**
  * Package each split resources into a specific signed apk file.
+ *
+ * <p>On incremental runs, only the splits whose resource package changed are signed again. Splits
+ * are processed in parallel.
  */
 @ParallelizableTask
 public class PackageSplitRes extends SplitRelatedTask {
@@ -138,29 +141,41 @@ public class PackageSplitRes extends SplitRelatedTask {
     }
 
     @TaskAction
-    protected void doFullTaskAction() {
+    protected void packageSplits(IncrementalTaskInputs inputs)
+            throws IOException, InterruptedException, LoggedErrorException {
+        Set<File> changedInputs = getChangedInputs(inputs);
+        if (changedInputs != null) {
+            // delete the outputs of the removed splits.
+            Pattern resourcePattern = getResourcePattern();
+            for (File changedInput : changedInputs) {
+                Matcher match = resourcePattern.matcher(changedInput.getName());
+                if (!changedInput.exists() && match.matches() && !match.group(1).isEmpty()) {
+                    FileUtils.deleteIfExists(
+                            new File(outputDirectory, getOutputFileNameForSplit(match.group(1))));
+                }
+            }
+        }
+        WaitableExecutor<Void> executor = WaitableExecutor.useGlobalSharedThreadPool();
         forEachInputFile(
-                new SplitFileHandler() {
-                    @Override
-                    public void execute(String split, File file) {
-                        File outFile = new File(outputDirectory, getOutputFileNameForSplit(split));
-                        try {
-                            AndroidBuilder.signApk(file, signingConfig, outFile);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        } catch (KeytoolException e) {
-                            throw new RuntimeException(e);
-                        } catch (SigningException e) {
-                            throw new RuntimeException(e);
-                        } catch (NoSuchAlgorithmException e) {
-                            throw new RuntimeException(e);
-                        } catch (ZipAbortException e) {
-                            throw new RuntimeException(e);
-                        } catch (com.android.builder.signing.SigningException e) {
-                            throw new RuntimeException(e);
-                        }
+                (split, file) -> {
+                    if (changedInputs != null && !changedInputs.contains(file)) {
+                        // the split is up to date.
+                        return;
                     }
+                    File outFile = new File(outputDirectory, getOutputFileNameForSplit(split));
+                    executor.execute(
+                            () -> {
+                                AndroidBuilder.signApk(file, signingConfig, outFile);
+                                return null;
+                            });
                 });
+        executor.waitForTasksWithQuickFail(true /*cancelRemaining*/);
+    }
+
+    /** Returns the pattern of the resource packages of the splits, capturing the split. */
+    @NonNull
+    private Pattern getResourcePattern() {
+        return Pattern.compile("resources-" + outputBaseName + ".ap__(.*)");
     }
 
     private interface SplitFileHandler {
@@ -172,7 +187,7 @@ public class PackageSplitRes extends SplitRelatedTask {
      * suffix generated by aapt) and the input file handle.
      */
     private void forEachInputFile(SplitFileHandler handler) {
-        Pattern resourcePattern = Pattern.compile("resources-" + outputBaseName + ".ap__(.*)");
+        Pattern resourcePattern = getResourcePattern();
 
         // make a copy of the expected densities and languages filters.
         List<String> densitiesCopy = Lists.newArrayList(densitySplits);
@@ -27,8 +27,10 @@ import com.android.build.gradle.internal.publishing.FilterDataPersistence;
 import com.android.build.gradle.internal.tasks.BaseTask;
 import com.android.build.gradle.internal.tasks.SplitFileSupplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
 
 import org.gradle.api.Task;
+import org.gradle.api.tasks.incremental.IncrementalTaskInputs;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -36,6 +38,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Common code for all split related tasks
@@ -93,6 +96,21 @@ public abstract class SplitRelatedTask extends BaseTask {
         return suppliers.build();
     }
 
+    /**
+     * Returns the input files that were added, changed or removed since the last run, or
+     * {@code null} if the task is not run incrementally and all splits must be generated.
+     */
+    @Nullable
+    protected static Set<File> getChangedInputs(@NonNull IncrementalTaskInputs inputs) {
+        if (!inputs.isIncremental()) {
+            return null;
+        }
+        Set<File> changedInputs = Sets.newConcurrentHashSet();
+        inputs.outOfDate(change -> changedInputs.add(change.getFile()));
+        inputs.removed(change -> changedInputs.add(change.getFile()));
+        return changedInputs;
+    }
+
     /**
      * Saves the APK metadata to the configured file.
      */
@@ -19,7 +19,6 @@ package com.android.build.gradle.tasks;
 import static com.android.build.OutputFile.FilterType.ABI;
 import static com.android.build.OutputFile.FilterType.DENSITY;
 import static com.android.build.OutputFile.FilterType.LANGUAGE;
-import static com.android.sdklib.BuildToolInfo.PathId.ZIP_ALIGN;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
@@ -36,20 +35,20 @@ import com.android.build.gradle.internal.variant.ApkVariantOutputData;
 import com.android.build.gradle.internal.variant.BaseVariantData;
 import com.android.build.gradle.internal.variant.BaseVariantOutputData;
 import com.android.builder.core.VariantConfiguration;
-import com.android.builder.sdk.TargetInfo;
+import com.android.builder.packaging.ZipAligner;
+import com.android.ide.common.internal.LoggedErrorException;
+import com.android.ide.common.internal.WaitableExecutor;
+import com.android.utils.FileUtils;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.Callables;
 
-import org.gradle.api.Action;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.OutputFiles;
 import org.gradle.api.tasks.ParallelizableTask;
 import org.gradle.api.tasks.TaskAction;
-import org.gradle.process.ExecSpec;
 
 import java.io.File;
 import java.io.IOException;
@@ -61,11 +60,16 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Task to zip align all the splits
+ * Task to zip align all the splits.
+ *
+ * <p>Splits are aligned in process and in parallel. Splits that are already aligned, like the ones
+ * packaged by {@link PackageSplitAbi}, are copied as is.
  */
 @ParallelizableTask
 public class SplitZipAlign extends SplitRelatedTask {
 
+    private static final int ZIP_ALIGNMENT = 4;
+
     private List<File> densityOrLanguageInputFiles = new ArrayList<>();
 
     private List<File> abiInputFiles = new ArrayList<>();
@@ -80,8 +84,6 @@ public class SplitZipAlign extends SplitRelatedTask {
 
     private File outputDirectory;
 
-    private File zipAlignExe;
-
     @Nullable
     private File apkMetadataFile;
 
@@ -139,15 +141,6 @@ public class SplitZipAlign extends SplitRelatedTask {
         this.outputDirectory = outputDirectory;
     }
 
-    @InputFile
-    public File getZipAlignExe() {
-        return zipAlignExe;
-    }
-
-    public void setZipAlignExe(File zipAlignExe) {
-        this.zipAlignExe = zipAlignExe;
-    }
-
     @Override
     @OutputFile
     @Nullable
@@ -282,27 +275,24 @@ public class SplitZipAlign extends SplitRelatedTask {
     }
 
     @TaskAction
-    public void splitZipAlign() throws IOException {
+    public void splitZipAlign() throws IOException, InterruptedException, LoggedErrorException {
         final String archivesBaseName = (String)getProject().getProperties().get("archivesBaseName");
-
-        InputProcessor zipAlignIt = new InputProcessor() {
-            @Override
-            public void process(final String split, final File file) {
-                final File out = new File(getOutputDirectory(),
-                        archivesBaseName + "-" + outputBaseName + "_" + split + ".apk");
-                getProject().exec(new Action<ExecSpec>() {
-                    @Override
-                    public void execute(ExecSpec execSpec) {
-                        execSpec.setExecutable(getZipAlignExe());
-                        execSpec.args("-f", "4");
-                        execSpec.args(file.getAbsolutePath());
-                        execSpec.args(out);
-                    }
-                });
-            }
-        };
+        FileUtils.mkdirs(getOutputDirectory());
+
+        WaitableExecutor<Void> executor = WaitableExecutor.useGlobalSharedThreadPool();
+        InputProcessor zipAlignIt =
+                (split, file) -> {
+                    File out = new File(getOutputDirectory(),
+                            archivesBaseName + "-" + outputBaseName + "_" + split + ".apk");
+                    executor.execute(
+                            () -> {
+                                ZipAligner.align(file, out, ZIP_ALIGNMENT);
+                                return null;
+                            });
+                };
         forEachUnalignedInput(zipAlignIt);
         forEachUnsignedInput(zipAlignIt);
+        executor.waitForTasksWithQuickFail(true /*cancelRemaining*/);
         saveApkMetadataFile();
     }
 
@@ -348,21 +338,6 @@ public class SplitZipAlign extends SplitRelatedTask {
             Set<String> languageFilters = variantData.getFilters(LANGUAGE);
 
             zipAlign.setVariantName(config.getFullName());
-            ConventionMappingHelper.map(zipAlign, "zipAlignExe", new Callable<File>() {
-                @Override
-                public File call() throws Exception {
-                    final TargetInfo info =
-                            scope.getGlobalScope().getAndroidBuilder().getTargetInfo();
-                    if (info == null) {
-                        return null;
-                    }
-                    String path = info.getBuildTools().getPath(ZIP_ALIGN);
-                    if (path == null) {
-                        return null;
-                    }
-                    return new File(path);
-                }
-            });
 
             zipAlign.setOutputDirectory(new File(scope.getGlobalScope().getBuildDir(), "outputs/apk"));
             ConventionMappingHelper.map(zipAlign, "densityOrLanguageInputFiles",
@@ -40,6 +40,8 @@ import com.android.annotations.Nullable;
 import com.android.utils.XmlUtils;
 import com.google.common.base.Charsets;
 import com.google.common.base.Splitter;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -123,6 +125,7 @@ import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 
 /**
@@ -226,6 +229,12 @@ public class Extractor {
     private Map<String,Boolean> sourceRetention;
     private final List<Item> keepItems = Lists.newArrayList();
 
+    /**
+     * The items created for the compilation unit being analyzed, by the class they are added for,
+     * when the annotations of each compilation unit are recorded separately.
+     */
+    @Nullable private ListMultimap<String, Item> unitItems;
+
     public Extractor(@Nullable ApiDatabase apiFilter, @Nullable File classDir, boolean displayInfo,
             boolean includeClassRetentionAnnotations, boolean sortAnnotations) {
         this.apiFilter = apiFilter;
@@ -237,14 +246,60 @@ public class Extractor {
     }
 
     public void extractFromProjectSource(Collection<CompilationUnitDeclaration> units) {
-        TypedefCollector collector = new TypedefCollector(units, false /*requireHide*/,
-                true /*requireSourceRetention*/);
-        typedefs = collector.getTypedefs();
-        typedefsToRemove = collector.getPrivateTypedefClasses();
+        collectTypedefs(units);
+
+        for (CompilationUnitDeclaration unit : units) {
+            analyze(unit);
+        }
+    }
+
+    /**
+     * Extracts the annotations from the given compilation units like {@link
+     * #extractFromProjectSource(Collection)}, and returns the records of the items of each unit
+     * by the path of its source file. The records of different extractions can be exported
+     * together with {@link #export(List, File, File)}.
+     *
+     * <p>The typedefs are collected from the given units only: the units must include all the
+     * source files declaring annotations.
+     */
+    @NonNull
+    Map<String, List<ItemRecord>> extractRecords(
+            @NonNull Collection<CompilationUnitDeclaration> units) {
+        collectTypedefs(units);
 
+        Map<String, ListMultimap<String, Item>> itemsByFile = Maps.newHashMap();
         for (CompilationUnitDeclaration unit : units) {
+            unitItems = LinkedListMultimap.create();
             analyze(unit);
+            itemsByFile.put(new String(unit.getFileName()), unitItems);
+        }
+        unitItems = null;
+
+        // items can be removed, or marked as kept, after being added: only look at them once
+        // all the units are analyzed.
+        Set<Item> kept = Sets.newIdentityHashSet();
+        kept.addAll(keepItems);
+        Map<String, List<ItemRecord>> records = Maps.newHashMap();
+        for (Map.Entry<String, ListMultimap<String, Item>> file : itemsByFile.entrySet()) {
+            List<ItemRecord> fileRecords = Lists.newArrayList();
+            for (Map.Entry<String, Item> entry : file.getValue().entries()) {
+                String fqn = entry.getKey();
+                Item item = entry.getValue();
+                boolean added = containsItem(fqn, item);
+                if (added || kept.contains(item)) {
+                    fileRecords.add(createRecord(fqn, item, added, kept.contains(item)));
+                }
+            }
+            records.put(file.getKey(), fileRecords);
         }
+        return records;
+    }
+
+    private void collectTypedefs(@NonNull Collection<CompilationUnitDeclaration> units) {
+        TypedefCollector collector = new TypedefCollector(units, false /*requireHide*/,
+                true /*requireSourceRetention*/);
+        typedefs = collector.getTypedefs();
+        typedefsToRemove = collector.getPrivateTypedefClasses();
     }
 
     public void removeTypedefClasses() {
@@ -307,30 +362,90 @@ public class Extractor {
     }
 
     public void export(@Nullable File annotationsZip, @Nullable File proguardCfg) {
+        Set<Item> kept = Sets.newIdentityHashSet();
+        kept.addAll(keepItems);
+        List<ItemRecord> records = Lists.newArrayList();
+        List<String> sortedPackages = new ArrayList<>(itemMap.keySet());
+        Collections.sort(sortedPackages);
+        for (String pkg : sortedPackages) {
+            Map<String, List<Item>> classMap = itemMap.get(pkg);
+            List<String> classes = new ArrayList<>(classMap.keySet());
+            Collections.sort(classes);
+            for (String cls : classes) {
+                for (Item item : classMap.get(cls)) {
+                    records.add(createRecord(cls, item, true, kept.remove(item)));
+                }
+            }
+        }
+        for (Item item : keepItems) {
+            if (kept.remove(item)) {
+                records.add(createRecord(item.getQualifiedClassName(), item, false, true));
+            }
+        }
+
+        export(records, annotationsZip, proguardCfg);
+    }
+
+    /**
+     * Writes the given records into the annotations file and the keep rules file. The records of
+     * the items kept are only written in the keep rules file, if there is one.
+     */
+    void export(
+            @NonNull List<ItemRecord> records,
+            @Nullable File annotationsZip,
+            @Nullable File proguardCfg) {
+        boolean keepRulesWritten = false;
         if (proguardCfg != null) {
-            if (keepItems.isEmpty()) {
+            List<ItemRecord> keepRecords =
+                    records.stream()
+                            .filter(record -> record.keepRule != null)
+                            .collect(Collectors.toList());
+            if (keepRecords.isEmpty()) {
                 if (proguardCfg.exists()) {
                     //noinspection ResultOfMethodCallIgnored
                     proguardCfg.delete();
                 }
-            } else if (writeKeepRules(proguardCfg)) {
+            } else if (writeKeepRules(keepRecords, proguardCfg)) {
+                keepRulesWritten = true;
                 info("ProGuard keep rules written to " + proguardCfg);
             }
         }
 
         if (annotationsZip != null) {
-            if (itemMap.isEmpty()) {
+            // Kept items are not needed in the annotations.zip file once their keep rules are
+            // written.
+            boolean excludeKept = keepRulesWritten;
+            List<ItemRecord> annotated =
+                    records.stream()
+                            .filter(record -> record.xml != null)
+                            .filter(record -> !excludeKept || record.keepRule == null)
+                            .collect(Collectors.toList());
+            if (annotated.isEmpty()) {
                 if (annotationsZip.exists()) {
                     //noinspection ResultOfMethodCallIgnored
                     annotationsZip.delete();
                 }
-            } else if (writeExternalAnnotations(annotationsZip)) {
+            } else if (writeExternalAnnotations(annotated, annotationsZip)) {
                 writeStats();
                 info("Annotations written to " + annotationsZip);
             }
         }
     }
 
+    @NonNull
+    private static ItemRecord createRecord(
+            @NonNull String fqn, @NonNull Item item, boolean added, boolean kept) {
+        String xml = null;
+        if (added) {
+            StringWriter stringWriter = new StringWriter(200);
+            try (PrintWriter writer = new PrintWriter(stringWriter)) {
+                item.write(writer);
+            }
+            xml = stringWriter.toString();
+        }
+        return new ItemRecord(fqn, item.getSignature(), xml, kept ? item.getKeepRule() : null);
+    }
+
     public void writeStats() {
         if (!displayInfo) {
             return;
@@ -761,44 +876,39 @@ public class Extractor {
                         fqn.equals(ANDROID_STRING_DEF)));
     }
 
-    private boolean writeKeepRules(@NonNull File proguardCfg) {
-        if (!keepItems.isEmpty()) {
-            try {
-                try (Writer writer = new BufferedWriter(new FileWriter(proguardCfg))) {
-                    Collections.sort(keepItems);
-                    for (Item item : keepItems) {
-                        writer.write(item.getKeepRule());
-                        writer.write('\n');
-                    }
+    private static boolean writeKeepRules(
+            @NonNull List<ItemRecord> keepRecords, @NonNull File proguardCfg) {
+        try {
+            try (Writer writer = new BufferedWriter(new FileWriter(proguardCfg))) {
+                keepRecords.sort(ItemRecord.ORDER);
+                for (ItemRecord record : keepRecords) {
+                    writer.write(record.keepRule);
+                    writer.write('\n');
                 }
-            } catch (IOException ioe) {
-                error(ioe.toString());
-                return true;
-            }
-
-            // Now that we've handled these items, remove them from the list
-            // such that we don't accidentally also emit them into the annotations.zip
-            // file, where they are not needed
-            for (Item item : keepItems) {
-                removeItem(item.getQualifiedClassName(), item);
             }
-        } else if (proguardCfg.exists()) {
-            //noinspection ResultOfMethodCallIgnored
-            proguardCfg.delete();
+        } catch (IOException ioe) {
+            error(ioe.toString());
+            return false;
         }
-        return false;
+        return true;
     }
 
-    private boolean writeExternalAnnotations(@NonNull File annotationsZip) {
+    private boolean writeExternalAnnotations(
+            @NonNull List<ItemRecord> records, @NonNull File annotationsZip) {
+        Map<String, Map<String, List<ItemRecord>>> packages = Maps.newTreeMap();
+        for (ItemRecord record : records) {
+            packages.computeIfAbsent(getPackage(record.classFqn), pkg -> Maps.newTreeMap())
+                    .computeIfAbsent(record.classFqn, cls -> Lists.newArrayList())
+                    .add(record);
+        }
         try {
             FileOutputStream fileOutputStream = new FileOutputStream(annotationsZip);
             JarOutputStream zos = new JarOutputStream(new BufferedOutputStream(fileOutputStream));
 
             try {
-                // TODO: Extract to share with keep rules
-                List<String> sortedPackages = new ArrayList<>(itemMap.keySet());
-                Collections.sort(sortedPackages);
-                for (String pkg : sortedPackages) {
+                for (Map.Entry<String, Map<String, List<ItemRecord>>> entry
+                        : packages.entrySet()) {
+                    String pkg = entry.getKey();
                     // Note: Using / rather than File.separator: jar lib requires it
                     String name = pkg.replace('.', '/') + "/annotations.xml";
 
@@ -810,14 +920,10 @@ public class Extractor {
                         writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
                                 "<root>");
 
-                        Map<String, List<Item>> classMap = itemMap.get(pkg);
-                        List<String> classes = new ArrayList<>(classMap.keySet());
-                        Collections.sort(classes);
-                        for (String cls : classes) {
-                            List<Item> items = classMap.get(cls);
-                            Collections.sort(items);
-                            for (Item item : items) {
-                                item.write(writer);
+                        for (List<ItemRecord> items : entry.getValue().values()) {
+                            items.sort(ItemRecord.ORDER);
+                            for (ItemRecord item : items) {
+                                writer.print(item.xml);
                             }
                         }
 
@@ -852,6 +958,10 @@ public class Extractor {
     }
 
     private void addItem(@NonNull String fqn, @NonNull Item item) {
+        if (unitItems != null) {
+            unitItems.put(fqn, item);
+        }
+
         // Not part of the API?
         if (apiFilter != null && item.isFiltered(apiFilter)) {
             if (isListIgnored()) {
@@ -898,6 +1008,19 @@ public class Extractor {
         }
     }
 
+    private boolean containsItem(@NonNull String classFqn, @NonNull Item item) {
+        Map<String, List<Item>> classMap = itemMap.get(getPackage(classFqn));
+        List<Item> items = classMap != null ? classMap.get(classFqn) : null;
+        if (items != null) {
+            for (Item existing : items) {
+                if (existing == item) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     @Nullable
     private Item findItem(@NonNull String fqn, @NonNull Item item) {
         String pkg = getPackage(fqn);
@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.tasks.annotations;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.lint.EcjParser;
+import com.android.tools.lint.EcjSourceFile;
+import com.android.utils.ILogger;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.core.compiler.IProblem;
+import org.eclipse.jdt.internal.compiler.ast.CompilationUnitDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.TypeDeclaration;
+import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
+import org.eclipse.jdt.internal.compiler.util.Util;
+
+/**
+ * Extracts the annotations of the sources of a project, only parsing the sources that changed
+ * since the previous extraction.
+ *
+ * <p>The records of the items extracted from each source file are saved along with the hash of
+ * the file. On the next extraction, the records of the unchanged files are reused and only the
+ * changed files are parsed, with the class files of the project on the classpath to resolve the
+ * types of the other files. The records of all the files are then merged in source file order,
+ * so the output is the same as the one of a full extraction.
+ *
+ * <p>The records of a file also depend on the annotations declared in other files (the
+ * typedefs), and on the set of types of the project. The files declaring annotations are always
+ * parsed, and all the files are extracted again when one of them changes, when the types declared
+ * by the project change, or when the classpath or the options change.
+ */
+public class IncrementalAnnotationExtractor {
+
+    private static final int VERSION = 1;
+
+    /** Finds the files which may declare annotations. */
+    private static final Pattern ANNOTATION_DECLARATION = Pattern.compile("@\\s*interface\\b");
+
+    @NonNull private final File stateFile;
+    @NonNull private final CompilerOptions options;
+    @NonNull private final List<String> classpath;
+    @Nullable private final File classDir;
+    @Nullable private final File apiFilter;
+    private final boolean allowErrors;
+    private final boolean displayInfo;
+    @NonNull private final ILogger logger;
+
+    private int parsedFileCount;
+
+    /**
+     * Creates an extractor.
+     *
+     * @param stateFile the file to save the records of the source files to
+     * @param options the options to parse the source files with
+     * @param classpath the boot classpath and the classpath of the sources
+     * @param classDir the class files of the sources, to resolve the types of the files which
+     *     are not parsed, and to remove the typedef classes from. If null, all the files are
+     *     parsed.
+     * @param apiFilter an API file to filter the annotations by, if any
+     * @param allowErrors whether the annotations are extracted even in the presence of symbol
+     *     resolution errors
+     * @param displayInfo whether statistics about the annotations are displayed
+     * @param logger the logger for the compilation problems
+     */
+    public IncrementalAnnotationExtractor(
+            @NonNull File stateFile,
+            @NonNull CompilerOptions options,
+            @NonNull List<String> classpath,
+            @Nullable File classDir,
+            @Nullable File apiFilter,
+            boolean allowErrors,
+            boolean displayInfo,
+            @NonNull ILogger logger) {
+        this.stateFile = stateFile;
+        this.options = options;
+        this.classpath = ImmutableList.copyOf(classpath);
+        this.classDir = classDir;
+        this.apiFilter = apiFilter;
+        this.allowErrors = allowErrors;
+        this.displayInfo = displayInfo;
+        this.logger = logger;
+    }
+
+    /**
+     * Extracts the annotations of the given source files.
+     *
+     * @param sources the Java source files of the project
+     * @param encoding the encoding of the source files
+     * @param output the annotations file to write, if any
+     * @param proguard the ProGuard keep rules file to write, if any
+     * @param typedefFile the typedef recipe file to write, if any. If null, the typedef classes
+     *     are removed from the class directory.
+     * @return false if the annotations were not extracted because of compilation problems
+     */
+    public boolean extract(
+            @NonNull List<File> sources,
+            @NonNull String encoding,
+            @Nullable File output,
+            @Nullable File proguard,
+            @Nullable File typedefFile)
+            throws IOException {
+        Map<String, SourceFile> files = Maps.newTreeMap();
+        Map<String, char[]> contents = Maps.newHashMap();
+        for (File source : sources) {
+            char[] content;
+            try {
+                content = Util.getFileCharContent(source, encoding);
+            } catch (IOException e) {
+                logger.warning("Could not read file %1$s: %2$s", source, e.getMessage());
+                continue;
+            }
+            String hash =
+                    Hashing.sha1()
+                            .hashString(CharBuffer.wrap(content), StandardCharsets.UTF_8)
+                            .toString();
+            boolean declaresAnnotations =
+                    ANNOTATION_DECLARATION.matcher(CharBuffer.wrap(content)).find();
+            files.put(source.getPath(), new SourceFile(hash, declaresAnnotations));
+            contents.put(source.getPath(), content);
+        }
+
+        String environment = getEnvironment(encoding);
+        State previous = State.load(stateFile);
+        Boolean extracted = null;
+        if (classDir != null
+                && classDir.isDirectory()
+                && environment.equals(previous.environment)
+                && !annotationsChanged(previous.files, files)) {
+            extracted =
+                    extract(
+                            files,
+                            contents,
+                            previous.files,
+                            encoding,
+                            output,
+                            proguard,
+                            typedefFile);
+        }
+        if (extracted == null) {
+            extracted = extract(files, contents, null, encoding, output, proguard, typedefFile);
+        }
+        if (extracted) {
+            new State(environment, files).save(stateFile);
+        }
+        return extracted;
+    }
+
+    /** Returns the number of files parsed by the last extraction. */
+    @VisibleForTesting
+    int getParsedFileCount() {
+        return parsedFileCount;
+    }
+
+    /**
+     * Extracts the annotations of the given files.
+     *
+     * @param previous the files of the previous extraction, to reuse the records of the
+     *     unchanged files, or null to parse all the files
+     * @return whether the annotations were extracted, or null if they must be extracted from all
+     *     the files
+     */
+    @Nullable
+    private Boolean extract(
+            @NonNull Map<String, SourceFile> files,
+            @NonNull Map<String, char[]> contents,
+            @Nullable Map<String, SourceFile> previous,
+            @NonNull String encoding,
+            @Nullable File output,
+            @Nullable File proguard,
+            @Nullable File typedefFile)
+            throws IOException {
+        List<String> parsedPaths = Lists.newArrayList();
+        List<EcjSourceFile> sourceUnits = Lists.newArrayList();
+        for (Map.Entry<String, SourceFile> entry : files.entrySet()) {
+            String path = entry.getKey();
+            SourceFile file = entry.getValue();
+            SourceFile previousFile = previous != null ? previous.get(path) : null;
+            if (previousFile == null
+                    || !previousFile.hash.equals(file.hash)
+                    || file.declaresAnnotations) {
+                file.types = null;
+                file.records = null;
+                parsedPaths.add(path);
+                sourceUnits.add(
+                        EcjSourceFile.create(contents.get(path), new File(path), encoding));
+            } else {
+                file.types = previousFile.types;
+                file.records = previousFile.records;
+            }
+        }
+        parsedFileCount = sourceUnits.size();
+
+        List<String> jars = Lists.newArrayList(classpath);
+        if (previous != null && classDir != null) {
+            // the sources parsed take precedence over their class files.
+            jars.add(classDir.getPath());
+        }
+        EcjParser.EcjResult result = EcjParser.parse(options, sourceUnits, jars, null);
+        try {
+            Collection<CompilationUnitDeclaration> units = result.getCompilationUnits();
+            IProblem error = findError(units);
+            if (error != null) {
+                if (previous != null) {
+                    // the other files may be needed to resolve the types of the changed files.
+                    return null;
+                }
+                if (!allowErrors) {
+                    logger.warning(
+                            "Not extracting annotations (compilation problems encountered)\n"
+                                    + "Error: %1$s:%2$d: %3$s",
+                            new String(error.getOriginatingFileName()),
+                            error.getSourceLineNumber(),
+                            error.getMessage());
+                    return false;
+                }
+            }
+
+            ApiDatabase database = null;
+            if (apiFilter != null && apiFilter.exists()) {
+                try {
+                    database = new ApiDatabase(apiFilter);
+                } catch (IOException e) {
+                    throw new IOException("Could not open API database " + apiFilter, e);
+                }
+            }
+            Extractor extractor =
+                    new Extractor(
+                            database,
+                            classDir,
+                            displayInfo,
+                            false /*includeClassRetentionAnnotations*/,
+                            false /*sortAnnotations*/);
+            Map<String, List<ItemRecord>> records = extractor.extractRecords(units);
+            for (CompilationUnitDeclaration unit : units) {
+                SourceFile file = files.get(new String(unit.getFileName()));
+                if (file != null) {
+                    file.types = getDeclaredTypes(unit);
+                }
+            }
+            for (String path : parsedPaths) {
+                SourceFile file = files.get(path);
+                List<ItemRecord> fileRecords = records.get(path);
+                file.records = fileRecords != null ? fileRecords : ImmutableList.of();
+                if (file.types == null) {
+                    file.types = ImmutableList.of();
+                }
+            }
+            if (previous != null && !getTypes(previous).equals(getTypes(files))) {
+                // types of the unchanged files may now resolve to other types.
+                return null;
+            }
+
+            List<ItemRecord> allRecords = Lists.newArrayList();
+            for (SourceFile file : files.values()) {
+                allRecords.addAll(file.records);
+            }
+            extractor.export(allRecords, output, proguard);
+            if (typedefFile != null) {
+                extractor.writeTypedefFile(typedefFile);
+            } else {
+                extractor.removeTypedefClasses();
+            }
+            return true;
+        } finally {
+            result.dispose();
+        }
+    }
+
+    @Nullable
+    private static IProblem findError(@NonNull Collection<CompilationUnitDeclaration> units) {
+        for (CompilationUnitDeclaration unit : units) {
+            CategorizedProblem[] problems = unit.compilationResult().getAllProblems();
+            if (problems != null) {
+                for (IProblem problem : problems) {
+                    if (problem != null && problem.isError()) {
+                        return problem;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns whether files declaring annotations were added, changed or removed. */
+    private static boolean annotationsChanged(
+            @NonNull Map<String, SourceFile> previous, @NonNull Map<String, SourceFile> current) {
+        for (Map.Entry<String, SourceFile> entry : current.entrySet()) {
+            SourceFile previousFile = previous.get(entry.getKey());
+            if (entry.getValue().declaresAnnotations
+                    && (previousFile == null || !previousFile.hash.equals(entry.getValue().hash))) {
+                return true;
+            }
+        }
+        for (Map.Entry<String, SourceFile> entry : previous.entrySet()) {
+            if (entry.getValue().declaresAnnotations && !current.containsKey(entry.getKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NonNull
+    private static Set<String> getTypes(@NonNull Map<String, SourceFile> files) {
+        Set<String> types = Sets.newHashSet();
+        for (SourceFile file : files.values()) {
+            types.addAll(file.types);
+        }
+        return types;
+    }
+
+    @NonNull
+    private static List<String> getDeclaredTypes(@NonNull CompilationUnitDeclaration unit) {
+        List<String> types = Lists.newArrayList();
+        if (unit.types != null) {
+            for (TypeDeclaration type : unit.types) {
+                addDeclaredTypes(type, types);
+            }
+        }
+        return types;
+    }
+
+    private static void addDeclaredTypes(
+            @NonNull TypeDeclaration type, @NonNull List<String> types) {
+        if (type.binding != null) {
+            types.add(new String(type.binding.readableName()));
+        }
+        if (type.memberTypes != null) {
+            for (TypeDeclaration memberType : type.memberTypes) {
+                addDeclaredTypes(memberType, types);
+            }
+        }
+    }
+
+    /** Returns a fingerprint of the options and of the classpath of the extraction. */
+    @NonNull
+    private String getEnvironment(@NonNull String encoding) throws IOException {
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putInt(VERSION);
+        hasher.putString(encoding, StandardCharsets.UTF_8);
+        hasher.putLong(options.sourceLevel);
+        hasher.putBoolean(options.docCommentSupport);
+        hasher.putBoolean(allowErrors);
+        hasher.putBoolean(classDir != null);
+        if (apiFilter != null && apiFilter.exists()) {
+            hasher.putString(
+                    Files.hash(apiFilter, Hashing.sha1()).toString(), StandardCharsets.UTF_8);
+        }
+        for (String entry : classpath) {
+            File file = new File(entry);
+            hasher.putString(entry, StandardCharsets.UTF_8);
+            if (file.isDirectory()) {
+                List<Path> children;
+                try (Stream<Path> walk = java.nio.file.Files.walk(file.toPath())) {
+                    children = walk.sorted().collect(Collectors.toList());
+                }
+                for (Path child : children) {
+                    putFile(hasher, child.toFile());
+                }
+            } else {
+                putFile(hasher, file);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void putFile(@NonNull Hasher hasher, @NonNull File file) {
+        hasher.putString(file.getPath(), StandardCharsets.UTF_8);
+        hasher.putLong(file.length());
+        hasher.putLong(file.lastModified());
+    }
+
+    /** A source file of the project, with the records extracted from it. */
+    private static final class SourceFile {
+        @NonNull final String hash;
+        final boolean declaresAnnotations;
+        /** The qualified names of the classes declared by the file. */
+        List<String> types;
+        List<ItemRecord> records;
+
+        SourceFile(@NonNull String hash, boolean declaresAnnotations) {
+            this.hash = hash;
+            this.declaresAnnotations = declaresAnnotations;
+        }
+    }
+
+    /** The source files of an extraction, and the fingerprint of its classpath and options. */
+    private static final class State {
+        @NonNull final String environment;
+        @NonNull final Map<String, SourceFile> files;
+
+        State(@NonNull String environment, @NonNull Map<String, SourceFile> files) {
+            this.environment = environment;
+            this.files = files;
+        }
+
+        /**
+         * Loads the state saved by {@link #save(File)}, or returns an empty state if it cannot be
+         * read. The file is deleted so that a state that is not saved again is never reused.
+         */
+        @NonNull
+        static State load(@NonNull File stateFile) {
+            State state = new State("", Maps.newHashMap());
+            if (!stateFile.isFile()) {
+                return state;
+            }
+            try (DataInputStream in =
+                    new DataInputStream(
+                            new BufferedInputStream(new FileInputStream(stateFile)))) {
+                if (in.readInt() == VERSION) {
+                    String environment = in.readUTF();
+                    Map<String, SourceFile> files = Maps.newHashMap();
+                    int fileCount = in.readInt();
+                    for (int i = 0; i < fileCount; i++) {
+                        String path = in.readUTF();
+                        SourceFile file = new SourceFile(in.readUTF(), in.readBoolean());
+                        int typeCount = in.readInt();
+                        file.types = Lists.newArrayListWithCapacity(typeCount);
+                        for (int j = 0; j < typeCount; j++) {
+                            file.types.add(in.readUTF());
+                        }
+                        int recordCount = in.readInt();
+                        file.records = Lists.newArrayListWithCapacity(recordCount);
+                        for (int j = 0; j < recordCount; j++) {
+                            file.records.add(ItemRecord.read(in));
+                        }
+                        files.put(path, file);
+                    }
+                    state = new State(environment, files);
+                }
+            } catch (IOException | RuntimeException e) {
+                // corrupted state, all the files will be extracted again.
+                state = new State("", Maps.newHashMap());
+            }
+            //noinspection ResultOfMethodCallIgnored
+            stateFile.delete();
+            return state;
+        }
+
+        /** Saves the state, to be loaded by the next extraction. */
+        void save(@NonNull File stateFile) throws IOException {
+            Files.createParentDirs(stateFile);
+            try (DataOutputStream out =
+                    new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(stateFile)))) {
+                out.writeInt(VERSION);
+                out.writeUTF(environment);
+                out.writeInt(files.size());
+                for (Map.Entry<String, SourceFile> entry : files.entrySet()) {
+                    SourceFile file = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(file.hash);
+                    out.writeBoolean(file.declaresAnnotations);
+                    out.writeInt(file.types.size());
+                    for (String type : file.types) {
+                        out.writeUTF(type);
+                    }
+                    out.writeInt(file.records.size());
+                    for (ItemRecord record : file.records) {
+                        record.write(out);
+                    }
+                }
+            }
+        }
+    }
+}
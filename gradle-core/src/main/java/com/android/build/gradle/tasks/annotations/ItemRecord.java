@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.tasks.annotations;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+/**
+ * The extracted form of an annotated item (a class, a method, a field or a method parameter) of
+ * the {@link Extractor}: the XML written for it in the external annotations file and the
+ * ProGuard rule written for it if it is kept.
+ *
+ * <p>Records do not refer to the parsed compilation units, so the records of a source file can be
+ * kept from one extraction to the next one.
+ */
+final class ItemRecord {
+
+    /** Sorts the records like the items they were created from. */
+    static final Comparator<ItemRecord> ORDER =
+            Comparator.comparing(record -> record.signature.replace('&', '.'));
+
+    /** Bound on the size of the strings read, against corrupted records. */
+    private static final int MAX_STRING_LENGTH = 1 << 24;
+
+    /** Qualified name of the class the item is recorded for. */
+    @NonNull final String classFqn;
+
+    /** The escaped signature of the item. */
+    @NonNull final String signature;
+
+    /** The XML of the item, or null if the item is not written in the annotations file. */
+    @Nullable final String xml;
+
+    /** The ProGuard rule of the item, or null if the item is not kept. */
+    @Nullable final String keepRule;
+
+    ItemRecord(
+            @NonNull String classFqn,
+            @NonNull String signature,
+            @Nullable String xml,
+            @Nullable String keepRule) {
+        this.classFqn = classFqn;
+        this.signature = signature;
+        this.xml = xml;
+        this.keepRule = keepRule;
+    }
+
+    void write(@NonNull DataOutput out) throws IOException {
+        writeString(out, classFqn);
+        writeString(out, signature);
+        writeString(out, xml);
+        writeString(out, keepRule);
+    }
+
+    @NonNull
+    static ItemRecord read(@NonNull DataInput in) throws IOException {
+        String classFqn = readString(in);
+        String signature = readString(in);
+        if (classFqn == null || signature == null) {
+            throw new IOException("Invalid item record");
+        }
+        return new ItemRecord(classFqn, signature, readString(in), readString(in));
+    }
+
+    // the XML of an item may not fit in the 64K limit of DataOutput#writeUTF.
+    private static void writeString(@NonNull DataOutput out, @Nullable String value)
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    @Nullable
+    private static String readString(@NonNull DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
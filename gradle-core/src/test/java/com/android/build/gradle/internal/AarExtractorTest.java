@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal;
+
+import static com.android.testutils.truth.MoreTruth.assertThat;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.android.annotations.NonNull;
+import com.android.utils.FileUtils;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.gradle.api.logging.Logger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Unit test for {@link AarExtractor}. */
+public class AarExtractorTest {
+
+    @Rule public TemporaryFolder testDir = new TemporaryFolder();
+
+    private File aar;
+    private File outputDir;
+    private Logger logger;
+
+    @Before
+    public void setUp() throws IOException {
+        aar = new File(testDir.getRoot(), "library.aar");
+        outputDir = testDir.newFolder("exploded-aar");
+        logger = mock(Logger.class);
+    }
+
+    @Test
+    public void extract() throws IOException {
+        byte[] large = new byte[3 * 1024 * 1024];
+        Arrays.fill(large, (byte) 'a');
+        createAar(
+                "AndroidManifest.xml", "<manifest/>".getBytes(StandardCharsets.UTF_8),
+                "classes.jar", "classes".getBytes(StandardCharsets.UTF_8),
+                "libs/dep.jar", "dep".getBytes(StandardCharsets.UTF_8),
+                "assets/data.jar", "data".getBytes(StandardCharsets.UTF_8),
+                "res/raw/large.bin", large);
+        Files.write("stale", new File(outputDir, "stale.txt"), StandardCharsets.UTF_8);
+
+        AarExtractor.extract(aar, outputDir, logger);
+
+        assertThat(new File(outputDir, "AndroidManifest.xml")).hasContents("<manifest/>");
+        assertThat(FileUtils.join(outputDir, "jars", "classes.jar")).hasContents("classes");
+        assertThat(FileUtils.join(outputDir, "jars", "libs", "dep.jar")).hasContents("dep");
+        assertThat(FileUtils.join(outputDir, "assets", "data.jar")).hasContents("data");
+        assertThat(Files.toByteArray(FileUtils.join(outputDir, "res", "raw", "large.bin")))
+                .isEqualTo(large);
+        assertThat(new File(outputDir, "stale.txt")).doesNotExist();
+        verify(logger, never()).warn(anyString());
+    }
+
+    @Test
+    public void unexpectedJar() throws IOException {
+        createAar("other/other.jar", "other".getBytes(StandardCharsets.UTF_8));
+
+        AarExtractor.extract(aar, outputDir, logger);
+
+        assertThat(FileUtils.join(outputDir, "other", "other.jar")).hasContents("other");
+        verify(logger, times(1)).warn(anyString());
+    }
+
+    @Test
+    public void entryOutsideOfOutputDir() throws IOException {
+        createAar("../outside.txt", "outside".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            AarExtractor.extract(aar, outputDir, logger);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("../outside.txt");
+        }
+        assertThat(new File(testDir.getRoot(), "outside.txt")).doesNotExist();
+    }
+
+    /** Creates the aar from pairs of entry names and contents. */
+    private void createAar(@NonNull Object... entries) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(aar))) {
+            for (int i = 0; i < entries.length; i += 2) {
+                out.putNextEntry(new ZipEntry((String) entries[i]));
+                out.write((byte[]) entries[i + 1]);
+                out.closeEntry();
+            }
+        }
+    }
+}
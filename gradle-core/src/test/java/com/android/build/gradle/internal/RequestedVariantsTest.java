@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class RequestedVariantsTest {
+
+    private static final List<String> VARIANTS =
+            ImmutableList.of("freeDebug", "freeRelease", "paidDebug", "paidRelease");
+
+    private static Set<String> find(String... taskNames) {
+        return RequestedVariants.find(":app", ImmutableList.copyOf(taskNames), VARIANTS);
+    }
+
+    @Test
+    public void variantTasks() {
+        assertThat(find("assembleFreeDebug")).containsExactly("freeDebug");
+        assertThat(find("assembleFreeDebug", "installPaidRelease"))
+                .containsExactly("freeDebug", "paidRelease");
+        assertThat(find("testFreeDebugUnitTest", "connectedPaidDebugAndroidTest"))
+                .containsExactly("freeDebug", "paidDebug");
+    }
+
+    @Test
+    public void taskPaths() {
+        assertThat(find(":app:assembleFreeDebug")).containsExactly("freeDebug");
+        assertThat(find(":app:assembleFreeDebug", ":lib:assemble")).containsExactly("freeDebug");
+        assertThat(RequestedVariants.find(
+                        ":", ImmutableList.of(":assemblePaidDebug"), VARIANTS))
+                .containsExactly("paidDebug");
+    }
+
+    @Test
+    public void allVariants() {
+        // no task requested.
+        assertThat(find()).isNull();
+        // tasks of all the variants.
+        assertThat(find("assembleFreeDebug", "lint")).isNull();
+        assertThat(find("assembleFree")).isNull();
+        // abbreviated task name.
+        assertThat(find("aFD")).isNull();
+        // relative task path.
+        assertThat(find("app:assembleFreeDebug")).isNull();
+        // only tasks of another project.
+        assertThat(find(":lib:assembleFreeDebug")).isNull();
+        // task options.
+        assertThat(find("testFreeDebugUnitTest", "--tests", "MyTest")).isNull();
+    }
+}
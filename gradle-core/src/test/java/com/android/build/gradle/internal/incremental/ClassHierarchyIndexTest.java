@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.incremental;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.utils.FileUtils;
+import com.android.utils.ILogger;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+/** Tests for the {@link ClassHierarchyIndex} class */
+public class ClassHierarchyIndexTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ILogger logger = Mockito.mock(ILogger.class);
+
+    private File jar;
+    private File classes;
+
+    @Before
+    public void setUp() throws IOException {
+        // a "platform" jar and a directory of project classes.
+        jar = temporaryFolder.newFile("platform.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            addClass(out, "java/lang/Object", null);
+            addClass(out, "p/I", null, Opcodes.ACC_INTERFACE);
+            addClass(out, "p/J", null, Opcodes.ACC_INTERFACE, "p/I");
+            addClass(out, "p/Base", "java/lang/Object", 0, "p/I");
+        }
+        classes = temporaryFolder.newFolder("classes");
+        writeClass("a/A", "p/Base");
+        writeClass("a/B", "a/A");
+        writeClass("a/C", "a/A", 0, "p/J");
+        writeClass("a/D", "java/lang/Object");
+        writeClass("a/Orphan", "a/Missing");
+    }
+
+    @Test
+    public void commonSuperClass() throws IOException {
+        try (ClassHierarchyIndex index = newIndex()) {
+            assertThat(index.getCommonSuperClass("a/B", "a/C")).isEqualTo("a/A");
+            assertThat(index.getCommonSuperClass("a/B", "a/A")).isEqualTo("a/A");
+            assertThat(index.getCommonSuperClass("a/A", "a/B")).isEqualTo("a/A");
+            assertThat(index.getCommonSuperClass("a/B", "a/D")).isEqualTo("java/lang/Object");
+            assertThat(index.getCommonSuperClass("p/I", "a/C")).isEqualTo("p/I");
+            assertThat(index.getCommonSuperClass("p/J", "a/B")).isEqualTo("java/lang/Object");
+            assertThat(index.getCommonSuperClass("a/B", "a/Orphan")).isNull();
+            assertThat(index.getCommonSuperClass("a/B", "a/Unknown")).isNull();
+        }
+    }
+
+    @Test
+    public void loadClassBytes() throws IOException {
+        try (ClassHierarchyIndex index = newIndex()) {
+            assertThat(index.loadClassBytes("a/C", logger).getSuperName()).isEqualTo("a/A");
+            assertThat(index.loadClassBytes("p/Base", logger).getInterfaces())
+                    .asList()
+                    .containsExactly("p/I");
+            assertThat(index.loadClassBytes("a/Unknown", logger)).isNull();
+        }
+    }
+
+    @Test
+    public void firstClasspathEntryWins() throws IOException {
+        writeClass("p/Base", "java/lang/Object");
+        try (ClassHierarchyIndex index = newIndex()) {
+            assertThat(index.getCommonSuperClass("p/I", "a/B")).isEqualTo("p/I");
+        }
+    }
+
+    @Test
+    public void updateClass() throws IOException {
+        try (ClassHierarchyIndex index = newIndex()) {
+            index.updateClass(classes, writeClass("a/B", "a/D"));
+            index.updateClass(classes, writeClass("a/Missing", "a/A"));
+            File removed = new File(classes, "a/C.class");
+            FileUtils.delete(removed);
+            index.updateClass(classes, removed);
+
+            assertThat(index.getCommonSuperClass("a/B", "a/D")).isEqualTo("a/D");
+            assertThat(index.getCommonSuperClass("a/B", "a/Orphan")).isEqualTo("java/lang/Object");
+            assertThat(index.getCommonSuperClass("a/C", "a/A")).isNull();
+        }
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        File state = new File(temporaryFolder.getRoot(), "state/hierarchy.bin");
+        try (ClassHierarchyIndex index = newIndex()) {
+            index.save(state);
+        }
+
+        // changes of updated directories are only seen through updateClass.
+        writeClass("a/B", "a/D");
+        try (ClassHierarchyIndex index = ClassHierarchyIndex.load(state)) {
+            assertThat(state.exists()).isFalse();
+            index.updateClasspath(ImmutableList.of(jar, classes), ImmutableSet.of(classes));
+            assertThat(index.getCommonSuperClass("a/B", "a/C")).isEqualTo("a/A");
+            index.save(state);
+        }
+        try (ClassHierarchyIndex index = ClassHierarchyIndex.load(state)) {
+            index.updateClasspath(ImmutableList.of(jar, classes), ImmutableSet.of());
+            assertThat(index.getCommonSuperClass("a/B", "a/C")).isEqualTo("java/lang/Object");
+        }
+    }
+
+    @Test
+    public void otherDirectoriesAreIndexedAgain() throws IOException {
+        File state = new File(temporaryFolder.getRoot(), "state/hierarchy.bin");
+        File referencedClasses = temporaryFolder.newFolder("referenced");
+        writeClass(referencedClasses, "r/R", "a/A");
+        try (ClassHierarchyIndex index = new ClassHierarchyIndex()) {
+            index.updateClasspath(
+                    ImmutableList.of(jar, referencedClasses, classes), ImmutableSet.of());
+            index.save(state);
+        }
+
+        // only the changes of the updated directories are applied with updateClass.
+        writeClass(referencedClasses, "r/R", "a/D");
+        try (ClassHierarchyIndex index = ClassHierarchyIndex.load(state)) {
+            index.updateClasspath(
+                    ImmutableList.of(jar, referencedClasses, classes), ImmutableSet.of(classes));
+            assertThat(index.getCommonSuperClass("r/R", "a/D")).isEqualTo("a/D");
+        }
+    }
+
+    @Test
+    public void loadCorruptedState() throws IOException {
+        File state = temporaryFolder.newFile("hierarchy.bin");
+        Files.write(new byte[] {0, 0, 0, 1, 0, 0, 0, 5, 1}, state);
+        try (ClassHierarchyIndex index = ClassHierarchyIndex.load(state)) {
+            index.updateClasspath(ImmutableList.of(jar, classes), ImmutableSet.of(classes));
+            assertThat(index.getCommonSuperClass("a/B", "a/C")).isEqualTo("a/A");
+        }
+    }
+
+    @NonNull
+    private ClassHierarchyIndex newIndex() throws IOException {
+        ClassHierarchyIndex index = new ClassHierarchyIndex();
+        index.updateClasspath(ImmutableList.of(jar, classes), ImmutableSet.of());
+        return index;
+    }
+
+    @NonNull
+    private File writeClass(@NonNull String name, @NonNull String superName) throws IOException {
+        return writeClass(name, superName, 0);
+    }
+
+    @NonNull
+    private File writeClass(
+            @NonNull String name, @NonNull String superName, int access, String... interfaces)
+            throws IOException {
+        return writeClass(classes, name, superName, access, interfaces);
+    }
+
+    @NonNull
+    private static File writeClass(
+            @NonNull File directory, @NonNull String name, @NonNull String superName)
+            throws IOException {
+        return writeClass(directory, name, superName, 0);
+    }
+
+    @NonNull
+    private static File writeClass(
+            @NonNull File directory,
+            @NonNull String name,
+            @NonNull String superName,
+            int access,
+            String... interfaces)
+            throws IOException {
+        File classFile = new File(directory, name + ".class");
+        Files.createParentDirs(classFile);
+        Files.write(createClass(name, superName, access, interfaces), classFile);
+        return classFile;
+    }
+
+    private static void addClass(
+            @NonNull ZipOutputStream out,
+            @NonNull String name,
+            @Nullable String superName,
+            int access,
+            String... interfaces)
+            throws IOException {
+        out.putNextEntry(new ZipEntry(name + ".class"));
+        out.write(createClass(name, superName, access, interfaces));
+        out.closeEntry();
+    }
+
+    private static void addClass(
+            @NonNull ZipOutputStream out, @NonNull String name, @Nullable String superName)
+            throws IOException {
+        addClass(out, name, superName, 0);
+    }
+
+    @NonNull
+    private static byte[] createClass(
+            @NonNull String name, @Nullable String superName, int access, String[] interfaces) {
+        ClassWriter classWriter = new ClassWriter(0);
+        if ((access & Opcodes.ACC_INTERFACE) != 0) {
+            access |= Opcodes.ACC_ABSTRACT;
+            superName = "java/lang/Object";
+        }
+        classWriter.visit(
+                Opcodes.V1_7, Opcodes.ACC_PUBLIC | access, name, null, superName, interfaces);
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.incremental;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.function.BinaryOperator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * Computes the frames of all the classes of an app, resolving common super classes with a class
+ * loader over the classpath as instant run used to, and with a {@link ClassHierarchyIndex}.
+ *
+ * <p>This is not run as part of the tests. Run the {@code main} method with the jars of a large
+ * app and its classpath, including android.jar.
+ */
+public class FrameComputationBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: FrameComputationBenchmark <app jars> <classpath jars>");
+            System.exit(1);
+        }
+        ImmutableList.Builder<File> appJars = ImmutableList.builder();
+        ImmutableList.Builder<File> classpath = ImmutableList.builder();
+        for (String path : Splitter.on(File.pathSeparatorChar).split(args[1])) {
+            classpath.add(new File(path));
+        }
+        for (String path : Splitter.on(File.pathSeparatorChar).split(args[0])) {
+            appJars.add(new File(path));
+            classpath.add(new File(path));
+        }
+        List<byte[]> classes = readClasses(appJars.build());
+        File stateFile = File.createTempFile("class-hierarchy", ".bin");
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            try (URLClassLoader classLoader = newClassLoader(classpath.build())) {
+                computeFrames(
+                        classes,
+                        (type1, type2) -> getCommonSuperClass(classLoader, type1, type2));
+            }
+            long classLoaderMs = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            try (ClassHierarchyIndex index = new ClassHierarchyIndex()) {
+                index.updateClasspath(classpath.build(), ImmutableSet.of());
+                computeFrames(classes, index::getCommonSuperClass);
+                index.save(stateFile);
+            }
+            long indexMs = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            try (ClassHierarchyIndex index = ClassHierarchyIndex.load(stateFile)) {
+                index.updateClasspath(classpath.build(), ImmutableSet.of());
+                computeFrames(classes, index::getCommonSuperClass);
+            }
+            long savedIndexMs = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.printf(
+                    "run %d, %d classes: class loader %,d ms, new index %,d ms, "
+                            + "saved index %,d ms%n",
+                    i, classes.size(), classLoaderMs, indexMs, savedIndexMs);
+        }
+        stateFile.delete();
+    }
+
+    @NonNull
+    private static List<byte[]> readClasses(@NonNull List<File> jars) throws IOException {
+        ImmutableList.Builder<byte[]> classes = ImmutableList.builder();
+        for (File jar : jars) {
+            try (ZipFile zipFile = new ZipFile(jar)) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (entry.getName().endsWith(SdkConstants.DOT_CLASS)) {
+                        try (InputStream in = zipFile.getInputStream(entry)) {
+                            classes.add(ByteStreams.toByteArray(in));
+                        }
+                    }
+                }
+            }
+        }
+        return classes.build();
+    }
+
+    private static void computeFrames(
+            @NonNull List<byte[]> classes, @NonNull BinaryOperator<String> commonSuperClass) {
+        for (byte[] classBytes : classes) {
+            ClassReader classReader = new ClassReader(classBytes);
+            ClassWriter classWriter =
+                    new ClassWriter(classReader, ClassWriter.COMPUTE_FRAMES) {
+                        @Override
+                        protected String getCommonSuperClass(String type1, String type2) {
+                            String result = commonSuperClass.apply(type1, type2);
+                            return result != null ? result : "instant/run/NoCommonSuperClass";
+                        }
+                    };
+            classReader.accept(classWriter, 0);
+            classWriter.toByteArray();
+        }
+    }
+
+    @NonNull
+    private static URLClassLoader newClassLoader(@NonNull List<File> classpath)
+            throws IOException {
+        URL[] urls = new URL[classpath.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = classpath.get(i).toURI().toURL();
+        }
+        return new URLClassLoader(urls, null) {
+            @Override
+            public URL getResource(String name) {
+                return findResource(name);
+            }
+        };
+    }
+
+    /** The frame computation that {@link IncrementalVisitor} used before the index. */
+    private static String getCommonSuperClass(
+            @NonNull ClassLoader classLoader, String type1, String type2) {
+        Class<?> c, d;
+        try {
+            c = Class.forName(type1.replace('/', '.'), false, classLoader);
+            d = Class.forName(type2.replace('/', '.'), false, classLoader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+        if (c.isAssignableFrom(d)) {
+            return type1;
+        }
+        if (d.isAssignableFrom(c)) {
+            return type2;
+        }
+        if (c.isInterface() || d.isInterface()) {
+            return "java/lang/Object";
+        }
+        do {
+            c = c.getSuperclass();
+        } while (!c.isAssignableFrom(d));
+        return c.getName().replace('.', '/');
+    }
+}
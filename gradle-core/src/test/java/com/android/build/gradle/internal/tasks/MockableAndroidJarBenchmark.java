@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.tasks;
+
+import com.android.builder.testing.MockableJarGenerator;
+import com.android.builder.utils.FileCache;
+import com.android.utils.FileUtils;
+import com.google.common.io.Files;
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Generates the mockable jar of an android.jar with an increasing number of threads, then with an
+ * empty (cold) and a filled (warm) build cache, and reports the times.
+ *
+ * <p>This is not run as part of the tests. Run the {@code main} method with the android.jar of
+ * a platform of the SDK.
+ */
+public class MockableAndroidJarBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: MockableAndroidJarBenchmark <android.jar>");
+            System.exit(1);
+        }
+        File androidJar = new File(args[0]);
+        File outputDir = Files.createTempDir();
+        File cacheDir = Files.createTempDir();
+        File outputFile = new File(outputDir, "mockable-android.jar");
+
+        try {
+            for (int threads : THREAD_COUNTS) {
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    long start = System.nanoTime();
+                    new MockableJarGenerator(false)
+                            .createMockableJar(androidJar, outputFile, executor);
+                    report(threads + " threads", start);
+                } finally {
+                    executor.shutdown();
+                }
+                FileUtils.delete(outputFile);
+            }
+
+            FileCache buildCache = FileCache.getInstanceWithSingleProcessLocking(cacheDir);
+            for (String label : new String[] {"cold cache", "warm cache"}) {
+                long start = System.nanoTime();
+                MockableAndroidJarTask.createMockableJar(
+                        androidJar, outputFile, false, buildCache);
+                report(label, start);
+                FileUtils.delete(outputFile);
+            }
+        } finally {
+            FileUtils.deletePath(outputDir);
+            FileUtils.deletePath(cacheDir);
+        }
+    }
+
+    private static void report(String label, long start) {
+        System.out.printf("%s: %,d ms%n", label, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.tasks;
+
+import static com.android.testutils.truth.MoreTruth.assertThat;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.utils.FileCache;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.gradle.api.Project;
+import org.gradle.api.tasks.TaskExecutionException;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/** Unit test for {@link MockableAndroidJarTask}. */
+public class MockableAndroidJarTaskTest {
+
+    @Rule public TemporaryFolder testDir = new TemporaryFolder();
+
+    @NonNull private File projectDir;
+    @NonNull private File buildCacheDir;
+    @NonNull private File androidJar;
+
+    private int taskCount;
+
+    @Before
+    public void setUp() throws IOException {
+        projectDir = testDir.newFolder("project");
+        buildCacheDir = testDir.newFolder("build-cache");
+
+        // an android.jar with a single class, whose method returns 1.
+        androidJar = testDir.newFile("android.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(androidJar))) {
+            out.putNextEntry(new ZipEntry("android/Foo.class"));
+            out.write(createClass());
+            out.closeEntry();
+        }
+    }
+
+    @Test
+    public void testBuildCacheEnabled() throws Exception {
+        FileCache buildCache = FileCache.getInstanceWithSingleProcessLocking(buildCacheDir);
+
+        // Run the task, expect that the mockable jar is created in the build cache directory
+        File cachedJar =
+                buildCache.getFileInCache(
+                        MockableAndroidJarTask.getBuildCacheInputs(androidJar, false));
+        File outputFile = new File(projectDir, "mockable1.jar");
+        createTask(outputFile, false, buildCache).execute();
+        assertThat(cachedJar).exists();
+        assertThat(Files.toByteArray(outputFile)).isEqualTo(Files.toByteArray(cachedJar));
+        long cachedJarTimestamp = cachedJar.lastModified();
+
+        // Run the task of another project, expect that the cached jar is copied and not recreated
+        File otherOutputFile = new File(projectDir, "mockable2.jar");
+        createTask(otherOutputFile, false, buildCache).execute();
+        assertThat(cachedJar).wasModifiedAt(cachedJarTimestamp);
+        assertThat(Files.toByteArray(otherOutputFile)).isEqualTo(Files.toByteArray(cachedJar));
+
+        // Run the task returning default values, expect that another jar is cached
+        File defaultValuesCachedJar =
+                buildCache.getFileInCache(
+                        MockableAndroidJarTask.getBuildCacheInputs(androidJar, true));
+        assertThat(defaultValuesCachedJar).isNotEqualTo(cachedJar);
+        File defaultValuesOutputFile = new File(projectDir, "mockable-default-values.jar");
+        createTask(defaultValuesOutputFile, true, buildCache).execute();
+        assertThat(defaultValuesCachedJar).exists();
+        assertThat(Files.toByteArray(defaultValuesOutputFile))
+                .isNotEqualTo(Files.toByteArray(outputFile));
+        assertThat(cachedJar).wasModifiedAt(cachedJarTimestamp);
+    }
+
+    @Test
+    public void testBuildCacheDisabled() throws Exception {
+        File outputFile = new File(projectDir, "mockable.jar");
+        createTask(outputFile, false, null).execute();
+        assertThat(outputFile).exists();
+        assertThat(buildCacheDir.list()).isEmpty();
+    }
+
+    @Test
+    public void testNoPartialJarWithBuildCache() throws Exception {
+        checkNoPartialJar(FileCache.getInstanceWithSingleProcessLocking(buildCacheDir));
+    }
+
+    @Test
+    public void testNoPartialJarWithoutBuildCache() throws Exception {
+        checkNoPartialJar(null);
+    }
+
+    /**
+     * Checks that the output file of a failed generation does not exist, as the next builds would
+     * consider it as generated.
+     */
+    private void checkNoPartialJar(@Nullable FileCache buildCache) throws IOException {
+        Files.write("not a jar", androidJar, StandardCharsets.UTF_8);
+        File outputFile = new File(projectDir, "mockable.jar");
+        try {
+            createTask(outputFile, false, buildCache).execute();
+            fail("Expected TaskExecutionException");
+        } catch (TaskExecutionException exception) {
+            assertThat(outputFile).doesNotExist();
+        }
+    }
+
+    @NonNull
+    private MockableAndroidJarTask createTask(
+            @NonNull File outputFile, boolean returnDefaultValues, @Nullable FileCache buildCache) {
+        Project project = ProjectBuilder.builder().withProjectDir(projectDir).build();
+        MockableAndroidJarTask task =
+                project.getTasks()
+                        .create("mockableAndroidJar" + taskCount++, MockableAndroidJarTask.class);
+        task.setAndroidJar(androidJar);
+        task.setOutputFile(outputFile);
+        task.setReturnDefaultValues(returnDefaultValues);
+        task.setBuildCache(buildCache);
+        return task;
+    }
+
+    @NonNull
+    private static byte[] createClass() {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(
+                Opcodes.V1_6, Opcodes.ACC_PUBLIC, "android/Foo", null, "java/lang/Object", null);
+        MethodVisitor method =
+                classWriter.visitMethod(Opcodes.ACC_PUBLIC, "foo", "()I", null, null);
+        method.visitCode();
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+}
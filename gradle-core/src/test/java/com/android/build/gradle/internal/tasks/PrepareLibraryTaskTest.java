@@ -121,25 +121,26 @@ public class PrepareLibraryTaskTest {
         assertThat(FileUtils.join(explodedDir2, "jars", "classes.jar"))
                 .hasContents("New library content");
 
-        // Create a new aar with the same contents but a different timestamp
-        MavenCoordinates mavenCoordinates3 = mavenCoordinates2;
-        File aarFile3 = aarFile2;
+        // Touch the aar without changing its contents
         TestUtils.waitForFileSystemTick();
-        aarFile3.setLastModified(System.currentTimeMillis());
+        aarFile2.setLastModified(System.currentTimeMillis());
 
-        // Run PrepareLibraryTask for the new aar, expect that a new exploded aar is created in the
-        // build cache directory
-        File explodedDir3 =
-                buildCache.getFileInCache(PrepareLibraryTask.getBuildCacheInputs(aarFile3));
-        assertThat(explodedDir3).isNotEqualTo(explodedDir);
-        assertThat(explodedDir3).isNotEqualTo(explodedDir2);
+        // Expect that the exploded aar is looked up by the contents of the aar, and is reused
+        assertThat(buildCache.getFileInCache(PrepareLibraryTask.getBuildCacheInputs(aarFile2)))
+                .isEqualTo(explodedDir2);
+        long explodedDir2Timestamp = explodedDir2.lastModified();
 
         task = createPrepareLibraryTask(
-                projectDir, aarFile3, explodedDir3, Optional.of(buildCache), mavenCoordinates3);
+                projectDir, aarFile2, explodedDir2, Optional.of(buildCache), mavenCoordinates2);
         task.execute();
-        assertThat(buildCacheDir.list()).hasLength(6); // Including 3 lock files
-        assertThat(FileUtils.join(explodedDir3, "jars", "classes.jar"))
-                .hasContents("New library content");
+        assertThat(buildCacheDir.list()).hasLength(4); // Including 2 lock files
+        assertThat(explodedDir2).wasModifiedAt(explodedDir2Timestamp);
+
+        // Copy the aar to another location, expect that the copy shares the exploded aar
+        File aarFile3 = new File(testDir.newFolder("other-library"), "library.aar");
+        Files.copy(aarFile2, aarFile3);
+        assertThat(buildCache.getFileInCache(PrepareLibraryTask.getBuildCacheInputs(aarFile3)))
+                .isEqualTo(explodedDir2);
     }
 
     @Test
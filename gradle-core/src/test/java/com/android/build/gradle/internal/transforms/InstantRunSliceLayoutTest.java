@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import static com.android.build.gradle.internal.transforms.InstantRunSlicer.NUMBER_OF_SLICES_FOR_PROJECT_CLASSES;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the {@link InstantRunSliceLayout} class */
+public class InstantRunSliceLayoutTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Map<String, Long> classSizes = new HashMap<>();
+
+    @Test
+    public void hashBucketsByDefault() {
+        classSizes.put("com/foo/A.class", 100L);
+        classSizes.put("com/foo/B.class", 100L);
+        classSizes.put("Default.class", 100L);
+        InstantRunSliceLayout layout = new InstantRunSliceLayout();
+        layout.update(classSizes);
+
+        assertThat(layout.getSliceCount()).isEqualTo(NUMBER_OF_SLICES_FOR_PROJECT_CLASSES);
+        int fooSlice = InstantRunSliceLayout.getHashBucket("com/foo");
+        assertThat(layout.getSlice("com/foo/A.class")).isEqualTo(fooSlice);
+        assertThat(layout.getSlice("com/foo/B$1.class")).isEqualTo(fooSlice);
+        int defaultSlice = InstantRunSliceLayout.getHashBucket("Default");
+        assertThat(layout.getSlice("Default.class")).isEqualTo(defaultSlice);
+        assertThat(layout.getSlice("Default$1.class")).isEqualTo(defaultSlice);
+        assertThat(layout.getSlice("Default$Inner.class")).isEqualTo(defaultSlice);
+        assertThat(layout.getSlice("com/bar/C.class"))
+                .isEqualTo(InstantRunSliceLayout.getHashBucket("com/bar"));
+    }
+
+    @Test
+    public void slicesAreStable() throws IOException {
+        // packages that do not fit in the slice of their hash go to other slices.
+        for (int i = 0; i < 100; i++) {
+            classSizes.put("p" + i + "/A.class", 20_000L + i);
+        }
+        InstantRunSliceLayout layout = new InstantRunSliceLayout();
+        layout.update(classSizes);
+        Map<String, Integer> slices = getSlices(layout);
+
+        // new packages and classes keep the assignment once saved.
+        int newPackageSlice = layout.getSlice("q/A.class");
+        File stateFile = new File(temporaryFolder.getRoot(), "layout.bin");
+        layout.save(stateFile);
+        layout = InstantRunSliceLayout.load(stateFile);
+        assertThat(stateFile.exists()).isFalse();
+        assertThat(getSlices(layout)).isEqualTo(slices);
+        assertThat(layout.getSlice("q/B.class")).isEqualTo(newPackageSlice);
+
+        // slicing again with small changes moves nothing.
+        classSizes.put("p0/B.class", 1000L);
+        classSizes.put("r/A.class", 1000L);
+        layout.update(classSizes);
+        for (Map.Entry<String, Integer> slice : slices.entrySet()) {
+            assertThat(layout.getSlice(slice.getKey())).isEqualTo(slice.getValue());
+        }
+    }
+
+    @Test
+    public void slicesAreBounded() {
+        // one package is half of the project.
+        for (int i = 0; i < 100; i++) {
+            classSizes.put("big/C" + i + ".class", 10_000L);
+            classSizes.put("small" + i + "/C.class", 10_000L);
+        }
+        InstantRunSliceLayout layout = new InstantRunSliceLayout();
+        layout.update(classSizes);
+
+        long[] sliceSizes = new long[layout.getSliceCount()];
+        Set<Integer> bigSlices = new HashSet<>();
+        for (Map.Entry<String, Long> entry : classSizes.entrySet()) {
+            int slice = layout.getSlice(entry.getKey());
+            sliceSizes[slice] += entry.getValue();
+            if (entry.getKey().startsWith("big/")) {
+                bigSlices.add(slice);
+            }
+        }
+        assertThat(bigSlices.size()).isAtLeast(2);
+        long maxSliceSize = Math.max(InstantRunSliceLayout.MIN_SLICE_SIZE, 2_000_000 * 3 / 20);
+        for (long sliceSize : sliceSizes) {
+            assertThat(sliceSize).isAtMost(maxSliceSize);
+        }
+    }
+
+    @Test
+    public void frequentlyChangedClasses() throws IOException {
+        classSizes.put("com/foo/A.class", 100L);
+        classSizes.put("com/foo/Hot.class", 100L);
+        classSizes.put("com/foo/Hot$1.class", 100L);
+        classSizes.put("com/bar/Warm.class", 100L);
+        InstantRunSliceLayout layout = new InstantRunSliceLayout();
+        layout.update(classSizes);
+        for (int i = 0; i < InstantRunSliceLayout.HOT_CLASS_THRESHOLD; i++) {
+            layout.recordChanges(ImmutableList.of("com/foo/Hot$1.class", "com/foo/A.class"));
+            layout.recordChanges(ImmutableList.of("com/foo/Hot.class"));
+        }
+        layout.recordChanges(ImmutableList.of("com/bar/Warm.class"));
+
+        // slices only change when all the classes are sliced again.
+        assertThat(layout.getSlice("com/foo/Hot.class"))
+                .isEqualTo(InstantRunSliceLayout.getHashBucket("com/foo"));
+        layout.update(classSizes);
+
+        assertThat(layout.getSliceCount()).isEqualTo(NUMBER_OF_SLICES_FOR_PROJECT_CLASSES + 2);
+        int aSlice = NUMBER_OF_SLICES_FOR_PROJECT_CLASSES;
+        int hotSlice = NUMBER_OF_SLICES_FOR_PROJECT_CLASSES + 1;
+        assertThat(layout.getSlice("com/foo/A.class")).isEqualTo(aSlice);
+        assertThat(layout.getSlice("com/foo/Hot.class")).isEqualTo(hotSlice);
+        assertThat(layout.getSlice("com/foo/Hot$1.class")).isEqualTo(hotSlice);
+        assertThat(layout.getSlice("com/foo/Hot$2.class")).isEqualTo(hotSlice);
+        assertThat(layout.getSlice("com/foo/Cold.class"))
+                .isEqualTo(InstantRunSliceLayout.getHashBucket("com/foo"));
+        assertThat(layout.getSlice("com/bar/Warm.class"))
+                .isEqualTo(InstantRunSliceLayout.getHashBucket("com/bar"));
+
+        // the history is saved.
+        File stateFile = new File(temporaryFolder.getRoot(), "layout.bin");
+        layout.save(stateFile);
+        layout = InstantRunSliceLayout.load(stateFile);
+        assertThat(layout.getSliceCount()).isEqualTo(NUMBER_OF_SLICES_FOR_PROJECT_CLASSES + 2);
+        layout.update(classSizes);
+        assertThat(layout.getSlice("com/foo/Hot.class")).isEqualTo(hotSlice);
+
+        // and forgotten after enough builds.
+        for (int i = 0; i < InstantRunSliceLayout.HISTORY_SIZE; i++) {
+            layout.recordChanges(ImmutableList.of("com/bar/Warm.class"));
+        }
+        classSizes.remove("com/bar/Warm.class");
+        layout.update(classSizes);
+        assertThat(layout.getSliceCount()).isEqualTo(NUMBER_OF_SLICES_FOR_PROJECT_CLASSES);
+        assertThat(layout.getSlice("com/foo/Hot.class"))
+                .isEqualTo(InstantRunSliceLayout.getHashBucket("com/foo"));
+    }
+
+    @Test
+    public void hotSlicesAreLimited() {
+        for (int i = 0; i < InstantRunSliceLayout.MAX_HOT_SLICES + 1; i++) {
+            classSizes.put("C" + i + ".class", 100L);
+        }
+        InstantRunSliceLayout layout = new InstantRunSliceLayout();
+        for (int j = 0; j < InstantRunSliceLayout.HOT_CLASS_THRESHOLD; j++) {
+            layout.recordChanges(classSizes.keySet());
+        }
+        layout.recordChanges(ImmutableList.of("C0.class"));
+        layout.update(classSizes);
+
+        assertThat(layout.getSliceCount())
+                .isEqualTo(
+                        NUMBER_OF_SLICES_FOR_PROJECT_CLASSES
+                                + InstantRunSliceLayout.MAX_HOT_SLICES);
+        assertThat(layout.getSlice("C0.class")).isAtLeast(NUMBER_OF_SLICES_FOR_PROJECT_CLASSES);
+    }
+
+    @Test
+    public void loadCorruptedLayout() throws IOException {
+        File stateFile = temporaryFolder.newFile("layout.bin");
+        Files.write(new byte[] {0, 0, 0, 1, 0, 0, 0, 12, 0, 0, 0, 5}, stateFile);
+        InstantRunSliceLayout layout = InstantRunSliceLayout.load(stateFile);
+        assertThat(layout.getSliceCount()).isEqualTo(NUMBER_OF_SLICES_FOR_PROJECT_CLASSES);
+        assertThat(layout.getSlice("com/foo/A.class"))
+                .isEqualTo(InstantRunSliceLayout.getHashBucket("com/foo"));
+    }
+
+    private Map<String, Integer> getSlices(InstantRunSliceLayout layout) {
+        Map<String, Integer> slices = new HashMap<>();
+        for (String classPath : classSizes.keySet()) {
+            slices.put(classPath, layout.getSlice(classPath));
+        }
+        return slices;
+    }
+}
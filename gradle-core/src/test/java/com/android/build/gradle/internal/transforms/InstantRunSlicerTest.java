@@ -504,6 +504,69 @@ public class InstantRunSlicerTest {
         assertFalse(sliceForFile.isPresent());
     }
 
+    @Test
+    public void testFrequentlyChangedClass()
+            throws IOException, TransformException, InterruptedException {
+        InstantRunSlicer slicer = new InstantRunSlicer(logger, variantScope);
+
+        String packagePath = "com/foo/bar";
+        File folder = new File(getInputDir(), packagePath);
+        File file0 = createFile(folder, "file0.class");
+        File file1 = createFile(folder, "file1.class");
+
+        slicer.transform(new TransformInvocationBuilder(context)
+                .setIncrementalMode(false)
+                .addInputs(ImmutableList.of(getInput(getInputDir(), ImmutableMap.of())))
+                .addOutputProvider(getOutputProvider(getOutputDir(), jarOutput))
+                .build());
+        Optional<Integer> packageSlice = findSliceForFile(getOutputDir(), getInputDir(), file0);
+        assertTrue(packageSlice.isPresent());
+
+        // change the same class in several builds.
+        for (int i = 0; i < InstantRunSliceLayout.HOT_CLASS_THRESHOLD; i++) {
+            createFile(folder, "file1.class", "updated content " + i);
+            slicer.transform(new TransformInvocationBuilder(context)
+                    .setIncrementalMode(true)
+                    .addInputs(ImmutableList.of(
+                            getInput(getInputDir(), ImmutableMap.of(file1, Status.CHANGED))))
+                    .addOutputProvider(getOutputProvider(getOutputDir(), jarOutput))
+                    .build());
+            assertThat(findSliceForFile(getOutputDir(), getInputDir(), file1))
+                    .isEqualTo(packageSlice);
+        }
+
+        // it gets its own slice once all the classes are sliced again.
+        slicer.transform(new TransformInvocationBuilder(context)
+                .setIncrementalMode(false)
+                .addInputs(ImmutableList.of(getInput(getInputDir(), ImmutableMap.of())))
+                .addOutputProvider(getOutputProvider(getOutputDir(), jarOutput))
+                .build());
+
+        File[] outputSlices = getOutputDir().listFiles();
+        assertThat(outputSlices).isNotNull();
+        assertThat(outputSlices)
+                .hasLength(InstantRunSlicer.NUMBER_OF_SLICES_FOR_PROJECT_CLASSES + 1);
+        File hotSlice = new File(getOutputDir(),
+                "slice_" + InstantRunSlicer.NUMBER_OF_SLICES_FOR_PROJECT_CLASSES);
+        assertThat(new File(hotSlice, packagePath + "/file1.class").isFile()).isTrue();
+        assertThat(new File(hotSlice, packagePath + "/file0.class").exists()).isFalse();
+        File packageSliceDir = new File(getOutputDir(), "slice_" + InstantRunSliceLayout
+                .getHashBucket(packagePath));
+        assertThat(new File(packageSliceDir, packagePath + "/file0.class").isFile()).isTrue();
+        assertThat(new File(packageSliceDir, packagePath + "/file1.class").exists()).isFalse();
+
+        // later changes only go to its slice.
+        createFile(folder, "file1.class", "updated content");
+        slicer.transform(new TransformInvocationBuilder(context)
+                .setIncrementalMode(true)
+                .addInputs(ImmutableList.of(
+                        getInput(getInputDir(), ImmutableMap.of(file1, Status.CHANGED))))
+                .addOutputProvider(getOutputProvider(getOutputDir(), jarOutput))
+                .build());
+        assertThat(new File(hotSlice, "buildId.txt").isFile()).isTrue();
+        assertThat(new File(packageSliceDir, "buildId.txt").exists()).isFalse();
+    }
+
     private static Optional<Integer> findSliceForFile(
             @NonNull File outputDir, @NonNull  File inputDir, File file) {
 
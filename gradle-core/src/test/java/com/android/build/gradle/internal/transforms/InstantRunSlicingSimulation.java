@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Replays a recorded sequence of builds and reports, for each build, the bytes of classes that
+ * are re-dexed when slicing by hash as the {@link InstantRunSlicer} used to, and with an {@link
+ * InstantRunSliceLayout}.
+ *
+ * <p>This is not run as part of the tests. Run the {@code main} method with a jar of the classes
+ * of an app and a file listing the classes changed by each build, one build per line, as paths
+ * like {@code com/example/Foo.class} separated by spaces. A line containing only {@code full}
+ * records a full build, in which all the classes are sliced again. The sizes of the classes are
+ * the ones of the jar for all the builds.
+ */
+public class InstantRunSlicingSimulation {
+
+    private static final String FULL_BUILD = "full";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: InstantRunSlicingSimulation <classes jar> <builds file>");
+            System.exit(1);
+        }
+        Map<String, Long> classSizes = readClassSizes(new File(args[0]));
+        List<String> builds = Files.readLines(new File(args[1]), Charsets.UTF_8);
+
+        // a layout that is never updated assigns all the classes by hash.
+        InstantRunSliceLayout hashLayout = new InstantRunSliceLayout();
+        long[] hashSliceSizes = getSliceSizes(hashLayout, classSizes);
+        InstantRunSliceLayout layout = new InstantRunSliceLayout();
+        layout.update(classSizes);
+        long[] sliceSizes = getSliceSizes(layout, classSizes);
+        long hashTotal = 0;
+        long layoutTotal = 0;
+        int build = 0;
+        for (String line : builds) {
+            build++;
+            if (line.trim().equals(FULL_BUILD)) {
+                layout.update(classSizes);
+                sliceSizes = getSliceSizes(layout, classSizes);
+                System.out.printf("build %d: full build, %d slices%n", build, sliceSizes.length);
+                continue;
+            }
+            List<String> changes = Splitter.on(' ').omitEmptyStrings().splitToList(line);
+            long hashBytes = getRedexedBytes(changes, hashLayout, hashSliceSizes);
+            long layoutBytes = getRedexedBytes(changes, layout, sliceSizes);
+            layout.recordChanges(changes);
+            hashTotal += hashBytes;
+            layoutTotal += layoutBytes;
+            System.out.printf(
+                    "build %d: %d classes, hash %,d bytes, layout %,d bytes%n",
+                    build, changes.size(), hashBytes, layoutBytes);
+        }
+        System.out.printf("total: hash %,d bytes, layout %,d bytes%n", hashTotal, layoutTotal);
+    }
+
+    /** Returns the size of the slices containing the changed classes. */
+    private static long getRedexedBytes(
+            @NonNull List<String> changes,
+            @NonNull InstantRunSliceLayout layout,
+            @NonNull long[] sliceSizes) {
+        Set<Integer> changedSlices = new HashSet<>();
+        for (String classPath : changes) {
+            changedSlices.add(layout.getSlice(classPath));
+        }
+        long bytes = 0;
+        for (int slice : changedSlices) {
+            bytes += sliceSizes[slice];
+        }
+        return bytes;
+    }
+
+    @NonNull
+    private static long[] getSliceSizes(
+            @NonNull InstantRunSliceLayout layout, @NonNull Map<String, Long> classSizes) {
+        long[] sliceSizes = new long[layout.getSliceCount()];
+        for (Map.Entry<String, Long> entry : classSizes.entrySet()) {
+            sliceSizes[layout.getSlice(entry.getKey())] += entry.getValue();
+        }
+        return sliceSizes;
+    }
+
+    @NonNull
+    private static Map<String, Long> readClassSizes(@NonNull File jar) throws IOException {
+        Map<String, Long> classSizes = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(SdkConstants.DOT_CLASS)) {
+                    classSizes.put(entry.getName(), entry.getSize());
+                }
+            }
+        }
+        return classSizes;
+    }
+}
@@ -94,6 +94,7 @@ public class InstantRunTransformTest {
         when(variantScope.getGlobalScope()).thenReturn(globalScope);
         when(variantScope.getInstantRunBuildContext()).thenReturn(instantRunBuildContext);
         when(variantScope.getInstantRunBootClasspath()).thenReturn(ImmutableList.of());
+        when(variantScope.getInstantRunSupportDir()).thenReturn(temporaryFolder.getRoot());
         when(instantRunBuildContext.getBuildMode()).thenReturn(InstantRunBuildMode.HOT_WARM);
     }
 
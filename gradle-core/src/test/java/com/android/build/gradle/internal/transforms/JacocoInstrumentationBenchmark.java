@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import com.android.SdkConstants;
+import com.android.builder.utils.FileCache;
+import com.android.ide.common.internal.WaitableExecutor;
+import com.android.utils.FileUtils;
+import com.google.common.io.Files;
+import java.io.File;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Instruments all the classes of a directory with the {@link JacocoTransform}, with an increasing
+ * number of threads, then with an empty and a filled build cache, and reports the throughput.
+ *
+ * <p>This is not run as part of the tests. Run the {@code main} method with a directory of
+ * compiled classes, for instance the javac output of a large app.
+ */
+public class JacocoInstrumentationBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: JacocoInstrumentationBenchmark <classes dir>");
+            System.exit(1);
+        }
+        File inputDir = new File(args[0]);
+        File outputDir = Files.createTempDir();
+        File cacheDir = Files.createTempDir();
+        Map<File, File> files = new TreeMap<>();
+        for (File inputFile : FileUtils.getAllFiles(inputDir)) {
+            if (inputFile.getName().endsWith(SdkConstants.DOT_CLASS)) {
+                files.put(
+                        inputFile,
+                        new File(outputDir, FileUtils.relativePath(inputFile, inputDir)));
+            }
+        }
+
+        try {
+            for (int threads : THREAD_COUNTS) {
+                run(files, Optional.empty(), threads, threads + " threads");
+            }
+            int threads = Runtime.getRuntime().availableProcessors();
+            FileCache buildCache = FileCache.getInstanceWithSingleProcessLocking(cacheDir);
+            run(files, Optional.of(buildCache), threads, "empty cache");
+            run(files, Optional.of(buildCache), threads, "filled cache");
+        } finally {
+            FileUtils.deletePath(outputDir);
+            FileUtils.deletePath(cacheDir);
+        }
+        // the thread pools are never shut down.
+        System.exit(0);
+    }
+
+    private static void run(
+            Map<File, File> files, Optional<FileCache> buildCache, int threads, String label)
+            throws Exception {
+        long start = System.nanoTime();
+        JacocoTransform.instrumentFiles(
+                files, buildCache, WaitableExecutor.useNewFixedSizeThreadPool(threads));
+        long ms = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        System.out.printf(
+                "%s: %d classes in %,d ms, %,d classes/s%n",
+                label, files.size(), ms, files.size() * 1000L / ms);
+    }
+}
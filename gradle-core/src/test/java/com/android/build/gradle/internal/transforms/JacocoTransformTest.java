@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.android.annotations.NonNull;
+import com.android.build.api.transform.TransformException;
+import com.android.builder.utils.FileCache;
+import com.android.ide.common.internal.WaitableExecutor;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/** Tests for the instrumentation of the {@link JacocoTransform}. */
+public class JacocoTransformTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void instrumentFilesInParallel() throws Exception {
+        File inputDir = temporaryFolder.newFolder("in");
+        File outputDir = temporaryFolder.newFolder("out");
+        Map<File, File> files = new TreeMap<>();
+        for (int i = 0; i < 20; i++) {
+            String name = "com/example/Class" + i;
+            files.put(writeClass(inputDir, name), new File(outputDir, name + ".class"));
+        }
+
+        JacocoTransform.instrumentFiles(
+                files, Optional.empty(), WaitableExecutor.useGlobalSharedThreadPool());
+
+        for (File outputFile : files.values()) {
+            assertThat(getMethodNames(outputFile)).contains("$jacocoInit");
+        }
+    }
+
+    @Test
+    public void instrumentFilesWithCache() throws Exception {
+        FileCache buildCache =
+                FileCache.getInstanceWithSingleProcessLocking(temporaryFolder.newFolder("cache"));
+        File inputDir = temporaryFolder.newFolder("in");
+        File input = writeClass(inputDir, "com/example/A");
+        File output = new File(temporaryFolder.newFolder("out1"), "com/example/A.class");
+
+        JacocoTransform.instrumentFiles(
+                ImmutableMap.of(input, output),
+                Optional.of(buildCache),
+                WaitableExecutor.useGlobalSharedThreadPool());
+        assertThat(getMethodNames(output)).contains("$jacocoInit");
+
+        // the same class at another location is not instrumented again.
+        File copy = new File(temporaryFolder.newFolder("in2"), "com/example/A.class");
+        Files.createParentDirs(copy);
+        Files.copy(input, copy);
+        File copyOutput = new File(temporaryFolder.newFolder("out2"), "com/example/A.class");
+        JacocoTransform.instrumentFiles(
+                ImmutableMap.of(copy, copyOutput),
+                Optional.of(buildCache),
+                WaitableExecutor.useGlobalSharedThreadPool());
+        assertThat(Files.toByteArray(copyOutput)).isEqualTo(Files.toByteArray(output));
+        assertThat(getCacheEntryCount(buildCache)).isEqualTo(1);
+
+        // but a changed class is.
+        writeClass(inputDir, "com/example/A", "newMethod");
+        JacocoTransform.instrumentFiles(
+                ImmutableMap.of(input, output),
+                Optional.of(buildCache),
+                WaitableExecutor.useGlobalSharedThreadPool());
+        assertThat(getMethodNames(output)).containsAllOf("newMethod", "$jacocoInit");
+        assertThat(getCacheEntryCount(buildCache)).isEqualTo(2);
+    }
+
+    @Test
+    public void invalidClass() throws Exception {
+        File input = temporaryFolder.newFile("Invalid.class");
+        Files.write(new byte[] {1, 2, 3}, input);
+        File output = new File(temporaryFolder.getRoot(), "out/Invalid.class");
+        try {
+            JacocoTransform.instrumentFiles(
+                    ImmutableMap.of(input, output),
+                    Optional.empty(),
+                    WaitableExecutor.useGlobalSharedThreadPool());
+            fail("Expected TransformException");
+        } catch (TransformException e) {
+            assertThat(output.exists()).isFalse();
+        }
+    }
+
+    private static int getCacheEntryCount(@NonNull FileCache buildCache) {
+        File[] entries = buildCache.getCacheDirectory().listFiles(File::isDirectory);
+        return entries == null ? 0 : entries.length;
+    }
+
+    @NonNull
+    private static File writeClass(
+            @NonNull File dir, @NonNull String name, @NonNull String... methods)
+            throws IOException {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(
+                Opcodes.V1_7, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        MethodVisitor init =
+                classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(
+                Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+        for (String method : methods) {
+            MethodVisitor mv =
+                    classWriter.visitMethod(Opcodes.ACC_PUBLIC, method, "()V", null, null);
+            mv.visitCode();
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        classWriter.visitEnd();
+
+        File classFile = new File(dir, name + ".class");
+        Files.createParentDirs(classFile);
+        Files.write(classWriter.toByteArray(), classFile);
+        return classFile;
+    }
+
+    @NonNull
+    private static List<String> getMethodNames(@NonNull File classFile) throws IOException {
+        List<String> names = new ArrayList<>();
+        new ClassReader(Files.toByteArray(classFile))
+                .accept(
+                        new ClassVisitor(Opcodes.ASM5) {
+                            @Override
+                            public MethodVisitor visitMethod(
+                                    int access,
+                                    String name,
+                                    String desc,
+                                    String signature,
+                                    String[] exceptions) {
+                                names.add(name);
+                                return null;
+                            }
+                        },
+                        0);
+        return names;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assume.assumeFalse;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.build.api.transform.Context;
+import com.android.build.api.transform.DirectoryInput;
+import com.android.build.api.transform.Format;
+import com.android.build.api.transform.JarInput;
+import com.android.build.api.transform.QualifiedContent;
+import com.android.build.api.transform.Status;
+import com.android.build.api.transform.TransformInput;
+import com.android.build.api.transform.TransformOutputProvider;
+import com.android.build.gradle.internal.core.Abi;
+import com.android.build.gradle.internal.pipeline.ExtendedContentType;
+import com.android.build.gradle.internal.pipeline.TransformInvocationBuilder;
+import com.android.builder.utils.FileCache;
+import com.android.ide.common.process.DefaultProcessExecutor;
+import com.android.utils.ILogger;
+import com.android.utils.StdLogger;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Tests for the {@link StripDebugSymbolTransform}.
+ *
+ * <p>The strip executable is a script that removes all the 'x' characters of a library, fails for
+ * libraries containing "fail", and records the libraries it is invoked for.
+ */
+public class StripDebugSymbolTransformTest {
+
+    @Mock Context context;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ILogger logger = new StdLogger(StdLogger.Level.WARNING);
+
+    private File strip;
+    private File stripLog;
+    private File inputDir;
+    private File outputDir;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeFalse(SdkConstants.currentPlatform() == SdkConstants.PLATFORM_WINDOWS);
+        MockitoAnnotations.initMocks(this);
+
+        stripLog = new File(temporaryFolder.getRoot(), "strip.log");
+        strip = temporaryFolder.newFile("strip.sh");
+        Files.write(
+                "#!/bin/sh\n"
+                        + "echo \"$4\" >> '" + stripLog.getAbsolutePath() + "'\n"
+                        + "if grep -q fail \"$4\"; then exit 1; fi\n"
+                        + "tr -d 'x' < \"$4\" > \"$3\"\n",
+                strip,
+                Charsets.UTF_8);
+        assertThat(strip.setExecutable(true)).isTrue();
+
+        inputDir = temporaryFolder.newFolder("in");
+        outputDir = temporaryFolder.newFolder("out");
+    }
+
+    @Test
+    public void stripLibraries() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            createLibrary("x86/lib" + i + ".so", "axbx" + i);
+            createLibrary("armeabi-v7a/lib" + i + ".so", "cxdx" + i);
+        }
+        createLibrary("x86/libexcluded.so", "xx");
+        createLibrary("unknown/libfoo.so", "xx");
+
+        transform(Optional.empty(), ImmutableSet.of("**/libexcluded.so"));
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(readOutput("x86/lib" + i + ".so")).isEqualTo("ab" + i);
+            assertThat(readOutput("armeabi-v7a/lib" + i + ".so")).isEqualTo("cd" + i);
+        }
+        assertThat(readOutput("x86/libexcluded.so")).isEqualTo("xx");
+        assertThat(readOutput("unknown/libfoo.so")).isEqualTo("xx");
+        assertThat(getStripInvocations()).hasSize(20);
+    }
+
+    @Test
+    public void failedStripIsPackagedAsIs() throws Exception {
+        createLibrary("x86/libfail.so", "xfail");
+        FileCache buildCache =
+                FileCache.getInstanceWithSingleProcessLocking(temporaryFolder.newFolder("cache"));
+
+        transform(Optional.of(buildCache), ImmutableSet.of());
+        assertThat(readOutput("x86/libfail.so")).isEqualTo("xfail");
+
+        // failures are not cached.
+        transform(Optional.of(buildCache), ImmutableSet.of());
+        assertThat(readOutput("x86/libfail.so")).isEqualTo("xfail");
+        assertThat(getStripInvocations()).hasSize(2);
+    }
+
+    @Test
+    public void strippedLibrariesAreCached() throws Exception {
+        createLibrary("x86/liba.so", "axa");
+        createLibrary("x86/libb.so", "bxb");
+        // the same content for another ABI is stripped with another executable.
+        createLibrary("armeabi-v7a/liba.so", "axa");
+        FileCache buildCache =
+                FileCache.getInstanceWithSingleProcessLocking(temporaryFolder.newFolder("cache"));
+
+        transform(Optional.of(buildCache), ImmutableSet.of());
+        assertThat(getStripInvocations()).hasSize(3);
+
+        transform(Optional.of(buildCache), ImmutableSet.of());
+        assertThat(readOutput("x86/liba.so")).isEqualTo("aa");
+        assertThat(readOutput("x86/libb.so")).isEqualTo("bb");
+        assertThat(readOutput("armeabi-v7a/liba.so")).isEqualTo("aa");
+        assertThat(getStripInvocations()).hasSize(3);
+
+        // a changed library is stripped again.
+        createLibrary("x86/libb.so", "bxbx");
+        transform(Optional.of(buildCache), ImmutableSet.of());
+        assertThat(readOutput("x86/libb.so")).isEqualTo("bb");
+        assertThat(getStripInvocations()).hasSize(4);
+    }
+
+    private void transform(@NonNull Optional<FileCache> buildCache, @NonNull Set<String> exclude)
+            throws Exception {
+        StripDebugSymbolTransform transform =
+                new StripDebugSymbolTransform(
+                        ImmutableMap.of(Abi.X86, strip, Abi.ARMEABI_V7A, strip),
+                        exclude,
+                        new DefaultProcessExecutor(logger),
+                        logger,
+                        buildCache);
+        transform.transform(
+                new TransformInvocationBuilder(context)
+                        .addInputs(ImmutableList.of(getInput()))
+                        .addOutputProvider(getOutputProvider())
+                        .build());
+    }
+
+    private void createLibrary(@NonNull String path, @NonNull String content) throws IOException {
+        File library = new File(inputDir, path);
+        Files.createParentDirs(library);
+        Files.write(content, library, Charsets.UTF_8);
+    }
+
+    @NonNull
+    private String readOutput(@NonNull String path) throws IOException {
+        return Files.toString(new File(outputDir, path), Charsets.UTF_8);
+    }
+
+    @NonNull
+    private List<String> getStripInvocations() throws IOException {
+        return Files.readLines(stripLog, Charsets.UTF_8);
+    }
+
+    @NonNull
+    private TransformInput getInput() {
+        return new TransformInput() {
+            @NonNull
+            @Override
+            public Collection<JarInput> getJarInputs() {
+                return ImmutableList.of();
+            }
+
+            @NonNull
+            @Override
+            public Collection<DirectoryInput> getDirectoryInputs() {
+                return ImmutableList.of(
+                        new DirectoryInput() {
+                            @NonNull
+                            @Override
+                            public Map<File, Status> getChangedFiles() {
+                                return ImmutableMap.of();
+                            }
+
+                            @NonNull
+                            @Override
+                            public String getName() {
+                                return "libs";
+                            }
+
+                            @NonNull
+                            @Override
+                            public File getFile() {
+                                return inputDir;
+                            }
+
+                            @NonNull
+                            @Override
+                            public Set<ContentType> getContentTypes() {
+                                return ImmutableSet.of(ExtendedContentType.NATIVE_LIBS);
+                            }
+
+                            @NonNull
+                            @Override
+                            public Set<Scope> getScopes() {
+                                return ImmutableSet.of(Scope.PROJECT);
+                            }
+                        });
+            }
+        };
+    }
+
+    @NonNull
+    private TransformOutputProvider getOutputProvider() {
+        return new TransformOutputProvider() {
+            @Override
+            public void deleteAll() throws IOException {}
+
+            @NonNull
+            @Override
+            public File getContentLocation(
+                    @NonNull String name,
+                    @NonNull Set<QualifiedContent.ContentType> types,
+                    @NonNull Set<? super QualifiedContent.Scope> scopes,
+                    @NonNull Format format) {
+                return outputDir;
+            }
+        };
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.tasks.annotations;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.android.testutils.TestUtils;
+import com.android.tools.lint.EcjParser;
+import com.android.utils.FileUtils;
+import com.android.utils.StdLogger;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the {@link IncrementalAnnotationExtractor}.
+ *
+ * <p>The test project has a few classes referenced by other classes, classes which are added,
+ * edited and removed, and a file declaring typedefs. After each edit, the outputs of the
+ * incremental extraction are compared to the ones of a clean extraction.
+ */
+public class IncrementalAnnotationExtractorTest {
+
+    private static final String INT_DEF =
+            "package android.support.annotation;\n"
+                    + "import java.lang.annotation.Retention;\n"
+                    + "import java.lang.annotation.Target;\n"
+                    + "import static java.lang.annotation.ElementType.*;\n"
+                    + "import static java.lang.annotation.RetentionPolicy.SOURCE;\n"
+                    + "@Retention(SOURCE)\n"
+                    + "@Target({ANNOTATION_TYPE})\n"
+                    + "public @interface IntDef {\n"
+                    + "    long[] value() default {};\n"
+                    + "    boolean flag() default false;\n"
+                    + "}\n";
+
+    private static final String KEEP =
+            "package android.support.annotation;\n"
+                    + "import java.lang.annotation.Retention;\n"
+                    + "import java.lang.annotation.Target;\n"
+                    + "import static java.lang.annotation.ElementType.*;\n"
+                    + "import static java.lang.annotation.RetentionPolicy.*;\n"
+                    + "@Retention(CLASS)\n"
+                    + "@Target({PACKAGE,TYPE,ANNOTATION_TYPE,CONSTRUCTOR,METHOD,FIELD})\n"
+                    + "public @interface Keep {\n"
+                    + "}\n";
+
+    /** Files always parsed, as they declare annotations: IntDef, Keep and Constants. */
+    private static final int ANNOTATION_FILES = 3;
+
+    private static final int SHARED_CLASSES = 3;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Random random = new Random(42);
+
+    /** The sources of the project, by path relative to the source directory. */
+    private final Map<String, String> sources = Maps.newTreeMap();
+
+    private int nextClass;
+
+    /** Written in the classes, so that an edited class is always different. */
+    private int version;
+
+    private File sourceDir;
+    private File classDir;
+    private File stateFile;
+
+    @Before
+    public void setUp() throws IOException {
+        try {
+            CompilerOptions.class.getField("originalComplianceLevel");
+        } catch (Throwable t) {
+            throw new AssumptionViolatedException("Requires a recent version of ECJ.");
+        }
+        sourceDir = temporaryFolder.newFolder("src");
+        classDir = temporaryFolder.newFolder("classes");
+        stateFile = new File(temporaryFolder.getRoot(), "state/extraction-state.bin");
+
+        sources.put("android/support/annotation/IntDef.java", INT_DEF);
+        sources.put("android/support/annotation/Keep.java", KEEP);
+        sources.put("test/pkg/Constants.java", createConstants(3));
+        for (int i = 0; i < SHARED_CLASSES; i++) {
+            sources.put(getPath("S" + i), createClass("S" + i, false));
+        }
+        for (int i = 0; i < 5; i++) {
+            addClass();
+        }
+    }
+
+    @Test
+    public void incrementalExtractionEqualsCleanExtraction() throws IOException {
+        for (int edit = 0; edit < 30; edit++) {
+            Outputs incremental = extract(stateFile, "incremental" + edit);
+            Outputs clean =
+                    extract(new File(temporaryFolder.newFolder(), "state.bin"), "clean" + edit);
+            assertThat(incremental.annotations).named("annotations after edit " + edit)
+                    .containsExactlyEntriesIn(clean.annotations);
+            assertThat(incremental.keepRules).named("keep rules after edit " + edit)
+                    .isEqualTo(clean.keepRules);
+            assertThat(incremental.typedefs).named("typedefs after edit " + edit)
+                    .isEqualTo(clean.typedefs);
+
+            switch (random.nextInt(6)) {
+                case 0:
+                    addClass();
+                    break;
+                case 1:
+                    removeClass();
+                    break;
+                case 2:
+                    sources.put("test/pkg/Constants.java", createConstants(2 + random.nextInt(3)));
+                    break;
+                default:
+                    editClass();
+                    break;
+            }
+        }
+    }
+
+    @Test
+    public void onlyChangedFilesAreParsed() throws IOException {
+        IncrementalAnnotationExtractor extractor = extract(stateFile, "first").extractor;
+        assertThat(extractor.getParsedFileCount()).isEqualTo(sources.size());
+
+        editClass();
+        Outputs outputs = extract(stateFile, "second");
+        assertThat(outputs.extractor.getParsedFileCount()).isEqualTo(1 + ANNOTATION_FILES);
+        assertThat(outputs.annotations)
+                .containsExactlyEntriesIn(
+                        extract(new File(temporaryFolder.newFolder(), "state.bin"), "clean")
+                                .annotations);
+
+        // a new typedef value changes the annotations of all the files.
+        sources.put("test/pkg/Constants.java", createConstants(5));
+        extractor = extract(stateFile, "third").extractor;
+        assertThat(extractor.getParsedFileCount()).isEqualTo(sources.size());
+    }
+
+    @Test
+    public void corruptedStateIsIgnored() throws IOException {
+        Outputs first = extract(stateFile, "first");
+        Files.write(new byte[] {0, 0, 0, 1, 0, 3, 'a', 'b', 'c', 0, 0, 1}, stateFile);
+
+        Outputs second = extract(stateFile, "second");
+        assertThat(second.extractor.getParsedFileCount()).isEqualTo(sources.size());
+        assertThat(second.annotations).containsExactlyEntriesIn(first.annotations);
+    }
+
+    @NonNull
+    private Outputs extract(@NonNull File state, @NonNull String name) throws IOException {
+        writeSourcesAndCompile();
+
+        CompilerOptions options = EcjParser.createCompilerOptions();
+        options.docCommentSupport = Extractor.REMOVE_HIDDEN_TYPEDEFS;
+        options.sourceLevel = EcjParser.getLanguageLevel(1, 7);
+        options.complianceLevel = options.sourceLevel;
+        options.targetJDK = options.sourceLevel;
+        options.originalComplianceLevel = options.sourceLevel;
+        options.originalSourceLevel = options.sourceLevel;
+        options.inlineJsrBytecode = true;
+
+        IncrementalAnnotationExtractor extractor =
+                new IncrementalAnnotationExtractor(
+                        state,
+                        options,
+                        ImmutableList.of(TestUtils.getPlatformFile("android.jar").getPath()),
+                        classDir,
+                        null,
+                        true,
+                        false,
+                        new StdLogger(StdLogger.Level.WARNING));
+        File outputDir = temporaryFolder.newFolder(name);
+        File annotations = new File(outputDir, "annotations.zip");
+        File proguard = new File(outputDir, "proguard.txt");
+        File typedefs = new File(outputDir, "typedefs.txt");
+        List<File> sourceFiles = Lists.newArrayList();
+        for (String path : sources.keySet()) {
+            sourceFiles.add(new File(sourceDir, path));
+        }
+        assertThat(extractor.extract(sourceFiles, "UTF-8", annotations, proguard, typedefs))
+                .isTrue();
+
+        return new Outputs(extractor, annotations, proguard, typedefs);
+    }
+
+    private void writeSourcesAndCompile() throws IOException {
+        FileUtils.cleanOutputDir(sourceDir);
+        FileUtils.cleanOutputDir(classDir);
+        List<String> args = Lists.newArrayList("-d", classDir.getPath(), "-nowarn");
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            File file = new File(sourceDir, source.getKey());
+            Files.createParentDirs(file);
+            Files.write(source.getValue(), file, Charsets.UTF_8);
+            args.add(file.getPath());
+        }
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertThat(javac.run(null, null, null, args.toArray(new String[args.size()])))
+                .isEqualTo(0);
+    }
+
+    private void addClass() {
+        String name = "C" + nextClass++;
+        sources.put(getPath(name), createClass(name, true));
+    }
+
+    private void removeClass() {
+        List<String> removable = getEditableClasses();
+        if (removable.size() > 1) {
+            sources.remove(removable.get(random.nextInt(removable.size())));
+        }
+    }
+
+    private void editClass() {
+        List<String> editable = getEditableClasses();
+        for (int i = 0; i < SHARED_CLASSES; i++) {
+            editable.add(getPath("S" + i));
+        }
+        String path = editable.get(random.nextInt(editable.size()));
+        String name = path.substring(path.lastIndexOf('/') + 1, path.length() - 5);
+        sources.put(path, createClass(name, name.startsWith("C")));
+    }
+
+    @NonNull
+    private List<String> getEditableClasses() {
+        List<String> classes = Lists.newArrayList();
+        for (String path : sources.keySet()) {
+            if (path.startsWith("test/pkg/C")) {
+                classes.add(path);
+            }
+        }
+        return classes;
+    }
+
+    @NonNull
+    private static String getPath(@NonNull String className) {
+        return "test/pkg/" + className + ".java";
+    }
+
+    @NonNull
+    private static String createConstants(int count) {
+        StringBuilder constants = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            constants.append("    public static final int MODE_").append(i)
+                    .append(" = ").append(i).append(";\n");
+            values.append(i > 0 ? ", " : "").append("MODE_").append(i);
+        }
+        return "package test.pkg;\n"
+                + "import android.support.annotation.IntDef;\n"
+                + "import java.lang.annotation.Retention;\n"
+                + "import java.lang.annotation.RetentionPolicy;\n"
+                + "public class Constants {\n"
+                + constants
+                + "    @IntDef({" + values + "})\n"
+                + "    @Retention(RetentionPolicy.SOURCE)\n"
+                + "    public @interface Mode {}\n"
+                + "    @IntDef(value = {" + values + "}, flag = true)\n"
+                + "    @Retention(RetentionPolicy.SOURCE)\n"
+                + "    private @interface Flags {}\n"
+                + "    public void setFlags(@Flags int flags) {}\n"
+                + "}\n";
+    }
+
+    /**
+     * Creates a class with random methods, which may have typedef parameters, be kept, and use
+     * the shared classes.
+     */
+    @NonNull
+    private String createClass(@NonNull String name, boolean useSharedClasses) {
+        StringBuilder methods = new StringBuilder();
+        int methodCount = random.nextInt(4);
+        for (int i = 0; i < methodCount; i++) {
+            String parameterType =
+                    useSharedClasses && random.nextBoolean()
+                            ? "S" + random.nextInt(SHARED_CLASSES)
+                            : "Object";
+            if (random.nextInt(3) == 0) {
+                methods.append("    @Keep\n");
+            }
+            methods.append("    public void m").append(i).append(random.nextInt(10))
+                    .append("(").append(parameterType).append(" p, ")
+                    .append(random.nextBoolean() ? "@Constants.Mode " : "")
+                    .append("int mode) {}\n");
+        }
+        return "package test.pkg;\n"
+                + "// version " + version++ + "\n"
+                + "import android.support.annotation.Keep;\n"
+                + (random.nextInt(4) == 0 ? "@Keep\n" : "")
+                + "public class " + name + " {\n"
+                + methods
+                + "}\n";
+    }
+
+    /** The outputs of an extraction. */
+    private static final class Outputs {
+        @NonNull final IncrementalAnnotationExtractor extractor;
+        @NonNull final Map<String, String> annotations = Maps.newTreeMap();
+        @NonNull final String keepRules;
+        @NonNull final String typedefs;
+
+        Outputs(
+                @NonNull IncrementalAnnotationExtractor extractor,
+                @NonNull File annotations,
+                @NonNull File proguard,
+                @NonNull File typedefs)
+                throws IOException {
+            this.extractor = extractor;
+            if (annotations.exists()) {
+                try (ZipFile zip = new ZipFile(annotations)) {
+                    Enumeration<? extends ZipEntry> entries = zip.entries();
+                    while (entries.hasMoreElements()) {
+                        ZipEntry entry = entries.nextElement();
+                        this.annotations.put(
+                                entry.getName(),
+                                new String(
+                                        ByteStreams.toByteArray(zip.getInputStream(entry)),
+                                        Charsets.UTF_8));
+                    }
+                }
+            }
+            this.keepRules = proguard.exists() ? Files.toString(proguard, Charsets.UTF_8) : "";
+            this.typedefs = typedefs.exists() ? Files.toString(typedefs, Charsets.UTF_8) : "";
+        }
+    }
+}
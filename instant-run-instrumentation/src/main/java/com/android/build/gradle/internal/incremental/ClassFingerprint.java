@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.incremental;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Structural fingerprint of a class, holding everything {@link InstantRunVerifier} looks at to
+ * decide whether a new version of the class can be hot swapped: the hierarchy, hashes of the
+ * annotations and fields, and for each method its annotations, whether it can be changed and a
+ * hash of its code.
+ *
+ * <p>Comparing the fingerprints of two versions of a class with {@link
+ * InstantRunVerifier#run(ClassFingerprint, ClassFingerprint, com.android.utils.ILogger)} gives
+ * the same result as comparing the classes, so only the fingerprint of the last version of a
+ * class needs to be kept.
+ */
+public final class ClassFingerprint {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    @NonNull private final String name;
+    @Nullable private final String superName;
+    @NonNull private final List<String> interfaces;
+    @Nullable private final List<String> annotations;
+    private final boolean instantRunDisabled;
+    private final boolean rClass;
+    @NonNull private final List<String> fields;
+    @NonNull private final List<MethodFingerprint> methods;
+
+    private ClassFingerprint(
+            @NonNull String name,
+            @Nullable String superName,
+            @NonNull List<String> interfaces,
+            @Nullable List<String> annotations,
+            boolean instantRunDisabled,
+            boolean rClass,
+            @NonNull List<String> fields,
+            @NonNull List<MethodFingerprint> methods) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.annotations = annotations;
+        this.instantRunDisabled = instantRunDisabled;
+        this.rClass = rClass;
+        this.fields = fields;
+        this.methods = methods;
+    }
+
+    /** Computes the fingerprint of a class. */
+    @NonNull
+    public static ClassFingerprint of(@NonNull InstantRunVerifier.ClassBytesProvider classFile)
+            throws IOException {
+        return of(InstantRunVerifier.loadClass(classFile));
+    }
+
+    // ASM API not generified.
+    @SuppressWarnings("unchecked")
+    @NonNull
+    static ClassFingerprint of(@NonNull ClassNode classNode) {
+        List<String> fields = new ArrayList<>(classNode.fields.size());
+        for (FieldNode field : (List<FieldNode>) classNode.fields) {
+            Hasher hasher = HASH_FUNCTION.newHasher();
+            putString(hasher, field.name);
+            putString(hasher, field.desc);
+            hasher.putInt(field.access);
+            if (field.value == null) {
+                hasher.putChar('N');
+            } else {
+                putValue(hasher, field.value);
+            }
+            fields.add(hasher.hash().toString());
+        }
+
+        List<MethodFingerprint> methods = new ArrayList<>(classNode.methods.size());
+        for (MethodNode method : (List<MethodNode>) classNode.methods) {
+            methods.add(
+                    new MethodFingerprint(
+                            method.name,
+                            method.desc,
+                            hashAnnotations(method.visibleAnnotations),
+                            InstantRunVerifier.isInstantRunDisabled(method.invisibleAnnotations),
+                            InstantRunMethodVerifier.verifyMethod(method)
+                                    != InstantRunVerifierStatus.COMPATIBLE,
+                            HASH_FUNCTION
+                                    .hashString(
+                                            InstantRunVerifier.getMethodText(method),
+                                            Charsets.UTF_8)
+                                    .toString()));
+        }
+
+        return new ClassFingerprint(
+                classNode.name,
+                classNode.superName,
+                ImmutableList.copyOf((List<String>) classNode.interfaces),
+                hashAnnotations(classNode.visibleAnnotations),
+                InstantRunVerifier.isInstantRunDisabled(classNode.invisibleAnnotations),
+                InstantRunVerifier.isRClass(classNode),
+                fields,
+                methods);
+    }
+
+    @NonNull
+    String getName() {
+        return name;
+    }
+
+    @Nullable
+    String getSuperName() {
+        return superName;
+    }
+
+    @NonNull
+    List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    /** Returns the hashes of the visible annotations, or null if the class has none. */
+    @Nullable
+    List<String> getAnnotations() {
+        return annotations;
+    }
+
+    boolean isInstantRunDisabled() {
+        return instantRunDisabled;
+    }
+
+    boolean isRClass() {
+        return rClass;
+    }
+
+    @NonNull
+    List<String> getFields() {
+        return fields;
+    }
+
+    @NonNull
+    List<MethodFingerprint> getMethods() {
+        return methods;
+    }
+
+    /** Fingerprint of a method. */
+    static final class MethodFingerprint {
+
+        @NonNull final String name;
+        @NonNull final String desc;
+        @Nullable final List<String> annotations;
+        final boolean instantRunDisabled;
+        final boolean usingBlackListedApis;
+        @NonNull final String code;
+
+        MethodFingerprint(
+                @NonNull String name,
+                @NonNull String desc,
+                @Nullable List<String> annotations,
+                boolean instantRunDisabled,
+                boolean usingBlackListedApis,
+                @NonNull String code) {
+            this.name = name;
+            this.desc = desc;
+            this.annotations = annotations;
+            this.instantRunDisabled = instantRunDisabled;
+            this.usingBlackListedApis = usingBlackListedApis;
+            this.code = code;
+        }
+    }
+
+    @NonNull
+    public static ClassFingerprint read(@NonNull DataInput in) throws IOException {
+        String name = in.readUTF();
+        String superName = in.readBoolean() ? in.readUTF() : null;
+        List<String> interfaces = readStrings(in);
+        List<String> annotations = in.readBoolean() ? readStrings(in) : null;
+        boolean instantRunDisabled = in.readBoolean();
+        boolean rClass = in.readBoolean();
+        List<String> fields = readStrings(in);
+        int methodCount = in.readInt();
+        List<MethodFingerprint> methods = new ArrayList<>(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            methods.add(
+                    new MethodFingerprint(
+                            in.readUTF(),
+                            in.readUTF(),
+                            in.readBoolean() ? readStrings(in) : null,
+                            in.readBoolean(),
+                            in.readBoolean(),
+                            in.readUTF()));
+        }
+        return new ClassFingerprint(
+                name,
+                superName,
+                interfaces,
+                annotations,
+                instantRunDisabled,
+                rClass,
+                fields,
+                methods);
+    }
+
+    public void write(@NonNull DataOutput out) throws IOException {
+        out.writeUTF(name);
+        out.writeBoolean(superName != null);
+        if (superName != null) {
+            out.writeUTF(superName);
+        }
+        writeStrings(out, interfaces);
+        out.writeBoolean(annotations != null);
+        if (annotations != null) {
+            writeStrings(out, annotations);
+        }
+        out.writeBoolean(instantRunDisabled);
+        out.writeBoolean(rClass);
+        writeStrings(out, fields);
+        out.writeInt(methods.size());
+        for (MethodFingerprint method : methods) {
+            out.writeUTF(method.name);
+            out.writeUTF(method.desc);
+            out.writeBoolean(method.annotations != null);
+            if (method.annotations != null) {
+                writeStrings(out, method.annotations);
+            }
+            out.writeBoolean(method.instantRunDisabled);
+            out.writeBoolean(method.usingBlackListedApis);
+            out.writeUTF(method.code);
+        }
+    }
+
+    @NonNull
+    private static List<String> readStrings(@NonNull DataInput in) throws IOException {
+        int size = in.readInt();
+        List<String> strings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static void writeStrings(@NonNull DataOutput out, @NonNull List<String> strings)
+            throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    @Nullable
+    private static List<String> hashAnnotations(@Nullable List<AnnotationNode> annotations) {
+        if (annotations == null) {
+            return null;
+        }
+        List<String> hashes = new ArrayList<>(annotations.size());
+        for (AnnotationNode annotation : annotations) {
+            String hash = hashAnnotation(annotation);
+            // never equal to another annotation, see hashAnnotation.
+            hashes.add(hash != null ? hash : UUID.randomUUID().toString());
+        }
+        return hashes;
+    }
+
+    /**
+     * Returns a hash of an annotation that two annotations share if and only if the {@link
+     * InstantRunVerifier.AnnotationNodeComparator} finds them equal.
+     *
+     * <p>The comparator compares enum arrays nested in arrays by identity, so annotations holding
+     * such values are never equal to another annotation. Null is returned for those.
+     */
+    @Nullable
+    private static String hashAnnotation(@NonNull AnnotationNode annotation) {
+        // the order of the values does not matter, but their multiplicity does.
+        List<String> entries = new ArrayList<>();
+        if (annotation.values != null) {
+            for (int i = 0; i < annotation.values.size(); i += 2) {
+                Hasher hasher = HASH_FUNCTION.newHasher();
+                putString(hasher, (String) annotation.values.get(i));
+                if (!putAnnotationValue(hasher, annotation.values.get(i + 1))) {
+                    return null;
+                }
+                entries.add(hasher.hash().toString());
+            }
+        }
+        Collections.sort(entries);
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        putString(hasher, annotation.desc);
+        putStrings(hasher, entries);
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Adds an annotation value to the hash, returns false if the verifier compares it by identity.
+     */
+    private static boolean putAnnotationValue(@NonNull Hasher hasher, @Nullable Object value) {
+        if (value instanceof List) {
+            List<?> values = (List<?>) value;
+            hasher.putChar('L').putInt(values.size());
+            for (Object element : values) {
+                if (element instanceof String[]) {
+                    return false;
+                }
+                if (!putAnnotationValue(hasher, element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof AnnotationNode) {
+            String hash = hashAnnotation((AnnotationNode) value);
+            if (hash == null) {
+                return false;
+            }
+            hasher.putChar('@');
+            putString(hasher, hash);
+            return true;
+        }
+        putValue(hasher, value);
+        return true;
+    }
+
+    /** Adds a constant value, or an array of constant values, to the hash. */
+    private static void putValue(@NonNull Hasher hasher, @Nullable Object value) {
+        if (value instanceof String) {
+            hasher.putChar('s');
+            putString(hasher, (String) value);
+        } else if (value instanceof Integer) {
+            hasher.putChar('I').putInt((Integer) value);
+        } else if (value instanceof Long) {
+            hasher.putChar('J').putLong((Long) value);
+        } else if (value instanceof Float) {
+            hasher.putChar('F').putInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Double) {
+            hasher.putChar('D').putLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Byte) {
+            hasher.putChar('B').putByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            hasher.putChar('Z').putBoolean((Boolean) value);
+        } else if (value instanceof Character) {
+            hasher.putChar('C').putChar((Character) value);
+        } else if (value instanceof Short) {
+            hasher.putChar('S').putShort((Short) value);
+        } else if (value instanceof Type) {
+            hasher.putChar('T');
+            putString(hasher, ((Type) value).getDescriptor());
+        } else if (value instanceof String[]) {
+            // enum values, as {descriptor, name}.
+            hasher.putChar('E');
+            putStrings(hasher, Arrays.asList((String[]) value));
+        } else if (value instanceof byte[]) {
+            hasher.putChar('b').putInt(((byte[]) value).length).putBytes((byte[]) value);
+        } else if (value instanceof boolean[]) {
+            boolean[] array = (boolean[]) value;
+            hasher.putChar('z').putInt(array.length);
+            for (boolean element : array) {
+                hasher.putBoolean(element);
+            }
+        } else if (value instanceof short[]) {
+            short[] array = (short[]) value;
+            hasher.putChar('h').putInt(array.length);
+            for (short element : array) {
+                hasher.putShort(element);
+            }
+        } else if (value instanceof char[]) {
+            char[] array = (char[]) value;
+            hasher.putChar('c').putInt(array.length);
+            for (char element : array) {
+                hasher.putChar(element);
+            }
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            hasher.putChar('i').putInt(array.length);
+            for (int element : array) {
+                hasher.putInt(element);
+            }
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            hasher.putChar('j').putInt(array.length);
+            for (long element : array) {
+                hasher.putLong(element);
+            }
+        } else if (value instanceof float[]) {
+            float[] array = (float[]) value;
+            hasher.putChar('f').putInt(array.length);
+            for (float element : array) {
+                hasher.putInt(Float.floatToIntBits(element));
+            }
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            hasher.putChar('d').putInt(array.length);
+            for (double element : array) {
+                hasher.putLong(Double.doubleToLongBits(element));
+            }
+        } else {
+            throw new IllegalArgumentException("Unexpected constant value " + value);
+        }
+    }
+
+    private static void putStrings(@NonNull Hasher hasher, @NonNull List<String> strings) {
+        hasher.putInt(strings.size());
+        for (String string : strings) {
+            putString(hasher, string);
+        }
+    }
+
+    private static void putString(@NonNull Hasher hasher, @NonNull String string) {
+        hasher.putInt(string.length()).putUnencodedChars(string);
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.incremental;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.utils.ILogger;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Index of the super class and interfaces of all the classes of a classpath.
+ *
+ * <p>Classes are indexed by reading their header only, and the index of each jar is kept until
+ * the jar changes, while directories whose changed files are known are updated class by class.
+ * The index can be saved to disk and reloaded in the next build, so that only the classes that
+ * changed since are read again.
+ *
+ * <p>Like a class loader over the classpath, the first entry of the classpath containing a class
+ * wins. Once updated, the index can be queried concurrently.
+ */
+public class ClassHierarchyIndex implements AsmUtils.ClassReaderProvider, Closeable {
+
+    private static final int VERSION = 1;
+
+    /** Returned by {@link #getAncestors(String)} for classes with an unknown ancestor. */
+    private static final Set<String> INCOMPLETE = Collections.emptySet();
+
+    /** Indexed jars and directories, by path. */
+    @NonNull private final Map<File, Source> sources = new LinkedHashMap<>();
+
+    /** Source of each class, first one wins. Rebuilt after the sources are updated. */
+    @Nullable private volatile Map<String, Source> classSources;
+
+    @NonNull private final Map<String, Set<String>> ancestors = new ConcurrentHashMap<>();
+
+    @NonNull private final Map<File, ZipFile> openJars = new ConcurrentHashMap<>();
+
+    /**
+     * Loads the index saved by {@link #save(File)}, or returns an empty index if it cannot be
+     * read. The file is deleted so that an index that is not saved again is never reused.
+     */
+    @NonNull
+    public static ClassHierarchyIndex load(@NonNull File stateFile) {
+        ClassHierarchyIndex index = new ClassHierarchyIndex();
+        if (!stateFile.isFile()) {
+            return index;
+        }
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            if (in.readInt() == VERSION) {
+                int sourceCount = in.readInt();
+                for (int i = 0; i < sourceCount; i++) {
+                    Source source = Source.read(in);
+                    index.sources.put(source.file, source);
+                }
+            }
+        } catch (IOException e) {
+            // corrupted index, everything will be indexed again.
+            index.sources.clear();
+        }
+        stateFile.delete();
+        return index;
+    }
+
+    /** Saves the index, to be loaded in the next build. */
+    public void save(@NonNull File stateFile) throws IOException {
+        Files.createParentDirs(stateFile);
+        try (DataOutputStream out =
+                new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(stateFile)))) {
+            out.writeInt(VERSION);
+            out.writeInt(sources.size());
+            for (Source source : sources.values()) {
+                source.write(out);
+            }
+        }
+    }
+
+    /**
+     * Sets the jars and directories of the classpath, in lookup order.
+     *
+     * <p>Jars that changed since they were indexed are indexed again. Directories are indexed
+     * again, except the ones of {@code updatedDirectories}, whose changes since they were indexed
+     * must then be applied with {@link #updateClass(File, File)}.
+     */
+    public void updateClasspath(
+            @NonNull List<File> classpath, @NonNull Set<File> updatedDirectories)
+            throws IOException {
+        Map<File, Source> oldSources = new HashMap<>(sources);
+        sources.clear();
+        for (File file : classpath) {
+            Source source = oldSources.get(file);
+            if (file.isFile()) {
+                if (source == null
+                        || !source.isJar
+                        || source.lastModified != file.lastModified()
+                        || source.length != file.length()) {
+                    source = Source.indexJar(file);
+                }
+            } else if (source == null || source.isJar || !updatedDirectories.contains(file)) {
+                source = Source.indexDirectory(file);
+            }
+            sources.put(file, source);
+        }
+        invalidate();
+    }
+
+    /** Indexes again a class file of a directory of the classpath, or removes it if deleted. */
+    public void updateClass(@NonNull File directory, @NonNull File classFile) throws IOException {
+        Source source = sources.get(directory);
+        if (source == null || source.isJar) {
+            throw new IllegalArgumentException(directory + " is not on the classpath");
+        }
+        String path = getRelativePath(directory, classFile);
+        source.classes.remove(path);
+        if (classFile.isFile()) {
+            source.index(path, Files.toByteArray(classFile));
+        }
+        invalidate();
+    }
+
+    /**
+     * Returns the common super class of two classes, as {@link
+     * org.objectweb.asm.ClassWriter#getCommonSuperClass(String, String)} would from classes loaded
+     * by a class loader over the classpath, or null if the hierarchy of either class is not known.
+     */
+    @Nullable
+    public String getCommonSuperClass(@NonNull String type1, @NonNull String type2) {
+        Set<String> ancestors1 = getAncestors(type1);
+        Set<String> ancestors2 = getAncestors(type2);
+        if (ancestors1 == INCOMPLETE || ancestors2 == INCOMPLETE) {
+            return null;
+        }
+        if (ancestors2.contains(type1)) {
+            return type1;
+        }
+        if (ancestors1.contains(type2)) {
+            return type2;
+        }
+        ClassInfo class1 = getClassInfo(type1);
+        ClassInfo class2 = getClassInfo(type2);
+        if (class1.isInterface || class2.isInterface) {
+            return "java/lang/Object";
+        }
+        String superClass = type1;
+        do {
+            superClass = getClassInfo(superClass).superName;
+        } while (superClass != null && !ancestors2.contains(superClass));
+        return superClass != null ? superClass : "java/lang/Object";
+    }
+
+    @Override
+    @Nullable
+    public ClassReader loadClassBytes(@NonNull String className, @NonNull ILogger logger)
+            throws IOException {
+        String path = className + SdkConstants.DOT_CLASS;
+        Source source = getClassSources().get(path);
+        if (source == null) {
+            return null;
+        }
+        if (!source.isJar) {
+            File classFile = new File(source.file, path);
+            return classFile.isFile() ? new ClassReader(Files.toByteArray(classFile)) : null;
+        }
+        ZipFile jar;
+        try {
+            jar = openJars.computeIfAbsent(source.file, ClassHierarchyIndex::openJar);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        ZipEntry entry = jar.getEntry(path);
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream in = jar.getInputStream(entry)) {
+            return new ClassReader(in);
+        }
+    }
+
+    /** Closes the jars opened to load class bytes. */
+    @Override
+    public void close() throws IOException {
+        for (ZipFile jar : openJars.values()) {
+            jar.close();
+        }
+        openJars.clear();
+    }
+
+    private void invalidate() {
+        classSources = null;
+        ancestors.clear();
+    }
+
+    @NonNull
+    private Map<String, Source> getClassSources() {
+        Map<String, Source> result = classSources;
+        if (result == null) {
+            synchronized (this) {
+                result = classSources;
+                if (result == null) {
+                    Map<String, Source> builder = new HashMap<>();
+                    for (Source source : sources.values()) {
+                        for (String path : source.classes.keySet()) {
+                            builder.putIfAbsent(path, source);
+                        }
+                    }
+                    result = ImmutableMap.copyOf(builder);
+                    classSources = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Nullable
+    private ClassInfo getClassInfo(@NonNull String className) {
+        String path = className + SdkConstants.DOT_CLASS;
+        Source source = getClassSources().get(path);
+        return source != null ? source.classes.get(path) : null;
+    }
+
+    /**
+     * Returns the class, its super classes and all the interfaces they implement, or {@link
+     * #INCOMPLETE} if any of them is not on the classpath.
+     */
+    @NonNull
+    private Set<String> getAncestors(@NonNull String className) {
+        Set<String> result = ancestors.get(className);
+        if (result != null) {
+            return result;
+        }
+        ClassInfo classInfo = getClassInfo(className);
+        if (classInfo == null) {
+            result = INCOMPLETE;
+        } else {
+            ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+            builder.add(className);
+            boolean complete =
+                    classInfo.superName == null || addAncestors(builder, classInfo.superName);
+            for (String anInterface : classInfo.interfaces) {
+                complete = complete && addAncestors(builder, anInterface);
+            }
+            result = complete ? builder.build() : INCOMPLETE;
+        }
+        ancestors.put(className, result);
+        return result;
+    }
+
+    private boolean addAncestors(
+            @NonNull ImmutableSet.Builder<String> builder, @NonNull String className) {
+        Set<String> classAncestors = getAncestors(className);
+        builder.addAll(classAncestors);
+        return classAncestors != INCOMPLETE;
+    }
+
+    @NonNull
+    private static String getRelativePath(@NonNull File directory, @NonNull File file) {
+        String path = file.getAbsolutePath().substring(directory.getAbsolutePath().length() + 1);
+        return path.replace(File.separatorChar, '/');
+    }
+
+    @NonNull
+    private static ZipFile openJar(@NonNull File jar) {
+        try {
+            return new ZipFile(jar);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Header of a class. */
+    private static final class ClassInfo {
+        @Nullable final String superName;
+        @NonNull final String[] interfaces;
+        final boolean isInterface;
+
+        ClassInfo(@Nullable String superName, @NonNull String[] interfaces, boolean isInterface) {
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.isInterface = isInterface;
+        }
+    }
+
+    /** A jar or directory of the classpath and the headers of its classes, by path. */
+    private static final class Source {
+        @NonNull final File file;
+        final boolean isJar;
+        final long lastModified;
+        final long length;
+        @NonNull final Map<String, ClassInfo> classes = new HashMap<>();
+
+        Source(@NonNull File file, boolean isJar, long lastModified, long length) {
+            this.file = file;
+            this.isJar = isJar;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        @NonNull
+        static Source indexJar(@NonNull File jar) throws IOException {
+            Source source = new Source(jar, true, jar.lastModified(), jar.length());
+            try (ZipFile zipFile = new ZipFile(jar)) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (!entry.isDirectory() && entry.getName().endsWith(SdkConstants.DOT_CLASS)) {
+                        try (InputStream in = zipFile.getInputStream(entry)) {
+                            source.index(entry.getName(), ByteStreams.toByteArray(in));
+                        }
+                    }
+                }
+            }
+            return source;
+        }
+
+        @NonNull
+        static Source indexDirectory(@NonNull File directory) throws IOException {
+            Source source = new Source(directory, false, 0, 0);
+            for (File file : Files.fileTreeTraverser().preOrderTraversal(directory)) {
+                if (file.isFile() && file.getName().endsWith(SdkConstants.DOT_CLASS)) {
+                    source.index(getRelativePath(directory, file), Files.toByteArray(file));
+                }
+            }
+            return source;
+        }
+
+        void index(@NonNull String path, @NonNull byte[] classBytes) {
+            ClassReader classReader;
+            try {
+                // only parses the constant pool, the members are not visited.
+                classReader = new ClassReader(classBytes);
+            } catch (RuntimeException e) {
+                // not a class file that ASM can read, a class loader would not load it either.
+                return;
+            }
+            classes.put(
+                    path,
+                    new ClassInfo(
+                            classReader.getSuperName(),
+                            classReader.getInterfaces(),
+                            (classReader.getAccess() & Opcodes.ACC_INTERFACE) != 0));
+        }
+
+        @NonNull
+        static Source read(@NonNull DataInputStream in) throws IOException {
+            Source source =
+                    new Source(
+                            new File(in.readUTF()), in.readBoolean(), in.readLong(), in.readLong());
+            int classCount = in.readInt();
+            for (int i = 0; i < classCount; i++) {
+                String path = in.readUTF();
+                String superName = in.readUTF();
+                boolean isInterface = in.readBoolean();
+                String[] interfaces = new String[in.readInt()];
+                for (int j = 0; j < interfaces.length; j++) {
+                    interfaces[j] = in.readUTF();
+                }
+                source.classes.put(
+                        path,
+                        new ClassInfo(
+                                superName.isEmpty() ? null : superName, interfaces, isInterface));
+            }
+            return source;
+        }
+
+        void write(@NonNull DataOutputStream out) throws IOException {
+            out.writeUTF(file.getPath());
+            out.writeBoolean(isJar);
+            out.writeLong(lastModified);
+            out.writeLong(length);
+            out.writeInt(classes.size());
+            for (Map.Entry<String, ClassInfo> entry : classes.entrySet()) {
+                ClassInfo classInfo = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeUTF(classInfo.superName != null ? classInfo.superName : "");
+                out.writeBoolean(classInfo.isInterface);
+                out.writeInt(classInfo.interfaces.length);
+                for (String anInterface : classInfo.interfaces) {
+                    out.writeUTF(anInterface);
+                }
+            }
+        }
+    }
+}
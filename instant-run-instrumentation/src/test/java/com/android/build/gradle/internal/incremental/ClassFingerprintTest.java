@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.incremental;
+
+import static org.junit.Assert.assertEquals;
+
+import com.android.annotations.NonNull;
+import com.android.utils.ILogger;
+import com.android.utils.NullLogger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.Test;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Tests for the {@link ClassFingerprint} class: verifying the fingerprints of every pair of
+ * versions of a class must give the same result as verifying the classes.
+ */
+public class ClassFingerprintTest {
+
+    private static final ILogger LOGGER = new NullLogger();
+
+    @Test
+    public void testAnnotations() throws IOException {
+        List<Consumer<ClassVisitor>> versions = new ArrayList<>();
+        versions.add(cv -> {});
+        versions.add(cv -> cv.visitAnnotation("Ltest/A;", true).visitEnd());
+        versions.add(cv -> cv.visitAnnotation("Ltest/B;", true).visitEnd());
+        versions.add(cv -> cv.visitAnnotation("Ltest/A;", false).visitEnd());
+        versions.add(cv -> {
+            cv.visitAnnotation("Ltest/A;", true).visitEnd();
+            cv.visitAnnotation("Ltest/B;", true).visitEnd();
+        });
+        versions.add(cv -> {
+            cv.visitAnnotation("Ltest/B;", true).visitEnd();
+            cv.visitAnnotation("Ltest/A;", true).visitEnd();
+        });
+        versions.add(annotation(av -> av.visit("v", 1)));
+        versions.add(annotation(av -> av.visit("v", 2)));
+        versions.add(annotation(av -> av.visit("v", 1L)));
+        versions.add(annotation(av -> av.visit("v", (short) 1)));
+        versions.add(annotation(av -> av.visit("v", (byte) 1)));
+        versions.add(annotation(av -> av.visit("v", '1')));
+        versions.add(annotation(av -> av.visit("v", true)));
+        versions.add(annotation(av -> av.visit("v", "1")));
+        versions.add(annotation(av -> av.visit("w", "1")));
+        versions.add(annotation(av -> av.visit("v", 0f)));
+        versions.add(annotation(av -> av.visit("v", -0f)));
+        versions.add(annotation(av -> av.visit("v", Double.NaN)));
+        versions.add(annotation(av -> av.visit("v", Type.getObjectType("test/C"))));
+        versions.add(annotation(av -> av.visit("v", Type.getObjectType("test/D"))));
+        versions.add(annotation(av -> av.visit("v", new int[] {1, 2})));
+        versions.add(annotation(av -> av.visit("v", new int[] {2, 1})));
+        versions.add(annotation(av -> av.visit("v", new long[] {1, 2})));
+        versions.add(annotation(av -> av.visit("v", new double[] {1, 2})));
+        versions.add(annotation(av -> av.visit("v", new boolean[] {true})));
+        versions.add(annotation(av -> av.visit("v", new char[] {'a'})));
+        versions.add(annotation(av -> av.visit("v", new byte[0])));
+        versions.add(annotation(av -> av.visitEnum("v", "Ltest/E;", "X")));
+        versions.add(annotation(av -> av.visitEnum("v", "Ltest/E;", "Y")));
+        versions.add(annotation(av -> array(av, "v", element -> element.visit(null, "a"))));
+        versions.add(annotation(av -> array(av, "v", element -> {
+            element.visit(null, "a");
+            element.visit(null, "b");
+        })));
+        versions.add(annotation(av -> array(av, "v", element -> {
+            element.visit(null, "b");
+            element.visit(null, "a");
+        })));
+        versions.add(annotation(av -> array(av, "v", element -> {})));
+        versions.add(annotation(av -> array(av, "v",
+                element -> element.visitEnum(null, "Ltest/E;", "X"))));
+        versions.add(annotation(av -> {
+            AnnotationVisitor nested = av.visitAnnotation("v", "Ltest/B;");
+            nested.visit("w", 1);
+            nested.visitEnd();
+        }));
+        versions.add(annotation(av -> {
+            AnnotationVisitor nested = av.visitAnnotation("v", "Ltest/B;");
+            nested.visit("w", 2);
+            nested.visitEnd();
+        }));
+        versions.add(annotation(av -> array(av, "v", element -> {
+            element.visitAnnotation(null, "Ltest/B;").visitEnd();
+            element.visitAnnotation(null, "Ltest/C;").visitEnd();
+        })));
+        versions.add(annotation(av -> array(av, "v", element -> {
+            AnnotationVisitor nested = element.visitAnnotation(null, "Ltest/B;");
+            array(nested, "w", inner -> inner.visitEnum(null, "Ltest/E;", "X"));
+            nested.visitEnd();
+        })));
+        versions.add(annotation(av -> {
+            av.visit("v", 1);
+            av.visit("w", 2);
+        }));
+        versions.add(annotation(av -> {
+            av.visit("w", 2);
+            av.visit("v", 1);
+        }));
+        versions.add(annotation(av -> {
+            av.visit("v", 2);
+            av.visit("w", 1);
+        }));
+
+        checkAllPairs(versions);
+    }
+
+    @Test
+    public void testFields() throws IOException {
+        List<Consumer<ClassVisitor>> versions = new ArrayList<>();
+        versions.add(cv -> {});
+        versions.add(field(Opcodes.ACC_PRIVATE, "f", "I", null));
+        versions.add(field(Opcodes.ACC_PUBLIC, "f", "I", null));
+        versions.add(field(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "f", "I", null));
+        versions.add(field(Opcodes.ACC_PRIVATE, "g", "I", null));
+        versions.add(field(Opcodes.ACC_PRIVATE, "f", "J", null));
+        versions.add(field(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "f", "I", 1));
+        versions.add(field(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "f", "I", 2));
+        versions.add(field(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "f", "J", 1L));
+        versions.add(field(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "f", "F", 0f));
+        versions.add(field(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "f", "F", -0f));
+        versions.add(field(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "f", "D", Double.NaN));
+        versions.add(field(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "f", "Ljava/lang/String;", "1"));
+        versions.add(cv -> {
+            field(Opcodes.ACC_PRIVATE, "f", "I", null).accept(cv);
+            field(Opcodes.ACC_PRIVATE, "g", "I", null).accept(cv);
+        });
+        versions.add(cv -> {
+            field(Opcodes.ACC_PRIVATE, "g", "I", null).accept(cv);
+            field(Opcodes.ACC_PRIVATE, "f", "I", null).accept(cv);
+        });
+
+        checkAllPairs(versions);
+        checkAllPairs("test/R$id", Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, versions);
+    }
+
+    @Test
+    public void testMethods() throws IOException {
+        List<Consumer<ClassVisitor>> versions = new ArrayList<>();
+        versions.add(cv -> {});
+        versions.add(method("m", 0, false, mv -> {}));
+        versions.add(method("m", 7, false, mv -> {}));
+        versions.add(method("m", 0, false, mv -> mv.visitInsn(Opcodes.NOP)));
+        versions.add(method("n", 0, false, mv -> {}));
+        versions.add(cv -> {
+            method("m", 0, false, mv -> {}).accept(cv);
+            method("n", 0, false, mv -> {}).accept(cv);
+        });
+        versions.add(method("m", 0, false, mv -> mv.visitAnnotation("Ltest/A;", true).visitEnd()));
+        versions.add(method("m", 0, false, mv -> mv.visitAnnotation("Ltest/B;", true).visitEnd()));
+        versions.add(method("m", 0, true, mv -> {}));
+        versions.add(method("m", 0, true, mv -> mv.visitInsn(Opcodes.NOP)));
+        versions.add(method("m", 0, false, ClassFingerprintTest::newInstance));
+        versions.add(method("m", 0, false, mv -> {
+            newInstance(mv);
+            mv.visitInsn(Opcodes.NOP);
+        }));
+        versions.add(method("m", 5, false, ClassFingerprintTest::newInstance));
+        versions.add(method("<clinit>", 0, false, mv -> {}));
+        versions.add(method("<clinit>", 3, false, mv -> {}));
+        versions.add(method("<clinit>", 0, false, mv -> mv.visitInsn(Opcodes.NOP)));
+        versions.add(cv -> {
+            method("<clinit>", 0, false, mv -> {}).accept(cv);
+            method("m", 0, false, mv -> {}).accept(cv);
+        });
+        versions.add(cv -> {
+            method("<clinit>", 0, false, mv -> mv.visitInsn(Opcodes.NOP)).accept(cv);
+            method("m", 0, true, mv -> {}).accept(cv);
+        });
+
+        checkAllPairs(versions);
+    }
+
+    @Test
+    public void testHierarchy() throws IOException {
+        List<byte[]> versions = new ArrayList<>();
+        versions.add(createClass("test/C", 0, "java/lang/Object", new String[0], cv -> {}));
+        versions.add(createClass("test/C", 0, "test/Base", new String[0], cv -> {}));
+        versions.add(createClass("test/C", 0, "java/lang/Object", new String[] {"test/I"},
+                cv -> {}));
+        versions.add(createClass("test/C", 0, "java/lang/Object", new String[] {"test/I",
+                "test/J"}, cv -> {}));
+        versions.add(createClass("test/C", 0, "java/lang/Object", new String[] {"test/J",
+                "test/I"}, cv -> {}));
+        versions.add(createClass("test/C", 0, "java/lang/Object", new String[0],
+                cv -> cv.visitAnnotation(
+                        IncrementalVisitor.DISABLE_ANNOTATION_TYPE.getDescriptor(), false)));
+
+        checkAllPairsOfClasses(versions);
+    }
+
+    private static void checkAllPairs(@NonNull List<Consumer<ClassVisitor>> versions)
+            throws IOException {
+        checkAllPairs("test/C", Opcodes.ACC_PUBLIC, versions);
+    }
+
+    private static void checkAllPairs(
+            @NonNull String name, int access, @NonNull List<Consumer<ClassVisitor>> versions)
+            throws IOException {
+        List<byte[]> classes = new ArrayList<>();
+        for (Consumer<ClassVisitor> version : versions) {
+            classes.add(createClass(name, access, "java/lang/Object", new String[0], version));
+        }
+        checkAllPairsOfClasses(classes);
+    }
+
+    private static void checkAllPairsOfClasses(@NonNull List<byte[]> classes) throws IOException {
+        for (int i = 0; i < classes.size(); i++) {
+            for (int j = 0; j < classes.size(); j++) {
+                byte[] original = classes.get(i);
+                byte[] updated = classes.get(j);
+                assertEquals(
+                        "versions " + i + " and " + j,
+                        InstantRunVerifier.run(() -> original, () -> updated, LOGGER),
+                        InstantRunVerifier.run(
+                                reload(ClassFingerprint.of(() -> original)),
+                                ClassFingerprint.of(() -> updated),
+                                LOGGER));
+            }
+        }
+    }
+
+    /** Returns the fingerprint as loaded in the next build. */
+    @NonNull
+    private static ClassFingerprint reload(@NonNull ClassFingerprint fingerprint)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            fingerprint.write(out);
+        }
+        return ClassFingerprint.read(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @NonNull
+    private static byte[] createClass(
+            @NonNull String name,
+            int access,
+            @NonNull String superName,
+            @NonNull String[] interfaces,
+            @NonNull Consumer<ClassVisitor> content) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_7, access, name, null, superName, interfaces);
+        content.accept(cw);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    @NonNull
+    private static Consumer<ClassVisitor> annotation(@NonNull Consumer<AnnotationVisitor> values) {
+        return cv -> {
+            AnnotationVisitor av = cv.visitAnnotation("Ltest/A;", true);
+            values.accept(av);
+            av.visitEnd();
+        };
+    }
+
+    private static void array(
+            @NonNull AnnotationVisitor av,
+            @NonNull String name,
+            @NonNull Consumer<AnnotationVisitor> elements) {
+        AnnotationVisitor array = av.visitArray(name);
+        elements.accept(array);
+        array.visitEnd();
+    }
+
+    @NonNull
+    private static Consumer<ClassVisitor> field(
+            int access, @NonNull String name, @NonNull String desc, Object value) {
+        return cv -> {
+            FieldVisitor fv = cv.visitField(access, name, desc, null, value);
+            fv.visitEnd();
+        };
+    }
+
+    @NonNull
+    private static Consumer<ClassVisitor> method(
+            @NonNull String name,
+            int line,
+            boolean disabled,
+            @NonNull Consumer<MethodVisitor> body) {
+        return cv -> {
+            int access = name.equals("<clinit>") ? Opcodes.ACC_STATIC : Opcodes.ACC_PUBLIC;
+            MethodVisitor mv = cv.visitMethod(access, name, "()V", null, null);
+            if (disabled) {
+                mv.visitAnnotation(IncrementalVisitor.DISABLE_ANNOTATION_TYPE.getDescriptor(),
+                        false).visitEnd();
+            }
+            mv.visitCode();
+            if (line != 0) {
+                Label label = new Label();
+                mv.visitLabel(label);
+                mv.visitLineNumber(line, label);
+            }
+            body.accept(mv);
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        };
+    }
+
+    private static void newInstance(@NonNull MethodVisitor mv) {
+        mv.visitLdcInsn(Type.getObjectType("test/C"));
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Class", "newInstance",
+                "()Ljava/lang/Object;", false);
+        mv.visitInsn(Opcodes.POP);
+    }
+}
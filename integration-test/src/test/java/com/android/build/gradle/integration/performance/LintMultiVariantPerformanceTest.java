@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.integration.performance;
+
+import static com.android.build.gradle.integration.common.truth.TruthHelper.assertThat;
+
+import com.android.annotations.NonNull;
+import com.android.build.gradle.integration.common.fixture.GradleBuildResult;
+import com.android.build.gradle.integration.common.fixture.GradleTestProject;
+import com.android.build.gradle.integration.common.fixture.app.HelloWorldApp;
+import com.android.build.gradle.integration.common.utils.TestFileUtils;
+import com.android.build.gradle.tasks.Lint;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Compares the time and the peak heap of the lint task on a project with many variants, when the
+ * variants are linted one after the other and when they are linted concurrently.
+ */
+public class LintMultiVariantPerformanceTest {
+
+    private static final Pattern LINT_STATS =
+            Pattern.compile("LINT_STATS time=(\\d+) ms, peak heap=(\\d+) MB");
+
+    @Rule
+    public GradleTestProject project =
+            GradleTestProject.builder()
+                    .fromTestApp(HelloWorldApp.forPlugin("com.android.application"))
+                    .create();
+
+    @Before
+    public void setUp() throws IOException {
+        // 2 dimensions of 4 flavors and 2 build types: 32 variants.
+        StringBuilder flavors = new StringBuilder();
+        for (String dimension : new String[] {"tier", "market"}) {
+            for (int i = 0; i < 4; i++) {
+                flavors.append("        ").append(dimension).append(i)
+                        .append(" { dimension '").append(dimension).append("' }\n");
+            }
+        }
+        TestFileUtils.appendToFile(
+                project.getBuildFile(),
+                "\n"
+                        + "android {\n"
+                        + "    flavorDimensions 'tier', 'market'\n"
+                        + "    productFlavors {\n"
+                        + flavors
+                        + "    }\n"
+                        + "    lintOptions {\n"
+                        + "        abortOnError false\n"
+                        + "        textReport false\n"
+                        + "        htmlReport false\n"
+                        + "    }\n"
+                        + "}\n"
+                        + "\n"
+                        + "def lintStart = 0L\n"
+                        + "gradle.taskGraph.beforeTask { task ->\n"
+                        + "    if (task.name == 'lint') {\n"
+                        + "        System.gc()\n"
+                        + "        java.lang.management.ManagementFactory.memoryPoolMXBeans\n"
+                        + "                .each { it.resetPeakUsage() }\n"
+                        + "        lintStart = System.nanoTime()\n"
+                        + "    }\n"
+                        + "}\n"
+                        + "gradle.taskGraph.afterTask { task ->\n"
+                        + "    if (task.name == 'lint') {\n"
+                        + "        long time = (System.nanoTime() - lintStart) / 1000000\n"
+                        + "        long peak = java.lang.management.ManagementFactory\n"
+                        + "                .memoryPoolMXBeans\n"
+                        + "                .findAll { it.type == java.lang.management.MemoryType.HEAP }\n"
+                        + "                .sum { it.peakUsage.used } / (1024 * 1024)\n"
+                        + "        println \"LINT_STATS time=${time} ms, peak heap=${peak} MB\"\n"
+                        + "    }\n"
+                        + "}\n");
+    }
+
+    @Test
+    public void concurrentVariantsGiveTheSameReport() throws IOException {
+        File report = project.file("build/reports/lint-results.xml");
+
+        LintStats sequential = runLint(1);
+        String sequentialReport = Files.toString(report, Charsets.UTF_8);
+
+        LintStats concurrent = runLint(4);
+        String concurrentReport = Files.toString(report, Charsets.UTF_8);
+
+        System.out.println("Sequential lint: " + sequential);
+        System.out.println("Concurrent lint: " + concurrent);
+        assertThat(concurrentReport).isEqualTo(sequentialReport);
+    }
+
+    @NonNull
+    private LintStats runLint(int variantThreads) {
+        project.executor().run("clean");
+        GradleBuildResult result =
+                project.executor()
+                        .withArgument("-D" + Lint.VARIANT_THREADS_PROPERTY + "=" + variantThreads)
+                        .run("lint");
+        Matcher matcher = LINT_STATS.matcher(result.getStdout());
+        assertThat(matcher.find()).named("lint statistics in the output").isTrue();
+        return new LintStats(Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)));
+    }
+
+    private static final class LintStats {
+        private final long timeMs;
+        private final long peakHeapMb;
+
+        LintStats(long timeMs, long peakHeapMb) {
+            this.timeMs = timeMs;
+            this.peakHeapMb = peakHeapMb;
+        }
+
+        @Override
+        public String toString() {
+            return timeMs + " ms, peak heap " + peakHeapMb + " MB";
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.integration.performance;
+
+import static com.android.build.gradle.integration.common.truth.TruthHelper.assertThat;
+
+import com.android.annotations.NonNull;
+import com.android.build.gradle.AndroidGradleOptions;
+import com.android.build.gradle.integration.common.fixture.BuildModel;
+import com.android.build.gradle.integration.common.fixture.GradleTestProject;
+import com.android.build.gradle.integration.common.fixture.app.HelloWorldApp;
+import com.android.build.gradle.integration.common.utils.ModelHelper;
+import com.android.build.gradle.integration.common.utils.TestFileUtils;
+import com.android.builder.model.AndroidProject;
+import com.android.builder.model.JavaLibrary;
+import com.android.builder.model.Variant;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Compares the time of a sync of a project with many variants when the model of all the variants
+ * is built with their dependencies, and when only the selected variant is, with and without the
+ * cached dependencies of the variant.
+ */
+public class ModelSyncPerformanceTest {
+
+    private static final String SELECTED_VARIANT = "tier1Market2Store3Release";
+
+    private static final int JAR_COUNT = 20;
+
+    @Rule
+    public GradleTestProject project =
+            GradleTestProject.builder()
+                    .fromTestApp(HelloWorldApp.forPlugin("com.android.application"))
+                    .create();
+
+    @Before
+    public void setUp() throws IOException {
+        // 3 dimensions of 4 flavors and 2 build types: 128 variants.
+        StringBuilder flavors = new StringBuilder();
+        for (String dimension : new String[] {"tier", "market", "store"}) {
+            for (int i = 0; i < 4; i++) {
+                flavors.append("        ").append(dimension).append(i)
+                        .append(" { dimension '").append(dimension).append("' }\n");
+            }
+        }
+        for (int i = 0; i < JAR_COUNT; i++) {
+            createJar(project.file("libs/lib" + i + ".jar"), "lib" + i);
+        }
+        TestFileUtils.appendToFile(
+                project.getBuildFile(),
+                "\n"
+                        + "android {\n"
+                        + "    flavorDimensions 'tier', 'market', 'store'\n"
+                        + "    productFlavors {\n"
+                        + flavors
+                        + "    }\n"
+                        + "}\n"
+                        + "dependencies {\n"
+                        + "    compile fileTree(dir: 'libs', include: '*.jar')\n"
+                        + "}\n");
+    }
+
+    @Test
+    public void selectedVariantModel() throws IOException {
+        long start = System.nanoTime();
+        AndroidProject fullModel = sync().getSingle().getOnlyModel();
+        long fullTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        AndroidProject selectedModel = syncSelectedVariant(false);
+        long selectedTime = System.nanoTime() - start;
+
+        syncSelectedVariant(true);
+        start = System.nanoTime();
+        AndroidProject cachedModel = syncSelectedVariant(true);
+        long cachedTime = System.nanoTime() - start;
+
+        System.out.printf(
+                "%d variants: all variants %,d ms, selected variant %,d ms, cached %,d ms%n",
+                fullModel.getVariants().size(),
+                fullTime / 1_000_000,
+                selectedTime / 1_000_000,
+                cachedTime / 1_000_000);
+
+        assertThat(selectedModel.getVariants()).hasSize(fullModel.getVariants().size());
+        List<String> dependencies = getJavaLibraries(fullModel, SELECTED_VARIANT);
+        assertThat(dependencies).hasSize(JAR_COUNT);
+        assertThat(getJavaLibraries(selectedModel, SELECTED_VARIANT))
+                .containsExactlyElementsIn(dependencies);
+        assertThat(getJavaLibraries(cachedModel, SELECTED_VARIANT))
+                .containsExactlyElementsIn(dependencies);
+        assertThat(getJavaLibraries(selectedModel, "tier0Market0Store0Debug")).isEmpty();
+
+        // a change of the dependencies invalidates the cached dependencies.
+        createJar(project.file("libs/extra.jar"), "extra");
+        assertThat(getJavaLibraries(syncSelectedVariant(true), SELECTED_VARIANT))
+                .hasSize(JAR_COUNT + 1);
+
+        // the rest of the model is never cached.
+        TestFileUtils.appendToFile(
+                project.getBuildFile(), "\nandroid.defaultConfig.versionName '2.0'\n");
+        Variant variant =
+                ModelHelper.getVariant(
+                        syncSelectedVariant(true).getVariants(), SELECTED_VARIANT);
+        assertThat(variant.getMergedFlavor().getVersionName()).isEqualTo("2.0");
+    }
+
+    @Test
+    public void unknownSelectedVariant() throws IOException {
+        // for example a variant selected before the rename of a flavor.
+        AndroidProject model = syncSelectedVariant("tier0Market0Store0Beta", false);
+
+        assertThat(getJavaLibraries(model, SELECTED_VARIANT)).hasSize(JAR_COUNT);
+        assertThat(getJavaLibraries(model, "tier0Market0Store0Debug")).hasSize(JAR_COUNT);
+    }
+
+    @NonNull
+    private BuildModel sync() {
+        // the level 2 model is not cached.
+        return project.model().level(AndroidProject.MODEL_LEVEL_1_SYNC_ISSUE);
+    }
+
+    @NonNull
+    private AndroidProject syncSelectedVariant(boolean withCache) {
+        return syncSelectedVariant(SELECTED_VARIANT, withCache);
+    }
+
+    @NonNull
+    private AndroidProject syncSelectedVariant(@NonNull String variant, boolean withCache) {
+        return sync().withProperty(AndroidProject.PROPERTY_BUILD_MODEL_VARIANT, variant)
+                .withProperty(
+                        AndroidGradleOptions.PROPERTY_ENABLE_MODEL_CACHE,
+                        String.valueOf(withCache))
+                .getSingle()
+                .getOnlyModel();
+    }
+
+    @NonNull
+    private static List<String> getJavaLibraries(
+            @NonNull AndroidProject model, @NonNull String variantName) {
+        Variant variant = ModelHelper.getVariant(model.getVariants(), variantName);
+        return variant.getMainArtifact().getDependencies().getJavaLibraries().stream()
+                .map(JavaLibrary::getJarFile)
+                .map(File::getName)
+                .collect(Collectors.toList());
+    }
+
+    private static void createJar(@NonNull File file, @NonNull String name) throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry(name + "/Resource.txt"));
+            out.write(name.getBytes());
+            out.closeEntry();
+        }
+    }
+}
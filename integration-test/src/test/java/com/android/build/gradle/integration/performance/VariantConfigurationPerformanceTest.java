@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.integration.performance;
+
+import static com.android.build.gradle.integration.common.truth.TruthHelper.assertThat;
+
+import com.android.annotations.NonNull;
+import com.android.build.gradle.AndroidGradleOptions;
+import com.android.build.gradle.integration.common.fixture.GradleBuildResult;
+import com.android.build.gradle.integration.common.fixture.GradleTestProject;
+import com.android.build.gradle.integration.common.fixture.app.HelloWorldApp;
+import com.android.build.gradle.integration.common.runner.FilterableParameterized;
+import com.android.build.gradle.integration.common.utils.TestFileUtils;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+/**
+ * Compares the configuration time of a project with an increasing number of variants when the
+ * tasks of all the variants are created, and when only the tasks of the variant of the requested
+ * task are.
+ *
+ * <p>The project has no dependencies, so this runs without a network.
+ */
+@RunWith(FilterableParameterized.class)
+public class VariantConfigurationPerformanceTest {
+
+    private static final Pattern CONFIG_STATS =
+            Pattern.compile("CONFIG_STATS time=(\\d+) ms, tasks=(\\d+)");
+
+    @Parameterized.Parameters(name = "{0} variants")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {{10}, {50}, {100}, {500}});
+    }
+
+    @Rule
+    public GradleTestProject project =
+            GradleTestProject.builder()
+                    .fromTestApp(HelloWorldApp.forPlugin("com.android.application"))
+                    .create();
+
+    private final int variantCount;
+
+    public VariantConfigurationPerformanceTest(int variantCount) {
+        this.variantCount = variantCount;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        // one dimension of flavors and 2 build types.
+        StringBuilder flavors = new StringBuilder();
+        for (int i = 0; i < variantCount / 2; i++) {
+            flavors.append("        flavor").append(i).append(" {}\n");
+        }
+        TestFileUtils.appendToFile(
+                project.getBuildFile(),
+                "\n"
+                        + "def configStart = System.nanoTime()\n"
+                        + "android {\n"
+                        + "    productFlavors {\n"
+                        + flavors
+                        + "    }\n"
+                        + "}\n"
+                        + "gradle.taskGraph.whenReady {\n"
+                        + "    long time = (System.nanoTime() - configStart) / 1000000\n"
+                        + "    println \"CONFIG_STATS time=${time} ms, tasks=${tasks.size()}\"\n"
+                        + "}\n");
+    }
+
+    @Test
+    public void configureSingleVariant() {
+        ConfigStats allVariants = configure(false);
+        ConfigStats requestedVariant = configure(true);
+
+        System.out.printf(
+                "%d variants: all variants %s, requested variant %s%n",
+                variantCount, allVariants, requestedVariant);
+        assertThat(requestedVariant.taskCount).isLessThan(allVariants.taskCount);
+    }
+
+    @NonNull
+    private ConfigStats configure(boolean deferredVariantTasks) {
+        GradleBuildResult result =
+                project.executor()
+                        .withProperty(
+                                AndroidGradleOptions.PROPERTY_ENABLE_DEFERRED_VARIANT_TASKS,
+                                String.valueOf(deferredVariantTasks))
+                        .withArgument("--dry-run")
+                        .run("assembleFlavor0Debug");
+        Matcher matcher = CONFIG_STATS.matcher(result.getStdout());
+        assertThat(matcher.find()).named("configuration statistics in the output").isTrue();
+        return new ConfigStats(
+                Long.parseLong(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+    }
+
+    private static final class ConfigStats {
+        private final long timeMs;
+        private final int taskCount;
+
+        ConfigStats(long timeMs, int taskCount) {
+            this.timeMs = timeMs;
+            this.taskCount = taskCount;
+        }
+
+        @Override
+        public String toString() {
+            return timeMs + " ms, " + taskCount + " tasks";
+        }
+    }
+}
@@ -24,6 +24,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.wireless.android.sdk.stats.AndroidStudioEvent;
 import com.google.wireless.android.sdk.stats.GradleBuildMemorySample;
@@ -37,8 +38,11 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -49,10 +53,15 @@ import java.util.concurrent.atomic.AtomicLong;
  * per build and finalizes it at the end of the build.
  *
  * <p>The methods implemented from {@link ProfileRecordWriter} will be called from multiple threads
- * during the build, storing execution spans.
+ * during the build, storing execution spans. Spans are kept in a bounded {@link SpanBuffer} that
+ * spills to disk next to the profile output, and memory is sampled at most once per {@link
+ * #MEMORY_SAMPLE_INTERVAL_MS} so that profiling can stay enabled on very large builds.
  */
 public final class ProcessProfileWriter implements ProfileRecordWriter {
 
+    /** Minimum time between two memory samples recorded by {@link #recordMemorySample()}. */
+    static final long MEMORY_SAMPLE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(1);
+
     private boolean finished = false;
 
     private final GradleBuildMemorySample mStartMemoryStats;
@@ -67,7 +76,12 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
 
     private final AtomicLong lastRecordId = new AtomicLong(1);
 
-    private final ConcurrentLinkedQueue<GradleBuildProfileSpan> spans;
+    private final SpanBuffer spans;
+
+    private final ConcurrentLinkedQueue<GradleBuildMemorySample> memorySamples =
+            new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong lastMemorySampleTime = new AtomicLong();
 
     @Override
     public long allocateRecordId() {
@@ -86,12 +100,21 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
 
 
     ProcessProfileWriter(@NonNull Path benchmarkProfileOutputFile) {
+        this(benchmarkProfileOutputFile, SpanBuffer.DEFAULT_CAPACITY);
+    }
+
+    @VisibleForTesting
+    ProcessProfileWriter(@NonNull Path benchmarkProfileOutputFile, int spanBufferCapacity) {
         mBenchmarkProfileOutputFile = benchmarkProfileOutputFile;
         mNameAnonymizer = new NameAnonymizer();
         mBuild = GradleBuildProfile.newBuilder();
         mStartMemoryStats = createAndRecordMemorySample();
         mProjects = CacheBuilder.newBuilder().build(new ProjectCacheLoader(mNameAnonymizer));
-        spans = new ConcurrentLinkedQueue<>();
+        spans =
+                new SpanBuffer(
+                        benchmarkProfileOutputFile.resolveSibling(
+                                benchmarkProfileOutputFile.getFileName() + ".spans"),
+                        spanBufferCapacity);
     }
 
     /** Append a span record to the build profile. Thread safe. */
@@ -117,10 +140,13 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
             throw new IllegalStateException("Finish can only be called once.");
         }
         finished = true;
-        // This will not throw ConcurrentModificationException if writeRecord() calls are still
-        // happening. ConcurrentLinkedQueue iterators are instead weakly consistent.
-        mBuild.addAllSpan(spans);
+        // This will not throw if writeRecord() calls are still happening, draining the span
+        // buffer is instead weakly consistent.
+        spans.drainTo(mBuild);
         GradleBuildMemorySample memoryStats = createAndRecordMemorySample();
+        List<GradleBuildMemorySample> samples = Lists.newArrayList(memorySamples);
+        samples.sort(Comparator.comparingLong(GradleBuildMemorySample::getTimestamp));
+        mBuild.addAllMemorySample(samples);
         mBuild.setBuildTime(
                 memoryStats.getTimestamp() - mStartMemoryStats.getTimestamp());
         mBuild.setGcCount(
@@ -202,13 +228,28 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
                         .setTimestamp(System.currentTimeMillis())
                         .build();
         if (stats != null) {
-            mBuild.addMemorySample(stats);
+            lastMemorySampleTime.set(stats.getTimestamp());
+            memorySamples.add(stats);
         }
         return stats;
     }
 
+    private void maybeRecordMemorySample() {
+        long now = System.currentTimeMillis();
+        long last = lastMemorySampleTime.get();
+        // Only one of the threads racing past the interval gets to record the sample.
+        if (now - last >= MEMORY_SAMPLE_INTERVAL_MS
+                && lastMemorySampleTime.compareAndSet(last, now)) {
+            createAndRecordMemorySample();
+        }
+    }
+
+    /**
+     * Records a memory sample, unless one was recorded less than {@link
+     * #MEMORY_SAMPLE_INTERVAL_MS} ago. Thread safe.
+     */
     public static void recordMemorySample() {
-        get().createAndRecordMemorySample();
+        get().maybeRecordMemorySample();
     }
 
     private static class ProjectCacheLoader extends CacheLoader<String, Project> {
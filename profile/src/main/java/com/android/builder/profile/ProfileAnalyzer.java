@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.VisibleForTesting;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.wireless.android.sdk.stats.GradleBuildProfile;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Analyzes the {@link GradleBuildProfileSpan}s of a recorded {@link GradleBuildProfile}.
+ *
+ * <p>The spans written by {@link ProcessProfileWriter} only carry their timing, their thread and
+ * their parent, so the analysis is purely time based:
+ *
+ * <ul>
+ *   <li>the critical path is the chain of top level spans that gates the end of the build, built
+ *       backwards from the last span to finish by repeatedly picking the latest span that finished
+ *       before the current one started;
+ *   <li>the utilization of a thread is the union of its span intervals over the build wall clock;
+ *   <li>the self time of a span is its duration minus the duration of its direct children.
+ * </ul>
+ *
+ * <p>Can also be run from the command line, see {@link #main(String[])}.
+ */
+public final class ProfileAnalyzer {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    @NonNull private final List<GradleBuildProfileSpan> spans;
+    @NonNull private final Set<Long> spanIds;
+    @NonNull private final ListMultimap<Long, GradleBuildProfileSpan> children;
+
+    public ProfileAnalyzer(@NonNull GradleBuildProfile profile) {
+        this(profile.getSpanList());
+    }
+
+    @VisibleForTesting
+    ProfileAnalyzer(@NonNull List<GradleBuildProfileSpan> spans) {
+        this.spans = ImmutableList.copyOf(spans);
+        spanIds = Sets.newHashSetWithExpectedSize(spans.size());
+        children = ArrayListMultimap.create();
+        for (GradleBuildProfileSpan span : spans) {
+            spanIds.add(span.getId());
+        }
+        for (GradleBuildProfileSpan span : spans) {
+            if (span.getParentId() != 0 && spanIds.contains(span.getParentId())) {
+                children.put(span.getParentId(), span);
+            }
+        }
+    }
+
+    @NonNull
+    public static ProfileAnalyzer load(@NonNull Path profileFile) throws IOException {
+        return new ProfileAnalyzer(GradleBuildProfile.parseFrom(Files.readAllBytes(profileFile)));
+    }
+
+    /** Returns the spans that have no recorded parent, i.e. tasks and top level processing. */
+    @NonNull
+    public List<GradleBuildProfileSpan> getRootSpans() {
+        ImmutableList.Builder<GradleBuildProfileSpan> roots = ImmutableList.builder();
+        for (GradleBuildProfileSpan span : spans) {
+            if (span.getParentId() == 0 || !spanIds.contains(span.getParentId())) {
+                roots.add(span);
+            }
+        }
+        return roots.build();
+    }
+
+    /** Returns the direct children of the given span. */
+    @NonNull
+    public List<GradleBuildProfileSpan> getChildren(@NonNull GradleBuildProfileSpan span) {
+        return children.get(span.getId());
+    }
+
+    /** Returns the time between the first span start and the last span end. */
+    public long getWallClockTimeInMs() {
+        if (spans.isEmpty()) {
+            return 0;
+        }
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (GradleBuildProfileSpan span : spans) {
+            start = Math.min(start, span.getStartTimeInMs());
+            end = Math.max(end, getEndTimeInMs(span));
+        }
+        return end - start;
+    }
+
+    /** Returns the critical path of the build, in execution order. */
+    @NonNull
+    public List<GradleBuildProfileSpan> getCriticalPath() {
+        List<GradleBuildProfileSpan> roots = Lists.newArrayList(getRootSpans());
+        if (roots.isEmpty()) {
+            return ImmutableList.of();
+        }
+        // When several spans end at the same time, prefer the longest one.
+        roots.sort(
+                Comparator.comparingLong(ProfileAnalyzer::getEndTimeInMs)
+                        .thenComparingLong(GradleBuildProfileSpan::getDurationInMs));
+
+        List<GradleBuildProfileSpan> path = Lists.newArrayList();
+        int index = roots.size() - 1;
+        GradleBuildProfileSpan current = roots.get(index);
+        path.add(current);
+        // the start of the current span only decreases, so a single backward scan is enough.
+        for (index--; index >= 0; index--) {
+            GradleBuildProfileSpan candidate = roots.get(index);
+            if (getEndTimeInMs(candidate) <= current.getStartTimeInMs()) {
+                current = candidate;
+                path.add(current);
+            }
+        }
+        return Lists.reverse(path);
+    }
+
+    /** Returns the utilization of each thread, keyed and sorted by thread id. */
+    @NonNull
+    public SortedMap<Long, ThreadUtilization> getThreadUtilization() {
+        ListMultimap<Long, GradleBuildProfileSpan> spansByThread = ArrayListMultimap.create();
+        for (GradleBuildProfileSpan span : spans) {
+            spansByThread.put(span.getThreadId(), span);
+        }
+        long wallClockTime = getWallClockTimeInMs();
+        SortedMap<Long, ThreadUtilization> utilization = Maps.newTreeMap();
+        for (Long threadId : spansByThread.keySet()) {
+            List<GradleBuildProfileSpan> threadSpans =
+                    Lists.newArrayList(spansByThread.get(threadId));
+            threadSpans.sort(Comparator.comparingLong(GradleBuildProfileSpan::getStartTimeInMs));
+            long busyTime = 0;
+            long intervalStart = Long.MIN_VALUE;
+            long intervalEnd = Long.MIN_VALUE;
+            for (GradleBuildProfileSpan span : threadSpans) {
+                if (span.getStartTimeInMs() > intervalEnd) {
+                    busyTime += intervalEnd - intervalStart;
+                    intervalStart = span.getStartTimeInMs();
+                    intervalEnd = getEndTimeInMs(span);
+                } else {
+                    intervalEnd = Math.max(intervalEnd, getEndTimeInMs(span));
+                }
+            }
+            busyTime += intervalEnd - intervalStart;
+            utilization.put(
+                    threadId,
+                    new ThreadUtilization(threadId, threadSpans.size(), busyTime, wallClockTime));
+        }
+        return utilization;
+    }
+
+    /** Returns the self time of a span, its duration minus the duration of its children. */
+    public long getSelfTimeInMs(@NonNull GradleBuildProfileSpan span) {
+        long childrenTime = 0;
+        for (GradleBuildProfileSpan child : children.get(span.getId())) {
+            childrenTime += child.getDurationInMs();
+        }
+        return Math.max(0, span.getDurationInMs() - childrenTime);
+    }
+
+    /** Returns the spans with the highest self time, most expensive first. */
+    @NonNull
+    public List<GradleBuildProfileSpan> getTopSelfTimeSpans(int limit) {
+        List<GradleBuildProfileSpan> sorted = Lists.newArrayList(spans);
+        sorted.sort(Comparator.comparingLong(this::getSelfTimeInMs).reversed());
+        return ImmutableList.copyOf(sorted.subList(0, Math.min(limit, sorted.size())));
+    }
+
+    /**
+     * Returns the total duration of the spans of this profile grouped by {@link
+     * #getSpanKey(GradleBuildProfileSpan)}.
+     */
+    @NonNull
+    public Map<String, Long> getDurationsByKey() {
+        Map<String, Long> durations = Maps.newHashMap();
+        for (GradleBuildProfileSpan span : spans) {
+            durations.merge(getSpanKey(span), span.getDurationInMs(), Long::sum);
+        }
+        return durations;
+    }
+
+    /**
+     * Compares two profiles and returns the span groups that got slower by at least {@code
+     * thresholdInMs}, worst regression first.
+     *
+     * <p>Spans are matched using {@link #getSpanKey(GradleBuildProfileSpan)}, so both profiles
+     * should come from the same project with the same anonymized project and variant ids.
+     */
+    @NonNull
+    public static List<Regression> findRegressions(
+            @NonNull ProfileAnalyzer baseline,
+            @NonNull ProfileAnalyzer current,
+            long thresholdInMs) {
+        Map<String, Long> baselineDurations = baseline.getDurationsByKey();
+        List<Regression> regressions = Lists.newArrayList();
+        for (Map.Entry<String, Long> entry : current.getDurationsByKey().entrySet()) {
+            long baselineDuration = baselineDurations.getOrDefault(entry.getKey(), 0L);
+            if (entry.getValue() - baselineDuration >= thresholdInMs) {
+                regressions.add(new Regression(entry.getKey(), baselineDuration, entry.getValue()));
+            }
+        }
+        regressions.sort(
+                Comparator.comparingLong(Regression::getDeltaInMs)
+                        .reversed()
+                        .thenComparing(Regression::getKey));
+        return regressions;
+    }
+
+    /**
+     * Returns a key identifying what a span measured, stable across builds of the same project.
+     */
+    @NonNull
+    public static String getSpanKey(@NonNull GradleBuildProfileSpan span) {
+        StringBuilder key = new StringBuilder(span.getType().name());
+        if (span.hasTask()) {
+            key.append('/').append(span.getTask().getType().name());
+        }
+        if (span.hasTransform()) {
+            key.append('/').append(span.getTransform().getType().name());
+        }
+        return key.append(" project=")
+                .append(span.getProject())
+                .append(" variant=")
+                .append(span.getVariant())
+                .toString();
+    }
+
+    private static long getEndTimeInMs(@NonNull GradleBuildProfileSpan span) {
+        return span.getStartTimeInMs() + span.getDurationInMs();
+    }
+
+    /** Prints the critical path, thread utilization and top self time spans. */
+    public void printReport(@NonNull PrintStream out, int limit) {
+        long wallClockTime = getWallClockTimeInMs();
+        out.println(
+                String.format(
+                        Locale.US, "Spans: %1$d, wall clock: %2$d ms", spans.size(), wallClockTime));
+
+        out.println();
+        out.println("Critical path:");
+        long criticalTime = 0;
+        for (GradleBuildProfileSpan span : getCriticalPath()) {
+            criticalTime += span.getDurationInMs();
+            out.println(
+                    String.format(
+                            Locale.US,
+                            "  %1$8d ms  %2$s",
+                            span.getDurationInMs(),
+                            getSpanKey(span)));
+        }
+        out.println(
+                String.format(
+                        Locale.US,
+                        "  %1$8d ms  total (%2$d ms idle)",
+                        criticalTime,
+                        wallClockTime - criticalTime));
+
+        out.println();
+        out.println("Thread utilization:");
+        for (ThreadUtilization thread : getThreadUtilization().values()) {
+            out.println(
+                    String.format(
+                            Locale.US,
+                            "  thread %1$4d  %2$5.1f%%  %3$8d ms busy  %4$6d spans",
+                            thread.getThreadId(),
+                            thread.getUtilization() * 100,
+                            thread.getBusyTimeInMs(),
+                            thread.getSpanCount()));
+        }
+
+        out.println();
+        out.println("Top self time:");
+        for (GradleBuildProfileSpan span : getTopSelfTimeSpans(limit)) {
+            out.println(
+                    String.format(
+                            Locale.US,
+                            "  %1$8d ms  %2$s",
+                            getSelfTimeInMs(span),
+                            getSpanKey(span)));
+        }
+    }
+
+    /**
+     * Command line entry point.
+     *
+     * <pre>
+     * ProfileAnalyzer [--top &lt;count&gt;] [--baseline &lt;profile&gt;] [--threshold &lt;ms&gt;]
+     *         &lt;profile&gt;...
+     * </pre>
+     *
+     * <p>Prints a report for each profile and, when a baseline is given, the regressions of each
+     * profile against it.
+     */
+    public static void main(String[] args) throws IOException {
+        System.exit(process(args, System.out, System.err));
+    }
+
+    @VisibleForTesting
+    static int process(
+            @NonNull String[] args, @NonNull PrintStream out, @NonNull PrintStream err)
+            throws IOException {
+        int limit = DEFAULT_LIMIT;
+        long threshold = 0;
+        Path baselineFile = null;
+        List<Path> profileFiles = Lists.newArrayList();
+
+        Iterator<String> arguments = Arrays.asList(args).iterator();
+        while (arguments.hasNext()) {
+            String argument = arguments.next();
+            if (!argument.startsWith("--")) {
+                profileFiles.add(Paths.get(argument));
+                continue;
+            }
+            if (!arguments.hasNext()) {
+                err.println("Command switch " + argument + " has no value associated");
+                return 1;
+            }
+            String value = arguments.next();
+            try {
+                switch (argument) {
+                    case "--top":
+                        limit = Integer.parseInt(value);
+                        break;
+                    case "--threshold":
+                        threshold = Long.parseLong(value);
+                        break;
+                    case "--baseline":
+                        baselineFile = Paths.get(value);
+                        break;
+                    default:
+                        err.println("Unknown command switch " + argument);
+                        usage(err);
+                        return 1;
+                }
+            } catch (NumberFormatException e) {
+                err.println("Invalid value for " + argument + ": " + value);
+                return 1;
+            }
+        }
+        if (profileFiles.isEmpty()) {
+            usage(err);
+            return 1;
+        }
+
+        ProfileAnalyzer baseline = baselineFile != null ? load(baselineFile) : null;
+        for (Path profileFile : profileFiles) {
+            out.println("================================================");
+            out.println(profileFile);
+            out.println("================================================");
+            ProfileAnalyzer analyzer = load(profileFile);
+            analyzer.printReport(out, limit);
+            if (baseline != null) {
+                out.println();
+                out.println("Regressions against " + baselineFile + ":");
+                for (Regression regression : findRegressions(baseline, analyzer, threshold)) {
+                    out.println(
+                            String.format(
+                                    Locale.US,
+                                    "  %1$+8d ms  (%2$d -> %3$d ms)  %4$s",
+                                    regression.getDeltaInMs(),
+                                    regression.getBaselineTimeInMs(),
+                                    regression.getCurrentTimeInMs(),
+                                    regression.getKey()));
+                }
+            }
+            out.println();
+        }
+        return 0;
+    }
+
+    private static void usage(@NonNull PrintStream err) {
+        err.println(
+                "Usage: ProfileAnalyzer [--top <count>] [--baseline <profile>]"
+                        + " [--threshold <ms>] <profile>...");
+    }
+
+    /** Busy time of a single thread over the build. */
+    public static final class ThreadUtilization {
+        private final long threadId;
+        private final int spanCount;
+        private final long busyTimeInMs;
+        private final long wallClockTimeInMs;
+
+        ThreadUtilization(long threadId, int spanCount, long busyTimeInMs, long wallClockTimeInMs) {
+            this.threadId = threadId;
+            this.spanCount = spanCount;
+            this.busyTimeInMs = busyTimeInMs;
+            this.wallClockTimeInMs = wallClockTimeInMs;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public int getSpanCount() {
+            return spanCount;
+        }
+
+        public long getBusyTimeInMs() {
+            return busyTimeInMs;
+        }
+
+        /** Returns the fraction of the build wall clock this thread was busy, in [0, 1]. */
+        public double getUtilization() {
+            return wallClockTimeInMs == 0 ? 0 : (double) busyTimeInMs / wallClockTimeInMs;
+        }
+    }
+
+    /** A group of spans that is slower in a profile than in its baseline. */
+    public static final class Regression {
+        @NonNull private final String key;
+        private final long baselineTimeInMs;
+        private final long currentTimeInMs;
+
+        Regression(@NonNull String key, long baselineTimeInMs, long currentTimeInMs) {
+            this.key = key;
+            this.baselineTimeInMs = baselineTimeInMs;
+            this.currentTimeInMs = currentTimeInMs;
+        }
+
+        @NonNull
+        public String getKey() {
+            return key;
+        }
+
+        public long getBaselineTimeInMs() {
+            return baselineTimeInMs;
+        }
+
+        public long getCurrentTimeInMs() {
+            return currentTimeInMs;
+        }
+
+        public long getDeltaInMs() {
+            return currentTimeInMs - baselineTimeInMs;
+        }
+    }
+}
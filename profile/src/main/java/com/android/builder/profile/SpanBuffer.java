@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.base.Preconditions;
+import com.google.wireless.android.sdk.stats.GradleBuildProfile;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded buffer of {@link GradleBuildProfileSpan}s.
+ *
+ * <p>Spans are written into a preallocated chunk of fixed capacity. Writers claim a slot with a
+ * single atomic increment, so adding a span never takes a lock. The writer that completes a chunk
+ * replaces it and spills its content to disk as length delimited protos, so only a bounded number
+ * of spans are kept in memory however long the build runs.
+ *
+ * <p>Each drain starts a new generation of chunks. A chunk of a previous generation that completes
+ * after the drain is not spilled, so its spans never end up in the profile of the next build.
+ */
+final class SpanBuffer {
+
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+
+    @NonNull private final Path spillFile;
+
+    @NonNull private final AtomicReference<Chunk> current;
+
+    private final Object spillLock = new Object();
+
+    // guarded by spillLock.
+    @Nullable private OutputStream spillStream = null;
+
+    // written with spillLock held.
+    private volatile int generation = 0;
+
+    SpanBuffer(@NonNull Path spillFile, int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.spillFile = spillFile;
+        this.capacity = capacity;
+        this.current = new AtomicReference<>(new Chunk(capacity, generation));
+    }
+
+    /** Adds a span to the buffer. Thread safe. */
+    void add(@NonNull GradleBuildProfileSpan span) {
+        while (true) {
+            Chunk chunk = current.get();
+            int index = chunk.cursor.getAndIncrement();
+            if (index < capacity) {
+                chunk.spans.set(index, span);
+                if (chunk.committed.incrementAndGet() == capacity) {
+                    // every slot of this chunk is now written, nobody else will touch it.
+                    spill(chunk);
+                    // the spans are on disk now, so the chunk must not be drained again.
+                    current.compareAndSet(chunk, new Chunk(capacity, chunk.generation));
+                }
+                return;
+            }
+            // the chunk is full, install a new one unless another writer already did.
+            if (current.get() == chunk) {
+                current.compareAndSet(chunk, new Chunk(capacity, chunk.generation));
+            }
+        }
+    }
+
+    /**
+     * Adds all the buffered and spilled spans to the given profile and deletes the spill file.
+     *
+     * <p>Like the iterators of concurrent collections, this is weakly consistent with concurrent
+     * calls to {@link #add(GradleBuildProfileSpan)}: the spans being added while draining may be
+     * dropped, but are never added twice or kept for the next drain.
+     */
+    void drainTo(@NonNull GradleBuildProfile.Builder profile) {
+        synchronized (spillLock) {
+            generation++;
+            Chunk chunk = current.getAndSet(new Chunk(capacity, generation));
+            try {
+                if (spillStream != null) {
+                    spillStream.close();
+                    spillStream = null;
+                    try (InputStream inputStream =
+                            new BufferedInputStream(Files.newInputStream(spillFile))) {
+                        GradleBuildProfileSpan span;
+                        while ((span = GradleBuildProfileSpan.parseDelimitedFrom(inputStream))
+                                != null) {
+                            profile.addSpan(span);
+                        }
+                    }
+                    Files.delete(spillFile);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            // a full chunk that was spilled is in the spill file already.
+            if (!chunk.spilled) {
+                chunk.spilled = true;
+                int size = Math.min(chunk.cursor.get(), capacity);
+                for (int i = 0; i < size; i++) {
+                    GradleBuildProfileSpan span = chunk.spans.get(i);
+                    if (span != null) {
+                        profile.addSpan(span);
+                    }
+                }
+            }
+        }
+    }
+
+    private void spill(@NonNull Chunk chunk) {
+        synchronized (spillLock) {
+            if (chunk.spilled || chunk.generation != generation) {
+                // drained already, or completed after the drain of its generation.
+                return;
+            }
+            chunk.spilled = true;
+            try {
+                if (spillStream == null) {
+                    Files.createDirectories(spillFile.getParent());
+                    spillStream = new BufferedOutputStream(Files.newOutputStream(spillFile));
+                }
+                for (int i = 0; i < capacity; i++) {
+                    chunk.spans.get(i).writeDelimitedTo(spillStream);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static final class Chunk {
+        @NonNull final AtomicReferenceArray<GradleBuildProfileSpan> spans;
+        // next slot to claim, can grow past the capacity when the chunk is full.
+        @NonNull final AtomicInteger cursor = new AtomicInteger();
+        // number of slots written.
+        @NonNull final AtomicInteger committed = new AtomicInteger();
+        // the generation of the buffer this chunk was created in.
+        final int generation;
+        // whether the spans were spilled or drained, guarded by spillLock.
+        boolean spilled = false;
+
+        Chunk(int capacity, int generation) {
+            spans = new AtomicReferenceArray<>(capacity);
+            this.generation = generation;
+        }
+    }
+}
@@ -23,7 +23,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A work queue that accepts jobs and treat them in order.
@@ -47,6 +49,9 @@ public class WorkQueue<T> implements Runnable {
     // List of working threads pumping from this queue.
     private final List<Thread> mWorkThreads = new ArrayList<>();
 
+    // List of working threads that retired while idle, still to be joined on shutdown.
+    private final List<Thread> mRetiredThreads = new ArrayList<>();
+
     private final float mGrowthTriggerRatio;
     private final int mMWorkforceIncrement;
     private final AtomicInteger mThreadId = new AtomicInteger(0);
@@ -55,6 +60,23 @@ public class WorkQueue<T> implements Runnable {
     // we could base this on the number of processors this machine has, etc...
     private static final int MAX_WORKFORCE_SIZE = 20;
 
+    // weight of the previous average in the moving averages of the adaptive queues, out of 4.
+    private static final int AVERAGE_HISTORY_WEIGHT = 3;
+
+    // whether the workforce follows the queue depth and the job latency, see adaptive().
+    private final boolean mAdaptive;
+    private final int mMinWorkforce;
+    private final int mMaxWorkforce;
+    private final long mKeepAliveMillis;
+
+    // number of jobs pushed and not yet taken by a working thread.
+    private final AtomicInteger mPendingJobCount = new AtomicInteger(0);
+    // moving averages of the time to run a job and to create a working thread, 0 if unknown.
+    private final AtomicLong mAverageJobNanos = new AtomicLong(0);
+    private final AtomicLong mAverageCreationNanos = new AtomicLong(0);
+
+    private boolean mShuttingDown = false;
+
 
     /**
      * Private queue structure to store queue items.
@@ -110,9 +132,66 @@ public class WorkQueue<T> implements Runnable {
         this.mGrowthTriggerRatio = growthTriggerRatio;
         this.mMWorkforceIncrement = workforce;
         this.mQueueThreadContext = queueThreadContext;
+        this.mAdaptive = false;
+        this.mMinWorkforce = 0;
+        this.mMaxWorkforce = MAX_WORKFORCE_SIZE;
+        this.mKeepAliveMillis = 0;
+    }
+
+    private WorkQueue(
+            @NonNull ILogger logger,
+            @NonNull QueueThreadContext<T> queueThreadContext,
+            @NonNull String queueName,
+            int minWorkforce,
+            int maxWorkforce,
+            long keepAliveMillis) {
+        if (minWorkforce < 1 || maxWorkforce < minWorkforce) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Invalid workforce range [%1$d, %2$d]", minWorkforce, maxWorkforce));
+        }
+        if (keepAliveMillis <= 0) {
+            throw new IllegalArgumentException("Invalid keep alive time " + keepAliveMillis);
+        }
+        this.mLogger = logger;
+        this.mName = queueName;
+        this.mGrowthTriggerRatio = 0;
+        this.mMWorkforceIncrement = 1;
+        this.mQueueThreadContext = queueThreadContext;
+        this.mAdaptive = true;
+        this.mMinWorkforce = minWorkforce;
+        this.mMaxWorkforce = maxWorkforce;
+        this.mKeepAliveMillis = keepAliveMillis;
+    }
+
+    /**
+     * Creates a queue whose number of dedicated threads follows the load.
+     *
+     * <p>A thread is added when the pending jobs would take the current threads longer to process,
+     * based on the observed job latency, than it takes to create a new thread, and a thread
+     * retires after being idle for the keep alive time.
+     *
+     * @param logger to log messages
+     * @param queueName a meaningful descriptive name.
+     * @param minWorkforce the number of threads kept when the queue is idle, at least 1.
+     * @param maxWorkforce the maximum number of threads.
+     * @param keepAliveMillis the time a thread above the minimum workforce stays idle before
+     *                        retiring.
+     */
+    @NonNull
+    public static <T> WorkQueue<T> adaptive(
+            @NonNull ILogger logger,
+            @NonNull QueueThreadContext<T> queueThreadContext,
+            @NonNull String queueName,
+            int minWorkforce,
+            int maxWorkforce,
+            long keepAliveMillis) {
+        return new WorkQueue<>(
+                logger, queueThreadContext, queueName, minWorkforce, maxWorkforce, keepAliveMillis);
     }
 
     public void push(Job<T> job) throws InterruptedException {
+        mPendingJobCount.incrementAndGet();
         _push(new QueueTask<>(QueueTask.ActionType.Normal, job));
         checkWorkforce();
     }
@@ -125,6 +204,10 @@ public class WorkQueue<T> implements Runnable {
     }
 
     private synchronized void checkWorkforce() {
+        if (mAdaptive) {
+            adaptWorkforce();
+            return;
+        }
         if (mWorkThreads.isEmpty()
                 || ((mPendingJobs.size() / mWorkThreads.size() > mGrowthTriggerRatio)
                         && mGrowthTriggerRatio > 0)) {
@@ -134,15 +217,86 @@ public class WorkQueue<T> implements Runnable {
                 return;
             }
             for (int i = 0; i < mMWorkforceIncrement; i++) {
-                Thread t = new Thread(this, mName + "_" + mThreadId.incrementAndGet());
-                t.setDaemon(true);
-                mWorkThreads.add(t);
-                t.start();
+                addWorkThread();
             }
             verbose("thread-pool size=%1$d", mWorkThreads.size());
         }
     }
 
+    private void addWorkThread() {
+        Thread t = new Thread(this, mName + "_" + mThreadId.incrementAndGet());
+        t.setDaemon(true);
+        mWorkThreads.add(t);
+        t.start();
+    }
+
+    /**
+     * Adds a thread to an adaptive queue if the pending jobs justify it. Must be called with the
+     * queue lock held.
+     */
+    private void adaptWorkforce() {
+        int workforce = mWorkThreads.size();
+        if (mShuttingDown || workforce >= mMaxWorkforce) {
+            return;
+        }
+        int pendingJobs = mPendingJobCount.get();
+        boolean grow;
+        if (workforce < mMinWorkforce) {
+            grow = true;
+        } else if (mAverageJobNanos.get() == 0) {
+            // no job finished yet, so only grow if some jobs cannot be taken by a thread.
+            grow = pendingJobs > workforce;
+        } else {
+            // grow if the current threads would take longer to process the pending jobs than a
+            // new thread takes to be created.
+            grow = pendingJobs * mAverageJobNanos.get() / workforce
+                    > mAverageCreationNanos.get();
+        }
+        if (grow) {
+            addWorkThread();
+            verbose("thread-pool size=%1$d, pending jobs=%2$d", mWorkThreads.size(), pendingJobs);
+        }
+    }
+
+    /**
+     * Removes a thread that stopped on an error from the workforce of an adaptive queue, and
+     * replaces it if the pending jobs need it, as they would otherwise wait for a dead thread.
+     */
+    private synchronized void removeWorkThread(@NonNull Thread thread) {
+        if (mWorkThreads.remove(thread)) {
+            verbose("Thread(%1$s): removed, thread-pool size=%2$d",
+                    thread.getName(), mWorkThreads.size());
+            adaptWorkforce();
+        }
+    }
+
+    /**
+     * Removes an idle thread from the workforce of an adaptive queue, unless the queue is at its
+     * minimum workforce or has pending jobs.
+     *
+     * @return true if the thread should stop
+     */
+    private synchronized boolean retire(@NonNull Thread thread) {
+        if (mWorkThreads.size() <= mMinWorkforce || !mPendingJobs.isEmpty()) {
+            return false;
+        }
+        mWorkThreads.remove(thread);
+        mRetiredThreads.add(thread);
+        verbose("Thread(%1$s): retired, thread-pool size=%2$d",
+                thread.getName(), mWorkThreads.size());
+        return true;
+    }
+
+    private static void updateAverage(@NonNull AtomicLong average, long sampleNanos) {
+        // never store 0 as it means that there is no sample yet.
+        long sample = Math.max(1, sampleNanos);
+        average.updateAndGet(
+                previous -> previous == 0
+                        ? sample
+                        : (previous * AVERAGE_HISTORY_WEIGHT + sample)
+                                / (AVERAGE_HISTORY_WEIGHT + 1));
+    }
+
     private synchronized void reduceWorkforce() throws InterruptedException {
         verbose("Decrementing workforce from " + mWorkThreads.size());
         // push a the right number of kiss of death tasks to shutdown threads.
@@ -157,18 +311,55 @@ public class WorkQueue<T> implements Runnable {
      * to the queue once the shutdown process has started....
      * @throws InterruptedException if the shutdown sequence is interrupted
      */
-    public synchronized void shutdown() throws InterruptedException {
+    public void shutdown() throws InterruptedException {
+        if (mAdaptive) {
+            shutdownAdaptive();
+            return;
+        }
+        synchronized (this) {
+            // push as many death pills as necessary
+            for (Thread t : mWorkThreads) {
+                _push(new QueueTask<>(QueueTask.ActionType.Death, null));
+            }
+            // we could use a latch.
+            for (Thread t : mWorkThreads) {
+                t.join();
+            }
+            mWorkThreads.clear();
+            mQueueThreadContext.shutdown();
+        }
+    }
 
-        // push as many death pills as necessary
-        for (Thread t : mWorkThreads) {
-            _push(new QueueTask<>(QueueTask.ActionType.Death, null));
+    /**
+     * Shutdowns an adaptive queue, whose working threads need the queue lock, so they are joined
+     * without it. Jobs pushed in the meantime get a thread once the shutdown is done.
+     */
+    private void shutdownAdaptive() throws InterruptedException {
+        List<Thread> threads;
+        synchronized (this) {
+            mShuttingDown = true;
+            // push as many death pills as necessary
+            for (Thread t : mWorkThreads) {
+                _push(new QueueTask<>(QueueTask.ActionType.Death, null));
+            }
+            threads = new ArrayList<>(mWorkThreads);
+            threads.addAll(mRetiredThreads);
         }
-        // we could use a latch.
-        for (Thread t : mWorkThreads) {
-            t.join();
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+            mQueueThreadContext.shutdown();
+        } finally {
+            synchronized (this) {
+                mWorkThreads.removeAll(threads);
+                mRetiredThreads.removeAll(threads);
+                mShuttingDown = false;
+                if (mPendingJobCount.get() > 0) {
+                    adaptWorkforce();
+                }
+            }
         }
-        mWorkThreads.clear();
-        mQueueThreadContext.shutdown();
     }
 
     /**
@@ -200,19 +391,33 @@ public class WorkQueue<T> implements Runnable {
         final String threadName = Thread.currentThread().getName();
         // this
         try {
+            long creationStart = System.nanoTime();
             try {
                 verbose("Creating a new working thread %1$s", threadName);
                 mQueueThreadContext.creation(Thread.currentThread());
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            updateAverage(mAverageCreationNanos, System.nanoTime() - creationStart);
             while(true) {
-                final QueueTask<T> queueTask = mPendingJobs.take();
+                final QueueTask<T> queueTask;
+                if (mAdaptive) {
+                    queueTask = mPendingJobs.poll(mKeepAliveMillis, TimeUnit.MILLISECONDS);
+                    if (queueTask == null) {
+                        if (retire(Thread.currentThread())) {
+                            return;
+                        }
+                        continue;
+                    }
+                } else {
+                    queueTask = mPendingJobs.take();
+                }
                 if (queueTask.actionType== QueueTask.ActionType.Death) {
                     verbose("Thread(%1$s): Death requested", threadName);
                     // we are done.
                     return;
                 }
+                mPendingJobCount.decrementAndGet();
                 final Job<T> job = queueTask.job;
                 if (job == null) {
                     // this clearly should not happen.
@@ -221,6 +426,7 @@ public class WorkQueue<T> implements Runnable {
                 }
                 verbose("Thread(%1$s): scheduling %2$s", threadName, job.getJobTitle());
 
+                long jobStart = System.nanoTime();
                 try {
                     mQueueThreadContext.runTask(job);
                 } catch (Exception e) {
@@ -233,10 +439,12 @@ public class WorkQueue<T> implements Runnable {
                 verbose("Thread(%1$s): job %2$s finished, result=%3$b",
                         threadName, job.getJobTitle(), result);
 
-                // we could potentially reduce the workforce at this point if we have little
-                // queuing comparatively to the number of worker threads but at this point, the
-                // overall process (gradle activity) is fairly short lived so skipping at this
-                // point.
+                // adaptive queues grow here too, as the job latency is only known now, and
+                // shrink when their threads stay idle.
+                if (mAdaptive) {
+                    updateAverage(mAverageJobNanos, System.nanoTime() - jobStart);
+                    checkWorkforce();
+                }
                 verbose("Thread(%1$s): queue size %2$d", threadName, mPendingJobs.size());
             }
         } catch (InterruptedException e) {
@@ -248,6 +456,9 @@ public class WorkQueue<T> implements Runnable {
             } catch (IOException | InterruptedException e) {
                 mLogger.error(e, "Thread(%1$s): %2$s", threadName, e.getMessage());
             }
+            if (mAdaptive) {
+                removeWorkThread(Thread.currentThread());
+            }
         }
     }
 
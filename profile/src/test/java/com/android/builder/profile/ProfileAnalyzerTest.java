@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
+import com.google.wireless.android.sdk.stats.GradleTaskExecution;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+/** Tests for the {@link ProfileAnalyzer} class */
+public class ProfileAnalyzerTest {
+
+    @Test
+    public void testCriticalPath() {
+        // thread 1: 1 [0, 100) then 3 [100, 250)
+        // thread 2: 2 [0, 120) then 4 [130, 200)
+        ProfileAnalyzer analyzer =
+                new ProfileAnalyzer(
+                        ImmutableList.of(
+                                task(1, 1, 0, 100, GradleTaskExecution.Type.JAVA_COMPILE),
+                                task(2, 2, 0, 120, GradleTaskExecution.Type.MERGE_RESOURCES),
+                                task(3, 1, 100, 150, GradleTaskExecution.Type.LINT),
+                                task(4, 2, 130, 70, GradleTaskExecution.Type.LINT)));
+
+        assertThat(getIds(analyzer.getCriticalPath())).containsExactly(1L, 3L).inOrder();
+        assertThat(analyzer.getWallClockTimeInMs()).isEqualTo(250);
+    }
+
+    @Test
+    public void testCriticalPathIgnoresChildren() {
+        ProfileAnalyzer analyzer =
+                new ProfileAnalyzer(
+                        ImmutableList.of(
+                                task(1, 1, 0, 100, GradleTaskExecution.Type.JAVA_COMPILE),
+                                child(2, 1, 1, 10, 200),
+                                task(3, 1, 100, 20, GradleTaskExecution.Type.LINT)));
+
+        assertThat(getIds(analyzer.getRootSpans())).containsExactly(1L, 3L);
+        assertThat(getIds(analyzer.getCriticalPath())).containsExactly(1L, 3L).inOrder();
+    }
+
+    @Test
+    public void testSelfTime() {
+        GradleBuildProfileSpan parent = task(1, 1, 0, 100, GradleTaskExecution.Type.JAVA_COMPILE);
+        GradleBuildProfileSpan firstChild = child(2, 1, 1, 10, 30);
+        GradleBuildProfileSpan secondChild = child(3, 1, 1, 50, 40);
+        GradleBuildProfileSpan other = task(4, 2, 0, 50, GradleTaskExecution.Type.LINT);
+        ProfileAnalyzer analyzer =
+                new ProfileAnalyzer(ImmutableList.of(parent, firstChild, secondChild, other));
+
+        assertThat(analyzer.getSelfTimeInMs(parent)).isEqualTo(30);
+        assertThat(analyzer.getSelfTimeInMs(firstChild)).isEqualTo(30);
+        assertThat(getIds(analyzer.getTopSelfTimeSpans(2))).containsExactly(4L, 3L).inOrder();
+    }
+
+    @Test
+    public void testThreadUtilization() {
+        ProfileAnalyzer analyzer =
+                new ProfileAnalyzer(
+                        ImmutableList.of(
+                                task(1, 1, 0, 100, GradleTaskExecution.Type.JAVA_COMPILE),
+                                child(2, 1, 1, 10, 30),
+                                task(3, 1, 150, 50, GradleTaskExecution.Type.LINT),
+                                task(4, 2, 0, 50, GradleTaskExecution.Type.LINT)));
+
+        Map<Long, ProfileAnalyzer.ThreadUtilization> utilization =
+                analyzer.getThreadUtilization();
+        assertThat(utilization.keySet()).containsExactly(1L, 2L).inOrder();
+        assertThat(utilization.get(1L).getBusyTimeInMs()).isEqualTo(150);
+        assertThat(utilization.get(1L).getSpanCount()).isEqualTo(3);
+        assertThat(utilization.get(1L).getUtilization()).isWithin(0.001).of(0.75);
+        assertThat(utilization.get(2L).getBusyTimeInMs()).isEqualTo(50);
+    }
+
+    @Test
+    public void testRegressions() {
+        ProfileAnalyzer baseline =
+                new ProfileAnalyzer(
+                        ImmutableList.of(
+                                task(1, 1, 0, 100, GradleTaskExecution.Type.JAVA_COMPILE),
+                                task(2, 1, 100, 50, GradleTaskExecution.Type.LINT)));
+        ProfileAnalyzer current =
+                new ProfileAnalyzer(
+                        ImmutableList.of(
+                                task(1, 1, 0, 105, GradleTaskExecution.Type.JAVA_COMPILE),
+                                task(2, 1, 105, 150, GradleTaskExecution.Type.LINT),
+                                task(3, 1, 255, 20, GradleTaskExecution.Type.MERGE_RESOURCES)));
+
+        List<ProfileAnalyzer.Regression> regressions =
+                ProfileAnalyzer.findRegressions(baseline, current, 10);
+        assertThat(regressions).hasSize(2);
+        assertThat(regressions.get(0).getKey()).contains("LINT");
+        assertThat(regressions.get(0).getDeltaInMs()).isEqualTo(100);
+        assertThat(regressions.get(1).getKey()).contains("MERGE_RESOURCES");
+        assertThat(regressions.get(1).getBaselineTimeInMs()).isEqualTo(0);
+    }
+
+    private static GradleBuildProfileSpan task(
+            long id,
+            long threadId,
+            long startTime,
+            long duration,
+            GradleTaskExecution.Type type) {
+        return GradleBuildProfileSpan.newBuilder()
+                .setId(id)
+                .setThreadId(threadId)
+                .setStartTimeInMs(startTime)
+                .setDurationInMs(duration)
+                .setType(ExecutionType.TASK_EXECUTION)
+                .setTask(GradleTaskExecution.newBuilder().setType(type))
+                .build();
+    }
+
+    private static GradleBuildProfileSpan child(
+            long id, long threadId, long parentId, long startTime, long duration) {
+        return GradleBuildProfileSpan.newBuilder()
+                .setId(id)
+                .setParentId(parentId)
+                .setThreadId(threadId)
+                .setStartTimeInMs(startTime)
+                .setDurationInMs(duration)
+                .setType(ExecutionType.SOME_RANDOM_PROCESSING)
+                .build();
+    }
+
+    private static List<Long> getIds(List<GradleBuildProfileSpan> spans) {
+        return spans.stream().map(GradleBuildProfileSpan::getId).collect(Collectors.toList());
+    }
+}
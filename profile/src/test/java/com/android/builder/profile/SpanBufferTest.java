@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.jimfs.Jimfs;
+import com.google.wireless.android.sdk.stats.GradleBuildProfile;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the {@link SpanBuffer} class */
+public class SpanBufferTest {
+
+    private Path spillFile;
+
+    @Before
+    public void setUp() {
+        spillFile = Jimfs.newFileSystem().getPath("/tmp/profile.spans");
+    }
+
+    @Test
+    public void testWithoutSpill() {
+        SpanBuffer buffer = new SpanBuffer(spillFile, 10);
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(span(i));
+        }
+        GradleBuildProfile.Builder profile = GradleBuildProfile.newBuilder();
+        buffer.drainTo(profile);
+
+        assertThat(getIds(profile)).containsExactly(1L, 2L, 3L, 4L, 5L).inOrder();
+        assertThat(Files.exists(spillFile)).isFalse();
+    }
+
+    @Test
+    public void testSpill() {
+        SpanBuffer buffer = new SpanBuffer(spillFile, 4);
+        for (int i = 1; i <= 10; i++) {
+            buffer.add(span(i));
+        }
+        assertThat(Files.exists(spillFile)).isTrue();
+
+        GradleBuildProfile.Builder profile = GradleBuildProfile.newBuilder();
+        buffer.drainTo(profile);
+
+        assertThat(getIds(profile))
+                .containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L)
+                .inOrder();
+        assertThat(Files.exists(spillFile)).isFalse();
+    }
+
+    @Test
+    public void testSpillExactMultipleOfCapacity() {
+        SpanBuffer buffer = new SpanBuffer(spillFile, 4);
+        for (int i = 1; i <= 8; i++) {
+            buffer.add(span(i));
+        }
+
+        GradleBuildProfile.Builder profile = GradleBuildProfile.newBuilder();
+        buffer.drainTo(profile);
+
+        assertThat(getIds(profile)).containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L).inOrder();
+        assertThat(Files.exists(spillFile)).isFalse();
+    }
+
+    @Test
+    public void testDrainTwice() {
+        SpanBuffer buffer = new SpanBuffer(spillFile, 4);
+        for (int i = 1; i <= 6; i++) {
+            buffer.add(span(i));
+        }
+        buffer.drainTo(GradleBuildProfile.newBuilder());
+
+        for (int i = 7; i <= 10; i++) {
+            buffer.add(span(i));
+        }
+        GradleBuildProfile.Builder profile = GradleBuildProfile.newBuilder();
+        buffer.drainTo(profile);
+
+        assertThat(getIds(profile)).containsExactly(7L, 8L, 9L, 10L).inOrder();
+        assertThat(Files.exists(spillFile)).isFalse();
+    }
+
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        SpanBuffer buffer = new SpanBuffer(spillFile, 16);
+        AtomicLong ids = new AtomicLong();
+        Runnable addRunnable =
+                () -> {
+                    for (int i = 0; i < 100; i++) {
+                        buffer.add(span(ids.incrementAndGet()));
+                    }
+                };
+
+        List<Thread> threads =
+                Stream.generate(() -> new Thread(addRunnable))
+                        .limit(20)
+                        .collect(Collectors.toList());
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        GradleBuildProfile.Builder profile = GradleBuildProfile.newBuilder();
+        buffer.drainTo(profile);
+
+        List<Long> recordedIds = getIds(profile);
+        assertThat(recordedIds).hasSize(2000);
+        assertThat(recordedIds).containsNoDuplicates();
+    }
+
+    private static GradleBuildProfileSpan span(long id) {
+        return GradleBuildProfileSpan.newBuilder()
+                .setId(id)
+                .setType(ExecutionType.SOME_RANDOM_PROCESSING)
+                .setStartTimeInMs(id)
+                .build();
+    }
+
+    private static List<Long> getIds(GradleBuildProfile.Builder profile) {
+        return profile.getSpanList()
+                .stream()
+                .map(GradleBuildProfileSpan::getId)
+                .collect(Collectors.toList());
+    }
+}
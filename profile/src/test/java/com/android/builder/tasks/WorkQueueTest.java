@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.tasks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.android.annotations.NonNull;
+import com.android.utils.ILogger;
+import com.android.utils.StdLogger;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Test;
+
+/** Tests for the adaptive mode of {@link WorkQueue}. */
+public class WorkQueueTest {
+
+    private static final int MIN_WORKFORCE = 1;
+    private static final int MAX_WORKFORCE = 4;
+    private static final long KEEP_ALIVE_MILLIS = 100;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private final ILogger logger = new StdLogger(StdLogger.Level.ERROR);
+    private final FakeContext context = new FakeContext();
+    private final List<WorkQueue<Void>> queues = new ArrayList<>();
+
+    @After
+    public void tearDown() throws InterruptedException {
+        for (WorkQueue<Void> queue : queues) {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void workforceGrowsWithTheQueue() throws Exception {
+        WorkQueue<Void> queue = createQueue(MIN_WORKFORCE, MAX_WORKFORCE);
+
+        awaitAll(pushJobs(queue, 10 * MAX_WORKFORCE, 50));
+
+        assertThat(context.createdThreads).hasSize(MAX_WORKFORCE);
+        assertThat(context.maxRunningJobs.get()).isEqualTo(MAX_WORKFORCE);
+    }
+
+    @Test
+    public void workforceRetiresToTheMinimumWhenIdle() throws Exception {
+        WorkQueue<Void> queue = createQueue(MIN_WORKFORCE, MAX_WORKFORCE);
+
+        awaitAll(pushJobs(queue, 10 * MAX_WORKFORCE, 50));
+        waitFor(() -> context.destroyedThreads.size() == MAX_WORKFORCE - MIN_WORKFORCE);
+
+        // the minimum workforce stays.
+        Thread.sleep(3 * KEEP_ALIVE_MILLIS);
+        assertThat(context.createdThreads).hasSize(MAX_WORKFORCE);
+        assertThat(context.destroyedThreads).hasSize(MAX_WORKFORCE - MIN_WORKFORCE);
+    }
+
+    @Test
+    public void shutdownJoinsRetiredThreads() throws Exception {
+        WorkQueue<Void> queue = createQueue(MIN_WORKFORCE, MAX_WORKFORCE);
+        context.destructionMillis = 200;
+
+        awaitAll(pushJobs(queue, 10 * MAX_WORKFORCE, 50));
+        // the retired threads are still being destroyed.
+        waitFor(() -> context.destroyingThreads.size() == MAX_WORKFORCE - MIN_WORKFORCE);
+        queue.shutdown();
+
+        assertThat(context.destroyedThreads).containsExactlyElementsIn(context.createdThreads);
+        for (Thread thread : context.createdThreads) {
+            assertThat(thread.isAlive()).isFalse();
+        }
+    }
+
+    @Test
+    public void failedThreadIsReplaced() throws Exception {
+        WorkQueue<Void> queue = createQueue(1, 1);
+        context.failures.set(1);
+
+        List<SettableFuture<Void>> results = pushJobs(queue, 3, 0);
+
+        try {
+            results.get(0).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).hasMessage("Failed job0");
+        }
+        // the jobs after the failure are run by a new thread.
+        awaitAll(results.subList(1, 3));
+        assertThat(context.createdThreads).hasSize(2);
+    }
+
+    @NonNull
+    private WorkQueue<Void> createQueue(int minWorkforce, int maxWorkforce) {
+        WorkQueue<Void> queue =
+                WorkQueue.adaptive(
+                        logger, context, "test", minWorkforce, maxWorkforce, KEEP_ALIVE_MILLIS);
+        queues.add(queue);
+        return queue;
+    }
+
+    /** Pushes jobs that each take the given time, and returns their results. */
+    @NonNull
+    private static List<SettableFuture<Void>> pushJobs(
+            @NonNull WorkQueue<Void> queue, int count, long jobMillis)
+            throws InterruptedException {
+        List<SettableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SettableFuture<Void> result = SettableFuture.create();
+            results.add(result);
+            queue.push(new Job<>("job" + i, new SleepTask(jobMillis, result), result));
+        }
+        return results;
+    }
+
+    private static void awaitAll(@NonNull List<SettableFuture<Void>> results)
+            throws Exception {
+        for (SettableFuture<Void> result : results) {
+            result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void waitFor(@NonNull BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /** A task that sleeps, then completes its job. */
+    private static class SleepTask implements Task<Void> {
+
+        private final long millis;
+        @NonNull private final SettableFuture<Void> result;
+
+        SleepTask(long millis, @NonNull SettableFuture<Void> result) {
+            this.millis = millis;
+            this.result = result;
+        }
+
+        @Override
+        public void run(@NonNull Job<Void> job, @NonNull JobContext<Void> context)
+                throws IOException {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            job.finished();
+        }
+
+        @Override
+        public void finished() {
+            result.set(null);
+        }
+
+        @Override
+        public void error(Exception e) {
+            result.setException(e);
+        }
+    }
+
+    /** Records the working threads, and fails the first jobs if asked to. */
+    private static class FakeContext implements QueueThreadContext<Void> {
+
+        final Set<Thread> createdThreads = ConcurrentHashMap.newKeySet();
+        final Set<Thread> destroyingThreads = ConcurrentHashMap.newKeySet();
+        final Set<Thread> destroyedThreads = ConcurrentHashMap.newKeySet();
+        final AtomicInteger runningJobs = new AtomicInteger();
+        final AtomicInteger maxRunningJobs = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        volatile long destructionMillis;
+
+        @Override
+        public void creation(@NonNull Thread t) {
+            createdThreads.add(t);
+        }
+
+        @Override
+        public void runTask(@NonNull Job<Void> job) throws Exception {
+            if (failures.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                throw new IOException("Failed " + job.getJobTitle());
+            }
+            maxRunningJobs.accumulateAndGet(runningJobs.incrementAndGet(), Math::max);
+            try {
+                job.runTask(new JobContext<>(null));
+            } finally {
+                runningJobs.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void destruction(@NonNull Thread t) throws InterruptedException {
+            destroyingThreads.add(t);
+            Thread.sleep(destructionMillis);
+            destroyedThreads.add(t);
+        }
+
+        @Override
+        public void shutdown() {}
+    }
+}